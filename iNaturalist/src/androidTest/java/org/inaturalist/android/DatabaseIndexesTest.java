@@ -0,0 +1,147 @@
+package org.inaturalist.android;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+// Makes sure the hot queries (sync + displaying observations) use an index, and don't go back to scanning whole tables
+@RunWith(AndroidJUnit4.class)
+public class DatabaseIndexesTest {
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void createDatabase() {
+        mDb = SQLiteDatabase.create(null);
+        ObservationProvider.DatabaseHelper.createTables(mDb);
+    }
+
+    @After
+    public void closeDatabase() {
+        mDb.close();
+    }
+
+    @Test
+    public void hotQueriesUseIndexes() {
+        // Sync
+        assertUsesIndex(Observation.TABLE_NAME, "id IN (1, 2, 3)");
+        assertUsesIndex(Observation.TABLE_NAME, "uuid = 'abc'");
+        assertUsesIndex(Observation.TABLE_NAME, DatabaseIndexes.NEEDS_SYNC_SELECTION);
+        assertUsesIndex(Observation.TABLE_NAME, DatabaseIndexes.NEEDS_SYNC_SELECTION + " AND _synced_at IS NOT NULL AND user_login = 'user'");
+        assertUsesIndex(Observation.TABLE_NAME, DatabaseIndexes.NEEDS_SYNC_SELECTION + " AND (_updated_at > _created_at)");
+        assertUsesIndex(Observation.TABLE_NAME, DatabaseIndexes.NEEDS_SYNC_SELECTION + " OR (is_deleted = 1)");
+        assertUsesIndex(ObservationPhoto.TABLE_NAME, DatabaseIndexes.NEEDS_SYNC_SELECTION + " AND _synced_at IS NULL");
+        assertUsesIndex(ObservationPhoto.TABLE_NAME, "((photo_url IS NULL) AND (_updated_at IS NOT NULL) AND " + DatabaseIndexes.NEEDS_SYNC_SELECTION + ") OR (is_deleted = 1)");
+        assertUsesIndex(ObservationPhoto.TABLE_NAME, "observation_id = 5 AND id IS NOT NULL");
+        assertUsesIndex(ProjectFieldValue.TABLE_NAME, DatabaseIndexes.NEEDS_SYNC_SELECTION + " AND _synced_at IS NOT NULL");
+        assertUsesIndex(ProjectFieldValue.TABLE_NAME, "observation_id = 5");
+
+        // Observation list (photo info)
+        assertUsesIndex(ObservationPhoto.TABLE_NAME, "(_observation_id IN (1, 2) OR observation_id IN (3, 4))");
+        assertUsesIndex(ObservationPhoto.TABLE_NAME, "_observation_id = 1 AND photo_url IS NULL AND _synced_at IS NULL");
+    }
+
+    @Test
+    public void needsSyncIsMaintained() {
+        long now = System.currentTimeMillis();
+
+        // New local observation
+        ContentValues cv = new ContentValues();
+        cv.put(Observation._CREATED_AT, now);
+        cv.put(Observation._UPDATED_AT, now);
+        long id = mDb.insert(Observation.TABLE_NAME, null, cv);
+        assertEquals(1, getNeedsSync(id));
+
+        // Synced
+        cv = new ContentValues();
+        cv.put(Observation._SYNCED_AT, now + 1);
+        mDb.update(Observation.TABLE_NAME, cv, "_id = " + id, null);
+        assertEquals(0, getNeedsSync(id));
+
+        // Modified locally
+        cv = new ContentValues();
+        cv.put(Observation._UPDATED_AT, now + 2);
+        mDb.update(Observation.TABLE_NAME, cv, "_id = " + id, null);
+        assertEquals(1, getNeedsSync(id));
+
+        // Downloaded from the server (synced as of now)
+        cv = new ContentValues();
+        cv.put(Observation._SYNCED_AT, now);
+        cv.put(Observation._UPDATED_AT, now);
+        id = mDb.insert(Observation.TABLE_NAME, null, cv);
+        assertEquals(0, getNeedsSync(id));
+    }
+
+    @Test
+    public void syncCountersAreMaintained() {
+        long now = System.currentTimeMillis();
+        assertEquals(0, getCounter(SyncCounter.NEW_OBSERVATIONS));
+
+        // New local observation
+        ContentValues cv = new ContentValues();
+        cv.put(Observation._CREATED_AT, now);
+        cv.put(Observation._UPDATED_AT, now);
+        long id = mDb.insert(Observation.TABLE_NAME, null, cv);
+        assertEquals(1, getCounter(SyncCounter.NEW_OBSERVATIONS));
+        assertEquals(1, getCounter(SyncCounter.OBSERVATIONS_TO_SYNC));
+        assertEquals(0, getCounter(SyncCounter.OBSERVATIONS_TO_UPLOAD));
+
+        // Edited
+        cv = new ContentValues();
+        cv.put(Observation._UPDATED_AT, now + 1);
+        mDb.update(Observation.TABLE_NAME, cv, "_id = " + id, null);
+        assertEquals(1, getCounter(SyncCounter.OBSERVATIONS_TO_UPLOAD));
+
+        // Uploaded
+        cv = new ContentValues();
+        cv.put(Observation.ID, 1234);
+        cv.put(Observation._SYNCED_AT, now + 2);
+        mDb.update(Observation.TABLE_NAME, cv, "_id = " + id, null);
+        assertEquals(0, getCounter(SyncCounter.NEW_OBSERVATIONS));
+        assertEquals(0, getCounter(SyncCounter.OBSERVATIONS_TO_SYNC));
+        assertEquals(0, getCounter(SyncCounter.OBSERVATIONS_TO_UPLOAD));
+
+        // Another new observation, and then all are deleted (e.g. on sign out)
+        cv = new ContentValues();
+        cv.put(Observation._CREATED_AT, now);
+        cv.put(Observation._UPDATED_AT, now);
+        mDb.insert(Observation.TABLE_NAME, null, cv);
+        assertEquals(1, getCounter(SyncCounter.NEW_OBSERVATIONS));
+        mDb.delete(Observation.TABLE_NAME, null, null);
+        assertEquals(0, getCounter(SyncCounter.NEW_OBSERVATIONS));
+        assertEquals(0, getCounter(SyncCounter.OBSERVATIONS_TO_SYNC));
+    }
+
+    private long getCounter(String entity) {
+        return DatabaseUtils.longForQuery(mDb, "SELECT count FROM " + SyncCounter.TABLE_NAME + " WHERE entity = ?", new String[] { entity });
+    }
+
+    private long getNeedsSync(long id) {
+        return DatabaseUtils.longForQuery(mDb, "SELECT needs_sync FROM " + Observation.TABLE_NAME + " WHERE _id = " + id, null);
+    }
+
+    private void assertUsesIndex(String table, String selection) {
+        Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN SELECT * FROM " + table + " WHERE " + selection, null);
+        try {
+            int detailIndex = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext()) {
+                String detail = c.getString(detailIndex);
+                // e.g. "SCAN TABLE observations" (as opposed to "SEARCH TABLE observations USING INDEX ...")
+                if (detail.startsWith("SCAN") && !detail.contains("USING")) {
+                    fail(String.format("Query on %s scans the whole table (%s): %s", table, detail, selection));
+                }
+            }
+        } finally {
+            c.close();
+        }
+    }
+}
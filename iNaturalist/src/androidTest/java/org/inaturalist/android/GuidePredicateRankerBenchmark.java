@@ -0,0 +1,210 @@
+package org.inaturalist.android;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// Compares ranking the guide predicates incrementally (GuidePredicateRanker) against recounting all tags of
+// the current results on every filter change (the way GuideXML.getRecommendedPredicate used to do it),
+// on a synthetic 5,000 taxa guide
+@RunWith(AndroidJUnit4.class)
+public class GuidePredicateRankerBenchmark {
+    private static final String TAG = "GuidePredicateRankerBenchmark";
+    private static final int TAXA = 5000;
+    private static final int PREDICATES = 20;
+    private static final int MAX_VALUES = 12;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 10;
+
+    private String[][] mTaxonTags;
+    // Filter changes to replay: the selected tags and the resulting taxa after each change
+    private List<List<String>> mSelectedTags;
+    private List<BitSet> mResults;
+
+    @Test
+    public void rankPredicates() {
+        createGuide();
+
+        GuidePredicateRanker ranker = new GuidePredicateRanker(mTaxonTags);
+
+        // Both ways should rank the predicates the same
+        for (int i = 0; i < mResults.size(); i++) {
+            ranker.setResults(mResults.get(i));
+            assertRankingsEqual(rankByRecounting(mSelectedTags.get(i), mResults.get(i)),
+                    ranker.getRankedPredicates(mSelectedTags.get(i)));
+        }
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runRecounting();
+            runIncremental(ranker);
+        }
+
+        long recountTime = Long.MAX_VALUE, incrementalTime = Long.MAX_VALUE;
+        long recountTotal = 0, incrementalTotal = 0;
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            long startTime = System.nanoTime();
+            runRecounting();
+            long time = System.nanoTime() - startTime;
+            recountTime = Math.min(recountTime, time);
+            recountTotal += time;
+
+            startTime = System.nanoTime();
+            runIncremental(ranker);
+            time = System.nanoTime() - startTime;
+            incrementalTime = Math.min(incrementalTime, time);
+            incrementalTotal += time;
+        }
+
+        int ops = mResults.size();
+        Log.d(TAG, String.format("%d taxa, %d filter changes: recounting: %d us/op (min), %d us/op (avg); incremental: %d us/op (min), %d us/op (avg)",
+                TAXA, ops,
+                recountTime / ops / 1000, recountTotal / ITERATIONS / ops / 1000,
+                incrementalTime / ops / 1000, incrementalTotal / ITERATIONS / ops / 1000));
+    }
+
+    private void runRecounting() {
+        for (int i = 0; i < mResults.size(); i++) {
+            rankByRecounting(mSelectedTags.get(i), mResults.get(i));
+        }
+    }
+
+    private void runIncremental(GuidePredicateRanker ranker) {
+        for (int i = 0; i < mResults.size(); i++) {
+            ranker.setResults(mResults.get(i));
+            ranker.getRankedPredicates(mSelectedTags.get(i));
+        }
+    }
+
+    // Every taxon gets one value of most predicates; value popularity is skewed, like in real guides
+    private void createGuide() {
+        Random random = new Random(42);
+        mTaxonTags = new String[TAXA][];
+
+        for (int i = 0; i < TAXA; i++) {
+            List<String> tags = new ArrayList<String>();
+            for (int p = 0; p < PREDICATES; p++) {
+                if (random.nextInt(10) == 0) continue;
+                int values = 2 + (p % (MAX_VALUES - 1));
+                int value = (int) (values * Math.pow(random.nextDouble(), 2));
+                tags.add("predicate" + p + "=value" + value);
+            }
+            mTaxonTags[i] = tags.toArray(new String[tags.size()]);
+        }
+
+        // Narrow down the results one tag at a time, then back out of them one at a time
+        mSelectedTags = new ArrayList<List<String>>();
+        mResults = new ArrayList<BitSet>();
+        List<String> selected = new ArrayList<String>();
+        for (int p = 0; p < 4; p++) {
+            selected.add("predicate" + p + "=value0");
+            addFilterChange(selected);
+        }
+        while (selected.size() > 0) {
+            selected.remove(selected.size() - 1);
+            addFilterChange(selected);
+        }
+    }
+
+    private void addFilterChange(List<String> selected) {
+        BitSet results = new BitSet(TAXA);
+        for (int i = 0; i < TAXA; i++) {
+            boolean matches = true;
+            for (String tag : selected) {
+                boolean found = false;
+                for (String taxonTag : mTaxonTags[i]) {
+                    if (taxonTag.equals(tag)) found = true;
+                }
+                matches = matches && found;
+            }
+            if (matches) results.set(i);
+        }
+
+        mSelectedTags.add(new ArrayList<String>(selected));
+        mResults.add(results);
+    }
+
+    // Counts the tags of all current results (the way GuideXML.getRecommendedPredicate used to)
+    private List<GuidePredicateRanker.PredicateScore> rankByRecounting(List<String> selectedTags, BitSet results) {
+        Map<String, Integer> tagCounts = new HashMap<String, Integer>();
+        for (int i = results.nextSetBit(0); i >= 0; i = results.nextSetBit(i + 1)) {
+            for (String tag : mTaxonTags[i]) {
+                Integer count = tagCounts.get(tag);
+                tagCounts.put(tag, count == null ? 1 : count + 1);
+            }
+        }
+
+        Map<String, List<Integer>> predicateTagCounts = new HashMap<String, List<Integer>>();
+        for (Map.Entry<String, Integer> entry : tagCounts.entrySet()) {
+            String predicateName = entry.getKey().split("=")[0];
+            if (!predicateTagCounts.containsKey(predicateName)) {
+                predicateTagCounts.put(predicateName, new ArrayList<Integer>());
+            }
+            predicateTagCounts.get(predicateName).add(entry.getValue());
+        }
+
+        List<String> selectedPredicates = new ArrayList<String>();
+        for (String tag : selectedTags) {
+            selectedPredicates.add(tag.split("=")[0]);
+        }
+
+        List<GuidePredicateRanker.PredicateScore> scores = new ArrayList<GuidePredicateRanker.PredicateScore>();
+        for (Map.Entry<String, List<Integer>> entry : predicateTagCounts.entrySet()) {
+            if (selectedPredicates.contains(entry.getKey())) continue;
+
+            List<Integer> counts = entry.getValue();
+            double sum = 0;
+            for (int count : counts) sum += count;
+            double mean = sum / counts.size();
+
+            Double variance = null;
+            if (counts.size() > 1) {
+                double temp = 0;
+                for (int count : counts) temp += (mean - count) * (mean - count);
+                variance = temp / counts.size();
+            }
+
+            scores.add(new GuidePredicateRanker.PredicateScore(entry.getKey(), mean, variance));
+        }
+
+        Collections.sort(scores, new Comparator<GuidePredicateRanker.PredicateScore>() {
+            @Override
+            public int compare(GuidePredicateRanker.PredicateScore score1, GuidePredicateRanker.PredicateScore score2) {
+                int result = Double.compare(score2.getMean(), score1.getMean());
+                if (result != 0) return result;
+                Double variance1 = score1.getVariance(), variance2 = score2.getVariance();
+                if ((variance1 == null) != (variance2 == null)) return variance1 == null ? 1 : -1;
+                if ((variance1 != null) && (Math.abs(variance1 - variance2) > 1e-9)) return Double.compare(variance1, variance2);
+                return score1.getPredicate().compareTo(score2.getPredicate());
+            }
+        });
+
+        return scores;
+    }
+
+    private void assertRankingsEqual(List<GuidePredicateRanker.PredicateScore> expected, List<GuidePredicateRanker.PredicateScore> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getPredicate(), actual.get(i).getPredicate());
+            assertEquals(expected.get(i).getMean(), actual.get(i).getMean(), 1e-9);
+            if (expected.get(i).getVariance() == null) {
+                assertEquals(null, actual.get(i).getVariance());
+            } else {
+                assertEquals(expected.get(i).getVariance(), actual.get(i).getVariance(), 1e-6);
+            }
+        }
+    }
+}
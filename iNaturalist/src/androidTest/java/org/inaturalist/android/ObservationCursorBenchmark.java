@@ -0,0 +1,151 @@
+package org.inaturalist.android;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+// Compares reading observations from a cursor using pre-resolved column indexes (Observation.CursorColumns)
+// against the name-based BetterCursor getters
+@RunWith(AndroidJUnit4.class)
+public class ObservationCursorBenchmark {
+    private static final String TAG = "ObservationCursorBenchmark";
+    private static final int ROWS = 1000;
+    private static final int ITERATIONS = 5;
+
+    private static final HashSet<String> STRING_COLUMNS = new HashSet<String>(Arrays.asList(
+            Observation.DESCRIPTION, Observation.GEOPRIVACY, Observation.ICONIC_TAXON_NAME, Observation.OBSERVED_ON_STRING,
+            Observation.PLACE_GUESS, Observation.POSITIONING_DEVICE, Observation.POSITIONING_METHOD, Observation.QUALITY_GRADE,
+            Observation.SPECIES_GUESS, Observation.PREFERRED_COMMON_NAME, Observation.USER_AGENT, Observation.USER_LOGIN,
+            Observation.UUID));
+    private static final HashSet<String> DOUBLE_COLUMNS = new HashSet<String>(Arrays.asList(
+            Observation.LATITUDE, Observation.LONGITUDE, Observation.PRIVATE_LATITUDE, Observation.PRIVATE_LONGITUDE));
+
+    @Test
+    public void readObservations() {
+        Cursor c = createCursor();
+
+        long betterCursorTime = Long.MAX_VALUE;
+        long perRowColumnsTime = Long.MAX_VALUE;
+        long columnsTime = Long.MAX_VALUE;
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            long startTime = System.nanoTime();
+            c.moveToFirst();
+            while (!c.isAfterLast()) {
+                readWithBetterCursor(c);
+                c.moveToNext();
+            }
+            betterCursorTime = Math.min(betterCursorTime, System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            c.moveToFirst();
+            while (!c.isAfterLast()) {
+                new Observation(c);
+                c.moveToNext();
+            }
+            perRowColumnsTime = Math.min(perRowColumnsTime, System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            Observation.CursorColumns columns = new Observation.CursorColumns(c);
+            c.moveToFirst();
+            while (!c.isAfterLast()) {
+                new Observation(c, columns);
+                c.moveToNext();
+            }
+            columnsTime = Math.min(columnsTime, System.nanoTime() - startTime);
+        }
+
+        Log.d(TAG, String.format("%d rows: BetterCursor: %d us; column indexes per row: %d us; column indexes per cursor: %d us",
+                ROWS, betterCursorTime / 1000, perRowColumnsTime / 1000, columnsTime / 1000));
+
+        // Both paths should read the exact same values
+        Observation.CursorColumns columns = new Observation.CursorColumns(c);
+        c.moveToFirst();
+        while (!c.isAfterLast()) {
+            Observation expected = readWithBetterCursor(c);
+            Observation actual = new Observation(c, columns);
+            assertEquals(expected.toJSONObject().toString(), actual.toJSONObject().toString());
+            assertEquals(expected._id, actual._id);
+            assertEquals(expected._updated_at, actual._updated_at);
+            c.moveToNext();
+        }
+
+        c.close();
+    }
+
+    private Cursor createCursor() {
+        MatrixCursor c = new MatrixCursor(Observation.PROJECTION, ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Object[] row = new Object[Observation.PROJECTION.length];
+            for (int j = 0; j < row.length; j++) {
+                String column = Observation.PROJECTION[j];
+                if ((i + j) % 7 == 0) {
+                    row[j] = null;
+                } else if (STRING_COLUMNS.contains(column)) {
+                    row[j] = column + " " + i;
+                } else if (DOUBLE_COLUMNS.contains(column)) {
+                    row[j] = 37.5 + i / 1000.0;
+                } else {
+                    row[j] = (long) i;
+                }
+            }
+            c.addRow(row);
+        }
+        return c;
+    }
+
+    // The way Observation(Cursor) used to read its fields
+    private Observation readWithBetterCursor(Cursor c) {
+        BetterCursor bc = new BetterCursor(c);
+        Observation o = new Observation();
+        o._id = bc.getInt(Observation._ID);
+        o._created_at = bc.getTimestamp(Observation._CREATED_AT);
+        o._synced_at = bc.getTimestamp(Observation._SYNCED_AT);
+        o._updated_at = bc.getTimestamp(Observation._UPDATED_AT);
+        o.created_at = bc.getTimestamp(Observation.CREATED_AT);
+        o.description = bc.getString(Observation.DESCRIPTION);
+        o.geoprivacy = bc.getString(Observation.GEOPRIVACY);
+        o.iconic_taxon_id = bc.getInteger(Observation.ICONIC_TAXON_ID);
+        o.iconic_taxon_name = bc.getString(Observation.ICONIC_TAXON_NAME);
+        o.id = bc.getInteger(Observation.ID);
+        o.id_please = bc.getBoolean(Observation.ID_PLEASE);
+        o.latitude = bc.getDouble(Observation.LATITUDE);
+        o.longitude = bc.getDouble(Observation.LONGITUDE);
+        o.observed_on = bc.getTimestamp(Observation.OBSERVED_ON);
+        o.observed_on_string = bc.getString(Observation.OBSERVED_ON_STRING);
+        o.out_of_range = bc.getBoolean(Observation.OUT_OF_RANGE);
+        o.captive = bc.getBoolean(Observation.CAPTIVE);
+        o.place_guess = bc.getString(Observation.PLACE_GUESS);
+        o.uuid = bc.getString(Observation.UUID);
+        o.positional_accuracy = bc.getInteger(Observation.POSITIONAL_ACCURACY);
+        o.positioning_device = bc.getString(Observation.POSITIONING_DEVICE);
+        o.positioning_method = bc.getString(Observation.POSITIONING_METHOD);
+        o.private_latitude = bc.getDouble(Observation.PRIVATE_LATITUDE);
+        o.private_longitude = bc.getDouble(Observation.PRIVATE_LONGITUDE);
+        o.private_positional_accuracy = bc.getInteger(Observation.PRIVATE_POSITIONAL_ACCURACY);
+        o.quality_grade = bc.getString(Observation.QUALITY_GRADE);
+        o.species_guess = bc.getString(Observation.SPECIES_GUESS);
+        o.preferred_common_name = bc.getString(Observation.PREFERRED_COMMON_NAME);
+        o.taxon_id = bc.getInteger(Observation.TAXON_ID);
+        o.time_observed_at = bc.getTimestamp(Observation.TIME_OBSERVED_AT);
+        o.updated_at = bc.getTimestamp(Observation.UPDATED_AT);
+        o.user_agent = bc.getString(Observation.USER_AGENT);
+        o.user_id = bc.getInteger(Observation.USER_ID);
+        o.user_login = bc.getString(Observation.USER_LOGIN);
+        o.is_deleted = bc.getBoolean(Observation.IS_DELETED);
+        o.comments_count = bc.getInteger(Observation.COMMENTS_COUNT);
+        o.identifications_count = bc.getInteger(Observation.IDENTIFICATIONS_COUNT);
+        o.last_comments_count = bc.getInteger(Observation.LAST_COMMENTS_COUNT);
+        o.last_identifications_count = bc.getInteger(Observation.LAST_IDENTIFICATIONS_COUNT);
+        return o;
+    }
+}
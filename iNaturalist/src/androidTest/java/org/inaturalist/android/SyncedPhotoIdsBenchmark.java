@@ -0,0 +1,143 @@
+package org.inaturalist.android;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+// Compares (query count and time) finding the synced photos of a page of observations (when merging a sync page) using a single
+// "observation_id IN (...)" query against the previous query per observation
+@RunWith(AndroidJUnit4.class)
+public class SyncedPhotoIdsBenchmark {
+    private static final String TAG = "SyncedPhotoIdsBenchmark";
+    private static final int OBSERVATIONS = 5000;
+    private static final int PAGE_SIZE = 200;
+    private static final int PHOTOS_PER_OBSERVATION = 3;
+    private static final int ITERATIONS = 5;
+
+    private SQLiteDatabase mDb;
+    // Number of queries run against the database (each one creates a cursor)
+    private int mQueryCount;
+
+    @Before
+    public void createDatabase() {
+        mDb = SQLiteDatabase.create(new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query) {
+                mQueryCount++;
+                return new SQLiteCursor(masterQuery, editTable, query);
+            }
+        });
+        ObservationProvider.DatabaseHelper.createTables(mDb);
+
+        mDb.beginTransaction();
+        try {
+            int photoId = 1;
+            for (int i = 1; i <= OBSERVATIONS; i++) {
+                for (int j = 0; j < PHOTOS_PER_OBSERVATION; j++) {
+                    ContentValues cv = new ContentValues();
+                    cv.put(ObservationPhoto.OBSERVATION_ID, i);
+                    // Some photos weren't uploaded yet
+                    if ((i + j) % 4 != 0) cv.put(ObservationPhoto.ID, photoId++);
+                    mDb.insert(ObservationPhoto.TABLE_NAME, null, cv);
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @After
+    public void closeDatabase() {
+        mDb.close();
+    }
+
+    @Test
+    public void findSyncedPhotoIds() {
+        // A page in the middle of the observations
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            ids.add(OBSERVATIONS / 2 + i);
+        }
+        String joinedIds = StringUtils.join(ids, ",");
+
+        long perObservationTime = Long.MAX_VALUE;
+        long singleQueryTime = Long.MAX_VALUE;
+        SparseArray<HashSet<Integer>> expected = null;
+        SparseArray<HashSet<Integer>> actual = null;
+
+        int perObservationQueries = 0;
+        int singleQueryQueries = 0;
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            mQueryCount = 0;
+            long startTime = System.nanoTime();
+            expected = queryPerObservation(ids);
+            perObservationTime = Math.min(perObservationTime, System.nanoTime() - startTime);
+            perObservationQueries = mQueryCount;
+
+            mQueryCount = 0;
+            startTime = System.nanoTime();
+            actual = INaturalistService.readSyncedPhotoIds(mDb.query(ObservationPhoto.TABLE_NAME,
+                    INaturalistService.SYNCED_PHOTO_IDS_PROJECTION,
+                    "(observation_id IN (" + joinedIds + ")) AND (id IS NOT NULL)",
+                    null, null, null, null));
+            singleQueryTime = Math.min(singleQueryTime, System.nanoTime() - startTime);
+            singleQueryQueries = mQueryCount;
+        }
+
+        Log.d(TAG, String.format("%d observations: query per observation: %d queries, %d us; single query: %d queries, %d us",
+                PAGE_SIZE, perObservationQueries, perObservationTime / 1000, singleQueryQueries, singleQueryTime / 1000));
+
+        // A query per observation in the page before - a single query for the entire page now
+        assertEquals(PAGE_SIZE, perObservationQueries);
+        assertEquals(1, singleQueryQueries);
+
+        // Both should find the exact same photos
+        for (int id : ids) {
+            HashSet<Integer> expectedIds = expected.get(id);
+            HashSet<Integer> actualIds = actual.get(id);
+            assertEquals(expectedIds == null ? new HashSet<Integer>() : expectedIds,
+                    actualIds == null ? new HashSet<Integer>() : actualIds);
+        }
+    }
+
+    // The way merging a sync page used to find the synced photos (one query per observation)
+    private SparseArray<HashSet<Integer>> queryPerObservation(List<Integer> ids) {
+        SparseArray<HashSet<Integer>> photoIds = new SparseArray<HashSet<Integer>>();
+        for (int id : ids) {
+            HashSet<Integer> existingIds = new HashSet<Integer>();
+            Cursor pc = mDb.query(ObservationPhoto.TABLE_NAME, ObservationPhoto.PROJECTION,
+                    "(observation_id = " + id + ")", null, null, null, null);
+            pc.moveToFirst();
+            while (pc.isAfterLast() == false) {
+                int photoId = pc.getInt(pc.getColumnIndexOrThrow(ObservationPhoto.ID));
+                if (photoId != 0) {
+                    existingIds.add(photoId);
+                }
+                pc.moveToNext();
+            }
+            pc.close();
+            if (!existingIds.isEmpty()) photoIds.put(id, existingIds);
+        }
+        return photoIds;
+    }
+}
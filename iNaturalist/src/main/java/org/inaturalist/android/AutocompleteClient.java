@@ -0,0 +1,431 @@
+package org.inaturalist.android;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Search-as-you-type client (for taxon autocomplete, project/guide search and searching the user's observations).
+ *
+ * - Input is debounced, so a request is only sent once the user pauses typing.
+ * - Sending a request for a new query aborts the in-flight request of the superseded one.
+ * - Results are kept in an LRU cache (query -> results), so backspacing doesn't hit the server again.
+ * - If a shorter prefix of the query has a complete result set cached (i.e. the server returned all of its
+ *   matches), the results of the query are filtered locally from that set instead.
+ *
+ * Must be used from the main thread (results and loading state are delivered on the main thread as well).
+ */
+public class AutocompleteClient {
+    private static final String TAG = "AutocompleteClient";
+
+    // How long to wait after the last keystroke before sending a request
+    public static final int DEFAULT_DEBOUNCE_MS = 300;
+    // Max number of cached queries
+    private static final int MAX_CACHED_QUERIES = 50;
+
+    public interface Callback {
+        // Results of the latest query (an empty list in case of an error)
+        void onResults(String query, List<JSONObject> results);
+        // Called when a request of the latest query starts / ends
+        void onLoading(boolean isLoading);
+    }
+
+    /**
+     * Results of a single query
+     */
+    public static class Results {
+        private final List<JSONObject> mItems;
+        private final boolean mComplete;
+
+        /**
+         * @param items the results
+         * @param complete true if these are all of the matches of the query (and not just the first page of them)
+         */
+        public Results(List<JSONObject> items, boolean complete) {
+            mItems = Collections.unmodifiableList(items);
+            mComplete = complete;
+        }
+
+        public List<JSONObject> getItems() {
+            return mItems;
+        }
+
+        public boolean isComplete() {
+            return mComplete;
+        }
+    }
+
+    /**
+     * What to search - builds the request of a query, parses its response and matches results locally
+     */
+    public static abstract class Source {
+        public abstract String getUrl(String query) throws UnsupportedEncodingException;
+
+        public abstract Results parseResults(String response) throws JSONException;
+
+        // Returns true if a result (of a shorter prefix) also matches the (longer) query
+        public abstract boolean matches(JSONObject item, String query);
+
+        // Called before sending the request (e.g. for setting headers)
+        public void prepareRequest(HttpGet request) {
+        }
+
+        // Case-insensitive check whether any of the item's fields contains the query
+        protected static boolean fieldsContain(JSONObject item, String query, String... fields) {
+            String lowerQuery = query.toLowerCase();
+            for (String field : fields) {
+                String value = item.optString(field, null);
+                if ((value != null) && (value.toLowerCase().contains(lowerQuery))) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Taxon autocomplete (results are in the "results" field, along with "total_results")
+     */
+    public static class TaxonSource extends Source {
+        private final String mLocale;
+
+        public TaxonSource(Context context) {
+            mLocale = context.getResources().getConfiguration().locale.getLanguage();
+        }
+
+        @Override
+        public String getUrl(String query) throws UnsupportedEncodingException {
+            return INaturalistService.API_HOST + "/taxa/autocomplete?q=" + URLEncoder.encode(query, "utf8") + "&locale=" + mLocale;
+        }
+
+        @Override
+        public Results parseResults(String response) throws JSONException {
+            JSONObject resultsObject = new JSONObject(response);
+            List<JSONObject> items = toList(resultsObject.getJSONArray("results"));
+            int total = resultsObject.optInt("total_results", -1);
+            return new Results(items, (total >= 0) && (total <= items.size()));
+        }
+
+        @Override
+        public boolean matches(JSONObject item, String query) {
+            return fieldsContain(item, query, "matched_term", "name", "preferred_common_name");
+        }
+    }
+
+    /**
+     * Search of projects/guides (the search URL returns a plain array of results)
+     */
+    public static class ItemSource extends Source {
+        private final String mSearchUrl;
+
+        public ItemSource(String searchUrl) {
+            mSearchUrl = searchUrl;
+        }
+
+        @Override
+        public String getUrl(String query) throws UnsupportedEncodingException {
+            return mSearchUrl + "?q=" + URLEncoder.encode(query.toLowerCase(), "utf8");
+        }
+
+        @Override
+        public Results parseResults(String response) throws JSONException {
+            // The total number of matches isn't returned - only an empty result is known to be complete
+            List<JSONObject> items = toList(new JSONArray(response));
+            return new Results(items, items.isEmpty());
+        }
+
+        @Override
+        public boolean matches(JSONObject item, String query) {
+            return fieldsContain(item, query, "title", "description");
+        }
+    }
+
+    /**
+     * Search of the signed in user's observations (an authenticated request)
+     */
+    public static class UserObservationSource extends Source {
+        private static final int PER_PAGE = 100;
+
+        private final Context mContext;
+        private final String mLogin;
+        private final String mLocale;
+
+        public UserObservationSource(Context context, String login) {
+            mContext = context.getApplicationContext();
+            mLogin = login;
+            mLocale = context.getResources().getConfiguration().locale.getLanguage();
+        }
+
+        @Override
+        public String getUrl(String query) throws UnsupportedEncodingException {
+            return INaturalistService.HOST + "/observations/" + mLogin + ".json?per_page=" + PER_PAGE +
+                    "&q=" + URLEncoder.encode(query, "utf8") + "&extra=observation_photos,projects,fields&locale=" + mLocale;
+        }
+
+        @Override
+        public void prepareRequest(HttpGet request) {
+            String authorization = INaturalistService.getAuthorizationHeader(mContext);
+            if (authorization != null) request.setHeader("Authorization", authorization);
+        }
+
+        @Override
+        public Results parseResults(String response) throws JSONException {
+            // The server also matches fields we don't have locally (e.g. the taxon's names), so only an empty
+            // result can be used for local filtering
+            List<JSONObject> items = toList(new JSONArray(response));
+            return new Results(items, items.isEmpty());
+        }
+
+        @Override
+        public boolean matches(JSONObject item, String query) {
+            return fieldsContain(item, query, "species_guess", "description", "place_guess");
+        }
+    }
+
+    private final Context mContext;
+    private final Source mSource;
+    private final int mDebounceMs;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    // Query -> results (accessed from the main thread only)
+    private final LinkedHashMap<String, Results> mCache = new LinkedHashMap<String, Results>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Results> eldest) {
+            return size() > MAX_CACHED_QUERIES;
+        }
+    };
+
+    private Callback mCallback;
+    private String mLatestQuery;
+    private Runnable mPendingRequest;
+    private HttpGet mInFlightRequest;
+    private String mInFlightQuery;
+    private boolean mReleased = false;
+
+    // Stats
+    private long mRequestCount = 0;
+    private long mCacheHitCount = 0;
+    private long mLocalFilterCount = 0;
+    private long mAbortedCount = 0;
+    private long mDebouncedCount = 0;
+
+    public AutocompleteClient(Context context, Source source) {
+        this(context, source, DEFAULT_DEBOUNCE_MS);
+    }
+
+    public AutocompleteClient(Context context, Source source, int debounceMs) {
+        mContext = context.getApplicationContext();
+        mSource = source;
+        mDebounceMs = debounceMs;
+    }
+
+    /**
+     * Searches for a query - the results are passed to the callback (immediately, if they're cached or can
+     * be filtered locally). Results of any previous query that haven't been delivered yet will not be.
+     */
+    public void search(String query, Callback callback) {
+        if (mReleased) return;
+
+        mCallback = callback;
+        mLatestQuery = query;
+
+        if (mPendingRequest != null) {
+            mHandler.removeCallbacks(mPendingRequest);
+            mPendingRequest = null;
+            mDebouncedCount++;
+        }
+
+        Results results = getLocalResults(query);
+        if (results != null) {
+            mCallback.onLoading(false);
+            mCallback.onResults(query, results.getItems());
+            return;
+        }
+
+        if (query.equals(mInFlightQuery)) {
+            // Back to a query whose request is still running (e.g. after backspacing) - keep waiting for it
+            mCallback.onLoading(true);
+            return;
+        }
+
+        mCallback.onLoading(true);
+        mPendingRequest = new Runnable() {
+            @Override
+            public void run() {
+                mPendingRequest = null;
+                sendRequest(mLatestQuery);
+            }
+        };
+        mHandler.postDelayed(mPendingRequest, mDebounceMs);
+    }
+
+    /**
+     * Cancels the current search (e.g. when the search text is cleared) - no results will be delivered for it
+     */
+    public void cancel() {
+        mLatestQuery = null;
+        if (mPendingRequest != null) {
+            mHandler.removeCallbacks(mPendingRequest);
+            mPendingRequest = null;
+        }
+        abortInFlightRequest();
+        if (mCallback != null) mCallback.onLoading(false);
+    }
+
+    /**
+     * Releases the client (should be called when the screen is destroyed)
+     */
+    public void release() {
+        cancel();
+        mReleased = true;
+        mCallback = null;
+        mExecutor.shutdownNow();
+        logStats();
+    }
+
+    public String getStatsSummary() {
+        return String.format("requests: %d; cache hits: %d; filtered locally: %d; aborted: %d; debounced: %d; cached queries: %d",
+                mRequestCount, mCacheHitCount, mLocalFilterCount, mAbortedCount, mDebouncedCount, mCache.size());
+    }
+
+    public void logStats() {
+        Log.d(TAG, getStatsSummary());
+    }
+
+    // Returns the cached results of the query, or filters them from the results of a shorter prefix (if these
+    // are complete). Returns null if the query has to be sent to the server.
+    private Results getLocalResults(String query) {
+        Results results = mCache.get(query);
+        if (results != null) {
+            mCacheHitCount++;
+            return results;
+        }
+
+        for (int length = query.length() - 1; length > 0; length--) {
+            Results prefixResults = mCache.get(query.substring(0, length));
+            if ((prefixResults == null) || (!prefixResults.isComplete())) continue;
+
+            List<JSONObject> items = new ArrayList<JSONObject>();
+            String trimmedQuery = query.trim();
+            for (JSONObject item : prefixResults.getItems()) {
+                if (mSource.matches(item, trimmedQuery)) items.add(item);
+            }
+
+            // A subset of a complete result set is complete as well
+            results = new Results(items, true);
+            mCache.put(query, results);
+            mLocalFilterCount++;
+            return results;
+        }
+
+        return null;
+    }
+
+    private void sendRequest(final String query) {
+        if ((query == null) || mReleased) return;
+
+        // The results of the superseded query are no longer needed
+        abortInFlightRequest();
+
+        final HttpGet request;
+        try {
+            request = new HttpGet(mSource.getUrl(query));
+        } catch (UnsupportedEncodingException e) {
+            e.printStackTrace();
+            deliverResults(query, null);
+            return;
+        }
+        mSource.prepareRequest(request);
+
+        mInFlightRequest = request;
+        mInFlightQuery = query;
+        mRequestCount++;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Results results = fetch(request);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mInFlightRequest == request) {
+                            mInFlightRequest = null;
+                            mInFlightQuery = null;
+                        }
+                        if (results != null) mCache.put(query, results);
+                        deliverResults(query, results);
+                    }
+                });
+            }
+        });
+    }
+
+    // Runs on the executor thread - returns null in case of an error (or if the request was aborted)
+    private Results fetch(HttpGet request) {
+        Log.d(TAG, "URL: " + request.getURI());
+
+        try {
+            HttpResponse response = HttpTransport.getInstance(mContext).execute(request);
+            HttpEntity entity = response.getEntity();
+            String content = entity != null ? EntityUtils.toString(entity) : null;
+
+            if ((response.getStatusLine().getStatusCode() != 200) || (content == null)) {
+                Log.e(TAG, "Error searching " + request.getURI() + ": " + response.getStatusLine());
+                return null;
+            }
+
+            return mSource.parseResults(content);
+
+        } catch (IOException e) {
+            if (!request.isAborted()) Log.e(TAG, "Error connecting to search API", e);
+            return null;
+        } catch (JSONException e) {
+            Log.e(TAG, "Cannot process JSON results", e);
+            return null;
+        }
+    }
+
+    private void deliverResults(String query, Results results) {
+        // Results of a superseded query are only cached
+        if (mReleased || (mCallback == null) || (!query.equals(mLatestQuery))) return;
+
+        mCallback.onLoading(false);
+        mCallback.onResults(query, results != null ? results.getItems() : new ArrayList<JSONObject>());
+    }
+
+    private void abortInFlightRequest() {
+        if (mInFlightRequest == null) return;
+
+        mInFlightRequest.abort();
+        mInFlightRequest = null;
+        mInFlightQuery = null;
+        mAbortedCount++;
+    }
+
+    private static List<JSONObject> toList(JSONArray array) throws JSONException {
+        List<JSONObject> items = new ArrayList<JSONObject>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            items.add(array.getJSONObject(i));
+        }
+        return items;
+    }
+}
@@ -79,4 +79,27 @@ public class BetterCursor implements Serializable {
 	public int getCount() {
 	    return mCursor.getCount();
 	}
+
+	// Getters by (pre-resolved) column index, reading from the current position of the cursor - these avoid the
+	// column name lookups (and the re-positioning of the cursor) of the getters above, when reading many rows.
+
+	public static String getString(Cursor c, int index) {
+		return c.isNull(index) ? null : c.getString(index);
+	}
+
+	public static Boolean getBoolean(Cursor c, int index) {
+		return (1 == c.getInt(index));
+	}
+
+	public static Integer getInteger(Cursor c, int index) {
+		return c.isNull(index) ? null : c.getInt(index);
+	}
+
+	public static Double getDouble(Cursor c, int index) {
+		return c.isNull(index) ? null : c.getDouble(index);
+	}
+
+	public static Timestamp getTimestamp(Cursor c, int index) {
+		return c.isNull(index) ? null : new Timestamp(c.getLong(index));
+	}
 }
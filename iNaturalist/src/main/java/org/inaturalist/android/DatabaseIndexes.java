@@ -0,0 +1,87 @@
+package org.inaturalist.android;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Secondary indexes of the synced tables (observations, observation photos and project field values), for the
+ * lookups done during sync and when displaying observations (by server ID, UUID, observation and user).
+ *
+ * Also maintains the "needs_sync" column of these tables - 1 for rows with local changes that weren't synced yet
+ * (i.e. _synced_at IS NULL OR _updated_at > _synced_at), kept up to date by triggers. Since it's indexed,
+ * pending-work queries (NEEDS_SYNC_SELECTION) are an index lookup instead of a scan of the whole table.
+ */
+public class DatabaseIndexes {
+    public static final String NEEDS_SYNC = "needs_sync";
+    // Selection of rows with local changes that weren't synced yet
+    public static final String NEEDS_SYNC_SELECTION = "(needs_sync = 1)";
+
+    public static final String[] TABLE_NAMES = new String[] {
+            Observation.TABLE_NAME,
+            ObservationPhoto.TABLE_NAME,
+            ProjectFieldValue.TABLE_NAME
+    };
+
+    private static final String NEEDS_SYNC_VALUE = "CASE WHEN (new._synced_at IS NULL) OR (new._updated_at > new._synced_at) THEN 1 ELSE 0 END";
+
+    /**
+     * Returns the SQL statements that create the indexes and the needs_sync triggers (the needs_sync column itself
+     * is part of the table definitions)
+     * @param partialIndexes whether the SQLite version supports partial indexes (3.8.0 and up) - if so, the flag
+     *                       columns (needs_sync, is_deleted) are only indexed where they're set
+     */
+    public static String[] sqlCreate(boolean partialIndexes) {
+        List<String> sql = new ArrayList<String>();
+
+        addTable(sql, Observation.TABLE_NAME, new String[] { "id", "uuid", "user_login" },
+                new String[] { NEEDS_SYNC, "is_deleted" }, partialIndexes);
+        addTable(sql, ObservationPhoto.TABLE_NAME, new String[] { "id", "uuid", "_observation_id", "observation_id" },
+                new String[] { NEEDS_SYNC, "is_deleted" }, partialIndexes);
+        addTable(sql, ProjectFieldValue.TABLE_NAME, new String[] { "observation_id" },
+                new String[] { NEEDS_SYNC }, partialIndexes);
+
+        return sql.toArray(new String[sql.size()]);
+    }
+
+    /**
+     * Returns the SQL statements that set the needs_sync column of all existing rows (when the column is first added)
+     */
+    public static String[] sqlPopulate() {
+        String[] sql = new String[TABLE_NAMES.length];
+        for (int i = 0; i < TABLE_NAMES.length; i++) {
+            sql[i] = "UPDATE " + TABLE_NAMES[i] + " SET needs_sync = " + NEEDS_SYNC_VALUE.replace("new.", "") + ";";
+        }
+        return sql;
+    }
+
+    /**
+     * Returns true if the database's SQLite version supports partial indexes (Android 5.0 and up)
+     */
+    public static boolean supportsPartialIndexes(SQLiteDatabase db) {
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null).split("\\.");
+        int major = Integer.parseInt(version[0]);
+        int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+
+        return (major > 3) || ((major == 3) && (minor >= 8));
+    }
+
+    private static void addTable(List<String> sql, String table, String[] columns, String[] flagColumns, boolean partialIndexes) {
+        for (String column : columns) {
+            sql.add("CREATE INDEX IF NOT EXISTS " + table + "_" + column + "_index ON " + table + " (" + column + ");");
+        }
+        for (String column : flagColumns) {
+            sql.add("CREATE INDEX IF NOT EXISTS " + table + "_" + column + "_index ON " + table + " (" + column + ")" +
+                    (partialIndexes ? " WHERE " + column + " = 1;" : ";"));
+        }
+
+        // Only update the flag if it actually changed (most updates of synced rows don't change it)
+        String when = " WHEN (new.needs_sync IS NULL) OR (new.needs_sync <> " + NEEDS_SYNC_VALUE + ")";
+        String body = " BEGIN UPDATE " + table + " SET needs_sync = " + NEEDS_SYNC_VALUE + " WHERE _id = new._id; END;";
+
+        sql.add("CREATE TRIGGER IF NOT EXISTS " + table + "_needs_sync_insert AFTER INSERT ON " + table + when + body);
+        sql.add("CREATE TRIGGER IF NOT EXISTS " + table + "_needs_sync_update AFTER UPDATE OF _synced_at, _updated_at ON " + table + when + body);
+    }
+}
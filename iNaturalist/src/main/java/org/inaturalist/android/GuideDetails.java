@@ -473,12 +473,12 @@ public class GuideDetails extends AppCompatActivity implements INaturalistApp.On
         updateDownloadProgress(0);
 
         // Download guide as a background task
-        mApp.downloadFile(mGuideXml.getNgzURL(), this);
+        mApp.downloadOfflineGuide(mGuideXml, this);
     }
 
 
     @Override
-    public boolean onDownloadProgress(long downloaded, long total, String downloadedFilename) {
+    public void onDownloadProgress(long downloaded, long total) {
         final int progress = (int)((((float)downloaded) / total) * 100);
 
         runOnUiThread(new Runnable() {
@@ -490,33 +490,26 @@ public class GuideDetails extends AppCompatActivity implements INaturalistApp.On
         });
 
         if (downloaded == total) {
-            // Download complete
-
-            // Extract the downloaded compressed guide file
+            // Download complete - the guide is still being extracted (it's extracted while it downloads)
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
                     mDownloadingSubtitle.setText(R.string.extracting);
                 }
             });
-            boolean status = mGuideXml.extractOfflineGuide(downloadedFilename);
-
-            if (!status) {
-                showDownloadGuideError();
-                return true;
-            }
-
-            mIsDownloading = false;
-
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    refreshGuideSideMenu();
-                }
-            });
         }
+    }
+
+    @Override
+    public void onDownloadComplete() {
+        mIsDownloading = false;
 
-        return true;
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                refreshGuideSideMenu();
+            }
+        });
     }
 
     @Override
@@ -0,0 +1,240 @@
+package org.inaturalist.android;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ranks the guide predicates (e.g. "color") by how useful they are for narrowing down the current
+ * filter results - see getRecommendedPredicate.
+ *
+ * Tags and predicates are interned to int IDs once, and the per tag counts (how many of the current results
+ * have each tag) are kept in int arrays. When the results change (e.g. a tag is added to or removed from the
+ * filter), only the taxa that entered or left the results are counted, instead of recounting everything.
+ */
+public class GuidePredicateRanker {
+
+    /**
+     * The ranking score of a single predicate
+     */
+    public static class PredicateScore {
+        private final String mPredicate;
+        private final double mMean;
+        private final Double mVariance;
+
+        PredicateScore(String predicate, double mean, Double variance) {
+            mPredicate = predicate;
+            mMean = mean;
+            mVariance = variance;
+        }
+
+        public String getPredicate() {
+            return mPredicate;
+        }
+
+        // Mean number of results per predicate value
+        public double getMean() {
+            return mMean;
+        }
+
+        // Variance of the number of results per predicate value (null if the predicate has only one value)
+        public Double getVariance() {
+            return mVariance;
+        }
+    }
+
+    // This comparator is the heart of our algorithm for choosing the next recommended predicate:
+    // We choose the one with the max mean; then, in case of identical means, we choose the one
+    // with the minimum variance (that is not null). Remaining ties are ordered by predicate name.
+    private static final Comparator<PredicateScore> SCORE_COMPARATOR = new Comparator<PredicateScore>() {
+        @Override
+        public int compare(PredicateScore score1, PredicateScore score2) {
+            int result = Double.compare(score2.mMean, score1.mMean);
+            if (result != 0) return result;
+
+            if ((score1.mVariance == null) && (score2.mVariance != null)) {
+                return 1;
+            } else if ((score2.mVariance == null) && (score1.mVariance != null)) {
+                return -1;
+            } else if ((score1.mVariance != null) && (score2.mVariance != null)) {
+                result = Double.compare(score1.mVariance, score2.mVariance);
+                if (result != 0) return result;
+            }
+
+            return score1.mPredicate.compareTo(score2.mPredicate);
+        }
+    };
+
+    private final int mTaxonCount;
+    // Tag ID -> predicate ID
+    private final int[] mTagPredicates;
+    // Predicate ID -> predicate name
+    private final String[] mPredicates;
+    // Taxon index -> tag IDs of the taxon
+    private final int[][] mTaxonTags;
+
+    // The taxa that are currently counted
+    private BitSet mResults;
+    // Tag ID -> number of current results that have that tag
+    private final int[] mTagCounts;
+    // Predicate ID -> number of tags (values) with a non-zero count, sum of their counts and the sum of their squares
+    private final int[] mValueCounts;
+    private final long[] mCountSums;
+    private final long[] mCountSquareSums;
+
+    /**
+     * Initializes the ranker, with no taxa counted
+     * @param taxonTags the tags of each taxon, in guide order (e.g. "color=red")
+     */
+    public GuidePredicateRanker(String[][] taxonTags) {
+        mTaxonCount = taxonTags.length;
+        mTaxonTags = new int[mTaxonCount][];
+
+        Map<String, Integer> tagIds = new HashMap<String, Integer>();
+        Map<String, Integer> predicateIds = new HashMap<String, Integer>();
+        List<Integer> tagPredicates = new ArrayList<Integer>();
+        List<String> predicates = new ArrayList<String>();
+
+        for (int i = 0; i < mTaxonCount; i++) {
+            String[] tags = taxonTags[i];
+            int[] ids = new int[tags.length];
+
+            for (int j = 0; j < tags.length; j++) {
+                Integer tagId = tagIds.get(tags[j]);
+                if (tagId == null) {
+                    String predicateName = getPredicateName(tags[j]);
+                    Integer predicateId = predicateIds.get(predicateName);
+                    if (predicateId == null) {
+                        predicateId = predicates.size();
+                        predicates.add(predicateName);
+                        predicateIds.put(predicateName, predicateId);
+                    }
+
+                    tagId = tagPredicates.size();
+                    tagPredicates.add(predicateId);
+                    tagIds.put(tags[j], tagId);
+                }
+                ids[j] = tagId;
+            }
+
+            mTaxonTags[i] = ids;
+        }
+
+        mTagPredicates = new int[tagPredicates.size()];
+        for (int i = 0; i < mTagPredicates.length; i++) {
+            mTagPredicates[i] = tagPredicates.get(i);
+        }
+        mPredicates = predicates.toArray(new String[predicates.size()]);
+
+        mResults = new BitSet(mTaxonCount);
+        mTagCounts = new int[mTagPredicates.length];
+        mValueCounts = new int[mPredicates.length];
+        mCountSums = new long[mPredicates.length];
+        mCountSquareSums = new long[mPredicates.length];
+    }
+
+    /**
+     * Returns the predicate name of a tag (e.g. "color" for "color=red")
+     */
+    public static String getPredicateName(String tag) {
+        int index = tag.indexOf('=');
+        return index >= 0 ? tag.substring(0, index) : tag;
+    }
+
+    /**
+     * Sets the taxa to count (e.g. the current filter results). Only the taxa that were added or removed
+     * since the previous call are counted.
+     * @param results the indexes of the taxa
+     */
+    public void setResults(BitSet results) {
+        BitSet removed = (BitSet) mResults.clone();
+        removed.andNot(results);
+        BitSet added = (BitSet) results.clone();
+        added.andNot(mResults);
+
+        if (removed.cardinality() + added.cardinality() > results.cardinality()) {
+            // Less work to recount from scratch
+            reset();
+            count(results, 1);
+        } else {
+            count(removed, -1);
+            count(added, 1);
+        }
+
+        mResults = (BitSet) results.clone();
+    }
+
+    /**
+     * Returns all predicates that are not part of the selected tags, ranked from the most recommended one
+     * @param selectedTags the currently selected filter tags (e.g. "color=red")
+     * @return list of predicate scores
+     */
+    public List<PredicateScore> getRankedPredicates(Collection<String> selectedTags) {
+        Set<String> selectedPredicates = new HashSet<String>();
+        for (String tag : selectedTags) {
+            selectedPredicates.add(getPredicateName(tag));
+        }
+
+        List<PredicateScore> scores = new ArrayList<PredicateScore>();
+
+        for (int i = 0; i < mPredicates.length; i++) {
+            int n = mValueCounts[i];
+            if ((n == 0) || (selectedPredicates.contains(mPredicates[i]))) continue;
+
+            double mean = (double) mCountSums[i] / n;
+            Double variance = null;
+            if (n > 1) {
+                // Population variance - (n * sum(x^2) - sum(x)^2) / n^2, with the numerator calculated exactly
+                long numerator = n * mCountSquareSums[i] - mCountSums[i] * mCountSums[i];
+                variance = (double) numerator / ((long) n * n);
+            }
+
+            scores.add(new PredicateScore(mPredicates[i], mean, variance));
+        }
+
+        Collections.sort(scores, SCORE_COMPARATOR);
+
+        return scores;
+    }
+
+    /**
+     * Returns the next recommended predicate (or null if there's none)
+     * @param selectedTags the currently selected filter tags
+     */
+    public String getRecommendedPredicate(Collection<String> selectedTags) {
+        List<PredicateScore> scores = getRankedPredicates(selectedTags);
+        return scores.size() > 0 ? scores.get(0).getPredicate() : null;
+    }
+
+    private void reset() {
+        Arrays.fill(mTagCounts, 0);
+        Arrays.fill(mValueCounts, 0);
+        Arrays.fill(mCountSums, 0);
+        Arrays.fill(mCountSquareSums, 0);
+    }
+
+    // Adds (delta = 1) or removes (delta = -1) the tags of the taxa from the counts
+    private void count(BitSet taxa, int delta) {
+        for (int i = taxa.nextSetBit(0); i >= 0; i = taxa.nextSetBit(i + 1)) {
+            for (int tagId : mTaxonTags[i]) {
+                int predicateId = mTagPredicates[tagId];
+                int oldCount = mTagCounts[tagId];
+                int newCount = oldCount + delta;
+                mTagCounts[tagId] = newCount;
+
+                if (oldCount == 0) mValueCounts[predicateId]++;
+                if (newCount == 0) mValueCounts[predicateId]--;
+                mCountSums[predicateId] += delta;
+                mCountSquareSums[predicateId] += (long) newCount * newCount - (long) oldCount * oldCount;
+            }
+        }
+    }
+}
@@ -0,0 +1,681 @@
+package org.inaturalist.android;
+
+import android.util.Log;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+/**
+ * Compact binary snapshot of a parsed guide XML file (guide details, taxa, sections, photos and tag postings).
+ *
+ * Parsing a large guide XML into a DOM takes seconds - so after the first parse, a snapshot is written next to
+ * the XML file, and later opens memory-map the snapshot instead (strings are only decoded when accessed).
+ * A snapshot is invalidated once the XML file's modification time or size change.
+ *
+ * Format (big endian): a header (magic, version, XML mtime + size, record counts and region offsets), followed
+ * by int regions of fixed-size records (referencing strings by their index in the string table), followed by
+ * the string table itself (length-prefixed UTF-8 strings).
+ */
+public class GuideSnapshot {
+    private static final String TAG = "GuideSnapshot";
+
+    public static final String FILE_SUFFIX = ".snapshot";
+
+    private static final int MAGIC = 0x494e4753; // "INGS"
+    private static final int VERSION = 1;
+
+    // Guide fields
+    public static final int GUIDE_TITLE = 0;
+    public static final int GUIDE_DESCRIPTION = 1;
+    public static final int GUIDE_COMPILER = 2;
+    public static final int GUIDE_LICENSE = 3;
+    public static final int GUIDE_NGZ_URL = 4;
+    public static final int GUIDE_NGZ_SIZE = 5;
+    private static final String[] GUIDE_XPATHS = {
+            "//INatGuide/dc:title",
+            "//INatGuide/dc:description",
+            "//INatGuide/eol:agent[@role='compiler']",
+            "//INatGuide/dc:license",
+            "//ngz/href",
+            "//ngz/size"
+    };
+
+    // Taxon record fields
+    public static final int TAXON_NAME = 0;
+    public static final int TAXON_DISPLAY_NAME = 1;
+    public static final int TAXON_ID = 2;
+    private static final int TAXON_TEXTS_START = 3;
+    private static final int TAXON_TEXTS_COUNT = 4;
+    private static final int TAXON_TAGS_START = 5;
+    private static final int TAXON_TAGS_COUNT = 6;
+    private static final int TAXON_SECTIONS_START = 7;
+    private static final int TAXON_SECTIONS_COUNT = 8;
+    private static final int TAXON_PHOTOS_START = 9;
+    private static final int TAXON_PHOTOS_COUNT = 10;
+    private static final int TAXON_RECORD_SIZE = 11;
+
+    // Section record fields
+    public static final int SECTION_TITLE = 0;
+    public static final int SECTION_BODY = 1;
+    public static final int SECTION_ATTRIBUTION = 2;
+    public static final int SECTION_RIGHTS_HOLDER = 3;
+    private static final int SECTION_RECORD_SIZE = 4;
+
+    // Photo href types and sizes (as they appear in the XML)
+    public static final String[] HREF_TYPES = { "remote", "local" };
+    public static final String[] HREF_SIZES = { "thumb", "small", "medium", "large" };
+
+    // Photo record fields
+    public static final int PHOTO_DESCRIPTION = 0;
+    public static final int PHOTO_ATTRIBUTION = 1;
+    public static final int PHOTO_RIGHTS_HOLDER = 2;
+    private static final int PHOTO_HREFS = 3;
+    private static final int PHOTO_TAGS_START = PHOTO_HREFS + HREF_TYPES.length * HREF_SIZES.length;
+    private static final int PHOTO_TAGS_COUNT = PHOTO_TAGS_START + 1;
+    private static final int PHOTO_RECORD_SIZE = PHOTO_TAGS_COUNT + 1;
+
+    // Tag records: predicate, value
+    private static final int TAG_RECORD_SIZE = 2;
+    // Posting records: tag, start (in the posting data), count
+    private static final int POSTING_RECORD_SIZE = 3;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 15 * 4;
+
+    private final ByteBuffer mBuffer;
+    private final int mStringCount, mTaxonCount, mSectionCount, mPhotoCount, mTagCount, mTextCount, mPostingCount;
+    private final int mStringsPos, mGuidePos, mTaxaPos, mTextsPos, mTagsPos, mSectionsPos, mPhotosPos, mPostingsPos, mPostingDataPos;
+    // Decoded strings (decoded on first access)
+    private final String[] mStrings;
+
+    private GuideSnapshot(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if ((buffer.capacity() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+            throw new IOException("Invalid guide snapshot");
+        }
+
+        int pos = 4 + 4 + 8 + 8;
+        mStringCount = buffer.getInt(pos); pos += 4;
+        mTaxonCount = buffer.getInt(pos); pos += 4;
+        mSectionCount = buffer.getInt(pos); pos += 4;
+        mPhotoCount = buffer.getInt(pos); pos += 4;
+        mTagCount = buffer.getInt(pos); pos += 4;
+        mTextCount = buffer.getInt(pos); pos += 4;
+        mPostingCount = buffer.getInt(pos); pos += 4;
+        mStringsPos = buffer.getInt(pos); pos += 4;
+        mGuidePos = buffer.getInt(pos); pos += 4;
+        mTaxaPos = buffer.getInt(pos); pos += 4;
+        mTextsPos = buffer.getInt(pos); pos += 4;
+        mTagsPos = buffer.getInt(pos); pos += 4;
+        mSectionsPos = buffer.getInt(pos); pos += 4;
+        mPhotosPos = buffer.getInt(pos); pos += 4;
+        mPostingsPos = buffer.getInt(pos);
+        mPostingDataPos = mPostingsPos + mPostingCount * POSTING_RECORD_SIZE * 4;
+        if ((mStringsPos < HEADER_SIZE) || (mPostingDataPos > buffer.capacity())) {
+            throw new IOException("Truncated guide snapshot");
+        }
+
+        mStrings = new String[mStringCount];
+    }
+
+    /**
+     * Opens the snapshot of a guide XML file - memory-maps the existing snapshot if it's up to date, otherwise
+     * parses the XML file (and writes a new snapshot for next time).
+     * @param xmlPath the guide XML file path
+     * @return the snapshot, or null if the XML file couldn't be read
+     */
+    public static GuideSnapshot open(String xmlPath) {
+        long startTime = System.currentTimeMillis();
+        File xmlFile = new File(xmlPath);
+        File snapshotFile = new File(xmlPath + FILE_SUFFIX);
+
+        GuideSnapshot snapshot = map(snapshotFile, xmlFile);
+        if (snapshot != null) {
+            Log.d(TAG, String.format("Opened %s from snapshot in %d ms", xmlPath, System.currentTimeMillis() - startTime));
+            return snapshot;
+        }
+
+        byte[] data = compile(xmlFile);
+        if (data == null) return null;
+
+        try {
+            snapshot = new GuideSnapshot(ByteBuffer.wrap(data));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        Log.d(TAG, String.format("Parsed %s (%d taxa) in %d ms", xmlPath, snapshot.getTaxonCount(), System.currentTimeMillis() - startTime));
+
+        write(snapshotFile, data);
+
+        return snapshot;
+    }
+
+    // Memory-maps a snapshot file (returns null if it doesn't exist, or doesn't match the XML file)
+    private static GuideSnapshot map(File snapshotFile, File xmlFile) {
+        if (!snapshotFile.exists()) return null;
+
+        FileInputStream is = null;
+        try {
+            is = new FileInputStream(snapshotFile);
+            FileChannel channel = is.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            GuideSnapshot snapshot = new GuideSnapshot(buffer);
+
+            if ((buffer.getLong(8) != xmlFile.lastModified()) || (buffer.getLong(16) != xmlFile.length())) {
+                // XML file has changed since the snapshot was written
+                Log.d(TAG, "Snapshot is out of date: " + snapshotFile);
+                return null;
+            }
+
+            return snapshot;
+        } catch (IOException e) {
+            Log.e(TAG, "Invalid snapshot " + snapshotFile + ": " + e.toString());
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static void write(File snapshotFile, byte[] data) {
+        // Write to a temp file first, so a partially-written snapshot will never be used
+        File tempFile = new File(snapshotFile.getAbsolutePath() + ".tmp");
+        try {
+            FileOutputStream os = new FileOutputStream(tempFile);
+            try {
+                os.write(data);
+            } finally {
+                os.close();
+            }
+            if (!tempFile.renameTo(snapshotFile)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            // Not critical - the XML file will simply be parsed again next time
+            Log.e(TAG, "Failed writing snapshot " + snapshotFile + ": " + e.toString());
+            tempFile.delete();
+        }
+    }
+
+    // Parses the XML file and returns its snapshot data (null in case of an error)
+    private static byte[] compile(File xmlFile) {
+        FileReader fr;
+        try {
+            fr = new FileReader(xmlFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        try {
+            XPath xpath = XPathFactory.newInstance().newXPath();
+            Node root = (Node) xpath.evaluate("/", new InputSource(fr), XPathConstants.NODE);
+            return new Compiler(root).compile(xmlFile.lastModified(), xmlFile.length());
+        } catch (XPathExpressionException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            try {
+                fr.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    public String getGuideField(int field) {
+        return getString(mBuffer.getInt(mGuidePos + field * 4));
+    }
+
+    public int getTaxonCount() {
+        return mTaxonCount;
+    }
+
+    public String getTaxonField(int taxon, int field) {
+        return getString(getTaxonInt(taxon, field));
+    }
+
+    // The searchable text values of the taxon (the text of its child elements)
+    public String[] getTaxonTexts(int taxon) {
+        int start = getTaxonInt(taxon, TAXON_TEXTS_START);
+        String[] texts = new String[getTaxonInt(taxon, TAXON_TEXTS_COUNT)];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = getString(mBuffer.getInt(mTextsPos + (start + i) * 4));
+        }
+        return texts;
+    }
+
+    public int getTaxonTagCount(int taxon) {
+        return getTaxonInt(taxon, TAXON_TAGS_COUNT);
+    }
+
+    public String getTaxonTagPredicate(int taxon, int tag) {
+        return getTagField(getTaxonInt(taxon, TAXON_TAGS_START) + tag, 0);
+    }
+
+    public String getTaxonTagValue(int taxon, int tag) {
+        return getTagField(getTaxonInt(taxon, TAXON_TAGS_START) + tag, 1);
+    }
+
+    public int getTaxonSectionStart(int taxon) {
+        return getTaxonInt(taxon, TAXON_SECTIONS_START);
+    }
+
+    public int getTaxonSectionCount(int taxon) {
+        return getTaxonInt(taxon, TAXON_SECTIONS_COUNT);
+    }
+
+    public int getTaxonPhotoStart(int taxon) {
+        return getTaxonInt(taxon, TAXON_PHOTOS_START);
+    }
+
+    public int getTaxonPhotoCount(int taxon) {
+        return getTaxonInt(taxon, TAXON_PHOTOS_COUNT);
+    }
+
+    public String getSectionField(int section, int field) {
+        return getString(mBuffer.getInt(mSectionsPos + (section * SECTION_RECORD_SIZE + field) * 4));
+    }
+
+    public int getPhotoCount() {
+        return mPhotoCount;
+    }
+
+    public String getPhotoField(int photo, int field) {
+        return getString(getPhotoInt(photo, field));
+    }
+
+    // Returns the href of a photo (or null if it doesn't have one), by type and size (index in HREF_TYPES/HREF_SIZES)
+    public String getPhotoHref(int photo, int type, int size) {
+        return getString(getPhotoInt(photo, PHOTO_HREFS + type * HREF_SIZES.length + size));
+    }
+
+    public int getPhotoTagCount(int photo) {
+        return getPhotoInt(photo, PHOTO_TAGS_COUNT);
+    }
+
+    public String getPhotoTagPredicate(int photo, int tag) {
+        return getTagField(getPhotoInt(photo, PHOTO_TAGS_START) + tag, 0);
+    }
+
+    public String getPhotoTagValue(int photo, int tag) {
+        return getTagField(getPhotoInt(photo, PHOTO_TAGS_START) + tag, 1);
+    }
+
+    // Tag postings: tag (e.g. "color=red") -> taxa that have that tag (either the taxon or one of its photos)
+    public Map<String, BitSet> getTagPostings() {
+        Map<String, BitSet> postings = new HashMap<String, BitSet>(mPostingCount * 2);
+        for (int i = 0; i < mPostingCount; i++) {
+            int pos = mPostingsPos + i * POSTING_RECORD_SIZE * 4;
+            String tag = getString(mBuffer.getInt(pos));
+            int start = mBuffer.getInt(pos + 4);
+            int count = mBuffer.getInt(pos + 8);
+
+            BitSet taxa = new BitSet(mTaxonCount);
+            for (int j = 0; j < count; j++) {
+                taxa.set(mBuffer.getInt(mPostingDataPos + (start + j) * 4));
+            }
+            postings.put(tag, taxa);
+        }
+        return postings;
+    }
+
+    private int getTaxonInt(int taxon, int field) {
+        return mBuffer.getInt(mTaxaPos + (taxon * TAXON_RECORD_SIZE + field) * 4);
+    }
+
+    private int getPhotoInt(int photo, int field) {
+        return mBuffer.getInt(mPhotosPos + (photo * PHOTO_RECORD_SIZE + field) * 4);
+    }
+
+    private String getTagField(int tag, int field) {
+        return getString(mBuffer.getInt(mTagsPos + (tag * TAG_RECORD_SIZE + field) * 4));
+    }
+
+    private String getString(int index) {
+        if (index < 0) return null;
+
+        String value = mStrings[index];
+        if (value == null) {
+            int pos = mBuffer.getInt(mStringsPos + index * 4);
+            byte[] bytes = new byte[mBuffer.getInt(pos)];
+            // Use a duplicate, since the position of the shared buffer shouldn't change
+            ByteBuffer buffer = mBuffer.duplicate();
+            buffer.position(pos + 4);
+            buffer.get(bytes);
+            try {
+                value = new String(bytes, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+            mStrings[index] = value;
+        }
+        return value;
+    }
+
+
+    /**
+     * Walks the guide DOM (once) and serializes it into the snapshot format
+     */
+    private static class Compiler extends BaseGuideXMLParser {
+        private final Map<String, Integer> mStringIndexes = new HashMap<String, Integer>();
+        private final List<String> mStringList = new ArrayList<String>();
+
+        private final IntArray mGuide = new IntArray();
+        private final IntArray mTaxa = new IntArray();
+        private final IntArray mTexts = new IntArray();
+        private final IntArray mTags = new IntArray();
+        private final IntArray mSections = new IntArray();
+        private final IntArray mPhotos = new IntArray();
+        private final Map<String, IntArray> mPostings = new LinkedHashMap<String, IntArray>();
+
+        public Compiler(Node root) {
+            setRootNode(root);
+        }
+
+        public byte[] compile(long xmlModified, long xmlSize) {
+            for (String xpath : GUIDE_XPATHS) {
+                mGuide.add(addString(getValueByXPath(xpath)));
+            }
+
+            List<Node> taxa = getNodesByXPath("//GuideTaxon");
+            if (taxa == null) taxa = new ArrayList<Node>();
+            for (int i = 0; i < taxa.size(); i++) {
+                addTaxon(i, (Element) taxa.get(i));
+            }
+
+            return serialize(xmlModified, xmlSize, taxa.size());
+        }
+
+        private void addTaxon(int index, Element taxon) {
+            int textsStart = mTexts.size();
+            int tagsStart = mTags.size() / TAG_RECORD_SIZE;
+
+            NodeList children = taxon.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                Node child = children.item(i);
+                if (child.getNodeType() != Node.ELEMENT_NODE) continue;
+
+                // Searchable texts - the direct text of each child element
+                NodeList textNodes = child.getChildNodes();
+                for (int j = 0; j < textNodes.getLength(); j++) {
+                    Node textNode = textNodes.item(j);
+                    if ((textNode.getNodeType() != Node.TEXT_NODE) && (textNode.getNodeType() != Node.CDATA_SECTION_NODE)) continue;
+                    if (textNode.getNodeValue().trim().length() == 0) continue;
+                    mTexts.add(addString(textNode.getNodeValue()));
+                }
+
+                if (getLocalName(child).equals("tag")) {
+                    mTags.add(addString(((Element) child).getAttribute("predicate")));
+                    mTags.add(addString(child.getTextContent()));
+                }
+            }
+
+            // Tag postings - tags of the taxon itself and of its photos
+            NodeList tags = taxon.getElementsByTagName("tag");
+            for (int i = 0; i < tags.getLength(); i++) {
+                String tag = tags.item(i).getTextContent();
+                IntArray posting = mPostings.get(tag);
+                if (posting == null) {
+                    posting = new IntArray();
+                    mPostings.put(tag, posting);
+                    addString(tag);
+                }
+                if ((posting.size() == 0) || (posting.get(posting.size() - 1) != index)) posting.add(index);
+            }
+
+            int sectionsStart = mSections.size() / SECTION_RECORD_SIZE;
+            List<Element> sections = getDescendants(taxon, "GuideSection");
+            for (Element section : sections) {
+                mSections.add(addString(getChildText(section, "title")));
+                mSections.add(addString(getChildText(section, "body")));
+                mSections.add(addString(getChildText(section, "attribution")));
+                mSections.add(addString(getChildText(section, "rightsHolder")));
+            }
+
+            int photosStart = mPhotos.size() / PHOTO_RECORD_SIZE;
+            List<Element> photos = getDescendants(taxon, "GuidePhoto");
+            for (Element photo : photos) {
+                addPhoto(photo);
+            }
+
+            mTaxa.add(addString(getDescendantText(taxon, "name")));
+            mTaxa.add(addString(getDescendantText(taxon, "displayName")));
+            mTaxa.add(addString(getDescendantText(taxon, "taxonID")));
+            mTaxa.add(textsStart);
+            mTaxa.add(mTexts.size() - textsStart);
+            mTaxa.add(tagsStart);
+            mTaxa.add(mTags.size() / TAG_RECORD_SIZE - tagsStart);
+            mTaxa.add(sectionsStart);
+            mTaxa.add(sections.size());
+            mTaxa.add(photosStart);
+            mTaxa.add(photos.size());
+        }
+
+        private void addPhoto(Element photo) {
+            mPhotos.add(addString(getChildText(photo, "description")));
+            mPhotos.add(addString(getChildText(photo, "attribution")));
+            mPhotos.add(addString(getChildText(photo, "rightsHolder")));
+
+            List<Element> hrefs = getDescendants(photo, "href");
+            for (String type : HREF_TYPES) {
+                for (String size : HREF_SIZES) {
+                    String value = null;
+                    for (Element href : hrefs) {
+                        if (type.equals(href.getAttribute("type")) && size.equals(href.getAttribute("size"))) {
+                            value = href.getTextContent();
+                            break;
+                        }
+                    }
+                    mPhotos.add(value != null ? addString(value) : -1);
+                }
+            }
+
+            int tagsStart = mTags.size() / TAG_RECORD_SIZE;
+            NodeList children = photo.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                Node child = children.item(i);
+                if ((child.getNodeType() != Node.ELEMENT_NODE) || (!getLocalName(child).equals("tag"))) continue;
+                mTags.add(addString(((Element) child).getAttribute("predicate")));
+                mTags.add(addString(((Element) child).getAttribute("value")));
+            }
+            mPhotos.add(tagsStart);
+            mPhotos.add(mTags.size() / TAG_RECORD_SIZE - tagsStart);
+        }
+
+        private byte[] serialize(long xmlModified, long xmlSize, int taxonCount) {
+            byte[][] strings = new byte[mStringList.size()][];
+            int stringsSize = 0;
+            try {
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = mStringList.get(i).getBytes("UTF-8");
+                    stringsSize += 4 + strings[i].length;
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+
+            int postingDataSize = 0;
+            for (IntArray posting : mPostings.values()) {
+                postingDataSize += posting.size();
+            }
+
+            int stringsPos = HEADER_SIZE;
+            int guidePos = stringsPos + strings.length * 4;
+            int taxaPos = guidePos + mGuide.size() * 4;
+            int textsPos = taxaPos + mTaxa.size() * 4;
+            int tagsPos = textsPos + mTexts.size() * 4;
+            int sectionsPos = tagsPos + mTags.size() * 4;
+            int photosPos = sectionsPos + mSections.size() * 4;
+            int postingsPos = photosPos + mPhotos.size() * 4;
+            int postingDataPos = postingsPos + mPostings.size() * POSTING_RECORD_SIZE * 4;
+            int stringDataPos = postingDataPos + postingDataSize * 4;
+
+            ByteBuffer buffer = ByteBuffer.allocate(stringDataPos + stringsSize);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(xmlModified);
+            buffer.putLong(xmlSize);
+            buffer.putInt(strings.length);
+            buffer.putInt(taxonCount);
+            buffer.putInt(mSections.size() / SECTION_RECORD_SIZE);
+            buffer.putInt(mPhotos.size() / PHOTO_RECORD_SIZE);
+            buffer.putInt(mTags.size() / TAG_RECORD_SIZE);
+            buffer.putInt(mTexts.size());
+            buffer.putInt(mPostings.size());
+            buffer.putInt(stringsPos);
+            buffer.putInt(guidePos);
+            buffer.putInt(taxaPos);
+            buffer.putInt(textsPos);
+            buffer.putInt(tagsPos);
+            buffer.putInt(sectionsPos);
+            buffer.putInt(photosPos);
+            buffer.putInt(postingsPos);
+
+            // String offsets
+            int offset = stringDataPos;
+            for (byte[] string : strings) {
+                buffer.putInt(offset);
+                offset += 4 + string.length;
+            }
+
+            mGuide.writeTo(buffer);
+            mTaxa.writeTo(buffer);
+            mTexts.writeTo(buffer);
+            mTags.writeTo(buffer);
+            mSections.writeTo(buffer);
+            mPhotos.writeTo(buffer);
+
+            int postingStart = 0;
+            for (Map.Entry<String, IntArray> posting : mPostings.entrySet()) {
+                buffer.putInt(mStringIndexes.get(posting.getKey()));
+                buffer.putInt(postingStart);
+                buffer.putInt(posting.getValue().size());
+                postingStart += posting.getValue().size();
+            }
+            for (IntArray posting : mPostings.values()) {
+                posting.writeTo(buffer);
+            }
+
+            for (byte[] string : strings) {
+                buffer.putInt(string.length);
+                buffer.put(string);
+            }
+
+            return buffer.array();
+        }
+
+        private int addString(String value) {
+            if (value == null) return -1;
+            Integer index = mStringIndexes.get(value);
+            if (index == null) {
+                index = mStringList.size();
+                mStringList.add(value);
+                mStringIndexes.put(value, index);
+            }
+            return index;
+        }
+
+        // Returns the text of the first child element with the specified local name (empty string if not found)
+        private static String getChildText(Element parent, String localName) {
+            NodeList children = parent.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                Node child = children.item(i);
+                if ((child.getNodeType() == Node.ELEMENT_NODE) && (getLocalName(child).equals(localName))) {
+                    return child.getTextContent();
+                }
+            }
+            return "";
+        }
+
+        // Returns the text of the first descendant element with the specified local name (empty string if not found)
+        private static String getDescendantText(Element parent, String localName) {
+            List<Element> descendants = getDescendants(parent, localName);
+            return descendants.size() > 0 ? descendants.get(0).getTextContent() : "";
+        }
+
+        // Returns all descendant elements with the specified local name (in document order)
+        private static List<Element> getDescendants(Element parent, String localName) {
+            List<Element> results = new ArrayList<Element>();
+            addDescendants(parent, localName, results);
+            return results;
+        }
+
+        private static void addDescendants(Node parent, String localName, List<Element> results) {
+            NodeList children = parent.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                Node child = children.item(i);
+                if (child.getNodeType() != Node.ELEMENT_NODE) continue;
+                if (getLocalName(child).equals(localName)) results.add((Element) child);
+                addDescendants(child, localName, results);
+            }
+        }
+
+        private static String getLocalName(Node node) {
+            String name = node.getLocalName();
+            if (name == null) {
+                name = node.getNodeName();
+                int prefixEnd = name.indexOf(':');
+                if (prefixEnd > -1) name = name.substring(prefixEnd + 1);
+            }
+            return name;
+        }
+    }
+
+    // Growable int array (avoids boxing while compiling large guides)
+    private static class IntArray {
+        private int[] mValues = new int[64];
+        private int mSize = 0;
+
+        public void add(int value) {
+            if (mSize == mValues.length) {
+                int[] values = new int[mValues.length * 2];
+                System.arraycopy(mValues, 0, values, 0, mSize);
+                mValues = values;
+            }
+            mValues[mSize++] = value;
+        }
+
+        public int get(int index) {
+            return mValues[index];
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public void writeTo(ByteBuffer buffer) {
+            for (int i = 0; i < mSize; i++) {
+                buffer.putInt(mValues[i]);
+            }
+        }
+    }
+}
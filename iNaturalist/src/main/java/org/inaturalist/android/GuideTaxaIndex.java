@@ -0,0 +1,143 @@
+package org.inaturalist.android;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory index of a guide's taxa - compiled once (when the guide is loaded), so filtering the taxa by
+ * search text and tags is done using bitset intersections (instead of evaluating XPath expressions over the
+ * entire guide DOM for every keystroke).
+ *
+ * Taxa are kept in document order, and each taxon is identified by its index in that order.
+ */
+public class GuideTaxaIndex {
+    // Length of the n-grams used for indexing the taxa text
+    private static final int NGRAM_LENGTH = 3;
+
+    private final GuideSnapshot mSnapshot;
+    private final int mTaxonCount;
+    // Taxon ID -> taxon index
+    private final Map<String, Integer> mTaxonIds = new HashMap<String, Integer>();
+    // Tag (e.g. "color=red") -> taxa that have this tag
+    private final Map<String, BitSet> mTagPostings;
+
+    // Lowercase searchable text values of each taxon (name, display name, tags, etc.) - loaded on first text search
+    private String[][] mTexts;
+    // Lowercase n-gram -> taxa that have this n-gram in one of their text values
+    private Map<String, BitSet> mNGramPostings;
+
+    /**
+     * Compiles the index
+     * @param snapshot the parsed guide
+     */
+    public GuideTaxaIndex(GuideSnapshot snapshot) {
+        mSnapshot = snapshot;
+        mTaxonCount = snapshot.getTaxonCount();
+        mTagPostings = snapshot.getTagPostings();
+
+        for (int i = 0; i < mTaxonCount; i++) {
+            String taxonId = snapshot.getTaxonField(i, GuideSnapshot.TAXON_ID).trim();
+            if (!mTaxonIds.containsKey(taxonId)) mTaxonIds.put(taxonId, i);
+        }
+    }
+
+    /**
+     * Returns the number of taxa in the guide
+     */
+    public int size() {
+        return mTaxonCount;
+    }
+
+    /**
+     * Returns the index of the taxon with the specified ID (or -1 if not found)
+     */
+    public int indexOfTaxonId(String taxonId) {
+        if (taxonId == null) return -1;
+        Integer index = mTaxonIds.get(taxonId.trim());
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Returns the taxa that have the specified tag (should not be modified)
+     */
+    public BitSet getTaxaWithTag(String tag) {
+        BitSet taxa = mTagPostings.get(tag);
+        return taxa != null ? taxa : new BitSet();
+    }
+
+    /**
+     * Returns the taxa that fit the filter (all of its tags + search text)
+     * @param filter the taxon filter
+     * @return the indexes of the matching taxa
+     */
+    public BitSet filter(GuideTaxonFilter filter) {
+        BitSet results = new BitSet(mTaxonCount);
+        results.set(0, mTaxonCount);
+
+        for (String tag : filter.getAllTags()) {
+            results.and(getTaxaWithTag(tag));
+        }
+
+        String searchText = filter.getSearchText();
+        if ((searchText == null) || (searchText.length() == 0) || (results.isEmpty())) {
+            return results;
+        }
+        searchText = searchText.toLowerCase();
+        indexTexts();
+
+        // Narrow down the candidates using the n-grams of the search text
+        for (int i = 0; i + NGRAM_LENGTH <= searchText.length(); i++) {
+            BitSet postings = mNGramPostings.get(searchText.substring(i, i + NGRAM_LENGTH));
+            if (postings == null) {
+                results.clear();
+                return results;
+            }
+            results.and(postings);
+            if (results.isEmpty()) return results;
+        }
+
+        // Verify the remaining candidates (all n-grams appearing doesn't mean the entire search text appears)
+        for (int i = results.nextSetBit(0); i >= 0; i = results.nextSetBit(i + 1)) {
+            if (!containsText(i, searchText)) results.clear(i);
+        }
+
+        return results;
+    }
+
+    // Builds the n-gram index (only needed once the user searches by text)
+    private void indexTexts() {
+        if (mNGramPostings != null) return;
+
+        mTexts = new String[mTaxonCount][];
+        mNGramPostings = new HashMap<String, BitSet>();
+
+        for (int i = 0; i < mTaxonCount; i++) {
+            String[] texts = mSnapshot.getTaxonTexts(i);
+            for (int j = 0; j < texts.length; j++) {
+                texts[j] = texts[j].toLowerCase();
+                addNGrams(texts[j], i);
+            }
+            mTexts[i] = texts;
+        }
+    }
+
+    private boolean containsText(int index, String searchText) {
+        for (String text : mTexts[index]) {
+            if (text.contains(searchText)) return true;
+        }
+        return false;
+    }
+
+    private void addNGrams(String text, int index) {
+        for (int i = 0; i + NGRAM_LENGTH <= text.length(); i++) {
+            String ngram = text.substring(i, i + NGRAM_LENGTH);
+            BitSet taxa = mNGramPostings.get(ngram);
+            if (taxa == null) {
+                taxa = new BitSet(mTaxonCount);
+                mNGramPostings.put(ngram, taxa);
+            }
+            taxa.set(index);
+        }
+    }
+}
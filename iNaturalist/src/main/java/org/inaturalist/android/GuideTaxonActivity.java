@@ -474,6 +474,12 @@ public class GuideTaxonActivity extends AppCompatActivity {
 
              String photoPath = this.getPhotoLocation(photo, photoType);
 
+             if (isOffline && ((photoPath == null) || (photoPath.length() == 0))) {
+                 // No offline version of this photo - use the online one instead
+                 isOffline = false;
+                 photoPath = this.getPhotoLocation(photo, GuideTaxonPhotoXML.PhotoType.REMOTE);
+             }
+
              if (isOffline) {
                  return Uri.fromFile(new File(photoPath));
              } else {
@@ -529,6 +535,12 @@ public class GuideTaxonActivity extends AppCompatActivity {
 
              String photoPath = this.getPhotoLocation(photo, photoType);
 
+             if (isOffline && ((photoPath == null) || (photoPath.length() == 0))) {
+                 // No offline version of this photo - use the online one instead
+                 isOffline = false;
+                 photoPath = this.getPhotoLocation(photo, GuideTaxonPhotoXML.PhotoType.REMOTE);
+             }
+
              if (isOffline) {
                  Bitmap bitmap = BitmapFactory.decodeFile(photoPath);
                  imageView.setImageBitmap(bitmap);
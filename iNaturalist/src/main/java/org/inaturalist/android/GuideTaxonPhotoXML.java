@@ -1,16 +1,15 @@
 package org.inaturalist.android;
 
-import org.w3c.dom.Node;
-
 import java.io.File;
 import java.io.Serializable;
 
 /**
  * Represents a GuideTaxonPhotoXML XML node
  */
-public class GuideTaxonPhotoXML extends BaseGuideXMLParser implements Serializable {
+public class GuideTaxonPhotoXML implements Serializable {
 
     private GuideXML mGuide;
+    private int mIndex;
 
     // The type of guide taxon photo (remote/local)
     public enum PhotoType {
@@ -27,13 +26,13 @@ public class GuideTaxonPhotoXML extends BaseGuideXMLParser implements Serializab
     }
 
     /**
-     * Initialize the GuideTaxonPhotoXML class with the base guide and root XML node for it
+     * Initialize the GuideTaxonPhotoXML class with the base guide and the photo index in it
      * @param guide
-     * @param root
+     * @param index
      */
-    public GuideTaxonPhotoXML(GuideXML guide, Node root) {
-        setRootNode(root);
+    public GuideTaxonPhotoXML(GuideXML guide, int index) {
         mGuide = guide;
+        mIndex = index;
     }
 
 
@@ -42,7 +41,7 @@ public class GuideTaxonPhotoXML extends BaseGuideXMLParser implements Serializab
      * @return the photo's description
      */
     public String getDescription() {
-        return getValueByXPath("dc:description");
+        return mGuide.getSnapshot().getPhotoField(mIndex, GuideSnapshot.PHOTO_DESCRIPTION);
     }
 
     /**
@@ -50,7 +49,7 @@ public class GuideTaxonPhotoXML extends BaseGuideXMLParser implements Serializab
      * @return the photo's attribution
      */
     public String getAttribution() {
-        return getValueByXPath("attribution");
+        return mGuide.getSnapshot().getPhotoField(mIndex, GuideSnapshot.PHOTO_ATTRIBUTION);
     }
 
     /**
@@ -58,7 +57,7 @@ public class GuideTaxonPhotoXML extends BaseGuideXMLParser implements Serializab
      * @return the photo's rights holder
      */
     public String getRightsHolder() {
-        return getValueByXPath("dcterms:rightsHolder");
+        return mGuide.getSnapshot().getPhotoField(mIndex, GuideSnapshot.PHOTO_RIGHTS_HOLDER);
     }
 
 
@@ -67,38 +66,20 @@ public class GuideTaxonPhotoXML extends BaseGuideXMLParser implements Serializab
      * and photo size (thumbnail/small/medium/large).
      * @param photoType
      * @param photoSize
-     * @return URL of the photo (if photoType==REMOTE) or file location (if photoType==LOCAL)
+     * @return URL of the photo (if photoType==REMOTE) or file location (if photoType==LOCAL) - an empty string if
+     * the guide has no such photo, or null if the local photo file is missing
      */
     public String getPhotoLocation(PhotoType photoType, PhotoSize photoSize) {
-        String typeString, sizeString;
-        switch (photoType) {
-            case LOCAL:
-                typeString = "local";
-                break;
-            case REMOTE:
-            default:
-                typeString = "remote";
-        }
-        switch (photoSize) {
-            case THUMBNAIL:
-                sizeString = "thumb";
-                break;
-            case SMALL:
-                sizeString = "small";
-                break;
-            case MEDIUM:
-                sizeString = "medium";
-                break;
-            case LARGE:
-            default:
-                sizeString = "large";
-        }
+        // PhotoSize ordinals match the order of GuideSnapshot.HREF_SIZES
+        int typeIndex = (photoType == PhotoType.LOCAL) ? 1 : 0;
+        String path = mGuide.getSnapshot().getPhotoHref(mIndex, typeIndex, photoSize.ordinal());
 
-        String path = getValueByXPath(String.format(
-                "descendant::href[@type='%s' and @size='%s']",
-                typeString, sizeString));
+        if (path == null) {
+            // No such photo size/type (same as an empty XML value)
+            return "";
+        }
 
-        if ((photoType == PhotoType.LOCAL) && (path != null)) {
+        if (photoType == PhotoType.LOCAL) {
             // Path is local - Need to convert it from a relative path (e.g. "files/guide_photo-1234.jpg") to a full fledged path
             path = mGuide.getOfflineGuidePath() + "/" + path;
 
@@ -1,18 +1,21 @@
 package org.inaturalist.android;
 
-import org.w3c.dom.Node;
-
 /**
  * Represents a GuideTaxonSection XML node
  */
-public class GuideTaxonSectionXML extends BaseGuideXMLParser {
+public class GuideTaxonSectionXML {
+
+    private GuideSnapshot mSnapshot;
+    private int mIndex;
 
     /**
-     * Initialize the GuideTaxonSectionXML class with the root XML node for it
-     * @param root
+     * Initialize the GuideTaxonSectionXML class with the parsed guide and the section index in it
+     * @param snapshot
+     * @param index
      */
-    public GuideTaxonSectionXML(Node root) {
-        setRootNode(root);
+    public GuideTaxonSectionXML(GuideSnapshot snapshot, int index) {
+        mSnapshot = snapshot;
+        mIndex = index;
     }
 
 
@@ -21,7 +24,7 @@ public class GuideTaxonSectionXML extends BaseGuideXMLParser {
      * @return the section's title
      */
     public String getTitle() {
-        return getValueByXPath("dc:title");
+        return mSnapshot.getSectionField(mIndex, GuideSnapshot.SECTION_TITLE);
     }
 
     /**
@@ -29,7 +32,7 @@ public class GuideTaxonSectionXML extends BaseGuideXMLParser {
      * @return the section's body
      */
     public String getBody() {
-        return getValueByXPath("dc:body");
+        return mSnapshot.getSectionField(mIndex, GuideSnapshot.SECTION_BODY);
     }
 
     /**
@@ -37,7 +40,7 @@ public class GuideTaxonSectionXML extends BaseGuideXMLParser {
      * @return the section's attribution
      */
     public String getAttribution() {
-        return getValueByXPath("attribution");
+        return mSnapshot.getSectionField(mIndex, GuideSnapshot.SECTION_ATTRIBUTION);
     }
 
     /**
@@ -45,7 +48,7 @@ public class GuideTaxonSectionXML extends BaseGuideXMLParser {
      * @return the section's rights holder
      */
     public String getRightsHolder() {
-        return getValueByXPath("dcterms:rightsHolder");
+        return mSnapshot.getSectionField(mIndex, GuideSnapshot.SECTION_RIGHTS_HOLDER);
     }
 
 }
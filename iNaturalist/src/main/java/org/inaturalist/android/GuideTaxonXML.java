@@ -1,34 +1,43 @@
 package org.inaturalist.android;
 
-import org.w3c.dom.Node;
-
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Represents a GuideTaxon XML node
  */
-public class GuideTaxonXML extends BaseGuideXMLParser {
+public class GuideTaxonXML {
 
     private GuideXML mGuide;
+    private GuideSnapshot mSnapshot;
+    private int mIndex;
 
     /**
-     * Initialize the GuideTaxonXML class with the parent guide and root XML node for it
+     * Initialize the GuideTaxonXML class with the parent guide and the taxon index in it
      * @param guide
-     * @param root
+     * @param index
      */
-    public GuideTaxonXML(GuideXML guide, Node root) {
+    public GuideTaxonXML(GuideXML guide, int index) {
         mGuide = guide;
-        setRootNode(root);
+        mSnapshot = guide.getSnapshot();
+        mIndex = index;
     }
 
 
+    /**
+     * Returns the taxon's index in the guide
+     * @return the taxon's index
+     */
+    int getIndex() {
+        return mIndex;
+    }
+
     /**
      * Returns the taxon's name
      * @return the taxon's name
      */
     public String getName() {
-        return getValueByXPath("descendant::name");
+        return mSnapshot.getTaxonField(mIndex, GuideSnapshot.TAXON_NAME);
     }
 
     /**
@@ -36,7 +45,7 @@ public class GuideTaxonXML extends BaseGuideXMLParser {
      * @return the taxon's display name
      */
     public String getDisplayName() {
-        return getValueByXPath("descendant::displayName");
+        return mSnapshot.getTaxonField(mIndex, GuideSnapshot.TAXON_DISPLAY_NAME);
     }
 
     /**
@@ -44,7 +53,22 @@ public class GuideTaxonXML extends BaseGuideXMLParser {
      * @return the taxon's id
      */
     public String getTaxonId() {
-        return getValueByXPath("descendant::taxonID");
+        return mSnapshot.getTaxonField(mIndex, GuideSnapshot.TAXON_ID);
+    }
+
+    /**
+     * Returns the taxon's tags (e.g. "color=red")
+     * @return list of tags
+     */
+    public List<String> getTags() {
+        int count = mSnapshot.getTaxonTagCount(mIndex);
+        ArrayList<String> tags = new ArrayList<String>(count);
+
+        for (int i = 0; i < count; i++) {
+            tags.add(mSnapshot.getTaxonTagValue(mIndex, i));
+        }
+
+        return tags;
     }
 
 
@@ -53,11 +77,12 @@ public class GuideTaxonXML extends BaseGuideXMLParser {
      * @return list of GuideTaxonSectionXML instances
      */
     public List<GuideTaxonSectionXML> getSections() {
-        List<Node> nodes = getNodesByXPath("descendant::GuideSection");
-        ArrayList<GuideTaxonSectionXML> sections = new ArrayList<GuideTaxonSectionXML>();
+        int start = mSnapshot.getTaxonSectionStart(mIndex);
+        int count = mSnapshot.getTaxonSectionCount(mIndex);
+        ArrayList<GuideTaxonSectionXML> sections = new ArrayList<GuideTaxonSectionXML>(count);
 
-        for (Node node: nodes) {
-            sections.add(new GuideTaxonSectionXML(node));
+        for (int i = start; i < start + count; i++) {
+            sections.add(new GuideTaxonSectionXML(mSnapshot, i));
         }
 
         return sections;
@@ -68,11 +93,12 @@ public class GuideTaxonXML extends BaseGuideXMLParser {
      * @return list of GuideTaxonPhotoXML instances
      */
     public List<GuideTaxonPhotoXML> getPhotos() {
-        List<Node> nodes = getNodesByXPath("descendant::GuidePhoto");
-        ArrayList<GuideTaxonPhotoXML> photos = new ArrayList<GuideTaxonPhotoXML>();
+        int start = mSnapshot.getTaxonPhotoStart(mIndex);
+        int count = mSnapshot.getTaxonPhotoCount(mIndex);
+        ArrayList<GuideTaxonPhotoXML> photos = new ArrayList<GuideTaxonPhotoXML>(count);
 
-        for (Node node: nodes) {
-            photos.add(new GuideTaxonPhotoXML(mGuide, node));
+        for (int i = start; i < start + count; i++) {
+            photos.add(new GuideTaxonPhotoXML(mGuide, i));
         }
 
         return photos;
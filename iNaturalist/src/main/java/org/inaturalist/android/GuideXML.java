@@ -4,42 +4,23 @@ import android.content.Context;
 import android.util.Log;
 import android.util.Pair;
 
-import org.apache.commons.lang3.StringUtils;
-import org.w3c.dom.Node;
-import org.xml.sax.InputSource;
-
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 /**
- * Represents a Guide's XML file - parses it and supports downloading an NGZ file locally
+ * Represents a Guide's XML file - parses it (see GuideSnapshot) and supports downloading an NGZ file locally
  */
-public class GuideXML extends BaseGuideXMLParser {
+public class GuideXML {
+
+    private static final String TAG = "GuideXML";
 
     // The default predicate - tags
     public final static String PREDICATE_TAGS = "TAGS";
@@ -52,6 +33,15 @@ public class GuideXML extends BaseGuideXMLParser {
     private Map<String, Integer> mTagCounts;
     private Map<String, Set<String>> mTags;
 
+    // The parsed guide
+    private GuideSnapshot mSnapshot;
+    // Compiled index of the guide taxa (used for filtering them) - created on first use
+    private GuideTaxaIndex mTaxaIndex;
+    // GuideTaxonXML instances, by taxon index (created on demand)
+    private GuideTaxonXML[] mTaxa;
+    // Used for recommending the next filter predicate - created on first use
+    private GuidePredicateRanker mPredicateRanker;
+
     // Representative photos of the tag values (e.g. what photo should we display for "number of legs=4")
     private Map<Pair<String, String>, List<GuideTaxonPhotoXML>> mReprTagPhotos;
 
@@ -76,31 +66,19 @@ public class GuideXML extends BaseGuideXMLParser {
         mContext = context;
         mGuideId = guideId;
 
-        FileReader fr = null;
-        try {
-            fr = new FileReader(path);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            return;
-        }
-        InputSource inputSource = new InputSource(fr);
-
         mTagCounts = new HashMap<String, Integer>();
         mTags = new HashMap<String, Set<String>>();
 
-        try {
-            // Read root node so we won't re-parse the XML file every time we evaluate an XPath
-            XPath xpath = XPathFactory.newInstance().newXPath();
-            setRootNode((Node) xpath.evaluate("/", inputSource, XPathConstants.NODE));
-
-            // Parse all taxon tags
-            parseTags();
-            // Parse the TaxonImage tags (so we'll know what are the representative image for each tag value)
-            parseImageTags();
-        } catch (XPathExpressionException e) {
-            e.printStackTrace();
+        // Open the guide from its binary snapshot (the XML file is only parsed if there's no up to date snapshot)
+        mSnapshot = GuideSnapshot.open(path);
+        if (mSnapshot == null) {
+            return;
         }
 
+        // Parse all taxon tags
+        parseTags();
+        // Parse the TaxonImage tags (so we'll know what are the representative image for each tag value)
+        parseImageTags();
     }
 
     /**
@@ -196,7 +174,7 @@ public class GuideXML extends BaseGuideXMLParser {
      * Recursively delete files and folders
      * @param uri
      */
-    private void deleteFiles(String uri) {
+    static void deleteFiles(String uri) {
         File currentFile = new File(uri);
         File files[] = currentFile.listFiles();
         if (files != null) {
@@ -211,61 +189,6 @@ public class GuideXML extends BaseGuideXMLParser {
         currentFile.delete();
     }
 
-    /**
-     * Extracts a downloaded NGZ file into the offline guide directory
-     * @param ngzFilename the NGZ file path
-     * @return true/false status
-     */
-    public boolean extractOfflineGuide(String ngzFilename) {
-        // First, create the offline guide directory, if it doesn't exist
-        File offlineGuidesDir = new File(mContext.getExternalCacheDir() + OFFLINE_GUIDE_PATH + mGuideId);
-        offlineGuidesDir.mkdirs();
-
-        // Next, extract the NGZ file into that directory
-        String basePath = offlineGuidesDir.getPath();
-        InputStream is;
-        ZipInputStream zis;
-        try {
-            String filename;
-            is = new FileInputStream(ngzFilename);
-            zis = new ZipInputStream(new BufferedInputStream(is));
-            ZipEntry ze;
-            byte[] buffer = new byte[1024];
-            int count;
-
-            // Extract all files in the zip file - one by one
-            while ((ze = zis.getNextEntry()) != null) {
-                // Get current filename
-                filename = ze.getName();
-
-                // Need to create directories if doesn't exist, or it will generate an Exception...
-                if (ze.isDirectory()) {
-                    File fmd = new File(basePath + "/" + filename);
-                    fmd.mkdirs();
-                    continue;
-                }
-
-                FileOutputStream fout = new FileOutputStream(basePath + "/" + filename);
-
-                // Extract current file
-                while ((count = zis.read(buffer)) != -1) {
-                    fout.write(buffer, 0, count);
-                }
-
-                fout.close();
-                zis.closeEntry();
-            }
-
-            zis.close();
-        }
-        catch(IOException e) {
-            e.printStackTrace();
-            return false;
-        }
-
-        return true;
-    }
-
     /**
      * Returns the guide's ID
      * @return the guide's ID
@@ -280,7 +203,7 @@ public class GuideXML extends BaseGuideXMLParser {
      * @return the guide's title
      */
     public String getTitle() {
-        return getValueByXPath("//INatGuide/dc:title");
+        return getGuideField(GuideSnapshot.GUIDE_TITLE);
     }
 
     /**
@@ -288,7 +211,7 @@ public class GuideXML extends BaseGuideXMLParser {
      * @return the guide's description
      */
     public String getDescription() {
-        return getValueByXPath("//INatGuide/dc:description");
+        return getGuideField(GuideSnapshot.GUIDE_DESCRIPTION);
     }
 
 
@@ -297,7 +220,7 @@ public class GuideXML extends BaseGuideXMLParser {
      * @return the guide's compiler
      */
     public String getCompiler() {
-        return getValueByXPath("//INatGuide/eol:agent[@role='compiler']");
+        return getGuideField(GuideSnapshot.GUIDE_COMPILER);
     }
 
     /**
@@ -305,7 +228,19 @@ public class GuideXML extends BaseGuideXMLParser {
      * @return the guide's license
      */
     public String getLicense() {
-        return getValueByXPath("//INatGuide/dc:license");
+        return getGuideField(GuideSnapshot.GUIDE_LICENSE);
+    }
+
+    private String getGuideField(int field) {
+        return mSnapshot != null ? mSnapshot.getGuideField(field) : null;
+    }
+
+    /**
+     * Returns the parsed guide (null if the guide XML couldn't be read)
+     * @return
+     */
+    GuideSnapshot getSnapshot() {
+        return mSnapshot;
     }
 
     /**
@@ -342,7 +277,7 @@ public class GuideXML extends BaseGuideXMLParser {
      * @return the guide's NGZ URL
      */
     public String getNgzURL() {
-        return getValueByXPath("//ngz/href");
+        return getGuideField(GuideSnapshot.GUIDE_NGZ_URL);
     }
 
     /**
@@ -350,36 +285,32 @@ public class GuideXML extends BaseGuideXMLParser {
      * @return the guide's NGZ file size
      */
     public String getNgzFileSize() {
-        return getValueByXPath("//ngz/size");
+        return getGuideField(GuideSnapshot.GUIDE_NGZ_SIZE);
     }
 
     /**
      * Utility method that parses out all of the guide photos's taxon tags
      */
     private void parseImageTags() {
-        ArrayList<Node> nodes = getNodesByXPath("//GuideTaxon/GuidePhoto/tag");
-
-        if (nodes == null) {
-            return;
-        }
-
         mReprTagPhotos = new HashMap<Pair<String, String>, List<GuideTaxonPhotoXML>>();
 
-        for (Node node: nodes) {
-            String predicateName = getAttribute(node, "predicate");
-            if ((predicateName == null) || (predicateName.length() == 0)) {
-                predicateName = PREDICATE_TAGS;
-            }
-            String value = getAttribute(node, "value");
-            Pair<String, String> key = new Pair<String, String>(predicateName, value);
-            GuideTaxonPhotoXML photo = new GuideTaxonPhotoXML(this, node.getParentNode());
+        for (int i = 0; i < mSnapshot.getPhotoCount(); i++) {
+            for (int j = 0; j < mSnapshot.getPhotoTagCount(i); j++) {
+                String predicateName = mSnapshot.getPhotoTagPredicate(i, j);
+                if ((predicateName == null) || (predicateName.length() == 0)) {
+                    predicateName = PREDICATE_TAGS;
+                }
+                String value = mSnapshot.getPhotoTagValue(i, j);
+                Pair<String, String> key = new Pair<String, String>(predicateName, value);
+                GuideTaxonPhotoXML photo = new GuideTaxonPhotoXML(this, i);
 
-            if (!mReprTagPhotos.containsKey(key)) {
-                mReprTagPhotos.put(key, new ArrayList<GuideTaxonPhotoXML>());
-            }
+                if (!mReprTagPhotos.containsKey(key)) {
+                    mReprTagPhotos.put(key, new ArrayList<GuideTaxonPhotoXML>());
+                }
 
-            List<GuideTaxonPhotoXML> photos = mReprTagPhotos.get(key);
-            photos.add(photo);
+                List<GuideTaxonPhotoXML> photos = mReprTagPhotos.get(key);
+                photos.add(photo);
+            }
         }
     }
 
@@ -393,7 +324,7 @@ public class GuideXML extends BaseGuideXMLParser {
     public List<GuideTaxonPhotoXML> getTagRepresentativePhoto(String tagName, String tagValue) {
         Pair<String, String> key = new Pair<String, String>(tagName, tagValue);
 
-        if (!mReprTagPhotos.containsKey(key)) {
+        if ((mReprTagPhotos == null) || (!mReprTagPhotos.containsKey(key))) {
             return null;
         }
 
@@ -404,31 +335,28 @@ public class GuideXML extends BaseGuideXMLParser {
      * Utility method that parses out all of the guide's taxon tags
      */
     private void parseTags() {
-        ArrayList<Node> nodes = getNodesByXPath("//GuideTaxon/tag");
         Map<String, Set<String>> predicates = new HashMap<String, Set<String>>();
         Map<String, Integer> tagCounts = new HashMap<String, Integer>();
 
-        if (nodes == null) {
-            return;
-        }
+        for (int i = 0; i < mSnapshot.getTaxonCount(); i++) {
+            for (int j = 0; j < mSnapshot.getTaxonTagCount(i); j++) {
+                String predicateName = mSnapshot.getTaxonTagPredicate(i, j);
+                String tagName = mSnapshot.getTaxonTagValue(i, j);
+                if ((predicateName == null) || (predicateName.equalsIgnoreCase(PREDICATE_TAGS)) || (predicateName.length() == 0)) {
+                    predicateName = PREDICATE_TAGS;
+                }
+                if (!predicates.containsKey(predicateName)) {
+                    predicates.put(predicateName, new HashSet<String>());
+                }
+                if (!tagCounts.containsKey(tagName)) {
+                    tagCounts.put(tagName, Integer.valueOf(0));
+                }
+                HashSet<String> tags = (HashSet<String>)predicates.get(predicateName);
+                Integer tagCount = tagCounts.get(tagName);
+                tagCounts.put(tagName, tagCount + 1);
 
-        for (Node node: nodes) {
-            String predicateName = getAttribute(node, "predicate");
-            String tagName = node.getTextContent();
-            if ((predicateName == null) || (predicateName.equalsIgnoreCase(PREDICATE_TAGS)) || (predicateName.length() == 0)) {
-                predicateName = PREDICATE_TAGS;
-            }
-            if (!predicates.containsKey(predicateName)) {
-                predicates.put(predicateName, new HashSet<String>());
+                tags.add(tagName);
             }
-            if (!tagCounts.containsKey(tagName)) {
-                tagCounts.put(tagName, Integer.valueOf(0));
-            }
-            HashSet<String> tags = (HashSet<String>)predicates.get(predicateName);
-            Integer tagCount = tagCounts.get(tagName);
-            tagCounts.put(tagName, tagCount + 1);
-
-            tags.add(tagName);
         }
         
         mTagCounts = tagCounts;
@@ -457,192 +385,95 @@ public class GuideXML extends BaseGuideXMLParser {
      * @return
      */
     public GuideTaxonXML getTaxonById(String taxonId) {
-        ArrayList<Node> nodes = getNodesByXPath(String.format("//GuideTaxon/taxonID/text()[contains(.,'%s')]/ancestor::*[self::GuideTaxon]", taxonId));
+        GuideTaxaIndex index = getTaxaIndex();
+        if (index == null) return null;
 
-        if (nodes.size() == 0) return null;
+        int taxonIndex = index.indexOfTaxonId(taxonId);
+        if (taxonIndex == -1) return null;
 
-        return new GuideTaxonXML(this, nodes.get(0));
+        return getTaxon(taxonIndex);
     }
 
     /**
-     * Used by getRecommendedPredicate
-     * @param data
+     * Returns the compiled index of the guide taxa (compiling it once, on first use)
      * @return
      */
-    private Double getMean(List<Integer> data) {
-        double sum = 0.0;
-        for (Integer a : data) {
-            sum += a;
+    private GuideTaxaIndex getTaxaIndex() {
+        if ((mTaxaIndex == null) && (mSnapshot != null)) {
+            long startTime = System.currentTimeMillis();
+            mTaxaIndex = new GuideTaxaIndex(mSnapshot);
+            mTaxa = new GuideTaxonXML[mTaxaIndex.size()];
+            Log.d(TAG, String.format("Indexed %d taxa of guide %s in %d ms", mTaxaIndex.size(), mGuideId, System.currentTimeMillis() - startTime));
         }
-        return sum / data.size();
+
+        return mTaxaIndex;
     }
 
     /**
-     * Used by getRecommendedPredicate
-     * @param data
+     * Returns a guide taxon by its index in the guide
+     * @param index
      * @return
      */
-    private Double getVariance(Double mean, List<Integer> data) {
-        if (data.size() <= 1) {
-            // Undefined variance when there is one or less item
-            return null;
-        }
-
-        double temp = 0;
-        for(Integer a : data) {
-            temp += (mean - a) * (mean - a);
+    private GuideTaxonXML getTaxon(int index) {
+        if (mTaxa[index] == null) {
+            mTaxa[index] = new GuideTaxonXML(this, index);
         }
-        return temp / data.size();
+        return mTaxa[index];
     }
 
     /**
-     * Returns the next recommended predicate name, according to current filter tags and results - find out
-     * the tag name that is the most "useful" one for filtering results. For example, a tag that will
-     * not eliminate the results by much will not be considered a good candidate.
-     * @param filter current filter tags
-     * @param currentResults current search results
-     * @return the next recommended tag name.
+     * Returns the predicate ranker of the guide taxa (creating it once, on first use)
+     * @return
      */
-    public String getRecommendedPredicate(GuideTaxonFilter filter, List<GuideTaxonXML> currentResults) {
-        Map<String, Integer> currentTagCounts = new HashMap<String, Integer>();
-        List<String> selectedPredicates = new ArrayList<String>();
-
-        // Build the list of already-selected predicate names
-        for (String tagName : filter.getAllTags()) {
-            String predicateName = tagName.split("=")[0];
-            selectedPredicates.add(predicateName);
-        }
-
-        // Calculate the tag counts from the remaining taxa results
-        for (GuideTaxonXML taxon : currentResults) {
-            ArrayList<Node> nodes = taxon.getNodesByXPath("tag");
-
-            for (Node node : nodes) {
-                String tagName = node.getTextContent();
-
-                if (!currentTagCounts.containsKey(tagName)) {
-                    currentTagCounts.put(tagName, 0);
+    private GuidePredicateRanker getPredicateRanker() {
+        if ((mPredicateRanker == null) && (mSnapshot != null)) {
+            String[][] taxonTags = new String[mSnapshot.getTaxonCount()][];
+            for (int i = 0; i < taxonTags.length; i++) {
+                taxonTags[i] = new String[mSnapshot.getTaxonTagCount(i)];
+                for (int j = 0; j < taxonTags[i].length; j++) {
+                    taxonTags[i][j] = mSnapshot.getTaxonTagValue(i, j);
                 }
-                int currentCount = currentTagCounts.get(tagName);
-                currentTagCounts.put(tagName, currentCount + 1);
-            }
-        }
-
-        // Next, create a list of tag counts for each predicate
-        Map<String, List<Integer>> predicateTagCounts = new HashMap<String, List<Integer>>();
-
-        for (String tagName : currentTagCounts.keySet()) {
-            int tagCount = currentTagCounts.get(tagName);
-            String predicateName = tagName.split("=")[0];
-
-            if (!predicateTagCounts.containsKey(predicateName)) {
-                predicateTagCounts.put(predicateName, new ArrayList<Integer>());
-            }
-            predicateTagCounts.get(predicateName).add(tagCount);
-        }
-
-
-        // Calculate the mean and variance for each predicate tag count list
-        // (Key = predicate name; values = mean, variance
-        SortedMap<String, Pair<Double, Double>> predicatesMeanAndVariance = new TreeMap<String, Pair<Double, Double>>();
-
-        for (String predicateName : predicateTagCounts.keySet()) {
-            List<Integer> predicateTagCount = predicateTagCounts.get(predicateName);
-
-            if (selectedPredicates.contains(predicateName)) {
-                // Predicate was already selected - skip it
-                continue;
             }
-
-            // Calculate mean and variance
-            Double mean = getMean(predicateTagCount);
-            Double variance = getVariance(mean, predicateTagCount);
-
-            predicatesMeanAndVariance.put(predicateName, new Pair<Double, Double>(mean, variance));
-
-            Log.e("AAA", predicateName + " = [" + StringUtils.join(predicateTagCount, ",") + "] = " + mean + ", " + variance);
+            mPredicateRanker = new GuidePredicateRanker(taxonTags);
         }
 
-        // Finally, decide which of the predicates is the next recommended one
-
-         // This comparator is the heart of our algorithm for choosing the next recommended predicate:
-        // We choose the one with the max mean; then, in case of identical means, we choose the one
-        // with the minimum variance (that is not null).
-        Comparator<Map.Entry> predicateComparator = new Comparator<Map.Entry>() {
-            @Override
-            public int compare(Map.Entry entry1, Map.Entry entry2) {
-                Pair<Double, Double> predicate1 = (Pair<Double, Double>) entry1.getValue();
-                Pair<Double, Double> predicate2 = (Pair<Double, Double>) entry2.getValue();
-
-                // First, compare by mean
-                if (predicate1.first > predicate2.first) {
-                    return -1;
-                } else if (predicate2.first > predicate1.first) {
-                    return 1;
-                } else {
-                    // Means are identical - compare by variance
-                    if ((predicate1.second == null) && (predicate2.second != null)) {
-                        return 1;
-                    } else if ((predicate2.second == null) && (predicate1.second != null)) {
-                        return -1;
-                    } else if ((predicate2.second == null) && (predicate1.second == null)) {
-                        return 0;
-                    } else {
-                        return (int)(predicate1.second - predicate2.second);
-                    }
-                }
-            }
-        };
-
-
-        // Sort the predicate mean/variance list
-        List<Map.Entry> list = new LinkedList(predicatesMeanAndVariance.entrySet());
+        return mPredicateRanker;
+    }
 
-        if (list.size() > 1) {
-            Collections.sort(list, predicateComparator);
+    /**
+     * Returns all predicates that weren't selected yet, ranked by how "useful" they are for filtering the current
+     * results (see getRecommendedPredicate)
+     * @param filter current filter tags
+     * @param currentResults current search results
+     * @return the ranked predicates (most recommended first)
+     */
+    public List<GuidePredicateRanker.PredicateScore> getRankedPredicates(GuideTaxonFilter filter, List<GuideTaxonXML> currentResults) {
+        GuidePredicateRanker ranker = getPredicateRanker();
+        if (ranker == null) {
+            return new ArrayList<GuidePredicateRanker.PredicateScore>();
         }
 
-        for (Map.Entry item : list) {
-            Log.e("AAA", item.getKey() + " = " + ((Pair<Double,Double>)item.getValue()).first + ", " + ((Pair<Double,Double>)item.getValue()).second);
+        BitSet results = new BitSet();
+        for (GuideTaxonXML taxon : currentResults) {
+            results.set(taxon.getIndex());
         }
+        // Only the taxa that changed since the last call are recounted
+        ranker.setResults(results);
 
-        if (list.size() > 0) {
-            return (String) list.get(0).getKey();
-        } else {
-            return null;
-        }
+        return ranker.getRankedPredicates(filter.getAllTags());
     }
 
-
     /**
-     * Utility method for building an xpath string by a taxon search filter
-     * @param filter
-     * @return
+     * Returns the next recommended predicate name, according to current filter tags and results - find out
+     * the tag name that is the most "useful" one for filtering results. For example, a tag that will
+     * not eliminate the results by much will not be considered a good candidate.
+     * @param filter current filter tags
+     * @param currentResults current search results
+     * @return the next recommended tag name.
      */
-    private String buildFilterXpath(GuideTaxonFilter filter) {
-        String searchText = filter.getSearchText();
-        String xPathExpression;
-
-        if ((searchText == null) || (searchText.length() == 0)) {
-            // No search text
-            xPathExpression = "//GuideTaxon";
-        } else {
-            // Filter only guide taxa that fit the search text
-            xPathExpression = String.format("//GuideTaxon/*/text()[contains(translate(., 'ABCDEFGHIJKLMNOPQRSTUVWXYZ', 'abcdefghijklmnopqrstuvwxyz'),'%s')]/ancestor::*[self::GuideTaxon]",
-                    searchText.toLowerCase());
-        }
-
-        List<String> tags = filter.getAllTags();
-        if (tags.size() > 0) {
-            // Filter by specific tags as well
-            ArrayList<String> tagExpressions = new ArrayList<String>();
-            for (String tag: tags) {
-                tagExpressions.add(String.format("descendant::tag[text() = '%s']", tag));
-            }
-            xPathExpression = String.format("%s[%s]", xPathExpression, StringUtils.join(tagExpressions, " and "));
-        }
-
-        return xPathExpression;
+    public String getRecommendedPredicate(GuideTaxonFilter filter, List<GuideTaxonXML> currentResults) {
+        List<GuidePredicateRanker.PredicateScore> scores = getRankedPredicates(filter, currentResults);
+        return scores.size() > 0 ? scores.get(0).getPredicate() : null;
     }
 
 
@@ -651,19 +482,18 @@ public class GuideXML extends BaseGuideXMLParser {
      * @return
      */
     public List<GuideTaxonXML> getTaxa(GuideTaxonFilter filter) {
-        String xPathExpression = buildFilterXpath(filter);
-
-        // Get the list of all GuideTaxon nodes that fit the filter
-        ArrayList<Node> nodes = getNodesByXPath(xPathExpression);
         ArrayList<GuideTaxonXML> taxa = new ArrayList<GuideTaxonXML>();
 
-        if (nodes == null) {
+        GuideTaxaIndex index = getTaxaIndex();
+        if (index == null) {
             return taxa;
         }
 
-        // Initialize each node into a GuideTaxonXML instance
-        for (Node node: nodes) {
-            taxa.add(new GuideTaxonXML(this, node));
+        // Get the indexes of all taxa that fit the filter (in document order)
+        BitSet results = index.filter(filter);
+
+        for (int i = results.nextSetBit(0); i >= 0; i = results.nextSetBit(i + 1)) {
+            taxa.add(getTaxon(i));
         }
 
         return taxa;
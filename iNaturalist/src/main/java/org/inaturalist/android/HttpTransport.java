@@ -0,0 +1,298 @@
+package org.inaturalist.android;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultRedirectHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Shared, thread-safe HTTP transport used for all API calls (singleton class).
+ *
+ * Keeps a pool of keep-alive connections per route (so consecutive requests to the same host don't
+ * pay for a new TCP + TLS handshake every time), transparently decodes gzip responses and keeps
+ * a few counters of connection reuse / handshake time.
+ */
+public class HttpTransport {
+    private static final String TAG = "HttpTransport";
+
+    // Timeout in MS for connections
+    public static final int CONNECTION_TIMEOUT_MS = 20000;
+    public static final int SOCKET_TIMEOUT_MS = 40000;
+    // How long to wait for a free connection from the pool
+    private static final int POOL_TIMEOUT_MS = 30000;
+    // How long to keep an idle connection alive (in case the server didn't specify it)
+    private static final long DEFAULT_KEEP_ALIVE_MS = 30000;
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 4;
+    public static final int MAX_TOTAL_CONNECTIONS = 12;
+
+    // Singleton instance
+    private static HttpTransport sInstance = null;
+
+    private final DefaultHttpClient mClient;
+    private final ThreadSafeClientConnManager mConnectionManager;
+
+    // Stats
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mReusedConnectionCount = new AtomicLong();
+    private final AtomicLong mNewConnectionCount = new AtomicLong();
+    private final AtomicLong mHandshakeTimeMs = new AtomicLong();
+    private final AtomicLong mGzipResponseCount = new AtomicLong();
+
+    public static synchronized HttpTransport getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new HttpTransport(INaturalistService.getUserAgent(context.getApplicationContext()));
+        }
+
+        return sInstance;
+    }
+
+    private HttpTransport(String userAgent) {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setUserAgent(params, userAgent);
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+        HttpConnectionParams.setConnectionTimeout(params, CONNECTION_TIMEOUT_MS);
+        HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT_MS);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
+        ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+        ConnManagerParams.setTimeout(params, POOL_TIMEOUT_MS);
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", new TimingSocketFactory(PlainSocketFactory.getSocketFactory()), 80));
+        registry.register(new Scheme("https", new TimingSocketFactory(SSLSocketFactory.getSocketFactory()), 443));
+
+        mConnectionManager = new ThreadSafeClientConnManager(params, registry);
+        mClient = new DefaultHttpClient(mConnectionManager, params);
+
+        // Handle redirects (301/302) for all HTTP methods (including POST)
+        mClient.setRedirectHandler(new DefaultRedirectHandler() {
+            @Override
+            public boolean isRedirectRequested(HttpResponse response, HttpContext context) {
+                boolean isRedirect = super.isRedirectRequested(response, context);
+                if (!isRedirect) {
+                    int responseCode = response.getStatusLine().getStatusCode();
+                    if (responseCode == 301 || responseCode == 302) {
+                        return true;
+                    }
+                }
+                return isRedirect;
+            }
+        });
+
+        // Honor the server's Keep-Alive header, and fall back to a sane default otherwise
+        mClient.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                BasicHeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+                while (it.hasNext()) {
+                    HeaderElement element = it.nextElement();
+                    if ((element.getValue() != null) && (element.getName().equalsIgnoreCase("timeout"))) {
+                        try {
+                            return Long.parseLong(element.getValue()) * 1000;
+                        } catch (NumberFormatException exc) {
+                            // Ignore and use the default value
+                        }
+                    }
+                }
+                return DEFAULT_KEEP_ALIVE_MS;
+            }
+        });
+
+        // Ask for gzip-ed responses
+        mClient.addRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+                if (!request.containsHeader("Accept-Encoding")) {
+                    request.addHeader("Accept-Encoding", "gzip");
+                }
+            }
+        });
+
+        // ... and decode them transparently
+        mClient.addResponseInterceptor(new HttpResponseInterceptor() {
+            @Override
+            public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+                HttpEntity entity = response.getEntity();
+                if (entity == null) return;
+                Header encoding = entity.getContentEncoding();
+                if (encoding == null) return;
+
+                for (HeaderElement element : encoding.getElements()) {
+                    if (element.getName().equalsIgnoreCase("gzip")) {
+                        response.setEntity(new GzipDecompressingEntity(entity));
+                        mGzipResponseCount.incrementAndGet();
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    // Returns the underlying (shared) client - note that it should never be shut down by the caller
+    public HttpClient getClient() {
+        return mClient;
+    }
+
+    // Executes a request over the connection pool. The caller must consume the response entity
+    // (or abort the request) in order to release the connection back to the pool.
+    public HttpResponse execute(HttpUriRequest request) throws IOException {
+        // Get rid of connections the server has probably already closed on its side
+        mConnectionManager.closeExpiredConnections();
+
+        HttpContext context = new BasicHttpContext();
+        HttpResponse response = mClient.execute(request, context);
+
+        mRequestCount.incrementAndGet();
+        HttpConnection connection = (HttpConnection) context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+        try {
+            if ((connection != null) && (connection.getMetrics().getRequestCount() > 1)) {
+                mReusedConnectionCount.incrementAndGet();
+            }
+        } catch (IllegalStateException exc) {
+            // Connection was already released (e.g. an empty response) - no metrics available
+        }
+
+        return response;
+    }
+
+    // Closes any idle pooled connections (e.g. once a sync is done)
+    public void closeIdleConnections() {
+        mConnectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getReusedConnectionCount() {
+        return mReusedConnectionCount.get();
+    }
+
+    public long getNewConnectionCount() {
+        return mNewConnectionCount.get();
+    }
+
+    // Total time spent establishing new connections (TCP connect + TLS handshake)
+    public long getHandshakeTimeMs() {
+        return mHandshakeTimeMs.get();
+    }
+
+    public long getGzipResponseCount() {
+        return mGzipResponseCount.get();
+    }
+
+    public String getStatsSummary() {
+        long newConnections = mNewConnectionCount.get();
+        return String.format("requests: %d; reused connections: %d; new connections: %d; handshake time: %d ms (avg %d ms); gzip responses: %d",
+                mRequestCount.get(), mReusedConnectionCount.get(), newConnections,
+                mHandshakeTimeMs.get(), newConnections > 0 ? mHandshakeTimeMs.get() / newConnections : 0,
+                mGzipResponseCount.get());
+    }
+
+    public void logStats() {
+        Log.d(TAG, getStatsSummary());
+    }
+
+
+    // Wraps a socket factory and measures how long it takes to open a new connection
+    private class TimingSocketFactory implements LayeredSocketFactory {
+        private final SocketFactory mFactory;
+
+        public TimingSocketFactory(SocketFactory factory) {
+            mFactory = factory;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return mFactory.createSocket();
+        }
+
+        @Override
+        public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort, HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+            long start = System.currentTimeMillis();
+            Socket socket = mFactory.connectSocket(sock, host, port, localAddress, localPort, params);
+            mHandshakeTimeMs.addAndGet(System.currentTimeMillis() - start);
+            mNewConnectionCount.incrementAndGet();
+            return socket;
+        }
+
+        @Override
+        public boolean isSecure(Socket sock) throws IllegalArgumentException {
+            return mFactory.isSecure(sock);
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException, UnknownHostException {
+            // Only used when tunneling through a proxy
+            return ((LayeredSocketFactory) mFactory).createSocket(socket, host, port, autoClose);
+        }
+    }
+
+    // Decompresses a gzip-ed response entity on the fly
+    private static class GzipDecompressingEntity extends HttpEntityWrapper {
+        public GzipDecompressingEntity(HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException, IllegalStateException {
+            return new GZIPInputStream(wrappedEntity.getContent());
+        }
+
+        @Override
+        public long getContentLength() {
+            // Length of the decompressed content is unknown
+            return -1;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return null;
+        }
+    }
+}
@@ -14,24 +14,13 @@ import com.google.android.gms.location.LocationSettingsStates;
 import com.google.android.gms.location.LocationSettingsStatusCodes;
 
 import io.fabric.sdk.android.Fabric;
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
-import java.net.URL;
-import java.net.URLConnection;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.UUID;
 
 import org.inaturalist.android.INaturalistService.LoginType;
 import org.json.JSONArray;
@@ -126,6 +115,11 @@ public class INaturalistApp extends MultiDexApplication {
         deviceLocale = getResources().getConfiguration().locale;
         applyLocaleSettings();
 
+        // Location based results go stale quickly (the user moves around)
+        mServiceResults.setTtl(INaturalistService.ACTION_NEARBY, 10 * 60 * 1000);
+        mServiceResults.setTtl(INaturalistService.ACTION_NEARBY_PROJECTS_RESULT, 10 * 60 * 1000);
+        mServiceResults.setTtl(INaturalistService.ACTION_ALL_GUIDES_RESULT, 60 * 60 * 1000);
+
         // Create the root offline guides directory, if needed
         GuideXML.createOfflineGuidesDirectory(this);
 
@@ -144,7 +138,7 @@ public class INaturalistApp extends MultiDexApplication {
     /* Used for accessing iNat service results - since passing large amounts of intent data
      * is impossible (for example, returning a huge list of projects/guides won't work via intents)
      */
-    private Map<String, Serializable> mServiceResults = new HashMap<String, Serializable>();
+    private ServiceResultStore mServiceResults = new ServiceResultStore(Runtime.getRuntime().maxMemory() / 16);
 	private INotificationCallback mNotificationCallback;
 
     public void setServiceResult(String key, Serializable value) {
@@ -154,6 +148,10 @@ public class INaturalistApp extends MultiDexApplication {
     public Serializable getServiceResult(String key) {
     	return mServiceResults.get(key);
     }
+
+    public ServiceResultStore getServiceResults() {
+        return mServiceResults;
+    }
    
 
  	/**
@@ -495,9 +493,9 @@ public class INaturalistApp extends MultiDexApplication {
 
     public void checkSyncNeeded() {
         Cursor oCursor = getContentResolver().query(Observation.CONTENT_URI, Observation.PROJECTION, 
-                "_synced_at IS NULL OR (_updated_at > _synced_at)", null, Observation.DEFAULT_SORT_ORDER);
+                DatabaseIndexes.NEEDS_SYNC_SELECTION, null, Observation.DEFAULT_SORT_ORDER);
         Cursor opCursor = getContentResolver().query(ObservationPhoto.CONTENT_URI, ObservationPhoto.PROJECTION, 
-                "_synced_at IS NULL OR (_updated_at > _synced_at)", null, ObservationPhoto.DEFAULT_SORT_ORDER);
+                DatabaseIndexes.NEEDS_SYNC_SELECTION, null, ObservationPhoto.DEFAULT_SORT_ORDER);
         if (!mIsSyncing) {
             mNotificationManager.cancel(SYNC_NOTIFICATION);
         } else {
@@ -593,7 +591,8 @@ public class INaturalistApp extends MultiDexApplication {
 
 
     public interface OnDownloadFileProgress {
-        public boolean onDownloadProgress(long downloaded, long total, String downloadedFilename);
+        public void onDownloadProgress(long downloaded, long total);
+        public void onDownloadComplete();
         public void onDownloadError();
     }
 
@@ -601,51 +600,36 @@ public class INaturalistApp extends MultiDexApplication {
         mDownloadCallback = callback;
     }
 
-    public void downloadFile(final String downloadUrl, final OnDownloadFileProgress callback) {
+    // Downloads and extracts an offline guide (see OfflineGuideDownloader)
+    public void downloadOfflineGuide(final GuideXML guide, final OnDownloadFileProgress callback) {
         mDownloadCallback = callback;
 
         new Thread(new Runnable() {
             @Override
             public void run() {
-                try {
-                    URL url = new URL(downloadUrl);
-                    URLConnection connection = url.openConnection();
-                    connection.connect();
-                    final int fileSize = connection.getContentLength();
-
-                    // Download the file
-                    InputStream input = new BufferedInputStream(url.openStream(), 8192);
-
-                    // Output stream (temp file)
-                    File outputFile = File.createTempFile(UUID.randomUUID().toString(), null, getCacheDir());
-                    String outputFilename = outputFile.getAbsolutePath();
-                    OutputStream output = new FileOutputStream(outputFile);
-
-                    byte data[] = new byte[1024];
-
-                    long total = 0;
-                    int count = 0;
-
-                    // Write output data, chunk by chunk
-                    while ((count = input.read(data)) != -1) {
-                        total += count;
-                        output.write(data, 0, count);
-
-                        mDownloadCallback.onDownloadProgress(total, fileSize, outputFilename);
+                // Always report to the current callback (it's replaced when the activity is re-created)
+                boolean success = new OfflineGuideDownloader(INaturalistApp.this, guide).download(new OnDownloadFileProgress() {
+                    @Override
+                    public void onDownloadProgress(long downloaded, long total) {
+                        mDownloadCallback.onDownloadProgress(downloaded, total);
                     }
 
-                    // flushing output
-                    output.flush();
+                    @Override
+                    public void onDownloadComplete() {
+                        mDownloadCallback.onDownloadComplete();
+                    }
 
-                    // closing streams
-                    output.close();
-                    input.close();
+                    @Override
+                    public void onDownloadError() {
+                        mDownloadCallback.onDownloadError();
+                    }
+                });
 
-                } catch (IOException exc) {
-                    exc.printStackTrace();
+                if (success) {
+                    mDownloadCallback.onDownloadComplete();
+                } else {
                     mDownloadCallback.onDownloadError();
                 }
-
             }
         }).start();
     }
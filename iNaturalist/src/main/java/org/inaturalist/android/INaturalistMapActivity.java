@@ -9,11 +9,17 @@ import java.net.URLEncoder;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import android.app.NotificationManager;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.graphics.Typeface;
 
 import org.inaturalist.android.R;
@@ -109,6 +115,12 @@ public class INaturalistMapActivity extends BaseFragmentActivity implements OnMa
     private NearbyObservationsReceiver mNearbyReceiver;
     private ActivityHelper mHelper;
     private HashMap<String, JSONObject> mMarkerObservations;
+    // Marker ID -> cluster (for cluster markers)
+    private HashMap<String, ObservationClusterer.Cluster> mMarkerClusters;
+    // Cluster key -> the marker currently displayed for it
+    private HashMap<String, Marker> mMarkers;
+    private HashMap<String, BitmapDescriptor> mClusterIcons = new HashMap<String, BitmapDescriptor>();
+    private ObservationClusterer mClusterer = new ObservationClusterer();
     private INaturalistApp mApp;
 	private ActionBar mTopActionBar;
 	private ListView mSearchResults;
@@ -155,6 +167,7 @@ public class INaturalistMapActivity extends BaseFragmentActivity implements OnMa
 	private GridViewExtended mObservationsGrid;
 	private ListView mObservationsList;
 	private ObservationGridAdapter mGridAdapter;
+	private int mGridAdapterColumnWidth;
 	private boolean mClearMapLimit;
 	private List<JSONObject> mObservations;
 	private int mPage;
@@ -769,6 +782,8 @@ public class INaturalistMapActivity extends BaseFragmentActivity implements OnMa
     private void setUpMapIfNeeded() {
         if (mMarkerObservations == null) {
             mMarkerObservations = new HashMap<String, JSONObject>();
+            mMarkerClusters = new HashMap<String, ObservationClusterer.Cluster>();
+            mMarkers = new HashMap<String, Marker>();
         }
         if (mMap == null) {
             mMap = ((SupportMapFragment)getSupportFragmentManager().findFragmentById(R.id.map)).getMap();
@@ -783,6 +798,9 @@ public class INaturalistMapActivity extends BaseFragmentActivity implements OnMa
                 mMap.setOnCameraChangeListener(new OnCameraChangeListener() {
                 	@Override
                 	public void onCameraChange(CameraPosition arg0) {
+                		// Re-cluster the observations already loaded (until the new results arrive)
+                		renderMarkers();
+
                 		mClearMapLimit = false;
                 		mActiveSearch = false;
                 		mPage = 1;
@@ -839,26 +857,125 @@ public class INaturalistMapActivity extends BaseFragmentActivity implements OnMa
        
     }
     
-    private void addObservation(JSONObject o) throws JSONException {
-    	if (o == null) return;
-    	
+    // Returns the position of an observation on the map (or null if it has no location)
+    private LatLng getObservationPosition(JSONObject o) throws JSONException {
         if ((!o.has("private_latitude") || o.isNull("private_latitude")) && (!o.has("latitude") || o.isNull("latitude"))) {
-            return;
+            return null;
         }
 
-        LatLng latLng;
         if ((o.has("private_latitude") && !o.isNull("private_latitude")) && mApp.currentUserLogin().equalsIgnoreCase(o.getString("user_login"))) {
-            latLng = new LatLng(o.getDouble("private_latitude"), o.getDouble("private_longitude"));
+            return new LatLng(o.getDouble("private_latitude"), o.getDouble("private_longitude"));
         } else {
-            latLng = new LatLng(o.getDouble("latitude"), o.getDouble("longitude"));
+            return new LatLng(o.getDouble("latitude"), o.getDouble("longitude"));
         }
-        String iconicTaxonName = o.has("iconic_taxon_name") ? o.getString("iconic_taxon_name") : null;
+    }
+
+    private void addObservation(JSONObject o) throws JSONException {
+    	if (o == null) return;
+
+        LatLng latLng = getObservationPosition(o);
+        if (latLng == null) return;
 
-        MarkerOptions opts = new MarkerOptions()
-            .position(latLng)
-            .icon(INaturalistMapActivity.observationIcon(iconicTaxonName));
-        Marker m = mMap.addMarker(opts);
-        mMarkerObservations.put(m.getId(), o);
+        mClusterer.add(o, latLng);
+    }
+
+    // Displays the markers of the observations (clusters) in the visible part of the map (plus a margin, so
+    // panning won't immediately require new markers). Only markers that changed since the last time are
+    // added/removed.
+    private void renderMarkers() {
+        if ((mMap == null) || (mMarkers == null)) return;
+
+        int zoom = (int) mMap.getCameraPosition().zoom;
+        LatLngBounds bounds = mMap.getProjection().getVisibleRegion().latLngBounds;
+        double latitudeMargin = (bounds.northeast.latitude - bounds.southwest.latitude) / 2;
+        double longitudeMargin = (bounds.northeast.longitude - bounds.southwest.longitude) / 2;
+        // (Don't bother with the margin if the visible region crosses the 180th meridian)
+        boolean isCrossingMeridian = (longitudeMargin < 0);
+
+        Map<String, ObservationClusterer.Cluster> visibleClusters = new HashMap<String, ObservationClusterer.Cluster>();
+        for (ObservationClusterer.Cluster cluster : mClusterer.getClusters(zoom)) {
+            LatLng position = cluster.getPosition();
+            if (!isCrossingMeridian &&
+                    ((position.latitude < bounds.southwest.latitude - latitudeMargin) || (position.latitude > bounds.northeast.latitude + latitudeMargin) ||
+                    (position.longitude < bounds.southwest.longitude - longitudeMargin) || (position.longitude > bounds.northeast.longitude + longitudeMargin))) {
+                continue;
+            }
+            visibleClusters.put(cluster.getKey(), cluster);
+        }
+
+        // Remove markers that are no longer needed
+        Iterator<Map.Entry<String, Marker>> iterator = mMarkers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Marker> entry = iterator.next();
+            if (!visibleClusters.containsKey(entry.getKey())) {
+                Marker marker = entry.getValue();
+                mMarkerObservations.remove(marker.getId());
+                mMarkerClusters.remove(marker.getId());
+                marker.remove();
+                iterator.remove();
+            }
+        }
+
+        // Add the new ones
+        for (Map.Entry<String, ObservationClusterer.Cluster> entry : visibleClusters.entrySet()) {
+            ObservationClusterer.Cluster cluster = entry.getValue();
+            Marker marker = mMarkers.get(entry.getKey());
+
+            if (marker != null) {
+                if (cluster.size() > 1) {
+                    // Same cluster - its observations might have changed a bit, though
+                    marker.setPosition(cluster.getPosition());
+                    mMarkerClusters.put(marker.getId(), cluster);
+                } else {
+                    mMarkerObservations.put(marker.getId(), cluster.getObservations().get(0));
+                }
+                continue;
+            }
+
+            if (cluster.size() > 1) {
+                marker = mMap.addMarker(new MarkerOptions()
+                        .position(cluster.getPosition())
+                        .anchor(0.5f, 0.5f)
+                        .icon(getClusterIcon(cluster.getLabel())));
+                mMarkerClusters.put(marker.getId(), cluster);
+            } else {
+                JSONObject o = cluster.getObservations().get(0);
+                String iconicTaxonName = o.has("iconic_taxon_name") ? o.optString("iconic_taxon_name", null) : null;
+                marker = mMap.addMarker(new MarkerOptions()
+                        .position(cluster.getPosition())
+                        .icon(INaturalistMapActivity.observationIcon(iconicTaxonName)));
+                mMarkerObservations.put(marker.getId(), o);
+            }
+
+            mMarkers.put(entry.getKey(), marker);
+        }
+    }
+
+    // Returns the icon of a cluster marker - a circle with the observation count
+    private BitmapDescriptor getClusterIcon(String label) {
+        BitmapDescriptor icon = mClusterIcons.get(label);
+        if (icon != null) return icon;
+
+        float density = getResources().getDisplayMetrics().density;
+        int size = (int) ((label.length() > 3 ? 48 : 40) * density);
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.WHITE);
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f, paint);
+        paint.setColor(Color.parseColor("#74AC00"));
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f - 2 * density, paint);
+
+        paint.setColor(Color.WHITE);
+        paint.setTypeface(Typeface.DEFAULT_BOLD);
+        paint.setTextSize(14 * density);
+        paint.setTextAlign(Paint.Align.CENTER);
+        canvas.drawText(label, size / 2f, size / 2f - (paint.descent() + paint.ascent()) / 2, paint);
+
+        icon = BitmapDescriptorFactory.fromBitmap(bitmap);
+        mClusterIcons.put(label, icon);
+        return icon;
     }
     
     private void showLoading() {
@@ -942,10 +1059,14 @@ public class INaturalistMapActivity extends BaseFragmentActivity implements OnMa
                 return;
             }
 
-            mMap.clear();
-            mMarkerObservations.clear();
-            
             SerializableJSONArray resultsJSON = (SerializableJSONArray) mApp.getServiceResult(INaturalistService.ACTION_NEARBY);
+            if (resultsJSON == null) {
+                // Result might have been evicted from the result store
+                Log.e(TAG, "No nearby observations result");
+                mActiveSearch = false;
+                return;
+            }
+
             JSONArray results = resultsJSON.getJSONArray();
             List<JSONObject> resultsArray = new ArrayList<JSONObject>();
             
@@ -964,8 +1085,14 @@ public class INaturalistMapActivity extends BaseFragmentActivity implements OnMa
             }
             
             if (mPage == 1) {
-            	mObservations = resultsArray;
-            	loadExistingObservations(true);
+            	// (The same list is kept, since the adapters use it)
+            	mObservations.clear();
+            	mObservations.addAll(resultsArray);
+            	loadExistingObservations(false);
+
+            	// A new set of results - scroll back to the top
+            	mObservationsGrid.setSelection(0);
+            	mObservationsList.setSelection(0);
            
             } else {
             	// Append to existing observations list
@@ -974,22 +1101,24 @@ public class INaturalistMapActivity extends BaseFragmentActivity implements OnMa
             		mPage = -1;
             	} else {
                     // Prevent duplicate observation results
-                    for (int i = 0; i < resultsArray.size(); i++) {
-                        boolean found = false;
-                        JSONObject currentResult = resultsArray.get(i);
-                        for (int c = 0; c < mObservations.size(); c++) {
-                            if (mObservations.get(c).optInt("id", -1) == currentResult.optInt("id", -1)) {
-                                found = true;
-                                break;
-                            }
-                        }
+                    Set<Integer> ids = new HashSet<Integer>(mObservations.size());
+                    for (JSONObject observation : mObservations) {
+                        ids.add(observation.optInt("id", -1));
+                    }
 
-                        if (!found) {
+                    for (JSONObject currentResult : resultsArray) {
+                        if (ids.add(currentResult.optInt("id", -1))) {
                             mObservations.add(currentResult);
+                            try {
+                                addObservation(currentResult);
+                            } catch (JSONException e) {
+                                e.printStackTrace();
+                            }
                         }
                     }
             	}
-            	loadExistingObservations(false);
+            	refreshAdapters();
+            	renderMarkers();
            
             }
             
@@ -998,19 +1127,13 @@ public class INaturalistMapActivity extends BaseFragmentActivity implements OnMa
     }
     
     private void loadExistingObservations(boolean refreshAdapters) {
-    	if ((refreshAdapters) || (mGridAdapter == null) || (mListAdapter == null)) {
-    		mGridAdapter = new ObservationGridAdapter(INaturalistMapActivity.this, mObservationsGrid.getColumnWidth(), mObservations);
-    		mObservationsGrid.setAdapter(mGridAdapter);
-
-    		mListAdapter = new ObservationListAdapter(INaturalistMapActivity.this, mObservations);
-    		mObservationsList.setAdapter(mListAdapter);
-    	} else {
-    		mGridAdapter.notifyDataSetChanged();
-    		mListAdapter.notifyDataSetChanged();
+    	if (refreshAdapters) {
+    		mGridAdapter = null;
+    		mListAdapter = null;
     	}
+    	refreshAdapters();
 
-    	mMap.clear();
-        mMarkerObservations.clear();
+    	mClusterer.clear();
     	for (int i = 0; i < mObservations.size(); i++) {
     		JSONObject item = mObservations.get(i);
     		try {
@@ -1020,11 +1143,42 @@ public class INaturalistMapActivity extends BaseFragmentActivity implements OnMa
 			}
     	}
 
+    	renderMarkers();
+    }
+
+    // Creates the grid/list adapters if needed (e.g. the grid's column width changed), or just refreshes them
+    private void refreshAdapters() {
+    	if ((mGridAdapter == null) || (mListAdapter == null) || (mObservationsGrid.getColumnWidth() != mGridAdapterColumnWidth)) {
+    		mGridAdapterColumnWidth = mObservationsGrid.getColumnWidth();
+    		mGridAdapter = new ObservationGridAdapter(INaturalistMapActivity.this, mGridAdapterColumnWidth, mObservations);
+    		mObservationsGrid.setAdapter(mGridAdapter);
+
+    		mListAdapter = new ObservationListAdapter(INaturalistMapActivity.this, mObservations);
+    		mObservationsList.setAdapter(mListAdapter);
+    	} else {
+    		mGridAdapter.notifyDataSetChanged();
+    		mListAdapter.notifyDataSetChanged();
+    	}
     }
 
     @Override
     public boolean onMarkerClick(Marker marker) {
+        ObservationClusterer.Cluster cluster = mMarkerClusters.get(marker.getId());
+        if (cluster != null) {
+            // Zoom into the cluster
+            LatLngBounds bounds = cluster.getBounds();
+            int zoom = (int) mMap.getCameraPosition().zoom;
+            if (bounds.southwest.equals(bounds.northeast) || (zoom >= ObservationClusterer.MAX_CLUSTER_ZOOM)) {
+                mMap.animateCamera(CameraUpdateFactory.newLatLngZoom(cluster.getPosition(), zoom + 2));
+            } else {
+                int padding = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 48, getResources().getDisplayMetrics());
+                mMap.animateCamera(CameraUpdateFactory.newLatLngBounds(bounds, padding));
+            }
+            return true;
+        }
+
         JSONObject o = mMarkerObservations.get(marker.getId());
+        if (o == null) return false;
 
     	Intent intent = new Intent(this, ObservationViewerActivity.class);
     	intent.putExtra("observation", o.toString());
@@ -10,16 +10,25 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.sql.Timestamp;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -28,7 +37,6 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -41,13 +49,8 @@ import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.client.DefaultRedirectHandler;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.CoreConnectionPNames;
-import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.protocol.HTTP;
-import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -63,13 +66,17 @@ import com.google.android.gms.common.api.Status;
 import com.google.android.gms.location.LocationServices;
 
 import android.annotation.SuppressLint;
-import android.app.IntentService;
+import android.annotation.TargetApi;
+import android.app.Service;
 import android.app.NotificationManager;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentSender;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
@@ -79,18 +86,31 @@ import android.location.Criteria;
 import android.location.Location;
 import android.location.LocationManager;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
+import android.os.RemoteException;
 import android.provider.MediaStore;
 import android.util.Log;
+import android.util.SparseArray;
 import android.widget.Toast;
 
-public class INaturalistService extends IntentService {
+public class INaturalistService extends Service {
     // How many observations should we initially download for the user
     private static final int INITIAL_SYNC_OBSERVATION_COUNT = 100;
-    // Timeout in MS for connections
-    private static final int CONNECTION_TIMEOUT_MS = 20000;
-    private static final int SOCKET_TIMEOUT_MS = 40000;
+    // How many downloaded observations are merged into the DB at a time
+    private static final int SYNC_BATCH_SIZE = 50;
+    // How many read-only actions (e.g. getting nearby observations) can run at the same time
+    private static final int CONCURRENT_READ_ACTIONS = 3;
+    // Number of observations created/updated per batch (when uploading)
+    private static final int OBSERVATION_BATCH_SIZE = 25;
+    private static final int CONCURRENT_OBSERVATION_REQUESTS = 3;
+    // Where online guides (i.e. not downloaded for offline use) are saved, under the cache dir
+    private static final String ONLINE_GUIDES_DIR = "online_guides";
+    // Max number of concurrent requests when retrieving all pages of a paginated call (e.g. all guides)
+    private static final int CONCURRENT_PAGE_REQUESTS = 4;
+    private static final int GUIDES_PER_PAGE = 200;
 
     private boolean mGetLocationForProjects = false; // if true -> we assume it's for near by guides
     
@@ -192,6 +212,9 @@ public class INaturalistService extends IntentService {
     public static String ACTION_PROJECT_OBSERVERS_RESULT = "get_project_observers_result";
     public static String ACTION_PROJECT_IDENTIFIERS_RESULT = "get_project_identifiers_result";
     public static String ACTION_SYNC = "sync";
+    // Cancels all queued (not yet running) actions of a lane (LANE extra - a ServiceActionDispatcher.Lane name)
+    public static String ACTION_CANCEL_QUEUED = "cancel_queued";
+    public static String LANE = "lane";
     public static String ACTION_NEARBY = "nearby";
     public static String ACTION_AGREE_ID = "agree_id";
     public static String ACTION_REMOVE_ID = "remove_id";
@@ -232,30 +255,51 @@ public class INaturalistService extends IntentService {
     public static Integer SYNC_OBSERVATIONS_NOTIFICATION = 1;
     public static Integer SYNC_PHOTOS_NOTIFICATION = 2;
     public static Integer AUTH_NOTIFICATION = 3;
-    private String mLogin;
-    private String mCredentials;
-    private SharedPreferences mPreferences;
-    private boolean mPassive;
-    private INaturalistApp mApp;
-    private LoginType mLoginType;
+    // Actions are handled on several threads (see ServiceActionDispatcher)
+    private volatile String mLogin;
+    private volatile String mCredentials;
+    private volatile SharedPreferences mPreferences;
+    private ThreadLocal<Boolean> mPassive = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+    private volatile INaturalistApp mApp;
+    private volatile LoginType mLoginType;
     
     private boolean mIsStopped = false;
 
-    private boolean mIsSyncing;
+    // Only set/cleared by sync actions (which all run on the serial lane)
+    private volatile boolean mIsSyncing;
     
     private Handler mHandler;
 
     private GoogleApiClient mLocationClient;
 
-    private ArrayList<SerializableJSONArray> mProjectObservations;
-    
+    // Remote field values of observations whose field values were also modified locally (see storeProjectFieldValues)
     private Hashtable<Integer, Hashtable<Integer, ProjectFieldValue>> mProjectFieldValues;
+    // IDs of all fields that have remote values (their definitions are downloaded if missing)
+    private HashSet<Integer> mRemoteFieldIds;
+
+    // Headers/errors of the last response (of the current thread)
+    private ThreadLocal<Header[]> mResponseHeaders = new ThreadLocal<Header[]>();
 
-    private Header[] mResponseHeaders = null;
+	private ThreadLocal<JSONArray> mResponseErrors = new ThreadLocal<JSONArray>();
 
-	private JSONArray mResponseErrors;
+	private volatile String mNearByObservationsUrl;
 
-	private String mNearByObservationsUrl;
+    // Read-only actions, that can run in parallel to each other (and to a sync)
+    private static final List<String> PARALLEL_ACTIONS = Arrays.asList(
+            ACTION_NEARBY, ACTION_GET_PROJECT_NEWS, ACTION_GET_PROJECT_OBSERVATIONS, ACTION_GET_PROJECT_IDENTIFIERS,
+            ACTION_GET_PROJECT_OBSERVERS, ACTION_GET_PROJECT_SPECIES, ACTION_GET_TAXON, ACTION_GET_SPECIFIC_USER_DETAILS,
+            ACTION_GET_MISSIONS_BY_TAXON, ACTION_GET_RECOMMENDED_MISSIONS, ACTION_GET_USER_SPECIES_COUNT, ACTION_GET_LIFE_LIST,
+            ACTION_GET_USER_OBSERVATIONS, ACTION_SEARCH_USER_OBSERVATIONS, ACTION_GET_USER_IDENTIFICATIONS, ACTION_GUIDE_XML,
+            ACTION_TAXA_FOR_GUIDE, ACTION_GET_ALL_GUIDES, ACTION_GET_MY_GUIDES, ACTION_GET_NEAR_BY_GUIDES,
+            ACTION_GET_NEARBY_PROJECTS, ACTION_GET_FEATURED_PROJECTS, ACTION_GET_CHECK_LIST, ACTION_GET_NEWS,
+            ACTION_GET_OBSERVATION);
+
+    private ServiceActionDispatcher mDispatcher;
     
 	public enum LoginType {
 	    PASSWORD,
@@ -266,16 +310,66 @@ public class INaturalistService extends IntentService {
 
 
     public INaturalistService() {
-        super("INaturalistService");
-        
         mHandler = new Handler();
     }
 
     @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mDispatcher = new ServiceActionDispatcher(PARALLEL_ACTIONS, CONCURRENT_READ_ACTIONS, new ServiceActionDispatcher.ActionHandler() {
+            @Override
+            public void handleAction(Intent intent) {
+                onHandleIntent(intent);
+            }
+        }, new ServiceActionDispatcher.OnIdleListener() {
+            @Override
+            public void onIdle(final int lastStartId) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mDispatcher.logStats();
+                        // Only stops the service if no newer intent was started since
+                        stopSelf(lastStartId);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String action = intent != null ? intent.getAction() : null;
+
+        // (The service is only stopped by the dispatcher's idle listener - once all lanes are done)
+        if (action == null) {
+            mDispatcher.acknowledge(startId);
+        } else if (action.equals(ACTION_CANCEL_QUEUED)) {
+            String lane = intent.getStringExtra(LANE);
+            if (lane != null) {
+                mDispatcher.cancel(ServiceActionDispatcher.Lane.valueOf(lane));
+            } else {
+                Log.e(TAG, "ACTION_CANCEL_QUEUED without a lane");
+            }
+            mDispatcher.acknowledge(startId);
+        } else {
+            mDispatcher.dispatch(intent, startId);
+        }
+
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
     protected void onHandleIntent(final Intent intent) {
         boolean cancelSyncRequested = false;
         boolean syncFailed = false;
         boolean dontStopSync = false;
+        // Whether this action started a sync (and should therefore end it) - the sync flag itself is shared by all lanes
+        boolean startedSync = false;
         mPreferences = getSharedPreferences("iNaturalistPreferences", MODE_PRIVATE);
         mLogin = mPreferences.getString("username", null);
         mCredentials = mPreferences.getString("credentials", null);
@@ -285,7 +379,7 @@ public class INaturalistService extends IntentService {
         
         if (action == null) return;
         
-        mPassive = action.equals(ACTION_PASSIVE_SYNC);
+        mPassive.set(action.equals(ACTION_PASSIVE_SYNC));
 
         Log.d(TAG, "Service: " + action);
 
@@ -325,6 +419,7 @@ public class INaturalistService extends IntentService {
                 }
                 
             } else if (action.equals(ACTION_FIRST_SYNC)) {
+                startedSync = true;
                 mIsSyncing = true;
                 mApp.setIsSyncing(mIsSyncing);
 
@@ -826,15 +921,13 @@ public class INaturalistService extends IntentService {
                 
             } else if (action.equals(ACTION_PULL_OBSERVATIONS)) {
             	// Download observations without uploading any new ones
+                startedSync = true;
                 mIsSyncing = true;
                 mApp.setIsSyncing(mIsSyncing);
 
                 boolean successful = getUserObservations(0);
 
                 if (successful) {
-                    // Update last sync time
-                    long lastSync = System.currentTimeMillis();
-                    mPreferences.edit().putLong("last_sync_time", lastSync).commit();
                     mPreferences.edit().putLong("last_user_details_refresh_time", 0); // Force to refresh user details
                 } else {
                     mHandler.post(new Runnable() {
@@ -848,13 +941,10 @@ public class INaturalistService extends IntentService {
 
             } else {
                 if (!mIsSyncing) {
+                    startedSync = true;
                     mIsSyncing = true;
                     mApp.setIsSyncing(mIsSyncing);
                     syncObservations();
-
-                    // Update last sync time
-                    long lastSync = System.currentTimeMillis();
-                    mPreferences.edit().putLong("last_sync_time", lastSync).commit();
                 } else {
                     // Already in middle of syncing
                     dontStopSync = true;
@@ -870,15 +960,18 @@ public class INaturalistService extends IntentService {
             syncFailed = true;
 
         } catch (AuthenticationException e) {
-            if (!mPassive) {
+            if (!mPassive.get()) {
                 requestCredentials();
             }
         } finally {
-            if (mIsSyncing && !dontStopSync) {
+            if (startedSync && !dontStopSync) {
                 mIsSyncing = false;
                 mApp.setIsSyncing(mIsSyncing);
 
                 Log.i(TAG, "Sending ACTION_SYNC_COMPLETE");
+                HttpTransport.getInstance(this).logStats();
+                // Don't keep the sync's connections open until they expire
+                HttpTransport.getInstance(this).closeIdleConnections();
                 
                 // Notify the rest of the app of the completion of the sync
                 Intent reply = new Intent(ACTION_SYNC_COMPLETE);
@@ -906,39 +999,44 @@ public class INaturalistService extends IntentService {
 
     // Re-download any observations that have photos saved in the "old" way
     private void redownloadOldObservations() throws AuthenticationException {
+        String oldPhotos = "(photo_filename IS NULL) AND (photo_url IS NULL)";
 
-        // Find all observations that have photos saved in the old way
+        // Find all observations that have photos saved in the old way (in a single pass)
         Cursor c = getContentResolver().query(ObservationPhoto.CONTENT_URI,
-                ObservationPhoto.PROJECTION,
-                "(photo_filename IS NULL) AND (photo_url IS NULL)",
+                new String[] { ObservationPhoto.OBSERVATION_ID },
+                oldPhotos,
                 null,
                 ObservationPhoto.DEFAULT_SORT_ORDER);
 
-        c.moveToFirst();
+        HashSet<Integer> obsIds = new HashSet<Integer>();
+        while (c.moveToNext()) {
+            if (!c.isNull(0)) obsIds.add(c.getInt(0));
+        }
+        c.close();
 
-        while (!c.isAfterLast()) {
-            Integer obsId = c.getInt(c.getColumnIndexOrThrow(ObservationPhoto.OBSERVATION_ID));
+        if (obsIds.isEmpty()) return;
 
-            // Delete the observation photo
-            Integer obsPhotoId = c.getInt(c.getColumnIndexOrThrow(ObservationPhoto.ID));
-            getContentResolver().delete(ObservationPhoto.CONTENT_URI, "id = " + obsPhotoId, null);
+        // Delete the observation photos
+        getContentResolver().delete(ObservationPhoto.CONTENT_URI, oldPhotos, null);
 
-            // Re-download this observation
+        // Re-download only these observations (once each), and merge them all at once
+        Locale deviceLocale = getResources().getConfiguration().locale;
+        String deviceLanguage =   deviceLocale.getLanguage();
+        JSONArray observations = new JSONArray();
 
-            String url = HOST + "/observations/" + Uri.encode(mLogin) + ".json?extra=observation_photos,projects,fields";
-            Locale deviceLocale = getResources().getConfiguration().locale;
-            String deviceLanguage =   deviceLocale.getLanguage();
-            url += "&locale=" + deviceLanguage;
+        for (Integer obsId : obsIds) {
+            String url = String.format("%s/observations/%d.json?extra=observation_photos,projects,fields&locale=%s", HOST, obsId, deviceLanguage);
             JSONArray json = get(url, true);
             if (json != null && json.length() > 0) {
-                syncJson(json, true);
+                observations.put(json.optJSONObject(0));
             }
-
-            c.moveToNext();
         }
 
-        c.close();
+        Log.d(TAG, String.format("Re-downloaded %d/%d observations with old-style photos", observations.length(), obsIds.size()));
 
+        if (observations.length() > 0) {
+            syncJson(observations, true);
+        }
     }
     
     private BetterJSONObject getTaxon(int id) throws AuthenticationException {
@@ -1026,14 +1124,14 @@ public class INaturalistService extends IntentService {
             ProjectObservation projectObservation = new ProjectObservation(c);
             BetterJSONObject result = addObservationToProject(projectObservation.observation_id, projectObservation.project_id);
 
-            if ((result == null) && (mResponseErrors == null)) {
+            if ((result == null) && (mResponseErrors.get() == null)) {
                 c.close();
                 throw new SyncFailedException();
             }
 
             mApp.setObservationIdBeingSynced(projectObservation.observation_id);
 
-            if (mResponseErrors != null) {
+            if (mResponseErrors.get() != null) {
                 handleProjectFieldErrors(projectObservation.observation_id, projectObservation.project_id);
             } else {
                 // Unmark as new
@@ -1052,14 +1150,11 @@ public class INaturalistService extends IntentService {
 
         mApp.setObservationIdBeingSynced(INaturalistApp.NO_OBSERVATION);
 
-        // Finally, retrieve all project observations
-        storeProjectObservations();
-
         return true;
     }
 
     private boolean handleProjectFieldErrors(int observationId, int projectId) {
-        SerializableJSONArray errors = new SerializableJSONArray(mResponseErrors);
+        SerializableJSONArray errors = new SerializableJSONArray(mResponseErrors.get());
 
         // Couldn't add the observation to the project (probably didn't pass validation)
         String error;
@@ -1115,9 +1210,10 @@ public class INaturalistService extends IntentService {
         return true;
     }
 
-    private void storeProjectObservations() {
-        for (int j = 0; j < mProjectObservations.size(); j++) {
-            JSONArray projectObservations = mProjectObservations.get(j).getJSONArray();
+    // Stores the project observations of a page of (remote) observations
+    private void storeProjectObservations(List<SerializableJSONArray> pageProjectObservations) {
+        for (int j = 0; j < pageProjectObservations.size(); j++) {
+            JSONArray projectObservations = pageProjectObservations.get(j).getJSONArray();
 
             for (int i = 0; i < projectObservations.length(); i++) {
                 JSONObject jsonProjectObservation;
@@ -1146,15 +1242,24 @@ public class INaturalistService extends IntentService {
                 getString(R.string.syncing_projects),
                 getString(R.string.syncing));
 
-        SerializableJSONArray projects = getJoinedProjects();
+        if (!ensureCredentials()) {
+            throw new SyncFailedException();
+        }
+
+        // Only download the joined projects (and their fields) if they've changed since the last sync
+        SyncCursor cursor = SyncCursor.get(getContentResolver(), SyncCursor.ENTITY_JOINED_PROJECTS);
+        JSONArray json = getIfChanged(HOST + "/projects/user/" + Uri.encode(mLogin) + ".json", cursor);
 
         checkForCancelSync();
 
-        if (projects == null) {
+        if (json == null) {
             throw new SyncFailedException();
+        } else if (json == NOT_MODIFIED) {
+            Log.d(TAG, "Joined projects haven't changed since " + cursor.updated_since);
+            return true;
         }
 
-        JSONArray arr = projects.getJSONArray();
+        JSONArray arr = parseJoinedProjects(json).getJSONArray();
 
         // Retrieve all currently-joined project IDs
         List<Integer> projectIds = new ArrayList<Integer>();
@@ -1195,6 +1300,9 @@ public class INaturalistService extends IntentService {
             c.close();
         }
 
+        cursor.updated_since = getResponseServerTime();
+        cursor.save(getContentResolver());
+
         return true;
     }
 
@@ -1409,7 +1517,7 @@ public class INaturalistService extends IntentService {
 
         JSONArray array = put(HOST + "/users/" + mLogin + ".json", params);
 
-        if ((mResponseErrors != null) || (array == null)) {
+        if ((mResponseErrors.get() != null) || (array == null)) {
             // Couldn't update user
             return null;
         } else {
@@ -1434,10 +1542,10 @@ public class INaturalistService extends IntentService {
         params.add(new BasicNameValuePair("user[locale]", deviceLanguage));
 
         post(HOST + "/users.json", params, false);
-        if (mResponseErrors != null) {
+        if (mResponseErrors.get() != null) {
             // Couldn't create user
             try {
-                return mResponseErrors.getString(0);
+                return mResponseErrors.get().getString(0);
             } catch (JSONException e) {
                 e.printStackTrace();
                 return null;
@@ -1470,11 +1578,10 @@ public class INaturalistService extends IntentService {
     }
 
     private boolean postObservations() throws AuthenticationException, CancelSyncException, SyncFailedException {
-        Observation observation;
         // query observations where _updated_at > updated_at
         Cursor c = getContentResolver().query(Observation.CONTENT_URI, 
                 Observation.PROJECTION, 
-                "_updated_at > _synced_at AND _synced_at IS NOT NULL AND user_login = '"+mLogin+"'", 
+                DatabaseIndexes.NEEDS_SYNC_SELECTION + " AND _synced_at IS NOT NULL AND user_login = '"+mLogin+"'", 
                 null, 
                 Observation.SYNC_ORDER);
         int updatedCount = c.getCount();
@@ -1482,30 +1589,51 @@ public class INaturalistService extends IntentService {
                 getString(R.string.syncing_observations), 
                 String.format(getString(R.string.syncing_x_observations), c.getCount()),
                 getString(R.string.syncing));
-        // for each observation PUT to /observations/:id
+        List<Observation> updatedObservations = new ArrayList<Observation>();
+        Observation.CursorColumns columns = new Observation.CursorColumns(c);
         c.moveToFirst();
         while (c.isAfterLast() == false) {
-            checkForCancelSync();
-
-            mApp.notify(SYNC_OBSERVATIONS_NOTIFICATION,
-                    getString(R.string.updating_observations), 
-                    String.format(getString(R.string.updating_x_observations), (c.getPosition() + 1), c.getCount()),
-                    getString(R.string.syncing));
-            observation = new Observation(c);
-            mApp.setObservationIdBeingSynced(observation._id);
-            boolean success = handleObservationResponse(
-                    observation,
-                    put(API_HOST + "/observations/" + observation.id, observationToJsonObject(observation, false))
-            );
+            updatedObservations.add(new Observation(c, columns));
             c.moveToNext();
+        }
+        c.close();
 
-            if (!success) {
-                c.close();
-                mApp.setObservationIdBeingSynced(INaturalistApp.NO_OBSERVATION);
-                throw new SyncFailedException();
+        // for each observation PUT to /observations/:id (the API doesn't support batch updates, so
+        // several requests are sent concurrently, over the pooled keep-alive connections)
+        int failedCount = 0;
+        // Per-request state is thread-confined - so the request threads need the sync's passive mode as well
+        final boolean passive = mPassive.get();
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_OBSERVATION_REQUESTS);
+        try {
+            for (int i = 0; i < updatedObservations.size(); i += OBSERVATION_BATCH_SIZE) {
+                checkForCancelSync();
+
+                List<Observation> batch = updatedObservations.subList(i, Math.min(i + OBSERVATION_BATCH_SIZE, updatedObservations.size()));
+                mApp.notify(SYNC_OBSERVATIONS_NOTIFICATION,
+                        getString(R.string.updating_observations),
+                        String.format(getString(R.string.updating_x_observations), i + batch.size(), updatedObservations.size()),
+                        getString(R.string.syncing));
+
+                List<Callable<Boolean>> requests = new ArrayList<Callable<Boolean>>();
+                for (final Observation observation : batch) {
+                    requests.add(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws Exception {
+                            // (Doesn't mark the observation as the one being synced - several observations are sent at the same time)
+                            mPassive.set(passive);
+                            return handleObservationResponse(
+                                    observation,
+                                    put(API_HOST + "/observations/" + observation.id, observationToJsonObject(observation, false))
+                            );
+                        }
+                    });
+                }
+
+                failedCount += invokeObservationRequests(executor, requests);
             }
+        } finally {
+            executor.shutdownNow();
         }
-        c.close();
 
         String inatNetwork = mApp.getInaturalistNetworkMember();
         String inatHost = mApp.getStringResourceByName("inat_host_" + inatNetwork);
@@ -1515,41 +1643,66 @@ public class INaturalistService extends IntentService {
                 Observation.PROJECTION, 
                 "(id IS NULL) AND (_updated_at > _created_at)", null, Observation.SYNC_ORDER);
         int createdCount = c.getCount();
-        // for each observation POST to /observations/
-
+        List<Observation> newObservations = new ArrayList<Observation>();
+        columns = new Observation.CursorColumns(c);
         c.moveToFirst();
         while (c.isAfterLast() == false) {
+            newObservations.add(new Observation(c, columns));
+            c.moveToNext();
+        }
+        c.close();
+
+        // POST the new observations to /observations, several observations per request
+        boolean batchCreateSupported = true;
+        for (int i = 0; i < newObservations.size(); i += OBSERVATION_BATCH_SIZE) {
             checkForCancelSync();
 
+            List<Observation> batch = newObservations.subList(i, Math.min(i + OBSERVATION_BATCH_SIZE, newObservations.size()));
             mApp.notify(SYNC_OBSERVATIONS_NOTIFICATION,
-                    getString(R.string.posting_observations), 
-                    String.format(getString(R.string.posting_x_observations), (c.getPosition() + 1), c.getCount()),
+                    getString(R.string.posting_observations),
+                    String.format(getString(R.string.posting_x_observations), i + batch.size(), newObservations.size()),
                     getString(R.string.syncing));
-            observation = new Observation(c);
-            mApp.setObservationIdBeingSynced(observation._id);
 
-            boolean success = handleObservationResponse(
-                    observation,
-                    post(API_HOST + "/observations", observationToJsonObject(observation, true))
-            );
-            c.moveToNext();
+            List<Observation> remaining = batch;
+            if (batchCreateSupported && (batch.size() > 1)) {
+                List<Observation> failed = new ArrayList<Observation>();
+                remaining = postObservationsBatch(batch, failed);
+                if (remaining == null) {
+                    // Batch request failed altogether (nothing was created) - don't try it again for the rest of this sync
+                    Log.w(TAG, "Batch observation creation failed - falling back to single observation requests");
+                    batchCreateSupported = false;
+                    remaining = batch;
+                } else if (!failed.isEmpty()) {
+                    // Observations that were sent but not matched might have been created anyway - posting them again
+                    // could create duplicates, so they're left as is (and the sync fails). The next sync pulls the
+                    // user's observations first - any of them that were created are then adopted by UUID (see
+                    // adoptCreatedObservations), and only the rest are posted again.
+                    Log.e(TAG, String.format("Batch observation creation failed for %d observations", failed.size()));
+                    failedCount += failed.size();
+                    if (failed.size() + remaining.size() == batch.size()) {
+                        // None of the observations were matched - probably batching isn't supported
+                        batchCreateSupported = false;
+                    }
+                }
+            }
 
-            if (!success) {
-                c.close();
-                mApp.setObservationIdBeingSynced(INaturalistApp.NO_OBSERVATION);
-                throw new SyncFailedException();
+            // Post any observations that weren't created as part of the batch, one by one
+            for (Observation observation : remaining) {
+                checkForCancelSync();
+                mApp.setObservationIdBeingSynced(observation._id);
+
+                boolean success = handleObservationResponse(
+                        observation,
+                        post(API_HOST + "/observations", observationToJsonObject(observation, true))
+                );
+                if (!success) failedCount++;
             }
         }
-        c.close();
-        
-        c = getContentResolver().query(Observation.CONTENT_URI, 
-        		Observation.PROJECTION, 
-        		"id IS NULL", null, Observation.SYNC_ORDER);
-        int currentCreatedCount = c.getCount();
-        c.close();
+
+        int currentCreatedCount = SyncCounter.getCount(getContentResolver(), SyncCounter.NEW_OBSERVATIONS);
         c = getContentResolver().query(Observation.CONTENT_URI, 
                 Observation.PROJECTION, 
-                "_updated_at > _synced_at AND _synced_at IS NOT NULL AND user_login = '"+mLogin+"'", 
+                DatabaseIndexes.NEEDS_SYNC_SELECTION + " AND _synced_at IS NOT NULL AND user_login = '"+mLogin+"'", 
                 null, 
                 Observation.SYNC_ORDER);
         int currentUpdatedCount = c.getCount();
@@ -1557,6 +1710,13 @@ public class INaturalistService extends IntentService {
 
         mApp.setObservationIdBeingSynced(INaturalistApp.NO_OBSERVATION);
 
+        if (failedCount > 0) {
+            // Failed observations don't affect the rest of the observations (which were already saved) - but
+            // the sync should still be considered as failed
+            Log.e(TAG, String.format("Failed to sync %d observations", failedCount));
+            throw new SyncFailedException();
+        }
+
         if ((currentCreatedCount > 0) || (currentUpdatedCount > 0)) {
         	// There was a problem with the sync process
         	mApp.notify(SYNC_OBSERVATIONS_NOTIFICATION, 
@@ -1568,6 +1728,100 @@ public class INaturalistService extends IntentService {
         return true;
     }
 
+    // Runs the observation requests concurrently - returns the number of failed requests
+    private int invokeObservationRequests(ExecutorService executor, List<Callable<Boolean>> requests) throws AuthenticationException, CancelSyncException {
+        int failedCount = 0;
+        List<Future<Boolean>> results;
+        try {
+            results = executor.invokeAll(requests);
+        } catch (InterruptedException e) {
+            throw new CancelSyncException();
+        }
+
+        for (Future<Boolean> result : results) {
+            try {
+                if (!result.get()) failedCount++;
+            } catch (InterruptedException e) {
+                throw new CancelSyncException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof AuthenticationException) {
+                    throw (AuthenticationException) e.getCause();
+                }
+                Log.e(TAG, "Observation request failed: " + e.getCause());
+                failedCount++;
+            }
+        }
+
+        return failedCount;
+    }
+
+    // Creates several observations using a single request. Observations are matched to their responses
+    // by UUID - the ones that were sent but not matched are added to failed (they're not posted again during
+    // this sync). Returns the observations that weren't part of the request (or null if the entire request failed).
+    private List<Observation> postObservationsBatch(List<Observation> observations, List<Observation> failed) throws AuthenticationException {
+        HashMap<String, Observation> observationsByUuid = new HashMap<String, Observation>();
+        List<Observation> skipped = new ArrayList<Observation>();
+        JSONArray jsonObservations = new JSONArray();
+
+        for (Observation observation : observations) {
+            if (observation.uuid == null) {
+                // Older observations might not have a UUID - create one (and save it, so a retry will use the same UUID)
+                observation.uuid = UUID.randomUUID().toString();
+                ContentValues cv = new ContentValues();
+                cv.put(Observation.UUID, observation.uuid);
+                getContentResolver().update(observation.getUri(), cv, null, null);
+            }
+
+            JSONObject json = observationToJsonObject(observation, true);
+            if (json == null) {
+                skipped.add(observation);
+                continue;
+            }
+            try {
+                jsonObservations.put(json.getJSONObject("observation"));
+            } catch (JSONException e) {
+                e.printStackTrace();
+                skipped.add(observation);
+                continue;
+            }
+            observationsByUuid.put(observation.uuid, observation);
+        }
+
+        JSONObject request = new JSONObject();
+        try {
+            request.put("observations", jsonObservations);
+            request.put("ignore_photos", true);
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        JSONArray response = post(API_HOST + "/observations", request);
+        if ((response == null) || (response.length() == 0)) return null;
+
+        for (int i = 0; i < response.length(); i++) {
+            JSONObject json = response.optJSONObject(i);
+            if (json == null) continue;
+
+            Observation observation = observationsByUuid.get(json.optString("uuid", null));
+            if (observation == null) continue;
+
+            JSONArray singleResponse = new JSONArray();
+            singleResponse.put(json);
+            if (handleObservationResponse(observation, singleResponse)) {
+                observationsByUuid.remove(observation.uuid);
+            }
+        }
+
+        for (Observation observation : observations) {
+            if (observationsByUuid.containsKey(observation.uuid)) {
+                failed.add(observation);
+            }
+        }
+
+        return skipped;
+    }
+
     
     private JSONObject getObservationJson(int id) throws AuthenticationException {
         NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
@@ -1602,13 +1856,14 @@ public class INaturalistService extends IntentService {
         // query observation photos where _updated_at > updated_at (i.e. updated photos)
         Cursor c = getContentResolver().query(ObservationPhoto.CONTENT_URI,
                 ObservationPhoto.PROJECTION,
-                "_updated_at > _synced_at AND _synced_at IS NOT NULL",
+                DatabaseIndexes.NEEDS_SYNC_SELECTION + " AND _synced_at IS NOT NULL",
                 null,
                 ObservationPhoto.DEFAULT_SORT_ORDER);
 
         int updatedCount = c.getCount();
 
         // for each observation PUT to /observation_photos/:id
+        ObservationPhoto.CursorColumns columns = new ObservationPhoto.CursorColumns(c);
         c.moveToFirst();
         while (c.isAfterLast() == false) {
             checkForCancelSync();
@@ -1617,7 +1872,7 @@ public class INaturalistService extends IntentService {
                     getString(R.string.updating_photos),
                     String.format(getString(R.string.updating_x_photos), (c.getPosition() + 1), c.getCount()),
                     getString(R.string.syncing));
-            op = new ObservationPhoto(c);
+            op = new ObservationPhoto(c, columns);
             ArrayList <NameValuePair> params = op.getParams();
             mApp.setObservationIdBeingSynced(op._observation_id);
             String inatNetwork = mApp.getInaturalistNetworkMember();
@@ -1652,88 +1907,78 @@ public class INaturalistService extends IntentService {
         // query observation photos where _synced_at is null (i.e. new photos)
         c = getContentResolver().query(ObservationPhoto.CONTENT_URI,
                 ObservationPhoto.PROJECTION, 
-                "_synced_at IS NULL", null, ObservationPhoto.DEFAULT_SORT_ORDER);
+                DatabaseIndexes.NEEDS_SYNC_SELECTION + " AND _synced_at IS NULL", null, ObservationPhoto.DEFAULT_SORT_ORDER);
         if (c.getCount() == 0) {
             c.close();
+            PhotoUploadQueue.clearFailedAttempts(mPreferences);
             return true;
         }
 
         checkForCancelSync();
 
-        // for each observation POST to /observation_photos
+        // Collect all photos that need to be uploaded
+        List<ObservationPhoto> photosToUpload = new ArrayList<ObservationPhoto>();
+        columns = new ObservationPhoto.CursorColumns(c);
         c.moveToFirst();
         while (c.isAfterLast() == false) {
-            mApp.notify(SYNC_PHOTOS_NOTIFICATION,
-                    getString(R.string.posting_photos), 
-                    String.format(getString(R.string.posting_x_photos), (c.getPosition() + 1), c.getCount()),
-                    getString(R.string.syncing));
-            op = new ObservationPhoto(c);
+            op = new ObservationPhoto(c, columns);
+            c.moveToNext();
 
             if (op.photo_url != null) {
                 // Online photo
-                c.moveToNext();
                 continue;
             }
 
-            ArrayList <NameValuePair> params = op.getParams();
-            mApp.setObservationIdBeingSynced(op._observation_id);
+            photosToUpload.add(op);
+        }
+        c.close();
 
-            String imgFilePath = op.photo_filename;
-            if (imgFilePath == null) {
-                // Observation photo is saved in the "old" way (prior to latest change in the way we store photos)
-                if (op._photo_id != null) {
-                    Uri photoUri = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, op._photo_id);
-                    Cursor pc = getContentResolver().query(photoUri,
-                            new String[]{MediaStore.MediaColumns._ID, MediaStore.Images.Media.DATA},
-                            null,
-                            null,
-                            MediaStore.Images.Media.DEFAULT_SORT_ORDER);
-                    if (pc != null) {
-                        if (pc.getCount() > 0) {
-                            pc.moveToFirst();
-                            imgFilePath = pc.getString(pc.getColumnIndexOrThrow(MediaStore.Images.Media.DATA));
-                        }
-                        pc.close();
-                    }
+        // POST each photo to /observation_photos (using several concurrent uploads)
+        final int totalCount = photosToUpload.size();
+        final boolean[] authenticationFailed = { false };
+        PhotoUploadQueue queue = new PhotoUploadQueue(mPreferences, PhotoUploadQueue.DEFAULT_WORKERS);
+        final PhotoTranscoder transcoder = getPhotoTranscoder();
+        transcoder.trimCache();
+        // Per-request state is thread-confined - so the workers need the sync's passive mode as well
+        final boolean passive = mPassive.get();
+
+        mApp.notify(SYNC_PHOTOS_NOTIFICATION,
+                getString(R.string.posting_photos),
+                String.format(getString(R.string.posting_x_photos), 1, totalCount),
+                getString(R.string.syncing));
+
+        createdCount += queue.run(photosToUpload, new PhotoUploadQueue.Callback() {
+            @Override
+            public PhotoUploadQueue.Result upload(ObservationPhoto photo) {
+                mPassive.set(passive);
+                try {
+                    return postPhoto(photo, transcoder) ? PhotoUploadQueue.Result.SUCCESS : PhotoUploadQueue.Result.FAILED;
+                } catch (AuthenticationException e) {
+                    authenticationFailed[0] = true;
+                    return PhotoUploadQueue.Result.ABORT;
                 }
             }
-            params.add(new BasicNameValuePair("file", imgFilePath));
-            
-            String inatNetwork = mApp.getInaturalistNetworkMember();
-            String inatHost = mApp.getStringResourceByName("inat_host_" + inatNetwork);
-            params.add(new BasicNameValuePair("site_id", mApp.getStringResourceByName("inat_site_id_" + inatNetwork)));
-            
-            JSONArray response = post("http://" + inatHost + "/observation_photos.json", params);
-            try {
-                if (response == null || response.length() != 1) {
-                    c.close();
-                    mApp.setObservationIdBeingSynced(INaturalistApp.NO_OBSERVATION);
-                    throw new SyncFailedException();
-                }
-                JSONObject json = response.getJSONObject(0);
-                BetterJSONObject j = new BetterJSONObject(json);
-                ObservationPhoto jsonObservationPhoto = new ObservationPhoto(j);
-                op.merge(jsonObservationPhoto);
-                cv = op.getContentValues();
-                cv.put(ObservationPhoto._SYNCED_AT, System.currentTimeMillis());
-                getContentResolver().update(op.getUri(), cv, null, null);
-                createdCount += 1;
-            } catch (JSONException e) {
-                Log.e(TAG, "JSONException: " + e.toString());
+
+            @Override
+            public boolean isCancelled() {
+                return mApp.getCancelSync();
             }
-            c.moveToNext();
 
-            checkForCancelSync();
-        }
-        c.close();
+            @Override
+            public void onProgress(int uploaded, int total) {
+                mApp.notify(SYNC_PHOTOS_NOTIFICATION,
+                        getString(R.string.posting_photos),
+                        String.format(getString(R.string.posting_x_photos), Math.min(uploaded + 1, total), total),
+                        getString(R.string.syncing));
+            }
+        });
 
         mApp.setObservationIdBeingSynced(INaturalistApp.NO_OBSERVATION);
 
-        c = getContentResolver().query(ObservationPhoto.CONTENT_URI,
-        		ObservationPhoto.PROJECTION, 
-        		"_synced_at IS NULL", null, ObservationPhoto.DEFAULT_SORT_ORDER);
-        int currentCount = c.getCount();
-        c.close();
+        if (authenticationFailed[0]) throw new AuthenticationException();
+        checkForCancelSync();
+
+        int currentCount = SyncCounter.getCount(getContentResolver(), SyncCounter.NEW_PHOTOS);
 
         if (currentCount == 0) {
         	// Sync completed successfully
@@ -1744,6 +1989,73 @@ public class INaturalistService extends IntentService {
         }
     }
 
+    private PhotoTranscoder getPhotoTranscoder() {
+        int maxEdge = PhotoTranscoder.DEFAULT_MAX_EDGE;
+        int quality = PhotoTranscoder.DEFAULT_QUALITY;
+        try {
+            maxEdge = Integer.valueOf(mPreferences.getString(PhotoTranscoder.PREF_MAX_EDGE, String.valueOf(PhotoTranscoder.DEFAULT_MAX_EDGE)));
+            quality = Integer.valueOf(mPreferences.getString(PhotoTranscoder.PREF_QUALITY, String.valueOf(PhotoTranscoder.DEFAULT_QUALITY)));
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+        }
+
+        return new PhotoTranscoder(this, maxEdge, quality);
+    }
+
+    // Uploads a single (new) observation photo - returns true if successful. Called from the upload queue's worker threads
+    // (so it doesn't mark the observation as the one being synced - several photos are uploaded at the same time).
+    private boolean postPhoto(ObservationPhoto op, PhotoTranscoder transcoder) throws AuthenticationException {
+        ArrayList <NameValuePair> params = op.getParams();
+
+        String imgFilePath = op.photo_filename;
+        if (imgFilePath == null) {
+            // Observation photo is saved in the "old" way (prior to latest change in the way we store photos)
+            if (op._photo_id != null) {
+                Uri photoUri = ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, op._photo_id);
+                Cursor pc = getContentResolver().query(photoUri,
+                        new String[]{MediaStore.MediaColumns._ID, MediaStore.Images.Media.DATA},
+                        null,
+                        null,
+                        MediaStore.Images.Media.DEFAULT_SORT_ORDER);
+                if (pc != null) {
+                    if (pc.getCount() > 0) {
+                        pc.moveToFirst();
+                        imgFilePath = pc.getString(pc.getColumnIndexOrThrow(MediaStore.Images.Media.DATA));
+                    }
+                    pc.close();
+                }
+            }
+        }
+        // Upload a downscaled version of the photo (instead of the full-resolution original)
+        String uploadFilePath = transcoder.getUploadFile(imgFilePath);
+        params.add(new BasicNameValuePair("file", uploadFilePath));
+
+        String inatNetwork = mApp.getInaturalistNetworkMember();
+        String inatHost = mApp.getStringResourceByName("inat_host_" + inatNetwork);
+        params.add(new BasicNameValuePair("site_id", mApp.getStringResourceByName("inat_site_id_" + inatNetwork)));
+
+        JSONArray response = post("http://" + inatHost + "/observation_photos.json", params);
+        try {
+            if (response == null || response.length() != 1) {
+                // Keep the transcoded photo around for the next retry
+                return false;
+            }
+            transcoder.deleteUploadFile(imgFilePath, uploadFilePath);
+
+            JSONObject json = response.getJSONObject(0);
+            BetterJSONObject j = new BetterJSONObject(json);
+            ObservationPhoto jsonObservationPhoto = new ObservationPhoto(j);
+            op.merge(jsonObservationPhoto);
+            ContentValues cv = op.getContentValues();
+            cv.put(ObservationPhoto._SYNCED_AT, System.currentTimeMillis());
+            getContentResolver().update(op.getUri(), cv, null, null);
+            return true;
+        } catch (JSONException e) {
+            Log.e(TAG, "JSONException: " + e.toString());
+            return false;
+        }
+    }
+
     private String getGuideXML(Integer guideId) throws AuthenticationException {
         NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         Locale deviceLocale = getResources().getConfiguration().locale;
@@ -1751,16 +2063,26 @@ public class INaturalistService extends IntentService {
 
         String url = HOST + "/guides/" + guideId.toString() + ".xml?locale=" + deviceLanguage;
 
+        HttpGet httpGet = new HttpGet(url);
+        httpGet.getParams().setParameter(ClientPNames.ALLOW_CIRCULAR_REDIRECTS, true);
+
+        // A single file per guide (replaced when the guide is downloaded again) - so its snapshot (see GuideSnapshot)
+        // is reused by the guide's screens, and neither of them pile up in the cache dir
+        File guidesDir = new File(getBaseContext().getCacheDir(), ONLINE_GUIDES_DIR);
+        guidesDir.mkdirs();
+        deleteOldGuideDownloads();
+        File outputFile = new File(guidesDir, guideId.toString() + ".xml");
+        File tempFile = new File(guidesDir, guideId.toString() + ".xml.tmp");
+
+        InputStream buffer = null;
+        OutputStream output = null;
+        boolean success = false;
+
         try {
-            HttpClient httpClient = new DefaultHttpClient();
-            httpClient.getParams().setParameter(ClientPNames.ALLOW_CIRCULAR_REDIRECTS, true);
-            HttpGet httpGet = new HttpGet(url);
-            HttpResponse response = null;
-            response = httpClient.execute(httpGet);
+            HttpResponse response = HttpTransport.getInstance(this).execute(httpGet);
 
-            InputStream buffer = new BufferedInputStream(response.getEntity().getContent());
-            File outputFile = File.createTempFile(guideId.toString() + ".xml", null, getBaseContext().getCacheDir());
-            OutputStream output = new FileOutputStream(outputFile);
+            buffer = new BufferedInputStream(response.getEntity().getContent());
+            output = new FileOutputStream(tempFile);
 
             int count = 0;
             byte data[] = new byte[1024];
@@ -1771,21 +2093,52 @@ public class INaturalistService extends IntentService {
             // flushing output
             output.flush();
 
-            // closing streams
-            output.close();
-            buffer.close();
-
-            // Return the downloaded full file name
-            return outputFile.getAbsolutePath();
-
+            success = true;
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            if (!success) {
+                // Make sure the connection is released back to the pool
+                httpGet.abort();
+            }
+
+            // closing streams
+            try {
+                if (output != null) output.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                success = false;
+            }
+            try {
+                if (buffer != null) buffer.close();
+            } catch (IOException e) {
+                // Connection was already aborted
+            }
+        }
+
+        // (Only replace the previous download once the new one is complete)
+        if (!success || !tempFile.renameTo(outputFile)) {
+            tempFile.delete();
             return null;
         }
 
+        // Return the downloaded full file name
+        return outputFile.getAbsolutePath();
     }
 
 
+    // Older versions downloaded each online guide into a new temp file (which was never deleted)
+    private void deleteOldGuideDownloads() {
+        File[] files = getBaseContext().getCacheDir().listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            if (file.isFile() && file.getName().matches("\\d+\\.xml-?\\d+\\.tmp(\\.snapshot)?")) {
+                file.delete();
+            }
+        }
+    }
+
     private BetterJSONObject getUserDetails(String username) throws AuthenticationException {
         String url = HOST + "/users/" + username + ".json";
         JSONArray json = get(url, false);
@@ -2017,33 +2370,51 @@ public class INaturalistService extends IntentService {
     	String inatNetwork = mApp.getInaturalistNetworkMember();
     	String inatHost = mApp.getStringResourceByName("inat_host_" + inatNetwork);
 
-        String url = "http://" + inatHost + "/guides.json?";
-        
-        url += "per_page=200&page=";
-        
-        JSONArray results = new JSONArray();
+        final String url = "http://" + inatHost + "/guides.json?per_page=" + GUIDES_PER_PAGE + "&page=";
 
-        // Results are paginated - make sure to retrieve them all
-        
-        int page = 1;
-        JSONArray currentResults = get(url + page);
-        
-        while ((currentResults != null) && (currentResults.length() > 0)) {
-        	// Append current results
-        	for (int i = 0; i < currentResults.length(); i++) {
-        		try {
-					results.put(currentResults.get(i));
-				} catch (JSONException e) {
-					e.printStackTrace();
-				}
-        	}
+        final JSONArray results = new JSONArray();
+
+        // Results are paginated - make sure to retrieve them all (the first page tells us how many
+        // there are, and the rest are retrieved concurrently)
+        PaginatedFetcher fetcher = new PaginatedFetcher(GUIDES_PER_PAGE, CONCURRENT_PAGE_REQUESTS);
+        fetcher.fetchAll(new PaginatedFetcher.PageSource() {
+            @Override
+            public PaginatedFetcher.Page fetchPage(int page) throws AuthenticationException {
+                JSONArray json = get(url + page);
+                if (json == null) return null;
+                return new PaginatedFetcher.Page(json, getResponseTotalEntries());
+            }
+        }, new PaginatedFetcher.PageConsumer() {
+            @Override
+            public void onPage(int page, JSONArray pageResults) {
+                // Append current results
+                for (int i = 0; i < pageResults.length(); i++) {
+                    results.put(pageResults.opt(i));
+                }
+            }
+        });
 
-        	page++;
-            currentResults = get(url + page);
-        }
-        
         return new SerializableJSONArray(results);
     }
+
+    // Returns the total number of results of a paginated request (according to the last response's headers
+    // of the current thread), or -1 if unknown
+    private int getResponseTotalEntries() {
+        Header[] headers = mResponseHeaders.get();
+        if (headers == null) return -1;
+
+        for (Header header : headers) {
+            if (!header.getName().equalsIgnoreCase("X-Total-Entries")) continue;
+            try {
+                return Integer.parseInt(header.getValue().trim());
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                return -1;
+            }
+        }
+
+        return -1;
+    }
     
     private SerializableJSONArray getMyGuides() throws AuthenticationException {
         JSONArray json = null;
@@ -2220,11 +2591,12 @@ public class INaturalistService extends IntentService {
             // First, delete all previous project fields (for that project)
             getContentResolver().delete(ProjectField.CONTENT_URI, "(project_id IS NOT NULL) and (project_id = "+projectId+")", null);
 
-            // Next, re-add all project fields
+            // Next, re-add all project fields (in a single transaction)
+            ContentValues[] values = new ContentValues[projectFields.size()];
             for (int i = 0; i < projectFields.size(); i++) {
-                ProjectField field = projectFields.get(i);
-                getContentResolver().insert(ProjectField.CONTENT_URI, field.getContentValues());
+                values[i] = projectFields.get(i).getContentValues();
             }
+            getContentResolver().bulkInsert(ProjectField.CONTENT_URI, values);
         }
     }
 
@@ -2369,14 +2741,19 @@ public class INaturalistService extends IntentService {
         String url = HOST + "/projects/user/" + Uri.encode(mLogin) + ".json";
 
         JSONArray json = get(url, true);
-        JSONArray finalJson = new JSONArray();
-        
         if (json == null) {
             return null;
         }
-        
-        for (int i = 0; i < json.length(); i++) {
-            try {
+
+        return parseJoinedProjects(json);
+    }
+
+    // Returns the projects of a joined projects response (and saves their project fields)
+    private SerializableJSONArray parseJoinedProjects(JSONArray json) {
+        JSONArray finalJson = new JSONArray();
+
+        for (int i = 0; i < json.length(); i++) {
+            try {
                 JSONObject obj = json.getJSONObject(i);
                 JSONObject project = obj.getJSONObject("project");
                 project.put("joined", true);
@@ -2400,8 +2777,10 @@ public class INaturalistService extends IntentService {
             return false;
         }
         String url = HOST + "/observations/" + Uri.encode(mLogin) + ".json";
-        
-        long lastSync = mPreferences.getLong("last_sync_time", 0);
+
+        SyncCursor cursor = SyncCursor.get(getContentResolver(), SyncCursor.ENTITY_OBSERVATIONS);
+        // Older versions kept a single sync time in the preferences
+        long lastSync = cursor.updated_since != null ? cursor.updated_since : mPreferences.getLong("last_sync_time", 0);
         Timestamp lastSyncTS = new Timestamp(lastSync);
         url += String.format("?updated_since=%s&order_by=date_added&order=desc&extra=observation_photos,projects,fields", URLEncoder.encode(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(lastSyncTS)));
         
@@ -2414,50 +2793,107 @@ public class INaturalistService extends IntentService {
         String deviceLanguage =   deviceLocale.getLanguage();
         url += "&locale=" + deviceLanguage;
         
-        mProjectObservations = new ArrayList<SerializableJSONArray>();
         mProjectFieldValues = new Hashtable<Integer, Hashtable<Integer,ProjectFieldValue>>();
+        mRemoteFieldIds = new HashSet<Integer>();
         
-        JSONArray json = get(url, true);
-        if (json != null && json.length() > 0) {
-            syncJson(json, true);
-            return true;
+        boolean success;
+        List<Observation> failedObservations = new ArrayList<Observation>();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Stream the response, so memory usage doesn't depend on the number of returned observations
+            int count = streamUserObservations(url, failedObservations);
+            success = (count >= 0);
         } else {
-        	if (mResponseHeaders != null) {
-        		// Delete any local observations which were deleted remotely by the user
-        		for (Header header : mResponseHeaders) {
-        			if (!header.getName().equalsIgnoreCase("X-Deleted-Observations")) continue;
+            JSONArray json = get(url, true);
+            if (json != null && json.length() > 0) {
+                failedObservations.addAll(syncJson(json, true));
+            } else {
+                deleteRemotelyDeletedObservations();
+            }
+            success = (json != null);
+        }
 
-        			String deletedIds = header.getValue().trim();
-        			getContentResolver().delete(Observation.CONTENT_URI, "(id IN ("+deletedIds+"))", null);
-        			// Delete associated project-fields and photos
-        			int count1 = getContentResolver().delete(ObservationPhoto.CONTENT_URI, "observation_id in (" + deletedIds + ")", null);
-        			int count2 = getContentResolver().delete(ProjectObservation.CONTENT_URI, "observation_id in (" + deletedIds + ")", null);
-        			int count3 = getContentResolver().delete(ProjectFieldValue.CONTENT_URI, "observation_id in (" + deletedIds + ")", null);
-        			break;
-        		}
+        if (success && (maxCount == 0)) {
+            if (failedObservations.isEmpty()) {
+                // Next time, only pull observations updated since this request (according to the server's clock)
+                cursor.updated_since = getResponseServerTime();
+                cursor.save(getContentResolver());
+            } else {
+                // Only skip ahead to the earliest observation that couldn't be merged, so it's pulled again next time
+                Long earliestFailed = null;
+                for (Observation observation : failedObservations) {
+                    if (observation.updated_at == null) {
+                        earliestFailed = null;
+                        break;
+                    }
+                    long updatedAt = observation.updated_at.getTime();
+                    if ((earliestFailed == null) || (updatedAt < earliestFailed)) earliestFailed = updatedAt;
+                }
 
-        		mResponseHeaders = null;
-        	}
+                // (updated_since is sent with a one second resolution)
+                if ((earliestFailed != null) && (earliestFailed - 1000 > lastSync)) {
+                    cursor.updated_since = earliestFailed - 1000;
+                    cursor.save(getContentResolver());
+                }
+            }
+        }
+
+        if (!failedObservations.isEmpty()) {
+            // Don't consider this a successful pull - the observations that couldn't be merged need to be pulled again
+            Log.e(TAG, String.format("Couldn't merge %d of the user's observations", failedObservations.size()));
+            success = false;
         }
 
         checkForCancelSync();
 
-        return (json != null);
+        return success;
     }
-    
+
+    // Downloads and merges the user's observations one small batch at a time, while the response is still being
+    // read. Returns the number of observations read (-1 in case of an error); observations that couldn't be merged
+    // are added to failedObservations.
+    private int streamUserObservations(String url, final List<Observation> failedObservations) throws AuthenticationException, CancelSyncException {
+        final List<Observation> batch = new ArrayList<Observation>(SYNC_BATCH_SIZE);
+        final int[] count = { 0 };
+
+        boolean success = streamGet(url, true, new OnJSONObject() {
+            @Override
+            public void onJSONObject(JSONObject object) throws CancelSyncException {
+                batch.add(new Observation(new BetterJSONObject(object)));
+                count[0]++;
+
+                if (batch.size() >= SYNC_BATCH_SIZE) {
+                    failedObservations.addAll(mergeObservations(batch, true));
+                    batch.clear();
+                    checkForCancelSync();
+                }
+            }
+        });
+
+        if (!success) return -1;
+
+        if (batch.size() > 0) {
+            failedObservations.addAll(mergeObservations(batch, true));
+        }
+
+        deleteRemotelyDeletedObservations();
+
+        return count[0];
+    }
+
     private boolean syncObservationFields() throws AuthenticationException, CancelSyncException, SyncFailedException {
 
         // First, remotely update the observation fields which were modified
         
         Cursor c = getContentResolver().query(ProjectFieldValue.CONTENT_URI, 
                 ProjectFieldValue.PROJECTION, 
-                "_updated_at > _synced_at AND _synced_at IS NOT NULL", 
+                DatabaseIndexes.NEEDS_SYNC_SELECTION + " AND _synced_at IS NOT NULL",
                 null, 
                 ProjectFieldValue.DEFAULT_SORT_ORDER);
         
         c.moveToFirst();
 
-        if ((c.getCount() > 0) || (mProjectFieldValues.size() > 0)) {
+        if ((c.getCount() > 0) || (mProjectFieldValues.size() > 0) || (mRemoteFieldIds.size() > 0)) {
             mApp.notify(SYNC_PHOTOS_NOTIFICATION,
                     getString(R.string.projects),
                     getString(R.string.syncing_observation_fields),
@@ -2548,7 +2984,7 @@ public class INaturalistService extends IntentService {
                 JSONArray result = post(HOST + "/observation_field_values.json", params);
 
                 if (result == null) {
-                    if (mResponseErrors == null) {
+                    if (mResponseErrors.get() == null) {
                         c.close();
                         mApp.setObservationIdBeingSynced(INaturalistApp.NO_OBSERVATION);
                         throw new SyncFailedException();
@@ -2596,21 +3032,25 @@ public class INaturalistService extends IntentService {
                 ContentValues cv = field.getContentValues();
                 cv.put(ProjectFieldValue._SYNCED_AT, System.currentTimeMillis());
                 getContentResolver().insert(ProjectFieldValue.CONTENT_URI, cv);
-                
-                c = getContentResolver().query(ProjectField.CONTENT_URI, ProjectField.PROJECTION,
-                        "field_id = " + field.field_id, null, Project.DEFAULT_SORT_ORDER);
-                if (c.getCount() == 0) {
-                    // This observation has a non-project custom field - add it as well
-                    boolean success = addProjectField(field.field_id);
-                    if (!success) {
-                        c.close();
-                        throw new SyncFailedException();
-                    }
+                mRemoteFieldIds.add(field.field_id);
+            }
+        }
+        mProjectFieldValues.clear();
+
+        for (Integer fieldId : mRemoteFieldIds) {
+            c = getContentResolver().query(ProjectField.CONTENT_URI, ProjectField.PROJECTION,
+                    "field_id = " + fieldId, null, Project.DEFAULT_SORT_ORDER);
+            if (c.getCount() == 0) {
+                // This observation has a non-project custom field - add it as well
+                boolean success = addProjectField(fieldId);
+                if (!success) {
+                    c.close();
+                    throw new SyncFailedException();
                 }
-                c.close();
- 
             }
+            c.close();
         }
+        mRemoteFieldIds.clear();
 
         return true;
     }
@@ -2739,24 +3179,7 @@ public class INaturalistService extends IntentService {
     }
 
     private JSONArray request(String url, String method, ArrayList<NameValuePair> params, JSONObject jsonContent, boolean authenticated) throws AuthenticationException {
-        DefaultHttpClient client = new DefaultHttpClient();
-        // Handle redirects (301/302) for all HTTP methods (including POST)
-        client.setRedirectHandler(new DefaultRedirectHandler() {
-            @Override
-            public boolean isRedirectRequested(HttpResponse response, HttpContext context) {
-                boolean isRedirect = super.isRedirectRequested(response, context);
-                if (!isRedirect) {
-                    int responseCode = response.getStatusLine().getStatusCode();
-                    if (responseCode == 301 || responseCode == 302) {
-                        return true;
-                    }
-                }
-                return isRedirect;
-            }
-        });
-        client.getParams().setParameter(CoreProtocolPNames.USER_AGENT, getUserAgent(mApp));
-        client.getParams().setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, CONNECTION_TIMEOUT_MS);
-        client.getParams().setParameter(CoreConnectionPNames.SO_TIMEOUT, SOCKET_TIMEOUT_MS);
+        HttpTransport transport = HttpTransport.getInstance(mApp);
 
 //        Log.d(TAG, String.format("%s (%b - %s): %s", method, authenticated,
 //                authenticated ? mCredentials : "<null>",
@@ -2821,19 +3244,12 @@ public class INaturalistService extends IntentService {
 
         // auth
         if (authenticated) {
-            ensureCredentials();
-
-            if (mLoginType == LoginType.PASSWORD) {
-                // Old-style password authentication
-                request.setHeader("Authorization", "Basic " + mCredentials);
-            } else {
-                request.setHeader("Authorization", "Bearer " + mCredentials);
-            }
+            setAuthorizationHeader(request);
         }
 
         try {
-            mResponseErrors = null;
-            HttpResponse response = client.execute(request);
+            mResponseErrors.set(null);
+            HttpResponse response = transport.execute(request);
             HttpEntity entity = response.getEntity();
             String content = entity != null ? EntityUtils.toString(entity) : null;
 
@@ -2859,7 +3275,7 @@ public class INaturalistService extends IntentService {
                     }
                 }
 
-                mResponseHeaders = response.getAllHeaders();
+                mResponseHeaders.set(response.getAllHeaders());
 
                 try {
                 	if ((json != null) && (json.length() > 0)) {
@@ -2867,7 +3283,7 @@ public class INaturalistService extends IntentService {
                         if (result.has("errors")) {
                             // Error response
                             Log.e(TAG, "Got an error response: " + result.get("errors").toString());
-                            mResponseErrors = result.getJSONArray("errors");
+                            mResponseErrors.set(result.getJSONArray("errors"));
                             return null;
                         }
                 	}
@@ -2895,25 +3311,129 @@ public class INaturalistService extends IntentService {
             }
         }
         catch (IOException e) {
-            //request.abort();
+            // Make sure the connection is released back to the pool
+            request.abort();
             Log.w(TAG, "Error for URL " + url, e);
         }
         return null;
     }
 
+    private void setAuthorizationHeader(HttpRequestBase request) throws AuthenticationException {
+        ensureCredentials();
+
+        request.setHeader("Authorization", getAuthorizationHeader(mCredentials, mLoginType));
+    }
+
+    private static String getAuthorizationHeader(String credentials, LoginType loginType) {
+        if (loginType == LoginType.PASSWORD) {
+            // Old-style password authentication
+            return "Basic " + credentials;
+        } else {
+            return "Bearer " + credentials;
+        }
+    }
+
+    // Returns the Authorization header value of the signed in user (for requests made outside of the service),
+    // or null if not signed in
+    public static String getAuthorizationHeader(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences("iNaturalistPreferences", MODE_PRIVATE);
+        String credentials = prefs.getString("credentials", null);
+        if (credentials == null) return null;
+
+        return getAuthorizationHeader(credentials, LoginType.valueOf(prefs.getString("login_type", LoginType.OAUTH_PASSWORD.toString())));
+    }
+
+    private interface OnJSONObject {
+        void onJSONObject(JSONObject object) throws CancelSyncException;
+    }
+
+    // Performs a GET request whose response is a JSON array, and passes its elements to the callback one at a time,
+    // while the response is still being read (instead of reading the entire response into memory first).
+    // Returns false in case of an error.
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private boolean streamGet(String url, boolean authenticated, OnJSONObject callback) throws AuthenticationException, CancelSyncException {
+        HttpTransport transport = HttpTransport.getInstance(mApp);
+        HttpGet request = new HttpGet(url);
+
+        Log.d(TAG, String.format("URL: get (streamed) - %s", url));
+
+        if (authenticated) {
+            setAuthorizationHeader(request);
+        }
+
+        JSONArrayStreamReader reader = null;
+
+        try {
+            mResponseErrors.set(null);
+            HttpResponse response = transport.execute(request);
+            HttpEntity entity = response.getEntity();
+
+            switch (response.getStatusLine().getStatusCode()) {
+            case HttpStatus.SC_OK:
+                mResponseHeaders.set(response.getAllHeaders());
+                if (entity == null) return true;
+
+                reader = new JSONArrayStreamReader(entity.getContent());
+                JSONObject object;
+                boolean isFirst = true;
+
+                while ((object = reader.next()) != null) {
+                    if (isFirst && object.has("errors")) {
+                        // Error response
+                        Log.e(TAG, "Got an error response: " + object.get("errors").toString());
+                        mResponseErrors.set(object.getJSONArray("errors"));
+                        request.abort();
+                        return false;
+                    }
+                    isFirst = false;
+
+                    callback.onJSONObject(object);
+                }
+
+                return true;
+
+            case HttpStatus.SC_UNAUTHORIZED:
+                request.abort();
+                throw new AuthenticationException();
+
+            default:
+                Log.e(TAG, response.getStatusLine().toString());
+                if (entity != null) entity.consumeContent();
+            }
+        } catch (IOException e) {
+            // Make sure the connection is released back to the pool
+            request.abort();
+            Log.w(TAG, "Error for URL " + url, e);
+        } catch (JSONException e) {
+            request.abort();
+            Log.e(TAG, "Failed to parse response, JSONException: " + e.toString());
+        } catch (CancelSyncException e) {
+            request.abort();
+            throw e;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Connection was already aborted
+                }
+            }
+        }
+
+        return false;
+    }
+
 	private boolean ensureCredentials() throws AuthenticationException {
         if (mCredentials != null) { return true; }
 
         // request login unless passive
-        if (!mPassive) {
+        if (!mPassive.get()) {
             throw new AuthenticationException();
         }
-        stopSelf();
         return false;
     }
 
     private void requestCredentials() {
-        stopSelf();
         mApp.sweepingNotify(AUTH_NOTIFICATION, getString(R.string.please_sign_in), getString(R.string.please_sign_in_description), null);
     }
 
@@ -2921,8 +3441,7 @@ public class INaturalistService extends IntentService {
     // Returns an array of two strings: access token + iNat username
     public static String[] verifyCredentials(Context context, String username, String oauth2Token, LoginType authType) {
         String grantType = null;
-        DefaultHttpClient client = new DefaultHttpClient();
-        client.getParams().setParameter(CoreProtocolPNames.USER_AGENT, getUserAgent(context));
+        HttpTransport transport = HttpTransport.getInstance(context);
         String url = HOST + (authType == LoginType.OAUTH_PASSWORD ? "/oauth/token" : "/oauth/assertion_token");
         HttpRequestBase request = new HttpPost(url);
         ArrayList<NameValuePair> postParams = new ArrayList<NameValuePair>();
@@ -2954,7 +3473,7 @@ public class INaturalistService extends IntentService {
         }
         
         try {
-            HttpResponse response = client.execute(request);
+            HttpResponse response = transport.execute(request);
             HttpEntity entity = response.getEntity();
             String content = EntityUtils.toString(entity);
             
@@ -2968,7 +3487,7 @@ public class INaturalistService extends IntentService {
                 request = new HttpGet(HOST + "/users/edit.json");
                 request.setHeader("Authorization", "Bearer " + accessToken);
                 
-                response = client.execute(request);
+                response = transport.execute(request);
                 entity = response.getEntity();
                 content = EntityUtils.toString(entity);
 
@@ -3015,42 +3534,137 @@ public class INaturalistService extends IntentService {
     }
 
 
-    public void syncJson(JSONArray json, boolean isUser) {
+    // Returns the observations that couldn't be merged
+    public List<Observation> syncJson(JSONArray json, boolean isUser) {
+        List<Observation> observations = new ArrayList<Observation>();
+
+        for (int i = 0; i < json.length(); i++) {
+            try {
+                observations.add(new Observation(new BetterJSONObject(json.getJSONObject(i))));
+            } catch (JSONException e) {
+                Log.e(TAG, "JSONException: " + e.toString());
+            }
+        }
+
+        List<Observation> failedObservations = mergeObservations(observations, isUser);
+
+        if (isUser) {
+            deleteRemotelyDeletedObservations();
+        }
+
+        return failedObservations;
+    }
+
+    // Stores the remote field values of a page of observations. Observations that have locally-modified field values
+    // are kept aside instead (syncObservationFields decides which of the values to keep)
+    private void storeProjectFieldValues(Hashtable<Integer, Hashtable<Integer, ProjectFieldValue>> fieldValues) {
+        if (fieldValues.isEmpty()) return;
+
+        HashSet<Integer> modifiedObservationIds = new HashSet<Integer>();
+        Cursor c = getContentResolver().query(ProjectFieldValue.CONTENT_URI,
+                new String[] { ProjectFieldValue.OBSERVATION_ID },
+                DatabaseIndexes.NEEDS_SYNC_SELECTION + " AND _synced_at IS NOT NULL AND observation_id IN (" + StringUtils.join(fieldValues.keySet(), ",") + ")",
+                null, null);
+        while (c.moveToNext()) {
+            modifiedObservationIds.add(c.getInt(0));
+        }
+        c.close();
+
+        for (Map.Entry<Integer, Hashtable<Integer, ProjectFieldValue>> entry : fieldValues.entrySet()) {
+            if (modifiedObservationIds.contains(entry.getKey())) {
+                mProjectFieldValues.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+
+            for (ProjectFieldValue field : entry.getValue().values()) {
+                // (Replaces the existing local value, if any)
+                ContentValues cv = field.getContentValues();
+                cv.put(ProjectFieldValue._SYNCED_AT, System.currentTimeMillis());
+                getContentResolver().insert(ProjectFieldValue.CONTENT_URI, cv);
+                mRemoteFieldIds.add(field.field_id);
+            }
+        }
+    }
+
+    // Local observations that were sent as part of a batch create but weren't matched in its response might have been
+    // created anyway - match them to the downloaded observations by UUID and adopt their server ID (the same way a
+    // matched response would have), so they're merged as existing observations instead of being posted again
+    private void adoptCreatedObservations(List<Observation> observations) {
+        HashMap<String, Observation> observationsByUuid = new HashMap<String, Observation>();
+        for (Observation observation : observations) {
+            if ((observation.uuid != null) && (observation.id != null)) {
+                observationsByUuid.put(observation.uuid, observation);
+            }
+        }
+        if (observationsByUuid.isEmpty()) return;
+
+        String[] uuids = observationsByUuid.keySet().toArray(new String[observationsByUuid.size()]);
+        Cursor c = getContentResolver().query(Observation.CONTENT_URI,
+                Observation.PROJECTION,
+                "(id IS NULL) AND (uuid IN (" + StringUtils.repeat("?", ",", uuids.length) + "))", uuids, null);
+        Observation.CursorColumns columns = new Observation.CursorColumns(c);
+        c.moveToFirst();
+        while (c.isAfterLast() == false) {
+            Observation observation = new Observation(c, columns);
+            Observation remoteObservation = observationsByUuid.get(observation.uuid);
+            Log.d(TAG, String.format("Adopting remote observation %d for local observation %d (%s)",
+                    remoteObservation.id, observation._id, observation.uuid));
+            observation.merge(remoteObservation);
+            observation.id = remoteObservation.id;
+            ContentValues cv = observation.getContentValues();
+            cv.put(Observation._SYNCED_AT, System.currentTimeMillis());
+            getContentResolver().update(observation.getUri(), cv, null, null);
+            c.moveToNext();
+        }
+        c.close();
+    }
+
+    // Merges a batch of remote observations (and their photos) into the local DB - returns the observations that
+    // couldn't be merged
+    private List<Observation> mergeObservations(List<Observation> observations, boolean isUser) {
         ArrayList<Integer> ids = new ArrayList<Integer>();
         ArrayList<Integer> existingIds = new ArrayList<Integer>();
         ArrayList<Integer> newIds = new ArrayList<Integer>();
         HashMap<Integer,Observation> jsonObservationsById = new HashMap<Integer,Observation>();
         Observation observation;
         Observation jsonObservation;
-        
-        BetterJSONObject o;
-        for (int i = 0; i < json.length(); i++) {
-            try {
-                o = new BetterJSONObject(json.getJSONObject(i));
-                ids.add(o.getInt("id"));
+        List<SerializableJSONArray> projectObservations = new ArrayList<SerializableJSONArray>();
+        Hashtable<Integer, Hashtable<Integer, ProjectFieldValue>> projectFieldValues = new Hashtable<Integer, Hashtable<Integer, ProjectFieldValue>>();
 
-                Observation obs = new Observation(o);
-                jsonObservationsById.put(o.getInt("id"), obs);
+        for (Observation obs : observations) {
+            try {
+                ids.add(obs.id);
+                jsonObservationsById.put(obs.id, obs);
 
                 if (isUser) {
-                    // Save the project observations aside (will be later used in the syncing of project observations)
-                    mProjectObservations.add(o.getJSONArray("project_observations"));
+                    projectObservations.add(obs.projects);
 
                     // Save project field values
                     Hashtable<Integer, ProjectFieldValue> fields = new Hashtable<Integer, ProjectFieldValue>();
-                    JSONArray jsonFields = o.getJSONArray("observation_field_values").getJSONArray();
-                    
+                    JSONArray jsonFields = obs.field_values.getJSONArray();
+
                     for (int j = 0; j < jsonFields.length(); j++) {
                         BetterJSONObject field = new BetterJSONObject(jsonFields.getJSONObject(j));
                         fields.put(field.getJSONObject("observation_field").getInt("id"), new ProjectFieldValue(field));
                     }
-                    
-                    mProjectFieldValues.put(o.getInt("id"), fields);
+
+                    projectFieldValues.put(obs.id, fields);
                 }
             } catch (JSONException e) {
                 Log.e(TAG, "JSONException: " + e.toString());
             }
         }
+
+        if (isUser) {
+            // Project observations and field values are stored page by page (and not kept for the entire sync)
+            storeProjectObservations(projectObservations);
+            storeProjectFieldValues(projectFieldValues);
+
+            adoptCreatedObservations(observations);
+        }
+
+        long startTime = System.currentTimeMillis();
+
         // find obs with existing ids
         String joinedIds = StringUtils.join(ids, ",");
         // TODO why doesn't selectionArgs work for id IN (?)
@@ -3058,11 +3672,28 @@ public class INaturalistService extends IntentService {
                 Observation.PROJECTION, 
                 "id IN ("+joinedIds+")", null, Observation.DEFAULT_SORT_ORDER);
 
+        // Photo IDs of all existing observations in this page (fetched in a single query - see SyncedPhotoIdsBenchmark)
+        SparseArray<HashSet<Integer>> existingPhotoIdsByObservation = getSyncedPhotoIds(joinedIds);
+
+        // All changes are applied as a single batch (one transaction)
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        // Photo deletion operation index -> description (for logging)
+        HashMap<Integer, String> photoDeletions = new HashMap<Integer, String>();
+        // New observation insert operation index -> observation
+        HashMap<Integer, Observation> newObservationInserts = new HashMap<Integer, Observation>();
+        // Operation index ranges (start, end) of each observation - in case the page needs to be applied per observation
+        List<int[]> observationOperations = new ArrayList<int[]>();
+        // The remote observation of each operation range
+        List<Observation> operationObservations = new ArrayList<Observation>();
+        List<Observation> failedObservations = new ArrayList<Observation>();
+
         // update existing
+        Observation.CursorColumns columns = new Observation.CursorColumns(c);
         c.moveToFirst();
         ContentValues cv;
         while (c.isAfterLast() == false) {
-            observation = new Observation(c);
+            int firstOperation = operations.size();
+            observation = new Observation(c, columns);
             jsonObservation = jsonObservationsById.get(observation.id);
             boolean isModified = observation.merge(jsonObservation); 
             cv = observation.getContentValues();
@@ -3075,21 +3706,8 @@ public class INaturalistService extends IntentService {
                 
             // Add any new photos that were added remotely
             ArrayList<Integer> observationPhotoIds = new ArrayList<Integer>();
-            ArrayList<Integer> existingObservationPhotoIds = new ArrayList<Integer>();
-            Cursor pc = getContentResolver().query(
-                    ObservationPhoto.CONTENT_URI, 
-                    ObservationPhoto.PROJECTION, 
-                    "(observation_id = "+observation.id + ")",
-                    null, null);
-            pc.moveToFirst();
-            while(pc.isAfterLast() == false) {
-                int photoId = pc.getInt(pc.getColumnIndexOrThrow(ObservationPhoto.ID));
-                if (photoId != 0) {
-                    existingObservationPhotoIds.add(photoId);
-                }
-                pc.moveToNext();
-            }
-            pc.close();
+            HashSet<Integer> existingObservationPhotoIds = existingPhotoIdsByObservation.get(observation.id);
+            if (existingObservationPhotoIds == null) existingObservationPhotoIds = new HashSet<Integer>();
             for (int j = 0; j < jsonObservation.photos.size(); j++) {
                 ObservationPhoto photo = jsonObservation.photos.get(j);
                 photo._observation_id = jsonObservation._id;
@@ -3104,11 +3722,7 @@ public class INaturalistService extends IntentService {
                 opcv.put(ObservationPhoto._OBSERVATION_ID, photo.observation_id);
                 opcv.put(ObservationPhoto._PHOTO_ID, photo._photo_id);
                 opcv.put(ObservationPhoto.ID, photo.id);
-                try {
-                    getContentResolver().insert(ObservationPhoto.CONTENT_URI, opcv);
-                } catch(SQLException ex) {
-                    // Happens when the photo already exists - ignore
-                }
+                operations.add(ContentProviderOperation.newInsert(ObservationPhoto.CONTENT_URI).withValues(opcv).build());
             }
             
             // Delete photos that were synced but weren't present in the remote response, 
@@ -3118,84 +3732,284 @@ public class INaturalistService extends IntentService {
             if (joinedPhotoIds.length() > 0) {
                 where += " AND id NOT in (" + joinedPhotoIds + ")";
             }
-            int deleteCount = getContentResolver().delete(
-                    ObservationPhoto.CONTENT_URI, 
-                    where, 
-                    null);
-
-            if (deleteCount > 0) {
-            	Crashlytics.log(1, TAG, String.format("Warning: Deleted %d photos locally after sever did not contain those IDs - observation id: %s, photo ids: %s",
-            			deleteCount, observation.id, joinedPhotoIds));
-            }
+            photoDeletions.put(operations.size(), String.format("observation id: %s, photo ids: %s", observation.id, joinedPhotoIds));
+            operations.add(ContentProviderOperation.newDelete(ObservationPhoto.CONTENT_URI).withSelection(where, null).build());
 
             if (isModified) {
                 // Only update the DB if needed
-                getContentResolver().update(observation.getUri(), cv, null, null);
+                operations.add(ContentProviderOperation.newUpdate(observation.getUri()).withValues(cv).build());
             }
+            observationOperations.add(new int[] { firstOperation, operations.size() });
+            operationObservations.add(jsonObservation);
             existingIds.add(observation.id);
             c.moveToNext();
         }
         c.close();
 
         // insert new
-        List<Observation> newObservations = new ArrayList<Observation>();
         newIds = (ArrayList<Integer>) CollectionUtils.subtract(ids, existingIds);
         Collections.sort(newIds);
         for (int i = 0; i < newIds.size(); i++) {			
             jsonObservation = jsonObservationsById.get(newIds.get(i));
-            cv = jsonObservation.getContentValues();
-            cv.put(Observation._SYNCED_AT, System.currentTimeMillis());
-            cv.put(Observation.LAST_COMMENTS_COUNT, jsonObservation.comments_count);
-            cv.put(Observation.LAST_IDENTIFICATIONS_COUNT, jsonObservation.identifications_count);
-            Uri newObs = getContentResolver().insert(Observation.CONTENT_URI, cv);
-            Long newObsId = ContentUris.parseId(newObs);
-            jsonObservation._id = Integer.valueOf(newObsId.toString());
-            newObservations.add(jsonObservation);
+            int observationIndex = operations.size();
+            addNewObservationOperations(operations, jsonObservation, isUser);
+            newObservationInserts.put(observationIndex, jsonObservation);
+            observationOperations.add(new int[] { observationIndex, operations.size() });
+            operationObservations.add(jsonObservation);
         }
-        
-        if (isUser) {
-            for (int i = 0; i < newObservations.size(); i++) {
-                jsonObservation = newObservations.get(i);
-                
-                // Save the new observation's photos
-                for (int j = 0; j < jsonObservation.photos.size(); j++) {
-                    ObservationPhoto photo = jsonObservation.photos.get(j);
-                    photo._observation_id = jsonObservation._id;
-
-                    ContentValues opcv = photo.getContentValues();
-                    opcv.put(ObservationPhoto._SYNCED_AT, System.currentTimeMillis()); // So we won't re-add this photo as though it was a local photo
-                    opcv.put(ObservationPhoto._OBSERVATION_ID, photo._observation_id);
-                    opcv.put(ObservationPhoto._PHOTO_ID, photo._photo_id);
-                    opcv.put(ObservationPhoto._ID, photo.id);
-                    getContentResolver().insert(ObservationPhoto.CONTENT_URI, opcv);
+
+        if (operations.size() == 0) return failedObservations;
+
+        ContentProviderResult[] results = applyOperations(operations);
+        if (results == null) {
+            // The entire page was rolled back (e.g. because of a single conflicting row) - apply it again, one
+            // observation at a time, so a single failed observation won't keep the rest of the page from being merged
+            Log.w(TAG, "Failed to merge page of observations - merging them one by one");
+            results = new ContentProviderResult[operations.size()];
+
+            for (int i = 0; i < observationOperations.size(); i++) {
+                int[] range = observationOperations.get(i);
+                ArrayList<ContentProviderOperation> observationOps;
+                Observation newObservation = newObservationInserts.get(range[0]);
+                if (newObservation != null) {
+                    // Back references are relative to the batch - so the operations need to be rebuilt
+                    observationOps = new ArrayList<ContentProviderOperation>();
+                    addNewObservationOperations(observationOps, newObservation, isUser);
+                } else {
+                    observationOps = new ArrayList<ContentProviderOperation>(operations.subList(range[0], range[1]));
+                }
+                if (observationOps.isEmpty()) continue;
+
+                ContentProviderResult[] observationResults = applyOperations(observationOps);
+                if (observationResults == null) {
+                    failedObservations.add(operationObservations.get(i));
+                    continue;
                 }
+                System.arraycopy(observationResults, 0, results, range[0], observationResults.length);
+            }
+
+            if (!failedObservations.isEmpty()) {
+                Log.e(TAG, String.format("Failed to merge %d observations", failedObservations.size()));
+            }
+        }
+
+        for (Map.Entry<Integer, Observation> entry : newObservationInserts.entrySet()) {
+            if (results[entry.getKey()] == null) continue;
+            Observation newObservation = entry.getValue();
+            newObservation._id = (int) ContentUris.parseId(results[entry.getKey()].uri);
+            for (ObservationPhoto photo : newObservation.photos) {
+                photo._observation_id = newObservation._id;
+            }
+        }
+
+        for (Map.Entry<Integer, String> entry : photoDeletions.entrySet()) {
+            if (results[entry.getKey()] == null) continue;
+            int deleteCount = results[entry.getKey()].count;
+            if (deleteCount > 0) {
+                Crashlytics.log(1, TAG, String.format("Warning: Deleted %d photos locally after sever did not contain those IDs - %s",
+                        deleteCount, entry.getValue()));
             }
         }
 
+        Log.d(TAG, String.format("Merged %d observations (%d existing) in %d ms",
+                observations.size(), existingIds.size(), System.currentTimeMillis() - startTime));
+
+        return failedObservations;
+    }
+
+    // Adds the operations inserting a new (remote) observation - and its photos, which are linked to the local ID
+    // of the inserted observation (using a back reference to its insert operation)
+    private void addNewObservationOperations(List<ContentProviderOperation> operations, Observation jsonObservation, boolean isUser) {
+        ContentValues cv = jsonObservation.getContentValues();
+        cv.put(Observation._SYNCED_AT, System.currentTimeMillis());
+        cv.put(Observation.LAST_COMMENTS_COUNT, jsonObservation.comments_count);
+        cv.put(Observation.LAST_IDENTIFICATIONS_COUNT, jsonObservation.identifications_count);
+        int observationIndex = operations.size();
+        operations.add(ContentProviderOperation.newInsert(Observation.CONTENT_URI).withValues(cv).build());
 
         if (isUser) {
-            if (mResponseHeaders != null) {
-                // Delete any local observations which were deleted remotely by the user
-                for (Header header : mResponseHeaders) {
-                    if (!header.getName().equalsIgnoreCase("X-Deleted-Observations")) continue;
-                    
-                    String deletedIds = header.getValue().trim();
-                    getContentResolver().delete(Observation.CONTENT_URI, "(id IN ("+deletedIds+"))", null);
-        			// Delete associated project-fields and photos
-        			int count1 = getContentResolver().delete(ObservationPhoto.CONTENT_URI, "observation_id in (" + deletedIds + ")", null);
-        			int count2 = getContentResolver().delete(ProjectObservation.CONTENT_URI, "observation_id in (" + deletedIds + ")", null);
-        			int count3 = getContentResolver().delete(ProjectFieldValue.CONTENT_URI, "observation_id in (" + deletedIds + ")", null);
- 
-                    break;
+            // Save the new observation's photos
+            for (int j = 0; j < jsonObservation.photos.size(); j++) {
+                ObservationPhoto photo = jsonObservation.photos.get(j);
+
+                ContentValues opcv = photo.getContentValues();
+                opcv.put(ObservationPhoto._SYNCED_AT, System.currentTimeMillis()); // So we won't re-add this photo as though it was a local photo
+                opcv.put(ObservationPhoto._PHOTO_ID, photo._photo_id);
+                opcv.put(ObservationPhoto._ID, photo.id);
+                operations.add(ContentProviderOperation.newInsert(ObservationPhoto.CONTENT_URI)
+                        .withValues(opcv)
+                        .withValueBackReference(ObservationPhoto._OBSERVATION_ID, observationIndex)
+                        .build());
+            }
+        }
+    }
+
+    // Applies the operations as a single batch (one transaction) - returns null if the batch failed (and was rolled back)
+    private ContentProviderResult[] applyOperations(ArrayList<ContentProviderOperation> operations) {
+        try {
+            return getContentResolver().applyBatch(Observation.AUTHORITY, operations);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Failed to merge observations: " + e.toString());
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "Failed to merge observations: " + e.toString());
+        } catch (SQLException e) {
+            Log.e(TAG, "Failed to merge observations: " + e.toString());
+        }
+        return null;
+    }
+
+    // Returns the IDs of all synced photos of the specified observations (observation ID -> photo IDs)
+    private SparseArray<HashSet<Integer>> getSyncedPhotoIds(String joinedObservationIds) {
+        Cursor c = getContentResolver().query(
+                ObservationPhoto.CONTENT_URI,
+                SYNCED_PHOTO_IDS_PROJECTION,
+                "(observation_id IN (" + joinedObservationIds + ")) AND (id IS NOT NULL)",
+                null, null);
+        if (c == null) return new SparseArray<HashSet<Integer>>();
+
+        return readSyncedPhotoIds(c);
+    }
+
+    static final String[] SYNCED_PHOTO_IDS_PROJECTION = { ObservationPhoto.OBSERVATION_ID, ObservationPhoto.ID };
+
+    // Reads (and closes) a cursor of synced photo IDs (see SYNCED_PHOTO_IDS_PROJECTION)
+    static SparseArray<HashSet<Integer>> readSyncedPhotoIds(Cursor c) {
+        SparseArray<HashSet<Integer>> photoIds = new SparseArray<HashSet<Integer>>();
+        int observationIdIndex = c.getColumnIndexOrThrow(ObservationPhoto.OBSERVATION_ID);
+        int photoIdIndex = c.getColumnIndexOrThrow(ObservationPhoto.ID);
+        while (c.moveToNext()) {
+            int photoId = c.getInt(photoIdIndex);
+            if (photoId == 0) continue;
+
+            int observationId = c.getInt(observationIdIndex);
+            HashSet<Integer> ids = photoIds.get(observationId);
+            if (ids == null) {
+                ids = new HashSet<Integer>();
+                photoIds.put(observationId, ids);
+            }
+            ids.add(photoId);
+        }
+        c.close();
+
+        return photoIds;
+    }
+
+    // Delete any local observations which were deleted remotely by the user (according to the last response's headers).
+    // All tombstones are applied in a single transaction. Applying the same headers twice is harmless.
+    private void deleteRemotelyDeletedObservations() {
+        if (mResponseHeaders.get() == null) return;
+
+        for (Header header : mResponseHeaders.get()) {
+            if (!header.getName().equalsIgnoreCase("X-Deleted-Observations")) continue;
+
+            // Only keep valid IDs (the value is used as part of the SQL statements)
+            List<Integer> ids = new ArrayList<Integer>();
+            for (String id : header.getValue().split(",")) {
+                try {
+                    ids.add(Integer.valueOf(id.trim()));
+                } catch (NumberFormatException e) {
+                    // Ignore
                 }
-                
-                mResponseHeaders = null;
             }
+            if (ids.isEmpty()) break;
+
+            String deletedIds = StringUtils.join(ids, ',');
+            ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+            operations.add(ContentProviderOperation.newDelete(Observation.CONTENT_URI).withSelection("(id IN (" + deletedIds + "))", null).build());
+            // Delete associated project-fields and photos
+            operations.add(ContentProviderOperation.newDelete(ObservationPhoto.CONTENT_URI).withSelection("observation_id in (" + deletedIds + ")", null).build());
+            operations.add(ContentProviderOperation.newDelete(ProjectObservation.CONTENT_URI).withSelection("observation_id in (" + deletedIds + ")", null).build());
+            operations.add(ContentProviderOperation.newDelete(ProjectFieldValue.CONTENT_URI).withSelection("observation_id in (" + deletedIds + ")", null).build());
+
+            try {
+                getContentResolver().applyBatch(Observation.AUTHORITY, operations);
+                Log.d(TAG, "Deleted " + ids.size() + " remotely-deleted observations");
+            } catch (RemoteException e) {
+                Log.e(TAG, "Failed to delete remotely-deleted observations: " + e.toString());
+            } catch (OperationApplicationException e) {
+                Log.e(TAG, "Failed to delete remotely-deleted observations: " + e.toString());
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to delete remotely-deleted observations: " + e.toString());
+            }
+            break;
         }
+    }
 
-        if (isUser) {
-            storeProjectObservations();
+    // Returns the time of the last response (of the current thread) according to the server's clock (so sync
+    // cursors don't depend on the device's clock), or the device's current time if unknown
+    private long getResponseServerTime() {
+        Header[] headers = mResponseHeaders.get();
+        if (headers != null) {
+            for (Header header : headers) {
+                if (!header.getName().equalsIgnoreCase("Date")) continue;
+                try {
+                    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+                    return format.parse(header.getValue()).getTime();
+                } catch (ParseException e) {
+                    Log.w(TAG, "Invalid Date header: " + header.getValue());
+                }
+            }
         }
+
+        return System.currentTimeMillis();
+    }
+
+    // Returned by getIfChanged when the resource hasn't changed since the last sync
+    private static final JSONArray NOT_MODIFIED = new JSONArray();
+
+    // Performs an (authenticated) GET request, conditioned on the resource having changed since the ETag saved
+    // in the sync cursor - returns NOT_MODIFIED if it hasn't (the server returns an empty 304 response), and
+    // null in case of an error. The cursor's ETag is updated (but not saved) on success.
+    private JSONArray getIfChanged(String url, SyncCursor cursor) throws AuthenticationException {
+        HttpTransport transport = HttpTransport.getInstance(mApp);
+        HttpGet request = new HttpGet(url);
+
+        Log.d(TAG, String.format("URL: get (if changed since %s) - %s", cursor.etag, url));
+
+        setAuthorizationHeader(request);
+        if (cursor.etag != null) {
+            request.setHeader("If-None-Match", cursor.etag);
+        }
+
+        try {
+            mResponseErrors.set(null);
+            HttpResponse response = transport.execute(request);
+            HttpEntity entity = response.getEntity();
+
+            switch (response.getStatusLine().getStatusCode()) {
+            case HttpStatus.SC_NOT_MODIFIED:
+                mResponseHeaders.set(response.getAllHeaders());
+                if (entity != null) entity.consumeContent();
+                return NOT_MODIFIED;
+
+            case HttpStatus.SC_OK:
+                mResponseHeaders.set(response.getAllHeaders());
+                String content = entity != null ? EntityUtils.toString(entity) : null;
+                Header etag = response.getFirstHeader("ETag");
+                cursor.etag = etag != null ? etag.getValue() : null;
+
+                try {
+                    return content != null ? new JSONArray(content) : new JSONArray();
+                } catch (JSONException e) {
+                    Log.e(TAG, "Failed to create JSONArray, JSONException: " + e.toString());
+                    return null;
+                }
+
+            case HttpStatus.SC_UNAUTHORIZED:
+                if (entity != null) entity.consumeContent();
+                throw new AuthenticationException();
+
+            default:
+                Log.e(TAG, response.getStatusLine().toString());
+                if (entity != null) entity.consumeContent();
+            }
+        } catch (IOException e) {
+            // Make sure the connection is released back to the pool
+            request.abort();
+            Log.w(TAG, "Error for URL " + url, e);
+        }
+
+        return null;
     }
 
     private JSONObject observationToJsonObject(Observation observation, boolean isPOST) {
@@ -3250,7 +4064,7 @@ public class INaturalistService extends IntentService {
         return true;
     }
 
-    private class AuthenticationException extends Exception {
+    static class AuthenticationException extends Exception {
         private static final long serialVersionUID = 1L;
     }
 
@@ -3362,6 +4176,7 @@ public class INaturalistService extends IntentService {
     @Override
     public void onDestroy() {
     	mIsStopped = true;
+        mDispatcher.shutdown();
     	super.onDestroy();
     }
 
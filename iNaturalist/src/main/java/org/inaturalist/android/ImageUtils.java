@@ -270,6 +270,31 @@ public class ImageUtils {
         }
     }
 
+    // Decodes an image file, sampled down as much as possible while keeping its largest edge at least maxEdge pixels
+    public static Bitmap decodeSampledBitmapFromFile(String filename, int maxEdge) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(filename, options);
+        if ((options.outWidth <= 0) || (options.outHeight <= 0)) {
+            return null;
+        }
+
+        int largestEdge = Math.max(options.outWidth, options.outHeight);
+        int inSampleSize = 1;
+        while (largestEdge / (inSampleSize * 2) >= maxEdge) {
+            inSampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = inSampleSize;
+        try {
+            return BitmapFactory.decodeFile(filename, options);
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
 
     public static int getImageOrientation(String imgFilePath) {
         ExifInterface exif = null;
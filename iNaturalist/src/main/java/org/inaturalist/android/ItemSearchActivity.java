@@ -24,8 +24,6 @@ import android.view.inputmethod.InputMethodManager;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
-import android.widget.Filter;
-import android.widget.Filterable;
 import android.widget.HeaderViewListAdapter;
 import android.widget.ImageView;
 import android.widget.ListAdapter;
@@ -41,13 +39,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -68,6 +60,7 @@ public class ItemSearchActivity extends AppCompatActivity implements AdapterView
     private String mSearchString = "";
 
     private ProjectsAdapter mAdapter;
+    private AutocompleteClient mAutocompleteClient;
 
     private ProgressBar mProgress;
     private INaturalistApp mApp;
@@ -151,12 +144,14 @@ public class ItemSearchActivity extends AppCompatActivity implements AdapterView
         }
         if (mHintText != null) mSearchEditText.setHint(mHintText);
 
+        mAutocompleteClient = new AutocompleteClient(this, new AutocompleteClient.ItemSource(mSearchUrl));
+
         mSearchEditText.addTextChangedListener(new TextWatcher() {
             @Override
             public void onTextChanged(final CharSequence s, int start, int before, int count) {
                 if (!s.toString().equals(mSearchString)) {
                     mSearchString = s.toString();
-                    if (mAdapter != null) ((Filterable) mAdapter).getFilter().filter(s);
+                    search(mSearchString);
                 }
             }
             @Override
@@ -169,6 +164,32 @@ public class ItemSearchActivity extends AppCompatActivity implements AdapterView
         getListView().setOnItemClickListener(this);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAutocompleteClient.release();
+    }
+
+    private void search(String query) {
+        if (query.length() == 0) {
+            mAutocompleteClient.cancel();
+            mAdapter.setItems(new ArrayList<JSONObject>());
+            return;
+        }
+
+        mAutocompleteClient.search(query, new AutocompleteClient.Callback() {
+            @Override
+            public void onResults(String query, List<JSONObject> results) {
+                mAdapter.setItems(new ArrayList<JSONObject>(results));
+            }
+
+            @Override
+            public void onLoading(boolean isLoading) {
+                ItemSearchActivity.this.onLoading(isLoading);
+            }
+        });
+    }
+
     public void onItemClick(AdapterView<?> adapterView, View v, int position, long id) {
         BetterJSONObject item = (BetterJSONObject) v.getTag();
         if (item != null) {
@@ -0,0 +1,135 @@
+package org.inaturalist.android;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Pull-based reader of a JSON array response (e.g. a page of observations). Returns the array elements
+ * one at a time, so the entire response (or a tree of all of its elements) never needs to be held in memory.
+ *
+ * In case the response is a single JSON object (e.g. an error response), it is returned as the only element.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class JSONArrayStreamReader implements Closeable {
+    private JsonReader mReader;
+    private boolean mIsArray;
+    private boolean mStarted = false;
+    private boolean mFinished = false;
+
+    public JSONArrayStreamReader(InputStream in) throws IOException {
+        mReader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        mReader.setLenient(true);
+    }
+
+    // Returns the next element of the array (null if there are no more elements)
+    public JSONObject next() throws IOException, JSONException {
+        if (mFinished) return null;
+
+        if (!mStarted) {
+            mStarted = true;
+            JsonToken token = mReader.peek();
+            if (token == JsonToken.BEGIN_OBJECT) {
+                // Single object response
+                mIsArray = false;
+                mFinished = true;
+                return readObject();
+            } else if (token == JsonToken.BEGIN_ARRAY) {
+                mIsArray = true;
+                mReader.beginArray();
+            } else {
+                // Empty/unexpected response
+                mFinished = true;
+                return null;
+            }
+        }
+
+        while (mReader.hasNext()) {
+            if (mReader.peek() == JsonToken.BEGIN_OBJECT) {
+                return readObject();
+            }
+            // Not an object - skip it
+            mReader.skipValue();
+        }
+
+        if (mIsArray) mReader.endArray();
+        mFinished = true;
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    private JSONObject readObject() throws IOException, JSONException {
+        JSONObject object = new JSONObject();
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            String name = mReader.nextName();
+            object.put(name, readValue());
+        }
+        mReader.endObject();
+        return object;
+    }
+
+    private JSONArray readArray() throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+        mReader.beginArray();
+        while (mReader.hasNext()) {
+            array.put(readValue());
+        }
+        mReader.endArray();
+        return array;
+    }
+
+    private Object readValue() throws IOException, JSONException {
+        switch (mReader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject();
+            case BEGIN_ARRAY:
+                return readArray();
+            case BOOLEAN:
+                return mReader.nextBoolean();
+            case NUMBER:
+                return parseNumber(mReader.nextString());
+            case NULL:
+                mReader.nextNull();
+                return JSONObject.NULL;
+            case STRING:
+            default:
+                return mReader.nextString();
+        }
+    }
+
+    // Parse numbers the same way org.json does (so BetterJSONObject's getters behave the same way)
+    private static Object parseNumber(String value) {
+        if ((value.indexOf('.') == -1) && (value.indexOf('e') == -1) && (value.indexOf('E') == -1)) {
+            try {
+                long longValue = Long.parseLong(value);
+                if ((longValue <= Integer.MAX_VALUE) && (longValue >= Integer.MIN_VALUE)) {
+                    return (int) longValue;
+                }
+                return longValue;
+            } catch (NumberFormatException exc) {
+                // Fall through to double parsing
+            }
+        }
+
+        try {
+            return Double.valueOf(value);
+        } catch (NumberFormatException exc) {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package org.inaturalist.android;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thumbnails of locally-saved observation photos (singleton class), shared by all screens displaying them.
+ *
+ * Each size variant of a photo is generated (decoded, rotated, cropped, etc.) only once - it's then saved into a
+ * disk cache (keyed by the photo's path and modification time, so an edited photo gets a new thumbnail) and kept
+ * in a memory cache bounded by size in bytes. Thumbnails are generated on a small pool of background threads.
+ */
+public class LocalThumbnailCache {
+    private static final String TAG = "LocalThumbnailCache";
+
+    private static final String CACHE_DIR = "thumbnails";
+    private static final long MAX_DISK_CACHE_BYTES = 30 * 1024 * 1024;
+    // Trim the disk cache every that many new thumbnails
+    private static final int TRIM_EVERY_WRITES = 50;
+    // Part of the app's max heap size to use for the memory cache
+    private static final int MEMORY_CACHE_FRACTION = 8;
+    private static final int DECODE_THREADS = 2;
+
+    /**
+     * A size variant of a thumbnail
+     */
+    public static class Variant {
+        public final String name;
+        // Largest edge of the thumbnail (in pixels)
+        public final int maxEdge;
+        // Whether the thumbnail is center-cropped into a square, with rounded corners
+        public final boolean isSquare;
+
+        public Variant(String name, int maxEdge, boolean isSquare) {
+            this.name = name;
+            this.maxEdge = maxEdge;
+            this.isSquare = isSquare;
+        }
+    }
+
+    // Observations list/grid and photo gallery (of the observation editor)
+    public static final Variant SQUARE = new Variant("square", 200, true);
+    // Observation viewer
+    public static final Variant PREVIEW = new Variant("preview", 1024, false);
+
+    public interface Callback {
+        // Called on the UI thread, once the thumbnail was set into the image view
+        void onLoaded(ImageView imageView, Bitmap bitmap);
+    }
+
+    // Singleton instance
+    private static LocalThumbnailCache sInstance = null;
+
+    private final File mCacheDir;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final ExecutorService mExecutor;
+    private final Handler mHandler;
+    // Image view -> key of the thumbnail last requested for it (so recycled views won't get an older thumbnail)
+    private final Map<ImageView, String> mRequests = new WeakHashMap<ImageView, String>();
+    private int mWriteCount = 0;
+
+    // Stats
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mMemoryHitCount = new AtomicLong();
+    private final AtomicLong mDiskHitCount = new AtomicLong();
+    private final AtomicLong mDecodeCount = new AtomicLong();
+    private final AtomicLong mDecodeTimeMs = new AtomicLong();
+
+    public static synchronized LocalThumbnailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LocalThumbnailCache(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private LocalThumbnailCache(Context context) {
+        mCacheDir = new File(context.getCacheDir(), CACHE_DIR);
+        if (!mCacheDir.exists()) mCacheDir.mkdirs();
+
+        int maxBytes = (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_FRACTION);
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+
+        mExecutor = Executors.newFixedThreadPool(DECODE_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Don't compete with the UI thread
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, TAG);
+            }
+        });
+        mHandler = new Handler(Looper.getMainLooper());
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                trimDiskCache();
+            }
+        });
+    }
+
+    /**
+     * Loads a thumbnail of a local photo into an image view (immediately if it's in the memory cache, otherwise
+     * in the background). Should be called from the UI thread.
+     * @param callback (optional) called once the thumbnail was loaded
+     */
+    public void load(final ImageView imageView, final String filename, final Variant variant, final Callback callback) {
+        mRequestCount.incrementAndGet();
+
+        if (filename == null) {
+            mRequests.remove(imageView);
+            return;
+        }
+
+        final File file = new File(filename);
+        final String key = getCacheKey(file, variant);
+
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            mMemoryHitCount.incrementAndGet();
+            mRequests.remove(imageView);
+            setBitmap(imageView, bitmap, callback);
+            return;
+        }
+
+        mRequests.put(imageView, key);
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = getThumbnail(file, variant, key);
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!key.equals(mRequests.get(imageView))) {
+                            // Image view was since reused for another photo
+                            return;
+                        }
+
+                        mRequests.remove(imageView);
+                        if (bitmap != null) setBitmap(imageView, bitmap, callback);
+                    }
+                });
+            }
+        });
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getMemoryHitCount() {
+        return mMemoryHitCount.get();
+    }
+
+    public long getDiskHitCount() {
+        return mDiskHitCount.get();
+    }
+
+    public long getDecodeCount() {
+        return mDecodeCount.get();
+    }
+
+    public String getStatsSummary() {
+        long requests = mRequestCount.get();
+        long hits = mMemoryHitCount.get() + mDiskHitCount.get();
+        return String.format("requests: %d; memory hits: %d; disk hits: %d; hit rate: %.1f%%; decodes: %d (avg %d ms); memory cache: %d/%d bytes",
+                requests, mMemoryHitCount.get(), mDiskHitCount.get(), requests > 0 ? hits * 100.0 / requests : 0.0,
+                mDecodeCount.get(), mDecodeCount.get() > 0 ? mDecodeTimeMs.get() / mDecodeCount.get() : 0,
+                mMemoryCache.size(), mMemoryCache.maxSize());
+    }
+
+    public void logStats() {
+        Log.d(TAG, getStatsSummary());
+    }
+
+    private void setBitmap(ImageView imageView, Bitmap bitmap, Callback callback) {
+        imageView.setImageBitmap(bitmap);
+        if (callback != null) callback.onLoaded(imageView, bitmap);
+    }
+
+    // Returns the thumbnail from the disk cache, or generates it (on a background thread)
+    private Bitmap getThumbnail(File file, Variant variant, String key) {
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            // Loaded by a previous request in the meantime
+            mMemoryHitCount.incrementAndGet();
+            return bitmap;
+        }
+
+        File cacheFile = new File(mCacheDir, key);
+        if (cacheFile.exists()) {
+            try {
+                bitmap = BitmapFactory.decodeFile(cacheFile.getAbsolutePath());
+            } catch (OutOfMemoryError e) {
+                e.printStackTrace();
+            }
+
+            if (bitmap != null) {
+                mDiskHitCount.incrementAndGet();
+                // So recently used thumbnails will be the last ones to be trimmed
+                cacheFile.setLastModified(System.currentTimeMillis());
+                mMemoryCache.put(key, bitmap);
+                return bitmap;
+            }
+        }
+
+        long startTime = System.currentTimeMillis();
+        bitmap = generateThumbnail(file.getAbsolutePath(), variant);
+        if (bitmap == null) return null;
+
+        mDecodeCount.incrementAndGet();
+        mDecodeTimeMs.addAndGet(System.currentTimeMillis() - startTime);
+
+        mMemoryCache.put(key, bitmap);
+        writeToDiskCache(bitmap, cacheFile, variant);
+
+        return bitmap;
+    }
+
+    private Bitmap generateThumbnail(String filename, Variant variant) {
+        Bitmap bitmap = ImageUtils.decodeSampledBitmapFromFile(filename, variant.maxEdge);
+        if (bitmap == null) return null;
+
+        try {
+            // Scale down to the exact max edge size
+            int largestEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+            if (largestEdge > variant.maxEdge) {
+                float scale = (float) variant.maxEdge / largestEdge;
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                        Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+                if (scaled != bitmap) bitmap.recycle();
+                bitmap = scaled;
+            }
+
+            bitmap = ImageUtils.rotateAccordingToOrientation(bitmap, filename);
+
+            if (variant.isSquare) {
+                bitmap = ImageUtils.getRoundedCornerBitmap(ImageUtils.centerCropBitmap(bitmap));
+            }
+
+            return bitmap;
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void writeToDiskCache(Bitmap bitmap, File cacheFile, Variant variant) {
+        // Write to a temp file first, so a partially-written file will never be considered as cached
+        File tempFile = new File(cacheFile.getAbsolutePath() + ".tmp");
+        try {
+            OutputStream os = new FileOutputStream(tempFile);
+            try {
+                // (Rounded corners are transparent)
+                boolean compressed = variant.isSquare ?
+                        bitmap.compress(Bitmap.CompressFormat.PNG, 100, os) :
+                        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+                if (!compressed) {
+                    tempFile.delete();
+                    return;
+                }
+            } finally {
+                os.close();
+            }
+
+            if (!tempFile.renameTo(cacheFile)) tempFile.delete();
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return;
+        }
+
+        boolean shouldTrim;
+        synchronized (this) {
+            mWriteCount++;
+            shouldTrim = (mWriteCount % TRIM_EVERY_WRITES == 0);
+        }
+        if (shouldTrim) trimDiskCache();
+    }
+
+    // Deletes the least recently used thumbnails, until the disk cache is small enough
+    private synchronized void trimDiskCache() {
+        File[] files = mCacheDir.listFiles();
+        if (files == null) return;
+
+        long totalSize = 0;
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            totalSize += files[i].length();
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+
+        if (totalSize <= MAX_DISK_CACHE_BYTES) return;
+
+        // Oldest first
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return lastModified[lhs] < lastModified[rhs] ? -1 : (lastModified[lhs] == lastModified[rhs] ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; (i < order.length) && (totalSize > MAX_DISK_CACHE_BYTES); i++) {
+            File file = files[order[i]];
+            long size = file.length();
+            if (file.delete()) totalSize -= size;
+        }
+    }
+
+    // The cache key changes whenever the original photo changes
+    private String getCacheKey(File file, Variant variant) {
+        String key = String.format("%s|%d|%s|%d", file.getAbsolutePath(), file.lastModified(), variant.name, variant.maxEdge);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(String.format("%02x", b & 0xff));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        } catch (UnsupportedEncodingException e) {
+            e.printStackTrace();
+        }
+
+        return Integer.toHexString(key.hashCode());
+    }
+}
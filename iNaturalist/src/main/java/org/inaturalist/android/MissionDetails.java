@@ -472,6 +472,11 @@ public class MissionDetails extends AppCompatActivity implements AppBarLayout.On
             }
 
             SerializableJSONArray resultsJSON = (SerializableJSONArray) mApp.getServiceResult(INaturalistService.ACTION_NEARBY);
+            if (resultsJSON == null) {
+                // Result might have been evicted from the result store
+                return;
+            }
+
             JSONArray results = resultsJSON.getJSONArray();
             ArrayList<JSONObject> resultsArray = new ArrayList<JSONObject>();
 
@@ -132,7 +132,8 @@ public class MissionsGridActivity extends AppCompatActivity {
         JSONArray results = null;
 
         resultsObject = (BetterJSONObject) object;
-        results = resultsObject.getJSONArray("results").getJSONArray();
+        // Result might have been evicted from the result store
+        if (resultsObject != null) results = resultsObject.getJSONArray("results").getJSONArray();
 
         ArrayList<JSONObject> resultsArray = new ArrayList<JSONObject>();
 
@@ -241,81 +241,179 @@ public class Observation implements BaseColumns, Serializable {
 
     public Observation() {}
 
+    // Column indexes of an observation cursor - resolved once per cursor (instead of looking up the column
+    // names for every field of every row)
+    public static class CursorColumns {
+        private final Cursor mCursor;
+        public final int _id;
+        public final int _created_at;
+        public final int _synced_at;
+        public final int _updated_at;
+        public final int created_at;
+        public final int description;
+        public final int geoprivacy;
+        public final int iconic_taxon_id;
+        public final int iconic_taxon_name;
+        public final int id;
+        public final int id_please;
+        public final int latitude;
+        public final int longitude;
+        public final int observed_on;
+        public final int observed_on_string;
+        public final int out_of_range;
+        public final int captive;
+        public final int place_guess;
+        public final int uuid;
+        public final int positional_accuracy;
+        public final int positioning_device;
+        public final int positioning_method;
+        public final int private_latitude;
+        public final int private_longitude;
+        public final int private_positional_accuracy;
+        public final int quality_grade;
+        public final int species_guess;
+        public final int preferred_common_name;
+        public final int taxon_id;
+        public final int time_observed_at;
+        public final int updated_at;
+        public final int user_agent;
+        public final int user_id;
+        public final int user_login;
+        public final int is_deleted;
+        public final int comments_count;
+        public final int identifications_count;
+        public final int last_comments_count;
+        public final int last_identifications_count;
+
+        public CursorColumns(Cursor c) {
+            mCursor = c;
+            _id = c.getColumnIndexOrThrow(_ID);
+            _created_at = c.getColumnIndexOrThrow(_CREATED_AT);
+            _synced_at = c.getColumnIndexOrThrow(_SYNCED_AT);
+            _updated_at = c.getColumnIndexOrThrow(_UPDATED_AT);
+            created_at = c.getColumnIndexOrThrow(CREATED_AT);
+            description = c.getColumnIndexOrThrow(DESCRIPTION);
+            geoprivacy = c.getColumnIndexOrThrow(GEOPRIVACY);
+            iconic_taxon_id = c.getColumnIndexOrThrow(ICONIC_TAXON_ID);
+            iconic_taxon_name = c.getColumnIndexOrThrow(ICONIC_TAXON_NAME);
+            id = c.getColumnIndexOrThrow(ID);
+            id_please = c.getColumnIndexOrThrow(ID_PLEASE);
+            latitude = c.getColumnIndexOrThrow(LATITUDE);
+            longitude = c.getColumnIndexOrThrow(LONGITUDE);
+            observed_on = c.getColumnIndexOrThrow(OBSERVED_ON);
+            observed_on_string = c.getColumnIndexOrThrow(OBSERVED_ON_STRING);
+            out_of_range = c.getColumnIndexOrThrow(OUT_OF_RANGE);
+            captive = c.getColumnIndexOrThrow(CAPTIVE);
+            place_guess = c.getColumnIndexOrThrow(PLACE_GUESS);
+            uuid = c.getColumnIndexOrThrow(UUID);
+            positional_accuracy = c.getColumnIndexOrThrow(POSITIONAL_ACCURACY);
+            positioning_device = c.getColumnIndexOrThrow(POSITIONING_DEVICE);
+            positioning_method = c.getColumnIndexOrThrow(POSITIONING_METHOD);
+            private_latitude = c.getColumnIndexOrThrow(PRIVATE_LATITUDE);
+            private_longitude = c.getColumnIndexOrThrow(PRIVATE_LONGITUDE);
+            private_positional_accuracy = c.getColumnIndexOrThrow(PRIVATE_POSITIONAL_ACCURACY);
+            quality_grade = c.getColumnIndexOrThrow(QUALITY_GRADE);
+            species_guess = c.getColumnIndexOrThrow(SPECIES_GUESS);
+            preferred_common_name = c.getColumnIndexOrThrow(PREFERRED_COMMON_NAME);
+            taxon_id = c.getColumnIndexOrThrow(TAXON_ID);
+            time_observed_at = c.getColumnIndexOrThrow(TIME_OBSERVED_AT);
+            updated_at = c.getColumnIndexOrThrow(UPDATED_AT);
+            user_agent = c.getColumnIndexOrThrow(USER_AGENT);
+            user_id = c.getColumnIndexOrThrow(USER_ID);
+            user_login = c.getColumnIndexOrThrow(USER_LOGIN);
+            is_deleted = c.getColumnIndexOrThrow(IS_DELETED);
+            comments_count = c.getColumnIndexOrThrow(COMMENTS_COUNT);
+            identifications_count = c.getColumnIndexOrThrow(IDENTIFICATIONS_COUNT);
+            last_comments_count = c.getColumnIndexOrThrow(LAST_COMMENTS_COUNT);
+            last_identifications_count = c.getColumnIndexOrThrow(LAST_IDENTIFICATIONS_COUNT);
+        }
+
+        // Are these the column indexes of the specified cursor
+        public boolean isFor(Cursor c) {
+            return mCursor == c;
+        }
+    }
+
     public Observation(Cursor c) {
+        this(c, new CursorColumns(c));
+    }
+
+    // Reads the observation at the current position of the cursor. The column indexes should be resolved once
+    // per cursor (and not per row) when reading multiple rows.
+    public Observation(Cursor c, CursorColumns columns) {
         if (c.getPosition() == -1) c.moveToFirst();
-        BetterCursor bc = new BetterCursor(c);
-        this._id = bc.getInt(_ID);
-        this._created_at = bc.getTimestamp(_CREATED_AT);
+        this._id = BetterCursor.getInteger(c, columns._id);
+        this._created_at = BetterCursor.getTimestamp(c, columns._created_at);
         this._created_at_was = this._created_at;
-        this._synced_at = bc.getTimestamp(_SYNCED_AT);
+        this._synced_at = BetterCursor.getTimestamp(c, columns._synced_at);
         this._synced_at_was = this._synced_at;
-        this._updated_at = bc.getTimestamp(_UPDATED_AT);
+        this._updated_at = BetterCursor.getTimestamp(c, columns._updated_at);
         this._updated_at_was = this._updated_at;
-        this.created_at = bc.getTimestamp(CREATED_AT);
+        this.created_at = BetterCursor.getTimestamp(c, columns.created_at);
         this.created_at_was = this.created_at;
-        this.description = bc.getString(DESCRIPTION);
+        this.description = BetterCursor.getString(c, columns.description);
         this.description_was = this.description;
-        this.geoprivacy = bc.getString(GEOPRIVACY);
+        this.geoprivacy = BetterCursor.getString(c, columns.geoprivacy);
         this.geoprivacy_was = this.geoprivacy;
-        this.iconic_taxon_id = bc.getInteger(ICONIC_TAXON_ID);
+        this.iconic_taxon_id = BetterCursor.getInteger(c, columns.iconic_taxon_id);
         this.iconic_taxon_id_was = this.iconic_taxon_id;
-        this.iconic_taxon_name = bc.getString(ICONIC_TAXON_NAME);
+        this.iconic_taxon_name = BetterCursor.getString(c, columns.iconic_taxon_name);
         this.iconic_taxon_name_was = this.iconic_taxon_name;
-        this.id = bc.getInteger(ID);
+        this.id = BetterCursor.getInteger(c, columns.id);
         this.id_was = this.id;
-        this.id_please = bc.getBoolean(ID_PLEASE);
+        this.id_please = BetterCursor.getBoolean(c, columns.id_please);
         this.id_please_was = this.id_please;
-        this.latitude = bc.getDouble(LATITUDE);
+        this.latitude = BetterCursor.getDouble(c, columns.latitude);
         this.latitude_was = this.latitude;
-        this.longitude = bc.getDouble(LONGITUDE);
+        this.longitude = BetterCursor.getDouble(c, columns.longitude);
         this.longitude_was = this.longitude;
-        this.observed_on = bc.getTimestamp(OBSERVED_ON);
+        this.observed_on = BetterCursor.getTimestamp(c, columns.observed_on);
         this.observed_on_was = this.observed_on;
-        this.observed_on_string = bc.getString(OBSERVED_ON_STRING);
+        this.observed_on_string = BetterCursor.getString(c, columns.observed_on_string);
         this.observed_on_string_was = this.observed_on_string;
-        this.out_of_range = bc.getBoolean(OUT_OF_RANGE);
+        this.out_of_range = BetterCursor.getBoolean(c, columns.out_of_range);
         this.out_of_range_was = this.out_of_range;
-        this.captive = bc.getBoolean(CAPTIVE);
+        this.captive = BetterCursor.getBoolean(c, columns.captive);
         this.captive_was = this.captive;
-        this.place_guess = bc.getString(PLACE_GUESS);
+        this.place_guess = BetterCursor.getString(c, columns.place_guess);
         this.place_guess_was = this.place_guess;
-        this.uuid = bc.getString(UUID);
-        this.positional_accuracy = bc.getInteger(POSITIONAL_ACCURACY);
+        this.uuid = BetterCursor.getString(c, columns.uuid);
+        this.positional_accuracy = BetterCursor.getInteger(c, columns.positional_accuracy);
         this.positional_accuracy_was = this.positional_accuracy;
-        this.positioning_device = bc.getString(POSITIONING_DEVICE);
+        this.positioning_device = BetterCursor.getString(c, columns.positioning_device);
         this.positioning_device_was = this.positioning_device;
-        this.positioning_method = bc.getString(POSITIONING_METHOD);
+        this.positioning_method = BetterCursor.getString(c, columns.positioning_method);
         this.positioning_method_was = this.positioning_method;
-        this.private_latitude = bc.getDouble(PRIVATE_LATITUDE);
+        this.private_latitude = BetterCursor.getDouble(c, columns.private_latitude);
         this.private_latitude_was = this.private_latitude;
-        this.private_longitude = bc.getDouble(PRIVATE_LONGITUDE);
+        this.private_longitude = BetterCursor.getDouble(c, columns.private_longitude);
         this.private_longitude_was = this.private_longitude;
-        this.private_positional_accuracy = bc.getInteger(PRIVATE_POSITIONAL_ACCURACY);
+        this.private_positional_accuracy = BetterCursor.getInteger(c, columns.private_positional_accuracy);
         this.private_positional_accuracy_was = this.private_positional_accuracy;
-        this.quality_grade = bc.getString(QUALITY_GRADE);
+        this.quality_grade = BetterCursor.getString(c, columns.quality_grade);
         this.quality_grade_was = this.quality_grade;
-        this.species_guess = bc.getString(SPECIES_GUESS);
+        this.species_guess = BetterCursor.getString(c, columns.species_guess);
         this.species_guess_was = this.species_guess;
-        this.preferred_common_name = bc.getString(PREFERRED_COMMON_NAME);
-        this.taxon_id = bc.getInteger(TAXON_ID);
+        this.preferred_common_name = BetterCursor.getString(c, columns.preferred_common_name);
+        this.taxon_id = BetterCursor.getInteger(c, columns.taxon_id);
         this.taxon_id_was = this.taxon_id;
-        this.time_observed_at = bc.getTimestamp(TIME_OBSERVED_AT);
+        this.time_observed_at = BetterCursor.getTimestamp(c, columns.time_observed_at);
         this.time_observed_at_was = this.time_observed_at;
-        this.updated_at = bc.getTimestamp(UPDATED_AT);
+        this.updated_at = BetterCursor.getTimestamp(c, columns.updated_at);
         this.updated_at_was = this.updated_at;
-        this.user_agent = bc.getString(USER_AGENT);
+        this.user_agent = BetterCursor.getString(c, columns.user_agent);
         this.user_agent_was = this.user_agent;
-        this.user_id = bc.getInteger(USER_ID);
+        this.user_id = BetterCursor.getInteger(c, columns.user_id);
         this.user_id_was = this.user_id;
-        this.user_login = bc.getString(USER_LOGIN);
+        this.user_login = BetterCursor.getString(c, columns.user_login);
         this.user_login_was = this.user_login;
-        this.is_deleted = bc.getBoolean(IS_DELETED);
+        this.is_deleted = BetterCursor.getBoolean(c, columns.is_deleted);
         this.is_deleted_was = this.is_deleted;
         
-        this.comments_count = bc.getInteger(COMMENTS_COUNT);
-        this.identifications_count = bc.getInteger(IDENTIFICATIONS_COUNT);
-        this.last_comments_count = bc.getInteger(LAST_COMMENTS_COUNT);
-        this.last_identifications_count = bc.getInteger(LAST_IDENTIFICATIONS_COUNT);
+        this.comments_count = BetterCursor.getInteger(c, columns.comments_count);
+        this.identifications_count = BetterCursor.getInteger(c, columns.identifications_count);
+        this.last_comments_count = BetterCursor.getInteger(c, columns.last_comments_count);
+        this.last_identifications_count = BetterCursor.getInteger(c, columns.last_identifications_count);
 
     }
 
@@ -692,7 +790,8 @@ public class Observation implements BaseColumns, Serializable {
                 + "last_identifications_count INTEGER,"
                 + "activity_viewed_at INTEGER,"
                 + "last_activity_at INTEGER,"
-                + "is_deleted INTEGER"
+                + "is_deleted INTEGER,"
+                + "needs_sync INTEGER DEFAULT 0"
                 + ");";
     }
 
@@ -0,0 +1,162 @@
+package org.inaturalist.android;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the observations displayed on the map into clusters - by cells of a grid over the (Web Mercator) map,
+ * with the cells having the same size on screen at every zoom level. This way a dense area is displayed using
+ * a few cluster markers, instead of a marker per observation.
+ *
+ * The clusters of a zoom level are calculated once, and updated incrementally when observations are added.
+ */
+public class ObservationClusterer {
+    // Size of a grid cell (on screen)
+    private static final int CELL_SIZE_DP = 64;
+    private static final int TILE_SIZE_DP = 256;
+    // Above this zoom level, observations aren't clustered anymore
+    public static final int MAX_CLUSTER_ZOOM = 16;
+
+    /**
+     * A cluster of observations (in the same grid cell), or a single observation
+     */
+    public static class Cluster {
+        private final String mKey;
+        private final List<JSONObject> mObservations = new ArrayList<JSONObject>();
+        private double mLatitudeSum = 0;
+        private double mLongitudeSum = 0;
+        private double mMinLatitude = 90, mMaxLatitude = -90, mMinLongitude = 180, mMaxLongitude = -180;
+
+        private Cluster(String key) {
+            mKey = key;
+        }
+
+        private void add(JSONObject observation, LatLng position) {
+            mObservations.add(observation);
+            mLatitudeSum += position.latitude;
+            mLongitudeSum += position.longitude;
+            mMinLatitude = Math.min(mMinLatitude, position.latitude);
+            mMaxLatitude = Math.max(mMaxLatitude, position.latitude);
+            mMinLongitude = Math.min(mMinLongitude, position.longitude);
+            mMaxLongitude = Math.max(mMaxLongitude, position.longitude);
+        }
+
+        // Identifies the cluster's marker - it changes when the cluster changes in a way that requires a different marker
+        public String getKey() {
+            if (mObservations.size() == 1) {
+                JSONObject observation = mObservations.get(0);
+                return "o" + observation.optInt("id", System.identityHashCode(observation));
+            }
+            return mKey + ":" + getLabel();
+        }
+
+        public int size() {
+            return mObservations.size();
+        }
+
+        public List<JSONObject> getObservations() {
+            return mObservations;
+        }
+
+        // Average position of the observations
+        public LatLng getPosition() {
+            return new LatLng(mLatitudeSum / mObservations.size(), mLongitudeSum / mObservations.size());
+        }
+
+        public LatLngBounds getBounds() {
+            return new LatLngBounds(new LatLng(mMinLatitude, mMinLongitude), new LatLng(mMaxLatitude, mMaxLongitude));
+        }
+
+        // Observation count, as displayed on the cluster marker (rounded down for large clusters, e.g. "50+")
+        public String getLabel() {
+            int size = mObservations.size();
+            if (size < 10) return String.valueOf(size);
+
+            int[] buckets = { 1000, 500, 250, 100, 50, 25, 10 };
+            for (int bucket : buckets) {
+                if (size >= bucket) return bucket + "+";
+            }
+            return String.valueOf(size);
+        }
+    }
+
+    private final List<JSONObject> mObservations = new ArrayList<JSONObject>();
+    private final List<LatLng> mPositions = new ArrayList<LatLng>();
+    // Zoom level -> clusters (by grid cell)
+    private final SparseArray<Map<Long, Cluster>> mClusters = new SparseArray<Map<Long, Cluster>>();
+
+    /**
+     * Replaces the clustered observations
+     */
+    public void clear() {
+        mObservations.clear();
+        mPositions.clear();
+        mClusters.clear();
+    }
+
+    /**
+     * Adds an observation (updates the already-calculated clusters)
+     */
+    public void add(JSONObject observation, LatLng position) {
+        mObservations.add(observation);
+        mPositions.add(position);
+
+        for (int i = 0; i < mClusters.size(); i++) {
+            addToClusters(mClusters.valueAt(i), mClusters.keyAt(i), observation, position);
+        }
+    }
+
+    /**
+     * Returns the clusters of a zoom level
+     */
+    public Collection<Cluster> getClusters(int zoom) {
+        Map<Long, Cluster> clusters = mClusters.get(zoom);
+
+        if (clusters == null) {
+            clusters = new HashMap<Long, Cluster>();
+            for (int i = 0; i < mObservations.size(); i++) {
+                addToClusters(clusters, zoom, mObservations.get(i), mPositions.get(i));
+            }
+            mClusters.put(zoom, clusters);
+        }
+
+        return clusters.values();
+    }
+
+    private void addToClusters(Map<Long, Cluster> clusters, int zoom, JSONObject observation, LatLng position) {
+        // Past the max zoom level, each observation is in a "cell" of its own
+        long cell = zoom > MAX_CLUSTER_ZOOM ? -(clusters.size() + 1) : getCell(position, zoom);
+
+        Cluster cluster = clusters.get(cell);
+        if (cluster == null) {
+            cluster = new Cluster("c" + zoom + ":" + cell);
+            clusters.put(cell, cluster);
+        }
+        cluster.add(observation, position);
+    }
+
+    // Returns the grid cell of a position (column and row, combined into a single number)
+    private static long getCell(LatLng position, int zoom) {
+        long cellsPerRow = (1L << zoom) * TILE_SIZE_DP / CELL_SIZE_DP;
+
+        // Web Mercator projection (to 0..1)
+        double x = (position.longitude + 180) / 360;
+        double sinLatitude = Math.max(-0.9999, Math.min(0.9999, Math.sin(Math.toRadians(position.latitude))));
+        double y = 0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI);
+
+        long column = Math.max(0, Math.min(cellsPerRow - 1, (long) Math.floor(x * cellsPerRow)));
+        long row = Math.max(0, Math.min(cellsPerRow - 1, (long) Math.floor(y * cellsPerRow)));
+
+        return (column << 32) | row;
+    }
+}
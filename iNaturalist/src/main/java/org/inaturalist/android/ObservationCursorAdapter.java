@@ -6,18 +6,21 @@ import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
-import android.os.Handler;
-import android.util.Log;
+import android.os.Bundle;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.support.v4.util.LongSparseArray;
+import android.support.v4.widget.SimpleCursorAdapter;
 import android.util.TypedValue;
 import android.view.View;
 import android.view.ViewGroup;
@@ -26,8 +29,8 @@ import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.AbsListView;
 import android.widget.ImageView;
+import android.widget.ListView;
 import android.widget.RelativeLayout;
-import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -36,27 +39,62 @@ import com.koushikdutta.urlimageviewhelper.UrlImageViewHelper;
 
 import org.apache.commons.lang3.StringUtils;
 
-import java.lang.ref.WeakReference;
 import java.sql.Timestamp;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
-class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListView.OnScrollListener {
+/**
+ * Displays the locally-saved observations (as a list or a grid).
+ *
+ * The observations are queried in the background by a loader (and reloaded by it whenever they change), and the
+ * photo info of the observations is loaded in batches - only for the visible rows (plus a prefetch margin).
+ */
+class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListView.OnScrollListener, LoaderManager.LoaderCallbacks<Cursor> {
+    // The list and grid adapters of the same activity each have their own loader
+    private static final int LIST_LOADER_ID = 1000;
+    private static final int GRID_LOADER_ID = 1001;
+    private static final String SPECIES_GUESS = "species_guess";
+
+    // Don't reload the observations more often than that (e.g. while syncing, when they keep changing)
+    private static final long UPDATE_THROTTLE = 1000;
+
+    // Number of rows before/after the visible rows to load the photo info of
+    private static final int PREFETCH_ROWS = 30;
+    // Max number of observations to keep the photo info of
+    private static final int ROW_INFO_CACHE_SIZE = 300;
+
+    public interface OnCursorLoadedListener {
+        void onCursorLoaded(ObservationCursorAdapter adapter);
+    }
+
     private int mDimension;
-    private HashMap<Long, String[]> mPhotoInfo = new HashMap<Long, String[]>();
     private boolean mIsGrid;
 
     private final Activity mContext;
     private INaturalistApp mApp;
     private PullToRefreshGridViewExtended mGrid;
     private boolean mIsScrolling = false;
-
-    public ObservationCursorAdapter(Context context, Cursor c) {
-        this(context, c, false, null);
+    private Observation.CursorColumns mColumns;
+
+    private boolean mLoaderStarted = false;
+    private String mSpeciesGuess;
+    private OnCursorLoadedListener mOnCursorLoadedListener;
+
+    private RowInfoCache mRowInfo = new RowInfoCache(ROW_INFO_CACHE_SIZE);
+    // Incremented whenever the photo info should be reloaded (until then, the previous info is displayed)
+    private int mRowInfoGeneration = 0;
+    private RowInfoTask mRowInfoTask;
+    private int mFirstVisible = 0;
+    private int mLastVisible = 0;
+    private int mRequestedFirst;
+    private int mRequestedLast;
+
+    public ObservationCursorAdapter(Context context) {
+        this(context, false, null);
     }
 
-    public ObservationCursorAdapter(Context context, Cursor c, boolean isGrid, PullToRefreshGridViewExtended grid) {
-        super(context, isGrid ? R.layout.observation_grid_item : R.layout.list_item, c, new String[] {}, new int[] {});
+    public ObservationCursorAdapter(Context context, boolean isGrid, PullToRefreshGridViewExtended grid) {
+        super(context, isGrid ? R.layout.observation_grid_item : R.layout.list_item, null, new String[] {}, new int[] {}, 0);
         mIsGrid = isGrid;
         mGrid = grid;
         mContext = (Activity)context;
@@ -65,15 +103,48 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
         mObservationPhotoNames = new HashMap<>();
         mImageViews = new HashMap<>();
         mObservationLoaded = new HashMap<>();
+    }
+
+    // Column indexes of the adapter's cursor (resolved only when the cursor changes, and not for every row)
+    private Observation.CursorColumns getColumns(Cursor c) {
+        if ((mColumns == null) || (!mColumns.isFor(c))) {
+            mColumns = new Observation.CursorColumns(c);
+        }
+        return mColumns;
+    }
 
-        getPhotoInfo();
+    public void setOnCursorLoadedListener(OnCursorLoadedListener listener) {
+        mOnCursorLoadedListener = listener;
     }
 
     public void refreshCursor() {
         refreshCursor(null);
     }
 
+    /**
+     * (Re)loads the observations in the background - the adapter is updated once they're loaded
+     * @param speciesGuess if set, only observations matching this search are loaded
+     */
     public void refreshCursor(String speciesGuess) {
+        LoaderManager loaderManager = ((FragmentActivity) mContext).getSupportLoaderManager();
+        int loaderId = mIsGrid ? GRID_LOADER_ID : LIST_LOADER_ID;
+        Loader<Cursor> loader = loaderManager.getLoader(loaderId);
+
+        if (mLoaderStarted && (loader != null) && StringUtils.equals(speciesGuess, mSpeciesGuess)) {
+            // Same query - just reload it
+            loader.onContentChanged();
+        } else {
+            mLoaderStarted = true;
+            mSpeciesGuess = speciesGuess;
+            Bundle args = new Bundle();
+            args.putString(SPECIES_GUESS, speciesGuess);
+            loaderManager.restartLoader(loaderId, args, this);
+        }
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        String speciesGuess = args.getString(SPECIES_GUESS);
         SharedPreferences prefs = mContext.getSharedPreferences("iNaturalistPreferences", Activity.MODE_PRIVATE);
         String login = prefs.getString("username", null);
         String conditions = "(_synced_at IS NULL";
@@ -82,87 +153,242 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
         }
         conditions += ") AND (is_deleted = 0 OR is_deleted is NULL)"; // Don't show deleted observations
 
-        String[] selectionArgs = null;
+        String sortOrder = Observation.DEFAULT_SORT_ORDER;
 
         if (speciesGuess != null) {
-            conditions += " AND (" +
-                    "(species_guess LIKE ?) OR " +
-                    "((species_guess IS NULL) AND (preferred_common_name like ?)))";
-            selectionArgs = new String[] { "%" + speciesGuess + "%", "%" + speciesGuess + "%" };
+            // Search the full-text index (species guess, common name, description and place)
+            String matchQuery = ObservationSearchIndex.getMatchQuery(speciesGuess);
+            conditions += " AND " + (matchQuery != null ? ObservationSearchIndex.getSelection(matchQuery) : "0");
+            sortOrder = ObservationSearchIndex.getRankedSortOrder(speciesGuess);
         }
 
+        CursorLoader loader = new CursorLoader(mContext, Observation.CONTENT_URI, Observation.PROJECTION,
+                conditions, null, sortOrder);
+        loader.setUpdateThrottle(UPDATE_THROTTLE);
+        return loader;
+    }
 
-        Cursor newCursor = mContext.getContentResolver().query(Observation.CONTENT_URI, Observation.PROJECTION,
-                conditions, selectionArgs, Observation.DEFAULT_SORT_ORDER);
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        // The photos might have changed as well
+        mRowInfoGeneration++;
+        // (The loader owns the cursor - it closes the previous one)
+        swapCursor(cursor);
 
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.HONEYCOMB){
-            Cursor oldCursor = swapCursor(newCursor);
-            if ((oldCursor != null) && (!oldCursor.isClosed())) oldCursor.close();
-        } else {
-            changeCursor(newCursor);
+        if (mOnCursorLoadedListener != null) mOnCursorLoadedListener.onCursorLoaded(this);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        swapCursor(null);
+    }
+
+    public void refreshPhotoInfo() {
+        mRowInfoGeneration++;
+        notifyDataSetChanged();
+    }
+
+    public void refreshPhotoInfo(long obsId) {
+        RowInfo info = mRowInfo.get(obsId);
+        if (info != null) info.generation = -1;
+    }
+
+    // Photo info and sync status of an observation
+    private static class RowInfo {
+        public int generation;
+        public boolean hasPhoto = false;
+        public String photoFilename;
+        public String photoUrl;
+        // Whether the observation has photos that weren't uploaded yet
+        public boolean hasNewPhotos = false;
+    }
+
+    // Bounded cache of row info, by observation (internal) ID - once full, the oldest entries are evicted first
+    private static class RowInfoCache {
+        private final LongSparseArray<RowInfo> mItems = new LongSparseArray<RowInfo>();
+        // The cached IDs, by insertion order (a ring buffer)
+        private final long[] mIds;
+        private int mNext = 0;
+
+        public RowInfoCache(int size) {
+            mIds = new long[size];
+        }
+
+        public RowInfo get(long obsId) {
+            return mItems.get(obsId);
         }
 
-        getPhotoInfo();
+        public void put(long obsId, RowInfo info) {
+            if (mItems.indexOfKey(obsId) < 0) {
+                if (mItems.size() == mIds.length) {
+                    mItems.remove(mIds[mNext]);
+                }
+                mIds[mNext] = obsId;
+                mNext = (mNext + 1) % mIds.length;
+            }
+            mItems.put(obsId, info);
+        }
     }
 
-    /**
-     * Retrieves photo ids and orientations for photos associated with the listed observations.
-     */
-    public void getPhotoInfo() {
+    // Loads the photo info of a window of rows (if not loaded already), in the background
+    private void requestRowInfo(int first, int last) {
+        mRequestedFirst = first;
+        mRequestedLast = last;
+
+        // If already loading - the requested window will be loaded once done
+        if (mRowInfoTask != null) return;
+
         Cursor c = getCursor();
+        if ((c == null) || (c.isClosed())) return;
+
+        int from = Math.max(0, first - PREFETCH_ROWS);
+        int to = Math.min(c.getCount() - 1, last + PREFETCH_ROWS);
+        // Never load more than what the cache can hold
+        to = Math.min(to, from + ROW_INFO_CACHE_SIZE / 2 - 1);
+        if (to < from) return;
+
         int originalPosition = c.getPosition();
-        if (c.getCount() == 0) return;
-
-        c.moveToFirst();
-        ArrayList<Long> obsIds = new ArrayList<Long>();
-        ArrayList<Long> obsExternalIds = new ArrayList<Long>();
-        ArrayList<Long> photoIds = new ArrayList<Long>();
-        while (!c.isAfterLast()) {
-            obsIds.add(c.getLong(c.getColumnIndexOrThrow(Observation._ID)));
-            try {
-                obsExternalIds.add(c.getLong(c.getColumnIndexOrThrow(Observation.ID)));
-            } catch (Exception exc) { }
-            c.moveToNext();
+        Observation.CursorColumns columns = getColumns(c);
+        long[] obsIds = new long[to - from + 1];
+        long[] externalObsIds = new long[to - from + 1];
+        int count = 0;
+
+        for (int position = from; position <= to; position++) {
+            if (!c.moveToPosition(position)) break;
+
+            long obsId = c.getLong(columns._id);
+            RowInfo info = mRowInfo.get(obsId);
+            if ((info != null) && (info.generation == mRowInfoGeneration)) continue;
+
+            obsIds[count] = obsId;
+            externalObsIds[count] = c.isNull(columns.id) ? 0 : c.getLong(columns.id);
+            count++;
         }
 
         c.moveToPosition(originalPosition);
 
-        // Add any photos
-        Cursor onlinePc = mContext.getContentResolver().query(ObservationPhoto.CONTENT_URI,
-                new String[]{ObservationPhoto._ID, ObservationPhoto._OBSERVATION_ID, ObservationPhoto._PHOTO_ID, ObservationPhoto.PHOTO_URL, ObservationPhoto.PHOTO_FILENAME},
-                "(_observation_id IN (" + StringUtils.join(obsIds, ',') + ") OR observation_id IN (" + StringUtils.join(obsExternalIds, ',') + ")  )",
-                null,
-                ObservationPhoto.DEFAULT_SORT_ORDER);
-        onlinePc.moveToFirst();
-        while (!onlinePc.isAfterLast()) {
-            Long obsId = onlinePc.getLong(onlinePc.getColumnIndexOrThrow(ObservationPhoto._OBSERVATION_ID));
-            String photoUrl = onlinePc.getString(onlinePc.getColumnIndexOrThrow(ObservationPhoto.PHOTO_URL));
-            String photoFilename = onlinePc.getString(onlinePc.getColumnIndexOrThrow(ObservationPhoto.PHOTO_FILENAME));
-
-            if (!mPhotoInfo.containsKey(obsId)) {
-                mPhotoInfo.put(
-                        obsId,
-                        new String[] {
-                                photoFilename,
-                                null,
-                                photoUrl,
-                                null,
-                                null
-                        });
+        if (count == 0) return;
+
+        mRowInfoTask = new RowInfoTask(Arrays.copyOf(obsIds, count), Arrays.copyOf(externalObsIds, count), mRowInfoGeneration);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Don't wait behind other tasks (the default executor is serial)
+            mRowInfoTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        } else {
+            mRowInfoTask.execute();
+        }
+    }
+
+    /**
+     * Retrieves the photos (first photo and whether any weren't uploaded yet) of the listed observations,
+     * with a single query
+     */
+    private class RowInfoTask extends AsyncTask<Void, Void, LongSparseArray<RowInfo>> {
+        private final long[] mObsIds;
+        private final long[] mExternalObsIds;
+        private final int mGeneration;
+
+        public RowInfoTask(long[] obsIds, long[] externalObsIds, int generation) {
+            mObsIds = obsIds;
+            mExternalObsIds = externalObsIds;
+            mGeneration = generation;
+        }
+
+        @Override
+        protected LongSparseArray<RowInfo> doInBackground(Void... params) {
+            LongSparseArray<RowInfo> results = new LongSparseArray<RowInfo>();
+            // External (server) ID -> internal ID
+            LongSparseArray<Long> externalObsIds = new LongSparseArray<Long>();
+
+            for (int i = 0; i < mObsIds.length; i++) {
+                RowInfo info = new RowInfo();
+                info.generation = mGeneration;
+                results.put(mObsIds[i], info);
+                if (mExternalObsIds[i] != 0) externalObsIds.put(mExternalObsIds[i], mObsIds[i]);
+            }
+
+            String selection = "(_observation_id IN (" + joinIds(mObsIds) + ")";
+            if (externalObsIds.size() > 0) {
+                long[] ids = new long[externalObsIds.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = externalObsIds.keyAt(i);
+                }
+                selection += " OR observation_id IN (" + joinIds(ids) + ")";
+            }
+            selection += ")";
+
+            Cursor c = mContext.getContentResolver().query(ObservationPhoto.CONTENT_URI,
+                    new String[] {
+                            ObservationPhoto._ID,
+                            ObservationPhoto._OBSERVATION_ID,
+                            ObservationPhoto.OBSERVATION_ID,
+                            ObservationPhoto.PHOTO_URL,
+                            ObservationPhoto.PHOTO_FILENAME,
+                            ObservationPhoto._SYNCED_AT
+                    },
+                    selection,
+                    null,
+                    ObservationPhoto.DEFAULT_SORT_ORDER);
+            if (c == null) return results;
+
+            try {
+                int obsIdColumn = c.getColumnIndexOrThrow(ObservationPhoto._OBSERVATION_ID);
+                int externalObsIdColumn = c.getColumnIndexOrThrow(ObservationPhoto.OBSERVATION_ID);
+                int photoUrlColumn = c.getColumnIndexOrThrow(ObservationPhoto.PHOTO_URL);
+                int photoFilenameColumn = c.getColumnIndexOrThrow(ObservationPhoto.PHOTO_FILENAME);
+                int syncedAtColumn = c.getColumnIndexOrThrow(ObservationPhoto._SYNCED_AT);
+
+                while (c.moveToNext()) {
+                    RowInfo info = c.isNull(obsIdColumn) ? null : results.get(c.getLong(obsIdColumn));
+                    boolean isLocal = (info != null);
+                    if ((info == null) && (!c.isNull(externalObsIdColumn))) {
+                        // Photo of an observation that was downloaded from the server
+                        Long obsId = externalObsIds.get(c.getLong(externalObsIdColumn));
+                        if (obsId != null) info = results.get(obsId);
+                    }
+                    if (info == null) continue;
+
+                    String photoUrl = c.getString(photoUrlColumn);
+
+                    if (!info.hasPhoto) {
+                        // First photo of the observation
+                        info.hasPhoto = true;
+                        info.photoUrl = photoUrl;
+                        info.photoFilename = c.getString(photoFilenameColumn);
+                    }
+
+                    if (isLocal && (photoUrl == null) && (c.isNull(syncedAtColumn))) {
+                        // A new photo (e.g. added to an existing observation)
+                        info.hasNewPhotos = true;
+                    }
+                }
+            } finally {
+                c.close();
             }
-            onlinePc.moveToNext();
+
+            return results;
         }
 
-        onlinePc.close();
-    }
+        private String joinIds(long[] ids) {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < ids.length; i++) {
+                if (i > 0) builder.append(',');
+                builder.append(ids[i]);
+            }
+            return builder.toString();
+        }
 
-    public void refreshPhotoInfo() {
-        mPhotoInfo = new HashMap<Long, String[]>();
-        getPhotoInfo();
-    }
+        @Override
+        protected void onPostExecute(LongSparseArray<RowInfo> results) {
+            mRowInfoTask = null;
 
-    public void refreshPhotoInfo(long obsId) {
-        if (mPhotoInfo.containsKey(obsId)) mPhotoInfo.remove(obsId);
+            for (int i = 0; i < results.size(); i++) {
+                mRowInfo.put(results.keyAt(i), results.valueAt(i));
+            }
+            notifyDataSetChanged();
+
+            // Load the window the user scrolled to in the meantime (if not loaded already)
+            requestRowInfo(mRequestedFirst, mRequestedLast);
+        }
     }
 
     private static class ViewHolder {
@@ -209,6 +435,7 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
             return view;
         }
         c.moveToPosition(position);
+        Observation.CursorColumns columns = getColumns(c);
 
         if (convertView == null) {
             holder = new ViewHolder((ViewGroup) view);
@@ -233,11 +460,11 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
 
         View progress = holder.progress;
 
-        final Long obsId = c.getLong(c.getColumnIndexOrThrow(Observation._ID));
-        final Long externalObsId = c.getLong(c.getColumnIndexOrThrow(Observation.ID));
-        String placeGuessValue = c.getString(c.getColumnIndexOrThrow(Observation.PLACE_GUESS));
-        Double latitude = c.getDouble(c.getColumnIndexOrThrow(Observation.LATITUDE));
-        Double longitude = c.getDouble(c.getColumnIndexOrThrow(Observation.LONGITUDE));
+        final Long obsId = c.getLong(columns._id);
+        final Long externalObsId = c.getLong(columns.id);
+        String placeGuessValue = c.getString(columns.place_guess);
+        Double latitude = c.getDouble(columns.latitude);
+        Double longitude = c.getDouble(columns.longitude);
 
         if (mIsGrid) {
             mDimension = mGrid.getColumnWidth();
@@ -254,7 +481,7 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
         }
 
 
-        String iconicTaxonName = c.getString(c.getColumnIndexOrThrow(Observation.ICONIC_TAXON_NAME));
+        String iconicTaxonName = c.getString(columns.iconic_taxon_name);
         int iconResource = 0;
         if (iconicTaxonName == null) {
             iconResource = R.drawable.iconic_taxon_unknown;
@@ -292,19 +519,21 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
         obsIconicImage.setImageResource(iconResource);
         obsImage.setVisibility(View.INVISIBLE);
 
-        String[] photoInfo = mPhotoInfo.get(obsId);
+        RowInfo rowInfo = mRowInfo.get(obsId);
 
-        if (photoInfo == null) {
-            // Try getting the external observation photo info
-            photoInfo = mPhotoInfo.get(externalObsId);
+        if ((rowInfo == null) || (rowInfo.generation != mRowInfoGeneration)) {
+            // Photo info not loaded yet (or outdated) - load it, along with the rows around it (until then,
+            // the outdated info is displayed, if any)
+            boolean isVisible = (position >= mFirstVisible) && (position <= mLastVisible);
+            requestRowInfo(isVisible ? mFirstVisible : position, isVisible ? mLastVisible : position);
         }
 
-        if (photoInfo != null) {
-            String photoFilename = photoInfo[2] != null ? photoInfo[2] : photoInfo[0];
+        if ((rowInfo != null) && (rowInfo.hasPhoto)) {
+            String photoFilename = rowInfo.photoUrl != null ? rowInfo.photoUrl : rowInfo.photoFilename;
 
             if (!mIsScrolling) {
                 // Only load image if user is not scrolling
-                loadObsImage(position, obsImage, photoFilename, photoInfo[2] != null);
+                loadObsImage(position, obsImage, photoFilename, rowInfo.photoUrl != null);
             }
 
             mObservationPhotoNames.put(position, photoFilename);
@@ -315,7 +544,7 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
             mImageViews.put(position, null);
         }
 
-        Long observationTimestamp = c.getLong(c.getColumnIndexOrThrow(Observation.OBSERVED_ON));
+        Long observationTimestamp = c.getLong(columns.observed_on);
 
         if (!mIsGrid) {
             if (observationTimestamp == 0) {
@@ -328,10 +557,10 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
             }
         }
 
-        Long commentsCount = c.getLong(c.getColumnIndexOrThrow(Observation.COMMENTS_COUNT));
-        Long idsCount = c.getLong(c.getColumnIndexOrThrow(Observation.IDENTIFICATIONS_COUNT));
-        Long lastCommentsCount = c.getLong(c.getColumnIndexOrThrow(Observation.LAST_COMMENTS_COUNT));
-        Long lastIdCount = c.getLong(c.getColumnIndexOrThrow(Observation.LAST_IDENTIFICATIONS_COUNT));
+        Long commentsCount = c.getLong(columns.comments_count);
+        Long idsCount = c.getLong(columns.identifications_count);
+        Long lastCommentsCount = c.getLong(columns.last_comments_count);
+        Long lastIdCount = c.getLong(columns.last_identifications_count);
 
         if (commentsCount + idsCount == 0) {
             // No comments/IDs - don't display the indicator
@@ -402,45 +631,13 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
             });
         }
 
-        Long syncedAt = c.getLong(c.getColumnIndexOrThrow(Observation._SYNCED_AT));
-        Long updatedAt = c.getLong(c.getColumnIndexOrThrow(Observation._UPDATED_AT));
+        Long syncedAt = c.getLong(columns._synced_at);
+        Long updatedAt = c.getLong(columns._updated_at);
         Boolean syncNeeded = (syncedAt == null) || (updatedAt > syncedAt);
 
-        // if there's a photo and it is local
-        if (syncNeeded == false &&
-                photoInfo != null &&
-                photoInfo[2] == null &&
-                photoInfo[3] != null) {
-            if (photoInfo[4] == null) {
-                syncNeeded = true;
-            } else {
-                Long photoSyncedAt = Long.parseLong(photoInfo[4]);
-                Long photoUpdatedAt = Long.parseLong(photoInfo[3]);
-                if (photoUpdatedAt > photoSyncedAt) {
-                    syncNeeded = true;
-                }
-            }
-        }
-
-        if (!syncNeeded) {
-            // See if it's an existing observation with a new photo
-
-            Cursor opc = mContext.getContentResolver().query(ObservationPhoto.CONTENT_URI,
-                    new String[]{
-                            ObservationPhoto._ID,
-                            ObservationPhoto._OBSERVATION_ID,
-                            ObservationPhoto._PHOTO_ID,
-                            ObservationPhoto.PHOTO_URL,
-                            ObservationPhoto._UPDATED_AT,
-                            ObservationPhoto._SYNCED_AT
-                    },
-                    "_observation_id = ? AND photo_url IS NULL AND _synced_at IS NULL",
-                    new String[] { String.valueOf(obsId) },
-                    ObservationPhoto._ID);
-            if (opc.getCount() > 0) {
-                syncNeeded = true;
-            }
-            opc.close();
+        if (!syncNeeded && (rowInfo != null) && (rowInfo.hasNewPhotos)) {
+            // An existing observation with a new photo
+            syncNeeded = true;
         }
 
 
@@ -460,8 +657,8 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
         }
 
 
-        String speciesGuessValue = c.getString(c.getColumnIndexOrThrow(Observation.SPECIES_GUESS));
-        String preferredCommonName = c.getString(c.getColumnIndexOrThrow(Observation.PREFERRED_COMMON_NAME));
+        String speciesGuessValue = c.getString(columns.species_guess);
+        String preferredCommonName = c.getString(columns.preferred_common_name);
         progress.setVisibility(View.GONE);
         if (!mIsGrid) {
             placeGuess.setTextColor(Color.parseColor("#666666"));
@@ -539,27 +736,10 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
         Observation obs = new Observation(c);
 
         Integer obsId = obs._id;
-        String[] photoInfo = mPhotoInfo.get(obsId);
         Timestamp syncedAt = obs._synced_at;
         Timestamp updatedAt = obs._updated_at;
         Boolean syncNeeded = (syncedAt == null) || (updatedAt.after(syncedAt));
 
-        // if there's a photo and it is local
-        if (syncNeeded == false &&
-                photoInfo != null &&
-                photoInfo[2] == null &&
-                photoInfo[3] != null) {
-            if (photoInfo[4] == null) {
-                syncNeeded = true;
-            } else {
-                Long photoSyncedAt = Long.parseLong(photoInfo[4]);
-                Long photoUpdatedAt = Long.parseLong(photoInfo[3]);
-                if (photoUpdatedAt > photoSyncedAt) {
-                    syncNeeded = true;
-                }
-            }
-        }
-
         if (!syncNeeded) {
             // See if it's an existing observation with a new photo
             Cursor opc = mContext.getContentResolver().query(ObservationPhoto.CONTENT_URI,
@@ -627,72 +807,6 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
     }
 
 
-    // For caching observation thumbnails
-    private HashMap<String, Bitmap> mObservationThumbnails = new HashMap<>();
-
-    // Used for loading and processing the observation photo in the background (as to not block the UI)
-    class BitmapWorkerTask extends AsyncTask<String, Void, Bitmap> {
-        private final WeakReference<ImageView> mImageViewReference;
-        private String mFilename = null;
-        private int mPosition;
-
-        public BitmapWorkerTask(ImageView imageView) {
-            // Use a WeakReference to ensure the ImageView can be garbage collected
-            mImageViewReference = new WeakReference<ImageView>(imageView);
-        }
-
-        // Decode image in background.
-        @Override
-        protected Bitmap doInBackground(String... params) {
-            mFilename = params[0];
-            mPosition = Integer.valueOf(params[1]);
-
-            Bitmap bitmapImage;
-            if (mObservationThumbnails.containsKey(mFilename)) {
-                // Load from cache
-                bitmapImage = mObservationThumbnails.get(mFilename);
-            } else {
-                // Decode into a thumbnail
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inSampleSize = ImageUtils.calculateInSampleSize(options, 100, 100);
-
-                // Decode bitmap with inSampleSize set
-                options.inJustDecodeBounds = false;
-                // This decreases in-memory byte-storage per pixel
-                options.inPreferredConfig = Bitmap.Config.ALPHA_8;
-                bitmapImage = BitmapFactory.decodeFile(mFilename, options);
-
-                if (bitmapImage != null) {
-                    bitmapImage = ImageUtils.rotateAccordingToOrientation(bitmapImage, mFilename);
-                    bitmapImage = ImageUtils.centerCropBitmap(bitmapImage);
-                    bitmapImage = ImageUtils.getRoundedCornerBitmap(bitmapImage);
-
-                    mObservationThumbnails.put(mFilename, bitmapImage);
-                }
-            }
-
-            return bitmapImage;
-        }
-
-        // Once complete, see if ImageView is still around and set bitmap.
-        @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            if (mImageViewReference != null && bitmap != null) {
-                final ImageView imageView = mImageViewReference.get();
-                if (imageView != null) {
-                    imageView.setImageBitmap(bitmap);
-                    imageView.setVisibility(View.VISIBLE);
-
-                    if ((!mObservationLoaded.containsKey(mPosition)) || (mObservationLoaded.get(mPosition) == false)) {
-                        Animation animation = AnimationUtils.loadAnimation(mContext, R.anim.slow_fade_in);
-                        imageView.startAnimation(animation);
-                        mObservationLoaded.put(mPosition, true);
-                    }
-                }
-            }
-        }
-    }
-
     private boolean isNetworkAvailable() {
         ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo activeNetworkInfo = connectivityManager.getActiveNetworkInfo();
@@ -735,10 +849,19 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
             UrlImageViewHelper.setUrlDrawable(imageView, name, callback);
 
         } else {
-            // Offline image
+            // Offline image (a cached thumbnail of it)
+            LocalThumbnailCache.getInstance(mContext).load(imageView, name, LocalThumbnailCache.SQUARE, new LocalThumbnailCache.Callback() {
+                @Override
+                public void onLoaded(ImageView imageView, Bitmap bitmap) {
+                    imageView.setVisibility(View.VISIBLE);
 
-            BitmapWorkerTask task = new BitmapWorkerTask(imageView);
-            task.execute(name, String.valueOf(position));
+                    if ((!mObservationLoaded.containsKey(position)) || (mObservationLoaded.get(position) == false)) {
+                        Animation animation = AnimationUtils.loadAnimation(mContext, R.anim.slow_fade_in);
+                        imageView.startAnimation(animation);
+                        mObservationLoaded.put(position, true);
+                    }
+                }
+            });
         }
     }
 
@@ -775,8 +898,20 @@ class ObservationCursorAdapter extends SimpleCursorAdapter implements AbsListVie
         }
     }
     @Override
-    public void onScroll(AbsListView absListView, int i, int i1, int i2) {
+    public void onScroll(AbsListView absListView, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (visibleItemCount == 0) return;
+
+        // List positions include the header views (e.g. the pull to refresh header)
+        int headerCount = (absListView instanceof ListView) ? ((ListView) absListView).getHeaderViewsCount() : 0;
+        int first = Math.max(0, firstVisibleItem - headerCount);
+        int last = Math.max(0, firstVisibleItem + visibleItemCount - 1 - headerCount);
+        if ((first == mFirstVisible) && (last == mLastVisible)) return;
+
+        mFirstVisible = first;
+        mLastVisible = last;
 
+        // Prefetch the photo info of the rows around the visible ones
+        requestRowInfo(mFirstVisible, mLastVisible);
     }
 }
 
@@ -83,7 +83,6 @@ import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.Typeface;
 import android.graphics.drawable.ColorDrawable;
 import android.location.Address;
@@ -2347,9 +2346,6 @@ public class ObservationEditor extends AppCompatActivity {
     }
 
     public class GalleryCursorAdapter extends BaseAdapter {
-        private static final int MIN_SAMPLE_SIZE_COMPRESSION = 8;
-        private static final int PHOTO_DIMENSIONS = 200;
-
         private Context mContext;
         private Cursor mCursor;
         private HashMap<Integer, View> mViews;
@@ -2467,45 +2463,7 @@ public class ObservationEditor extends AppCompatActivity {
                 });
             } else {
                 // Offline photo
-                int orientation = ImageUtils.getImageOrientation(photoFileName);
-                Bitmap bitmapImage = null;
-
-                try {
-
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    FileInputStream is = new FileInputStream(photoFileName);
-
-                    options.inJustDecodeBounds = true;
-                    BitmapFactory.decodeStream(is, null, options);
-                    is.close();
-
-                    // Decode into a thumbnail / smaller image (make sure we resize at least by a factor of 8)
-                    options.inSampleSize = Math.max(MIN_SAMPLE_SIZE_COMPRESSION, ImageUtils.calculateInSampleSize(options, PHOTO_DIMENSIONS, PHOTO_DIMENSIONS));
-
-                    // Decode bitmap with inSampleSize set
-                    options.inJustDecodeBounds = false;
-                    // This decreases in-memory byte-storage per pixel
-                    options.inPreferredConfig = Bitmap.Config.ALPHA_8;
-                    bitmapImage = BitmapFactory.decodeFile(photoFileName, options);
-
-                    if (bitmapImage != null) {
-                        if (orientation != 0) {
-                            // Rotate the image
-                            Matrix matrix = new Matrix();
-                            matrix.setRotate((float) orientation, bitmapImage.getWidth() / 2, bitmapImage.getHeight() / 2);
-                            bitmapImage = Bitmap.createBitmap(bitmapImage, 0, 0, bitmapImage.getWidth(), bitmapImage.getHeight(), matrix, true);
-                        }
-
-                        if (bitmapImage != null) {
-                            imageView.setImageBitmap(ImageUtils.getRoundedCornerBitmap(ImageUtils.centerCropBitmap(bitmapImage)));
-                            bitmapImage.recycle();
-                        }
-                    }
-                } catch (FileNotFoundException exc) {
-                    exc.printStackTrace();
-                } catch (IOException exc) {
-                    exc.printStackTrace();
-                }
+                LocalThumbnailCache.getInstance(mContext).load(imageView, photoFileName, LocalThumbnailCache.SQUARE, null);
             }
 
             View isFirst = container.findViewById(R.id.observation_is_first);
@@ -3,6 +3,7 @@ package org.inaturalist.android;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
@@ -21,14 +22,12 @@ import com.handmark.pulltorefresh.library.PullToRefreshListView;
 import android.annotation.SuppressLint;
 import android.content.DialogInterface;
 import android.graphics.Typeface;
-import android.os.Handler;
 import android.content.BroadcastReceiver;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
@@ -121,6 +120,11 @@ public class ObservationListActivity extends BaseFragmentActivity implements INo
     private BetterJSONObject mUser;
     private UserDetailsReceiver mUserDetailsReceiver;
 
+    // Observation count checks to run once the observations are (re)loaded in the background
+    private boolean mCheckDownloadingOnLoad = false;
+    private boolean mCheckResumeOnLoad = false;
+    private boolean mCheckSyncCompleteOnLoad = false;
+
     private ViewGroup mOnboardingSyncing;
     private View mOnboardingSyncingClose;
 
@@ -166,20 +170,12 @@ public class ObservationListActivity extends BaseFragmentActivity implements INo
             mObservationsGrid.onRefreshComplete();
             mObservationsGrid.refreshDrawableState();
 
+            // The "no observations" message and count are updated once the observations are reloaded
+            mCheckSyncCompleteOnLoad = true;
             mObservationListAdapter.refreshCursor();
             mObservationGridAdapter.refreshCursor();
             refreshSyncBar();
 
-            if (mApp.loggedIn() && !mApp.getIsSyncing() && (mObservationListAdapter.getCount() == 0)) {
-                // Show a "no observations" message
-                TextView emptyView = (TextView)findViewById(android.R.id.empty);
-                if (emptyView != null) emptyView.setText(R.string.no_observations_yet);
-            }
-
-            DecimalFormat formatter = new DecimalFormat("#,###,###");
-            SharedPreferences settings = mApp.getPrefs();
-            ((TextView) mTabLayout.getTabAt(0).getCustomView().findViewById(R.id.count)).setText(String.valueOf(formatter.format(settings.getInt("observation_count", mObservationListAdapter.getCount()))));
-
             mSyncRequested = false;
 
             if (!mApp.getIsSyncing()) {
@@ -237,30 +233,9 @@ public class ObservationListActivity extends BaseFragmentActivity implements INo
             }
         }
 
-        Cursor c = getContentResolver().query(Observation.CONTENT_URI, 
-        		Observation.PROJECTION, 
-        		"((_updated_at > _synced_at AND _synced_at IS NOT NULL) OR (_synced_at IS NULL)) AND (_updated_at > _created_at)",
-        		null, 
-        		Observation.SYNC_ORDER);
-        syncCount = c.getCount();
-        c.close();
-        
-        Cursor opc = getContentResolver().query(ObservationPhoto.CONTENT_URI, 
-        		new String[]{
-        		ObservationPhoto._ID, 
-        		ObservationPhoto._OBSERVATION_ID, 
-        		ObservationPhoto._PHOTO_ID, 
-        		ObservationPhoto.PHOTO_URL,
-        		ObservationPhoto._UPDATED_AT,
-        		ObservationPhoto._SYNCED_AT
-            }, 
-            "((photo_url IS NULL) AND (_updated_at IS NOT NULL) AND (_synced_at IS NULL)) OR " +
-            "((photo_url IS NULL) AND (_updated_at IS NOT NULL) AND (_synced_at IS NOT NULL) AND (_updated_at > _synced_at)) OR " +
-            "(is_deleted = 1)",
-            null, 
-            ObservationPhoto._ID);
-        photoSyncCount = opc.getCount();
-        opc.close();
+        Map<String, Integer> counts = SyncCounter.getCounts(getContentResolver());
+        syncCount = getCount(counts, SyncCounter.OBSERVATIONS_TO_UPLOAD);
+        photoSyncCount = getCount(counts, SyncCounter.PHOTOS_TO_SYNC);
 
         if (mSyncingTopBar != null) {
             if ((syncCount > 0) || (photoSyncCount > 0)) {
@@ -489,22 +464,9 @@ public class ObservationListActivity extends BaseFragmentActivity implements INo
             int photoSyncCount = 0;
 
             if (!hasOldObs) {
-                Cursor c = getContentResolver().query(Observation.CONTENT_URI,
-                        Observation.PROJECTION,
-                        "((_updated_at > _synced_at AND _synced_at IS NOT NULL) OR (_synced_at IS NULL) OR (is_deleted = 1))",
-                        null,
-                        Observation.SYNC_ORDER);
-                syncCount = c.getCount();
-                c.close();
-
-                c = getContentResolver().query(ObservationPhoto.CONTENT_URI, ObservationPhoto.PROJECTION,
-                        "((photo_url IS NULL) AND (_updated_at IS NOT NULL) AND (_synced_at IS NULL)) OR " +
-                                "((photo_url IS NULL) AND (_updated_at IS NOT NULL) AND (_synced_at IS NOT NULL) AND (_updated_at > _synced_at)) OR " +
-                                "(is_deleted = 1)"
-                        , null, ObservationPhoto.DEFAULT_SORT_ORDER);
-
-                photoSyncCount = c.getCount();
-                c.close();
+                Map<String, Integer> counts = SyncCounter.getCounts(getContentResolver());
+                syncCount = getCount(counts, SyncCounter.OBSERVATIONS_TO_SYNC);
+                photoSyncCount = getCount(counts, SyncCounter.PHOTOS_TO_SYNC);
             }
 
             // Trigger a sync (in case of auto-sync and unsynced obs OR when having old-style observations)
@@ -524,15 +486,12 @@ public class ObservationListActivity extends BaseFragmentActivity implements INo
 
     // Checks to see if there are any observations that have the "old" way of saving photos
     private boolean hasOldObservations() {
-        Cursor c = getContentResolver().query(ObservationPhoto.CONTENT_URI,
-                ObservationPhoto.PROJECTION,
-                "(photo_filename IS NULL) AND (photo_url IS NULL)",
-                null,
-                ObservationPhoto.DEFAULT_SORT_ORDER);
-        int count = c.getCount();
-        c.close();
-
-        return count > 0;
+        return SyncCounter.getCount(getContentResolver(), SyncCounter.OLD_PHOTOS) > 0;
+    }
+
+    private static int getCount(Map<String, Integer> counts, String entity) {
+        Integer count = counts.get(entity);
+        return count != null ? count : 0;
     }
     
 
@@ -557,6 +516,8 @@ public class ObservationListActivity extends BaseFragmentActivity implements INo
         settingsEditor.putString("me_screen_list_grid", String.format("%s,%s,%s", mIsGrid[0], mIsGrid[1], mIsGrid[2]));
         settingsEditor.apply();
 
+        LocalThumbnailCache.getInstance(this).logStats();
+
         super.onPause();
     }
     
@@ -588,13 +549,11 @@ public class ObservationListActivity extends BaseFragmentActivity implements INo
                 lv.setSelectionFromTop(mLastIndex, mLastTop);
             }
 
+            // The count (and "downloading ..." message) are updated once the observations are reloaded
+            mCheckResumeOnLoad = true;
             mObservationListAdapter.refreshCursor();
             mObservationListAdapter.refreshPhotoInfo();
             if (mObservationGridAdapter != null) mObservationGridAdapter.refreshCursor();
-
-            DecimalFormat formatter = new DecimalFormat("#,###,###");
-            SharedPreferences settings = mApp.getPrefs();
-            ((TextView) mTabLayout.getTabAt(0).getCustomView().findViewById(R.id.count)).setText(formatter.format(settings.getInt("observation_count", mObservationListAdapter.getCount())));
         }
       
         refreshSyncBar();
@@ -608,32 +567,49 @@ public class ObservationListActivity extends BaseFragmentActivity implements INo
                 app.setNotificationCallback(this);
                 if (!app.getAutoSync()) mCancelSync.setText(R.string.stop);
             }
+        }
 
-            (new Handler()).postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    if (mApp.loggedIn() && mApp.getIsSyncing() && (mObservationListAdapter.getCount() == 0)) {
-                        Toast.makeText(getApplicationContext(), getResources().getString(R.string.downloading_observations), Toast.LENGTH_LONG).show();
-                    }
-                }
-            }, 100);
+        triggerSyncIfNeeded();
+    }
 
+    // Called whenever the observations have been (re)loaded in the background - updates the views that depend on the observation count
+    private void onObservationsLoaded() {
+        int count = mObservationListAdapter.getCount();
+        boolean downloading = mApp.loggedIn() && mApp.getIsSyncing() && (count == 0);
 
-            if (mApp.loggedIn() && mApp.getIsSyncing() && (mObservationListAdapter.getCount() == 0)) {
-                // Show a "downloading ..." message instead of "no observations yet"
-                mObservationsEmpty.setText(R.string.downloading_observations);
-                mLoadingObservations.setVisibility(View.VISIBLE);
-                ((TextView) mTabLayout.getTabAt(0).getCustomView().findViewById(R.id.count)).setVisibility(View.GONE);
-                ((ProgressBar) mTabLayout.getTabAt(0).getCustomView().findViewById(R.id.loading)).setVisibility(View.VISIBLE);
+        DecimalFormat formatter = new DecimalFormat("#,###,###");
+        SharedPreferences settings = mApp.getPrefs();
+        ((TextView) mTabLayout.getTabAt(0).getCustomView().findViewById(R.id.count)).setText(formatter.format(settings.getInt("observation_count", count)));
 
-                refreshViewState();
-                getUserDetails(INaturalistService.ACTION_GET_SPECIFIC_USER_DETAILS);
-                getUserDetails(INaturalistService.ACTION_GET_USER_IDENTIFICATIONS);
-                getUserDetails(INaturalistService.ACTION_GET_USER_SPECIES_COUNT);
+        if (mCheckSyncCompleteOnLoad) {
+            if (mApp.loggedIn() && !mApp.getIsSyncing() && (count == 0)) {
+                // Show a "no observations" message
+                TextView emptyView = (TextView)findViewById(android.R.id.empty);
+                if (emptyView != null) emptyView.setText(R.string.no_observations_yet);
             }
+            if (!mApp.getIsSyncing()) refreshViewState();
         }
 
-        triggerSyncIfNeeded();
+        if ((mCheckDownloadingOnLoad || mCheckResumeOnLoad) && downloading) {
+            // Show a "downloading ..." message instead of "no observations yet"
+            mObservationsEmpty.setText(R.string.downloading_observations);
+            mLoadingObservations.setVisibility(View.VISIBLE);
+            ((TextView) mTabLayout.getTabAt(0).getCustomView().findViewById(R.id.count)).setVisibility(View.GONE);
+            ((ProgressBar) mTabLayout.getTabAt(0).getCustomView().findViewById(R.id.loading)).setVisibility(View.VISIBLE);
+        }
+
+        if (mCheckResumeOnLoad && downloading) {
+            Toast.makeText(getApplicationContext(), getResources().getString(R.string.downloading_observations), Toast.LENGTH_LONG).show();
+
+            refreshViewState();
+            getUserDetails(INaturalistService.ACTION_GET_SPECIFIC_USER_DETAILS);
+            getUserDetails(INaturalistService.ACTION_GET_USER_IDENTIFICATIONS);
+            getUserDetails(INaturalistService.ACTION_GET_USER_SPECIES_COUNT);
+        }
+
+        mCheckDownloadingOnLoad = false;
+        mCheckResumeOnLoad = false;
+        mCheckSyncCompleteOnLoad = false;
     }
     
     @Override
@@ -978,23 +954,21 @@ public class ObservationListActivity extends BaseFragmentActivity implements INo
                     });
 
 
-                    String login = mApp.currentUserLogin();
-
-                    // Perform a managed query. The Activity will handle closing and requerying the cursor
-                    // when needed.
-                    String conditions = "(_synced_at IS NULL";
-                    if (login != null) {
-                        conditions += " OR user_login = '" + login + "'";
-                    }
-                    conditions += ") AND (is_deleted = 0 OR is_deleted is NULL)"; // Don't show deleted observations
-
-                    final Cursor cursor = getContentResolver().query(getIntent().getData(), Observation.PROJECTION,
-                            conditions, null, Observation.DEFAULT_SORT_ORDER);
-
-                    mObservationListAdapter = new ObservationCursorAdapter(ObservationListActivity.this, cursor);
-                    mObservationGridAdapter = new ObservationCursorAdapter(ObservationListActivity.this, cursor, true, mObservationsGrid);
+                    // The observations are loaded in the background (and reloaded whenever they change)
+                    mObservationListAdapter = new ObservationCursorAdapter(ObservationListActivity.this);
+                    mObservationGridAdapter = new ObservationCursorAdapter(ObservationListActivity.this, true, mObservationsGrid);
                     mObservationsGrid.setAdapter(mObservationGridAdapter);
                     mObservationsList.setAdapter(mObservationListAdapter);
+                    mObservationListAdapter.setOnCursorLoadedListener(new ObservationCursorAdapter.OnCursorLoadedListener() {
+                        @Override
+                        public void onCursorLoaded(ObservationCursorAdapter adapter) {
+                            onObservationsLoaded();
+                        }
+                    });
+                    // Show a "downloading ..." message instead of "no observations yet" (once loaded)
+                    mCheckDownloadingOnLoad = true;
+                    mObservationListAdapter.refreshCursor();
+                    mObservationGridAdapter.refreshCursor();
 
                     // Make sure the images get loaded only when the user stops scrolling
                     mObservationsGrid.setOnScrollListener(mObservationGridAdapter);
@@ -1047,15 +1021,6 @@ public class ObservationListActivity extends BaseFragmentActivity implements INo
                         }
                     });
 
-
-                    if (mApp.loggedIn() && mApp.getIsSyncing() && (mObservationListAdapter.getCount() == 0)) {
-                        // Show a "downloading ..." message instead of "no observations yet"
-                        mObservationsEmpty.setText(R.string.downloading_observations);
-                        mLoadingObservations.setVisibility(View.VISIBLE);
-                        ((TextView) mTabLayout.getTabAt(0).getCustomView().findViewById(R.id.count)).setVisibility(View.GONE);
-                        ((ProgressBar) mTabLayout.getTabAt(0).getCustomView().findViewById(R.id.loading)).setVisibility(View.VISIBLE);
-                    }
-
                     break;
             }
 
@@ -116,37 +116,89 @@ public class ObservationPhoto implements BaseColumns, Serializable {
 
     public ObservationPhoto() {}
 
+    // Column indexes of an observation photo cursor - resolved once per cursor (instead of looking up the column
+    // names for every field of every row)
+    public static class CursorColumns {
+        private final Cursor mCursor;
+        public final int _id;
+        public final int _created_at;
+        public final int _observation_id;
+        public final int _photo_id;
+        public final int _synced_at;
+        public final int _updated_at;
+        public final int created_at;
+        public final int uuid;
+        public final int id;
+        public final int observation_id;
+        public final int photo_id;
+        public final int position;
+        public final int updated_at;
+        public final int is_deleted;
+        public final int photo_url;
+        public final int photo_filename;
+
+        public CursorColumns(Cursor c) {
+            mCursor = c;
+            _id = c.getColumnIndexOrThrow(_ID);
+            _created_at = c.getColumnIndexOrThrow(_CREATED_AT);
+            _observation_id = c.getColumnIndexOrThrow(_OBSERVATION_ID);
+            _photo_id = c.getColumnIndexOrThrow(_PHOTO_ID);
+            _synced_at = c.getColumnIndexOrThrow(_SYNCED_AT);
+            _updated_at = c.getColumnIndexOrThrow(_UPDATED_AT);
+            created_at = c.getColumnIndexOrThrow(CREATED_AT);
+            uuid = c.getColumnIndexOrThrow(UUID);
+            id = c.getColumnIndexOrThrow(ID);
+            observation_id = c.getColumnIndexOrThrow(OBSERVATION_ID);
+            photo_id = c.getColumnIndexOrThrow(PHOTO_ID);
+            position = c.getColumnIndexOrThrow(POSITION);
+            updated_at = c.getColumnIndexOrThrow(UPDATED_AT);
+            is_deleted = c.getColumnIndexOrThrow(IS_DELETED);
+            photo_url = c.getColumnIndexOrThrow(PHOTO_URL);
+            photo_filename = c.getColumnIndexOrThrow(PHOTO_FILENAME);
+        }
+
+        // Are these the column indexes of the specified cursor
+        public boolean isFor(Cursor c) {
+            return mCursor == c;
+        }
+    }
+
     public ObservationPhoto(Cursor c) {
+        this(c, new CursorColumns(c));
+    }
+
+    // Reads the observation photo at the current position of the cursor. The column indexes should be resolved once
+    // per cursor (and not per row) when reading multiple rows.
+    public ObservationPhoto(Cursor c, CursorColumns columns) {
         if (c.getPosition() == -1) c.moveToFirst();
-        BetterCursor bc = new BetterCursor(c);
-        this._id = bc.getInt(_ID);
-        this._created_at = bc.getTimestamp(_CREATED_AT);
+        this._id = BetterCursor.getInteger(c, columns._id);
+        this._created_at = BetterCursor.getTimestamp(c, columns._created_at);
         this._created_at_was = this._created_at;
-        this._observation_id = bc.getInteger(_OBSERVATION_ID);
+        this._observation_id = BetterCursor.getInteger(c, columns._observation_id);
         this._observation_id_was = this._observation_id;
-        this._photo_id = bc.getInteger(_PHOTO_ID);
+        this._photo_id = BetterCursor.getInteger(c, columns._photo_id);
         this._photo_id_was = this._photo_id;
-        this._synced_at = bc.getTimestamp(_SYNCED_AT);
+        this._synced_at = BetterCursor.getTimestamp(c, columns._synced_at);
         this._synced_at_was = this._synced_at;
-        this._updated_at = bc.getTimestamp(_UPDATED_AT);
+        this._updated_at = BetterCursor.getTimestamp(c, columns._updated_at);
         this._updated_at_was = this._updated_at;
-        this.created_at = bc.getTimestamp(CREATED_AT);
+        this.created_at = BetterCursor.getTimestamp(c, columns.created_at);
         this.created_at_was = this.created_at;
-        this.uuid = bc.getString(UUID);
-        this.id = bc.getInteger(ID);
+        this.uuid = BetterCursor.getString(c, columns.uuid);
+        this.id = BetterCursor.getInteger(c, columns.id);
         this.id_was = this.id;
-        this.observation_id = bc.getInteger(OBSERVATION_ID);
+        this.observation_id = BetterCursor.getInteger(c, columns.observation_id);
         this.observation_id_was = this.observation_id;
-        this.photo_id = bc.getInteger(PHOTO_ID);
+        this.photo_id = BetterCursor.getInteger(c, columns.photo_id);
         this.photo_id_was = this.photo_id;
-        this.position = bc.getInteger(POSITION);
+        this.position = BetterCursor.getInteger(c, columns.position);
         this.position_was = this.position;
-        this.updated_at = bc.getTimestamp(UPDATED_AT);
+        this.updated_at = BetterCursor.getTimestamp(c, columns.updated_at);
         this.is_deleted_was = this.is_deleted;
-        this.is_deleted = bc.getBoolean(IS_DELETED);
+        this.is_deleted = BetterCursor.getBoolean(c, columns.is_deleted);
         this.updated_at_was = this.updated_at;
-        this.photo_url = bc.getString(PHOTO_URL);
-        this.photo_filename = bc.getString(PHOTO_FILENAME);
+        this.photo_url = BetterCursor.getString(c, columns.photo_url);
+        this.photo_filename = BetterCursor.getString(c, columns.photo_filename);
     }
 
     public ObservationPhoto(BetterJSONObject o) {
@@ -285,7 +337,8 @@ public class ObservationPhoto implements BaseColumns, Serializable {
                 + "updated_at INTEGER,"
                 + "is_deleted INTEGER,"
                 + "photo_url TEXT,"
-                + "photo_filename TEXT"
+                + "photo_filename TEXT,"
+                + "needs_sync INTEGER DEFAULT 0"
                 + ");";
     }
 
@@ -1,20 +1,31 @@
 package org.inaturalist.android;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.provider.BaseColumns;
 import android.provider.MediaStore;
@@ -24,8 +35,8 @@ import android.util.Log;
 public class ObservationProvider extends ContentProvider {
     private static final String TAG = "ObservationProvider";
     private static final String DATABASE_NAME = "inaturalist.db";
-    private static final int DATABASE_VERSION = 11;
-    private static final String[] TABLE_NAMES = new String[]{Observation.TABLE_NAME, ObservationPhoto.TABLE_NAME, Project.TABLE_NAME, ProjectObservation.TABLE_NAME, ProjectField.TABLE_NAME, ProjectFieldValue.TABLE_NAME};
+    private static final int DATABASE_VERSION = 15;
+    private static final String[] TABLE_NAMES = new String[]{Observation.TABLE_NAME, ObservationPhoto.TABLE_NAME, Project.TABLE_NAME, ProjectObservation.TABLE_NAME, ProjectField.TABLE_NAME, ProjectFieldValue.TABLE_NAME, SyncCursor.TABLE_NAME};
     private static final SQLiteCursorFactory sFactory;
     public static final UriMatcher URI_MATCHER;
 
@@ -44,12 +55,16 @@ public class ObservationProvider extends ContentProvider {
         URI_MATCHER.addURI(ProjectField.AUTHORITY, "project_fields/#", ProjectField.PROJECT_FIELD_ID_URI_CODE);
         URI_MATCHER.addURI(ProjectFieldValue.AUTHORITY, "project_field_values", ProjectFieldValue.PROJECT_FIELD_VALUES_URI_CODE);
         URI_MATCHER.addURI(ProjectFieldValue.AUTHORITY, "project_field_values/#", ProjectFieldValue.PROJECT_FIELD_VALUE_ID_URI_CODE);
+        URI_MATCHER.addURI(SyncCursor.AUTHORITY, "sync_cursors", SyncCursor.SYNC_CURSORS_URI_CODE);
+        URI_MATCHER.addURI(SyncCursor.AUTHORITY, "sync_cursors/#", SyncCursor.SYNC_CURSOR_ID_URI_CODE);
+        URI_MATCHER.addURI(SyncCounter.AUTHORITY, "sync_counters", SyncCounter.SYNC_COUNTERS_URI_CODE);
+        URI_MATCHER.addURI(SyncCounter.AUTHORITY, "sync_counters/#", SyncCounter.SYNC_COUNTER_ID_URI_CODE);
     }
 
     /**
      * This class helps open, create, and upgrade the database file.
      */
-    private static class DatabaseHelper extends SQLiteOpenHelper {
+    static class DatabaseHelper extends SQLiteOpenHelper {
 
         Context mContext;
 
@@ -60,12 +75,21 @@ public class ObservationProvider extends ContentProvider {
 
         @Override
         public void onCreate(SQLiteDatabase db) {
+            createTables(db);
+        }
+
+        // Creates all tables (and their indexes/triggers) of a new database
+        static void createTables(SQLiteDatabase db) {
             db.execSQL(Observation.sqlCreate());
             db.execSQL(ObservationPhoto.sqlCreate());
             db.execSQL(Project.sqlCreate());
             db.execSQL(ProjectObservation.sqlCreate());
             db.execSQL(ProjectField.sqlCreate());
             db.execSQL(ProjectFieldValue.sqlCreate());
+            db.execSQL(SyncCursor.sqlCreate());
+            createSearchIndex(db);
+            createIndexes(db);
+            createSyncCounters(db);
         }
 
         @Override
@@ -97,6 +121,48 @@ public class ObservationProvider extends ContentProvider {
                 // Add a "is_deleted" column to ObservationPhoto
                 addColumnIfNotExists(db, ObservationPhoto.TABLE_NAME, "is_deleted", "INTEGER");
             }
+            if (oldVersion < 12) {
+                // Per-entity sync cursors (the observations cursor starts from the old "last_sync_time" preference)
+                db.execSQL(SyncCursor.sqlCreate());
+            }
+            if (oldVersion < 13) {
+                // Full-text search index of the observations
+                createSearchIndex(db);
+                db.execSQL(ObservationSearchIndex.sqlPopulate());
+            }
+            if (oldVersion < 14) {
+                // Secondary indexes + the "needs_sync" flag of the synced tables
+                for (String table : DatabaseIndexes.TABLE_NAMES) {
+                    addColumnIfNotExists(db, table, DatabaseIndexes.NEEDS_SYNC, "INTEGER DEFAULT 0");
+                }
+                for (String sql : DatabaseIndexes.sqlPopulate()) {
+                    db.execSQL(sql);
+                }
+                createIndexes(db);
+            }
+            if (oldVersion < 15) {
+                // Pending sync counters (maintained by triggers)
+                createSyncCounters(db);
+            }
+        }
+
+        private static void createSearchIndex(SQLiteDatabase db) {
+            for (String sql : ObservationSearchIndex.sqlCreate()) {
+                db.execSQL(sql);
+            }
+        }
+
+        private static void createIndexes(SQLiteDatabase db) {
+            for (String sql : DatabaseIndexes.sqlCreate(DatabaseIndexes.supportsPartialIndexes(db))) {
+                db.execSQL(sql);
+            }
+        }
+
+        private static void createSyncCounters(SQLiteDatabase db) {
+            db.execSQL(SyncCounter.sqlCreate());
+            for (String sql : SyncCounter.sqlCreateCounters()) {
+                db.execSQL(sql);
+            }
         }
 
         // Adds a new column to a table if doesn't exist already
@@ -120,6 +186,9 @@ public class ObservationProvider extends ContentProvider {
 
     private DatabaseHelper mOpenHelper;
 
+    // Content URIs (tables) that were changed by the currently-running batch (per thread)
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<Set<Uri>>();
+
     @Override
     public boolean onCreate() {
         mOpenHelper = new DatabaseHelper(getContext());
@@ -199,6 +268,28 @@ public class ObservationProvider extends ContentProvider {
             qb.appendWhere(ProjectFieldValue._ID + "=" + uri.getPathSegments().get(1));
             orderBy = TextUtils.isEmpty(sortOrder) ? ProjectFieldValue.DEFAULT_SORT_ORDER : sortOrder;
             break;
+        case SyncCursor.SYNC_CURSORS_URI_CODE:
+            qb.setTables(SyncCursor.TABLE_NAME);
+            qb.setProjectionMap(SyncCursor.PROJECTION_MAP);
+            orderBy = TextUtils.isEmpty(sortOrder) ? SyncCursor.DEFAULT_SORT_ORDER : sortOrder;
+            break;
+        case SyncCursor.SYNC_CURSOR_ID_URI_CODE:
+            qb.setTables(SyncCursor.TABLE_NAME);
+            qb.setProjectionMap(SyncCursor.PROJECTION_MAP);
+            qb.appendWhere(SyncCursor._ID + "=" + uri.getPathSegments().get(1));
+            orderBy = TextUtils.isEmpty(sortOrder) ? SyncCursor.DEFAULT_SORT_ORDER : sortOrder;
+            break;
+        case SyncCounter.SYNC_COUNTERS_URI_CODE:
+            qb.setTables(SyncCounter.TABLE_NAME);
+            qb.setProjectionMap(SyncCounter.PROJECTION_MAP);
+            orderBy = TextUtils.isEmpty(sortOrder) ? SyncCounter.DEFAULT_SORT_ORDER : sortOrder;
+            break;
+        case SyncCounter.SYNC_COUNTER_ID_URI_CODE:
+            qb.setTables(SyncCounter.TABLE_NAME);
+            qb.setProjectionMap(SyncCounter.PROJECTION_MAP);
+            qb.appendWhere(SyncCounter._ID + "=" + uri.getPathSegments().get(1));
+            orderBy = TextUtils.isEmpty(sortOrder) ? SyncCounter.DEFAULT_SORT_ORDER : sortOrder;
+            break;
              
         default:
             throw new IllegalArgumentException("Unknown URI " + uri);
@@ -233,6 +324,12 @@ public class ObservationProvider extends ContentProvider {
             
         case ProjectFieldValue.PROJECT_FIELD_VALUE_ID_URI_CODE:
             return ProjectFieldValue.CONTENT_ITEM_TYPE;
+
+        case SyncCursor.SYNC_CURSOR_ID_URI_CODE:
+            return SyncCursor.CONTENT_ITEM_TYPE;
+
+        case SyncCounter.SYNC_COUNTER_ID_URI_CODE:
+            return SyncCounter.CONTENT_ITEM_TYPE;
             
         default:
             throw new IllegalArgumentException("Unknown URI " + uri);
@@ -241,61 +338,9 @@ public class ObservationProvider extends ContentProvider {
 
     @Override
     public Uri insert(Uri uri, ContentValues initialValues) {
-        String tableName;
-        Uri contentUri;
-        switch (URI_MATCHER.match(uri)) {
-        case Observation.OBSERVATIONS_URI_CODE:
-            tableName = Observation.TABLE_NAME;
-            contentUri = Observation.CONTENT_URI;
-            break;
-        case Observation.OBSERVATION_ID_URI_CODE:
-            tableName = Observation.TABLE_NAME;
-            contentUri = Observation.CONTENT_URI;
-            break;
-        case ObservationPhoto.OBSERVATION_PHOTOS_URI_CODE:
-            tableName = ObservationPhoto.TABLE_NAME;
-            contentUri = ObservationPhoto.CONTENT_URI;
-            break;
-        case ObservationPhoto.OBSERVATION_PHOTO_ID_URI_CODE:
-            tableName = ObservationPhoto.TABLE_NAME;
-            contentUri = ObservationPhoto.CONTENT_URI;
-            break;
-        case Project.PROJECTS_URI_CODE:
-            tableName = Project.TABLE_NAME;
-            contentUri = Project.CONTENT_URI;
-            break;
-        case Project.PROJECT_ID_URI_CODE:
-            tableName = Project.TABLE_NAME;
-            contentUri = Project.CONTENT_URI;
-            break;
-        case ProjectObservation.PROJECT_OBSERVATIONS_URI_CODE:
-            tableName = ProjectObservation.TABLE_NAME;
-            contentUri = ProjectObservation.CONTENT_URI;
-            break;
-        case ProjectObservation.PROJECT_OBSERVATION_ID_URI_CODE:
-            tableName = ProjectObservation.TABLE_NAME;
-            contentUri = ProjectObservation.CONTENT_URI;
-            break;
-        case ProjectField.PROJECT_FIELDS_URI_CODE:
-            tableName = ProjectField.TABLE_NAME;
-            contentUri = ProjectField.CONTENT_URI;
-            break;
-        case ProjectField.PROJECT_FIELD_ID_URI_CODE:
-            tableName = ProjectField.TABLE_NAME;
-            contentUri = ProjectField.CONTENT_URI;
-            break;
-        case ProjectFieldValue.PROJECT_FIELD_VALUES_URI_CODE:
-            tableName = ProjectFieldValue.TABLE_NAME;
-            contentUri = ProjectFieldValue.CONTENT_URI;
-            break;
-        case ProjectFieldValue.PROJECT_FIELD_VALUE_ID_URI_CODE:
-            tableName = ProjectFieldValue.TABLE_NAME;
-            contentUri = ProjectFieldValue.CONTENT_URI;
-            break;
-            
-        default:
-            throw new IllegalArgumentException("Unknown URI " + uri);
-        }
+        int uriCode = URI_MATCHER.match(uri);
+        String tableName = getTableName(uriCode);
+        Uri contentUri = getContentUri(uriCode);
 
         ContentValues values;
         if (initialValues != null) {
@@ -304,10 +349,143 @@ public class ObservationProvider extends ContentProvider {
             values = new ContentValues();
         }
 
-        Long now = Long.valueOf(System.currentTimeMillis());
-        
+        setInsertTimestamps(uriCode, values, System.currentTimeMillis());
+
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (!isInBatch()) Log.d(TAG, "Insert: " + tableName + "; values: " + values.toString());
+        long rowId = db.insert(tableName, BaseColumns._ID, values);
+        if (rowId > 0) {
+            Uri newUri = ContentUris.withAppendedId(contentUri, rowId);
+            if (isInBatch()) {
+                notifyChange(newUri, contentUri);
+            } else {
+                getContext().getContentResolver().notifyChange(newUri, null);
+            }
+            return newUri;
+        }
+
+        throw new SQLException("Failed to insert row into " + uri);
+    }
+
+    // Inserts all rows in a single transaction, using a compiled insert statement (per set of columns), and
+    // notifies observers only once, when done. Conflicting rows are skipped.
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] allValues) {
         int uriCode = URI_MATCHER.match(uri);
+        String tableName = getTableName(uriCode);
+        Uri contentUri = getContentUri(uriCode);
+        long now = System.currentTimeMillis();
+        int count = 0;
+
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+
+        Log.d(TAG, "Bulk insert: " + tableName + "; rows: " + allValues.length);
+
+        db.beginTransaction();
+        try {
+            for (ContentValues initialValues : allValues) {
+                ContentValues values = initialValues != null ? new ContentValues(initialValues) : new ContentValues();
+                setInsertTimestamps(uriCode, values, now);
+
+                if (values.size() == 0) {
+                    if (db.insert(tableName, BaseColumns._ID, values) > 0) count++;
+                    continue;
+                }
+
+                // Columns are sorted, so rows with the same set of columns share the same compiled statement
+                String[] columns = new String[values.size()];
+                int i = 0;
+                for (Map.Entry<String, Object> entry : values.valueSet()) {
+                    columns[i++] = entry.getKey();
+                }
+                Arrays.sort(columns);
+
+                String key = StringUtils.join(columns, ",");
+                SQLiteStatement statement = statements.get(key);
+                if (statement == null) {
+                    String[] placeholders = new String[columns.length];
+                    Arrays.fill(placeholders, "?");
+                    statement = db.compileStatement("INSERT INTO " + tableName + " (" + key + ") VALUES (" + StringUtils.join(placeholders, ",") + ")");
+                    statements.put(key, statement);
+                }
+
+                statement.clearBindings();
+                for (i = 0; i < columns.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+                }
+
+                try {
+                    if (statement.executeInsert() > 0) count++;
+                } catch (SQLiteConstraintException e) {
+                    // Skip a conflicting row (instead of rolling back all of the other rows)
+                    Log.e(TAG, "Bulk insert: skipping row - " + e.toString());
+                }
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+        }
+
+        if (count > 0) {
+            notifyChange(contentUri, contentUri);
+        }
+
+        return count;
+    }
+
+    // Applies all operations in a single transaction - change notifications are coalesced into one
+    // notification per table, sent after the transaction is committed
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        boolean isOuterBatch = !isInBatch();
+        if (isOuterBatch) mPendingNotifications.set(new HashSet<Uri>());
+
+        Log.d(TAG, "Apply batch: " + operations.size() + " operations");
+
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+
+            if (isOuterBatch) {
+                Set<Uri> pending = mPendingNotifications.get();
+                mPendingNotifications.remove();
+                for (Uri uri : pending) {
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+            }
+        }
+    }
+
+    private boolean isInBatch() {
+        return mPendingNotifications.get() != null;
+    }
+
+    // Notifies observers of a changed row/table. While a batch is being applied, only the table is
+    // notified (once), after the batch has been committed.
+    private void notifyChange(Uri uri, Uri contentUri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(contentUri);
+            return;
+        }
 
+        getContext().getContentResolver().notifyChange(uri, null);
+        if (!uri.equals(contentUri)) {
+            getContext().getContentResolver().notifyChange(contentUri, null);
+        }
+    }
+
+    private void setInsertTimestamps(int uriCode, ContentValues values, long now) {
         // Make sure that the fields are all set
         if  (values.containsKey(Observation._SYNCED_AT)) {
             // if synced at is being set, updated at should *always* match exactly
@@ -315,21 +493,69 @@ public class ObservationProvider extends ContentProvider {
             values.put(Observation._CREATED_AT, values.getAsLong(Observation._SYNCED_AT));
         } else if ((uriCode != Project.PROJECTS_URI_CODE) && (uriCode != Project.PROJECT_ID_URI_CODE) &&
                 (uriCode != ProjectObservation.PROJECT_OBSERVATIONS_URI_CODE) && (uriCode != ProjectObservation.PROJECT_OBSERVATION_ID_URI_CODE) &&
-                (uriCode != ProjectField.PROJECT_FIELDS_URI_CODE) && (uriCode != ProjectField.PROJECT_FIELD_ID_URI_CODE)) {
+                (uriCode != ProjectField.PROJECT_FIELDS_URI_CODE) && (uriCode != ProjectField.PROJECT_FIELD_ID_URI_CODE) &&
+                (uriCode != SyncCursor.SYNC_CURSORS_URI_CODE) && (uriCode != SyncCursor.SYNC_CURSOR_ID_URI_CODE)) {
             values.put(Observation._CREATED_AT, now);
             values.put(Observation._UPDATED_AT, now);
         }
+    }
 
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        Log.d(TAG, "Insert: " + tableName + "; values: " + values.toString());
-        long rowId = db.insert(tableName, BaseColumns._ID, values);
-        if (rowId > 0) {
-            Uri newUri = ContentUris.withAppendedId(contentUri, rowId);
-            getContext().getContentResolver().notifyChange(newUri, null);
-            return newUri;
+    private String getTableName(int uriCode) {
+        switch (uriCode) {
+        case Observation.OBSERVATIONS_URI_CODE:
+        case Observation.OBSERVATION_ID_URI_CODE:
+            return Observation.TABLE_NAME;
+        case ObservationPhoto.OBSERVATION_PHOTOS_URI_CODE:
+        case ObservationPhoto.OBSERVATION_PHOTO_ID_URI_CODE:
+            return ObservationPhoto.TABLE_NAME;
+        case Project.PROJECTS_URI_CODE:
+        case Project.PROJECT_ID_URI_CODE:
+            return Project.TABLE_NAME;
+        case ProjectObservation.PROJECT_OBSERVATIONS_URI_CODE:
+        case ProjectObservation.PROJECT_OBSERVATION_ID_URI_CODE:
+            return ProjectObservation.TABLE_NAME;
+        case ProjectField.PROJECT_FIELDS_URI_CODE:
+        case ProjectField.PROJECT_FIELD_ID_URI_CODE:
+            return ProjectField.TABLE_NAME;
+        case ProjectFieldValue.PROJECT_FIELD_VALUES_URI_CODE:
+        case ProjectFieldValue.PROJECT_FIELD_VALUE_ID_URI_CODE:
+            return ProjectFieldValue.TABLE_NAME;
+        case SyncCursor.SYNC_CURSORS_URI_CODE:
+        case SyncCursor.SYNC_CURSOR_ID_URI_CODE:
+            return SyncCursor.TABLE_NAME;
+
+        default:
+            throw new IllegalArgumentException("Unknown URI code " + uriCode);
         }
+    }
 
-        throw new SQLException("Failed to insert row into " + uri);
+    private Uri getContentUri(int uriCode) {
+        switch (uriCode) {
+        case Observation.OBSERVATIONS_URI_CODE:
+        case Observation.OBSERVATION_ID_URI_CODE:
+            return Observation.CONTENT_URI;
+        case ObservationPhoto.OBSERVATION_PHOTOS_URI_CODE:
+        case ObservationPhoto.OBSERVATION_PHOTO_ID_URI_CODE:
+            return ObservationPhoto.CONTENT_URI;
+        case Project.PROJECTS_URI_CODE:
+        case Project.PROJECT_ID_URI_CODE:
+            return Project.CONTENT_URI;
+        case ProjectObservation.PROJECT_OBSERVATIONS_URI_CODE:
+        case ProjectObservation.PROJECT_OBSERVATION_ID_URI_CODE:
+            return ProjectObservation.CONTENT_URI;
+        case ProjectField.PROJECT_FIELDS_URI_CODE:
+        case ProjectField.PROJECT_FIELD_ID_URI_CODE:
+            return ProjectField.CONTENT_URI;
+        case ProjectFieldValue.PROJECT_FIELD_VALUES_URI_CODE:
+        case ProjectFieldValue.PROJECT_FIELD_VALUE_ID_URI_CODE:
+            return ProjectFieldValue.CONTENT_URI;
+        case SyncCursor.SYNC_CURSORS_URI_CODE:
+        case SyncCursor.SYNC_CURSOR_ID_URI_CODE:
+            return SyncCursor.CONTENT_URI;
+
+        default:
+            throw new IllegalArgumentException("Unknown URI code " + uriCode);
+        }
     }
 
     @Override
@@ -401,14 +627,23 @@ public class ObservationProvider extends ContentProvider {
             count = db.delete(ProjectFieldValue.TABLE_NAME, Project._ID + "=" + id
                     + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
             break;
+        case SyncCursor.SYNC_CURSORS_URI_CODE:
+            count = db.delete(SyncCursor.TABLE_NAME, where, whereArgs);
+            contentUri = SyncCursor.CONTENT_URI;
+            break;
+        case SyncCursor.SYNC_CURSOR_ID_URI_CODE:
+            id = uri.getPathSegments().get(1);
+            contentUri = SyncCursor.CONTENT_URI;
+            count = db.delete(SyncCursor.TABLE_NAME, SyncCursor._ID + "=" + id
+                    + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
+            break;
             
             
         default:
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
-        getContext().getContentResolver().notifyChange(contentUri, null);
+        notifyChange(uri, contentUri);
         return count;
     }
     
@@ -450,7 +685,8 @@ public class ObservationProvider extends ContentProvider {
             values.put(Observation._UPDATED_AT, values.getAsLong(Observation._SYNCED_AT));
         } else if ((uriCode != Project.PROJECTS_URI_CODE) && (uriCode != Project.PROJECT_ID_URI_CODE) &&
                 (uriCode != ProjectObservation.PROJECT_OBSERVATIONS_URI_CODE) && (uriCode != ProjectObservation.PROJECT_OBSERVATION_ID_URI_CODE) &&
-                (uriCode != ProjectField.PROJECT_FIELDS_URI_CODE) && (uriCode != ProjectField.PROJECT_FIELD_ID_URI_CODE)) {
+                (uriCode != ProjectField.PROJECT_FIELDS_URI_CODE) && (uriCode != ProjectField.PROJECT_FIELD_ID_URI_CODE) &&
+                (uriCode != SyncCursor.SYNC_CURSORS_URI_CODE) && (uriCode != SyncCursor.SYNC_CURSOR_ID_URI_CODE)) {
             values.put(Observation._UPDATED_AT, System.currentTimeMillis());
         }
         
@@ -462,7 +698,7 @@ public class ObservationProvider extends ContentProvider {
         case Observation.OBSERVATION_ID_URI_CODE:
             id = uri.getPathSegments().get(1);
             contentUri = Observation.CONTENT_URI;
-            Log.d(TAG, "Update " + Observation.TABLE_NAME + "; " + values.toString());
+            if (!isInBatch()) Log.d(TAG, "Update " + Observation.TABLE_NAME + "; " + values.toString());
             count = db.update(Observation.TABLE_NAME, values, Observation._ID + "=" + id
                     + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
             
@@ -494,7 +730,7 @@ public class ObservationProvider extends ContentProvider {
         case ObservationPhoto.OBSERVATION_PHOTO_ID_URI_CODE:
             id = uri.getPathSegments().get(1);
             contentUri = ObservationPhoto.CONTENT_URI;
-            Log.d(TAG, "Update " + ObservationPhoto.TABLE_NAME + "; " + values.toString());
+            if (!isInBatch()) Log.d(TAG, "Update " + ObservationPhoto.TABLE_NAME + "; " + values.toString());
             count = db.update(ObservationPhoto.TABLE_NAME, values, ObservationPhoto._ID + "=" + id
                     + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
             break;
@@ -538,13 +774,22 @@ public class ObservationProvider extends ContentProvider {
             count = db.update(ProjectFieldValue.TABLE_NAME, values, ProjectFieldValue._ID + "=" + id
                     + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
             break;
+        case SyncCursor.SYNC_CURSORS_URI_CODE:
+            count = db.update(SyncCursor.TABLE_NAME, values, where, whereArgs);
+            contentUri = SyncCursor.CONTENT_URI;
+            break;
+        case SyncCursor.SYNC_CURSOR_ID_URI_CODE:
+            id = uri.getPathSegments().get(1);
+            contentUri = SyncCursor.CONTENT_URI;
+            count = db.update(SyncCursor.TABLE_NAME, values, SyncCursor._ID + "=" + id
+                    + (!TextUtils.isEmpty(where) ? " AND (" + where + ')' : ""), whereArgs);
+            break;
  
         default:
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
         
-        getContext().getContentResolver().notifyChange(uri, null);
-        getContext().getContentResolver().notifyChange(contentUri, null);
+        notifyChange(uri, contentUri);
         return count;
     }
 }
@@ -1,11 +1,9 @@
 package org.inaturalist.android;
 
-import android.content.BroadcastReceiver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
@@ -34,19 +32,14 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
 public class ObservationSearchActivity extends AppCompatActivity implements AdapterView.OnItemClickListener {
     private static final String LOG_TAG = "ObervationSearchActivity";
 
     private ListAdapter mObservationsAdapter;
+    private ObservationCursorAdapter mLocalObservationsAdapter;
 
     private ProgressBar mProgress;
     
@@ -54,7 +47,7 @@ public class ObservationSearchActivity extends AppCompatActivity implements Adap
 
     private String mCurrentSearchString = "";
 
-    private SearchResultsReceiver mSearchResultsReceiver;
+    private AutocompleteClient mOnlineSearchClient;
 
     @Override
 	protected void onStart()
@@ -67,11 +60,6 @@ public class ObservationSearchActivity extends AppCompatActivity implements Adap
     public void onResume() {
         super.onResume();
         if (mApp == null) { mApp = (INaturalistApp) getApplicationContext(); }
-
-        mSearchResultsReceiver = new SearchResultsReceiver();
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(INaturalistService.USER_SEARCH_OBSERVATIONS_RESULT);
-        registerReceiver(mSearchResultsReceiver, filter);
     }
  
 	@Override
@@ -121,17 +109,9 @@ public class ObservationSearchActivity extends AppCompatActivity implements Adap
 
 
         String login = mApp.currentUserLogin();
-
-        // Perform a managed query. The Activity will handle closing and requerying the cursor
-        // when needed.
-        String conditions = "(_synced_at IS NULL";
         if (login != null) {
-            conditions += " OR user_login = '" + login + "'";
+            mOnlineSearchClient = new AutocompleteClient(this, new AutocompleteClient.UserObservationSource(this, login));
         }
-        conditions += ") AND (is_deleted = 0 OR is_deleted is NULL)"; // Don't show deleted observations
-
-        final Cursor cursor = getContentResolver().query(Observation.CONTENT_URI, Observation.PROJECTION,
-                conditions, null, Observation.DEFAULT_SORT_ORDER);
 
         final EditText autoCompView = (EditText) customView.findViewById(R.id.search_text);
         
@@ -139,6 +119,8 @@ public class ObservationSearchActivity extends AppCompatActivity implements Adap
             @Override
             public void onTextChanged(final CharSequence s, int start, int before, int count) {
                 if (s.length() == 0) {
+                    mCurrentSearchString = "";
+                    if (mOnlineSearchClient != null) mOnlineSearchClient.cancel();
                     getListView().setVisibility(View.GONE);
                     mProgress.setVisibility(View.GONE);
                     return;
@@ -146,19 +128,26 @@ public class ObservationSearchActivity extends AppCompatActivity implements Adap
                     getListView().setVisibility(View.VISIBLE);
                 }
 
-                if (!isNetworkAvailable() || !mApp.loggedIn()) {
-                    // Offline search (no network or user not logged-in)
-                    if ((mObservationsAdapter == null) || !(mObservationsAdapter instanceof ObservationCursorAdapter)) {
-                        mObservationsAdapter = new ObservationCursorAdapter(ObservationSearchActivity.this, cursor);
-                        setListAdapter(mObservationsAdapter);
-                    }
-
-                    ((ObservationCursorAdapter)mObservationsAdapter).refreshCursor(s.toString().trim());
-
-                } else {
-                    // Online search
-                    performOnlineSearch(s.toString());
+                // Search the locally-saved observations first (instant, and works offline)
+                mCurrentSearchString = s.toString();
+                mProgress.setVisibility(View.GONE);
+                if (mLocalObservationsAdapter == null) {
+                    mLocalObservationsAdapter = new ObservationCursorAdapter(ObservationSearchActivity.this);
+                    mLocalObservationsAdapter.setOnCursorLoadedListener(new ObservationCursorAdapter.OnCursorLoadedListener() {
+                        @Override
+                        public void onCursorLoaded(ObservationCursorAdapter adapter) {
+                            onLocalResultsLoaded();
+                        }
+                    });
                 }
+                if (mObservationsAdapter != mLocalObservationsAdapter) {
+                    // (The same adapter is reused, since it owns the loader)
+                    mObservationsAdapter = mLocalObservationsAdapter;
+                    setListAdapter(mObservationsAdapter);
+                }
+
+                // (Results are loaded in the background - see onLocalResultsLoaded)
+                mLocalObservationsAdapter.refreshCursor(s.toString().trim());
             }
             @Override
             public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
@@ -179,17 +168,45 @@ public class ObservationSearchActivity extends AppCompatActivity implements Adap
         getListView().setOnItemClickListener(this);
     }
 
-    private void performOnlineSearch(final String query) {
-        if (mProgress.getVisibility() == View.GONE) {
-            mProgress.setVisibility(View.VISIBLE);
-            mListView.setVisibility(View.GONE);
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mOnlineSearchClient != null) mOnlineSearchClient.release();
+    }
+
+    private void onLocalResultsLoaded() {
+        if (mCurrentSearchString.length() == 0) return;
+
+        if ((mLocalObservationsAdapter.getCount() == 0) && isNetworkAvailable() && (mOnlineSearchClient != null)) {
+            // No local results - the observation might not be saved locally (e.g. an older observation), so
+            // fall back to searching online
+            performOnlineSearch(mCurrentSearchString);
+        } else if (mOnlineSearchClient != null) {
+            // Local results were found - don't let a previous online search replace them
+            mOnlineSearchClient.cancel();
         }
+    }
 
-        mCurrentSearchString = query;
+    private void performOnlineSearch(String query) {
+        mOnlineSearchClient.search(query, new AutocompleteClient.Callback() {
+            @Override
+            public void onResults(String query, List<JSONObject> results) {
+                mObservationsAdapter = new UserObservationAdapter(ObservationSearchActivity.this, new ArrayList<JSONObject>(results));
+                setListAdapter(mObservationsAdapter);
+                mListView.setVisibility(View.VISIBLE);
+            }
 
-        Intent serviceIntent = new Intent(INaturalistService.ACTION_SEARCH_USER_OBSERVATIONS, null, this, INaturalistService.class);
-        serviceIntent.putExtra(INaturalistService.QUERY, query);
-        startService(serviceIntent);
+            @Override
+            public void onLoading(boolean isLoading) {
+                if (isLoading) {
+                    mProgress.setVisibility(View.VISIBLE);
+                    mListView.setVisibility(View.GONE);
+                } else {
+                    mProgress.setVisibility(View.GONE);
+                    mListView.setVisibility(View.VISIBLE);
+                }
+            }
+        });
     }
 
     public void onItemClick(AdapterView<?> adapterView, View v, int position, long id) {
@@ -308,47 +325,4 @@ public class ObservationSearchActivity extends AppCompatActivity implements Adap
     }
 
 
-    private class SearchResultsReceiver extends BroadcastReceiver {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            Bundle extras = intent.getExtras();
-            boolean isSharedOnApp = intent.getBooleanExtra(INaturalistService.IS_SHARED_ON_APP, false);
-
-            SerializableJSONArray resultsObject;
-            if (isSharedOnApp) {
-                resultsObject = (SerializableJSONArray) mApp.getServiceResult(INaturalistService.USER_SEARCH_OBSERVATIONS_RESULT);
-            } else {
-                resultsObject = (SerializableJSONArray) intent.getSerializableExtra(INaturalistService.USER_SEARCH_OBSERVATIONS_RESULT);
-            }
-
-            String query = intent.getStringExtra(INaturalistService.QUERY);
-
-            if (!mCurrentSearchString.equals(query)) {
-                // While the search was running, the user entered new characters into the search bar - these
-                // will be old results for the previous search string - don't return these
-                return;
-            }
-
-            List<JSONObject> results = new ArrayList<>();
-            if (resultsObject != null) {
-                JSONArray jsonArray = resultsObject.getJSONArray();
-
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    results.add(jsonArray.optJSONObject(i));
-                }
-            }
-
-            mObservationsAdapter = new UserObservationAdapter(ObservationSearchActivity.this, results);
-
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    setListAdapter(mObservationsAdapter);
-                    mProgress.setVisibility(View.GONE);
-                    mListView.setVisibility(View.VISIBLE);
-                }
-            });
-
-        }
-    }
 }
@@ -0,0 +1,122 @@
+package org.inaturalist.android;
+
+import android.database.DatabaseUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Full-text search index over the local observations (species guess, common name, description and place),
+ * used for searching the user's observations without going to the server.
+ *
+ * The index is an FTS3 virtual table (whose docid is the observation's _id), kept in sync with the
+ * observations table by triggers - so it's always up to date, no matter how the observations are changed.
+ */
+public class ObservationSearchIndex {
+    public static final String TABLE_NAME = "observations_fts";
+
+    // Indexed observation columns
+    private static final String[] COLUMNS = new String[] {
+            Observation.SPECIES_GUESS,
+            Observation.PREFERRED_COMMON_NAME,
+            Observation.DESCRIPTION,
+            Observation.PLACE_GUESS
+    };
+
+    /**
+     * Returns the SQL statements that create the index table and its triggers
+     */
+    public static String[] sqlCreate() {
+        String columns = join(COLUMNS, "", ", ");
+        String newValues = join(COLUMNS, "new.", ", ");
+
+        return new String[] {
+                "CREATE VIRTUAL TABLE " + TABLE_NAME + " USING fts3(" + columns + ");",
+
+                "CREATE TRIGGER " + TABLE_NAME + "_insert AFTER INSERT ON " + Observation.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + TABLE_NAME + " WHERE docid = new._id; " +
+                    "INSERT INTO " + TABLE_NAME + " (docid, " + columns + ") VALUES (new._id, " + newValues + "); " +
+                "END;",
+
+                // Only when one of the indexed columns changes (most updates are of sync-related columns)
+                "CREATE TRIGGER " + TABLE_NAME + "_update AFTER UPDATE OF " + columns + " ON " + Observation.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + TABLE_NAME + " WHERE docid = old._id; " +
+                    "INSERT INTO " + TABLE_NAME + " (docid, " + columns + ") VALUES (new._id, " + newValues + "); " +
+                "END;",
+
+                "CREATE TRIGGER " + TABLE_NAME + "_delete AFTER DELETE ON " + Observation.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + TABLE_NAME + " WHERE docid = old._id; " +
+                "END;"
+        };
+    }
+
+    /**
+     * Returns the SQL statement that indexes all existing observations (when the index is first created)
+     */
+    public static String sqlPopulate() {
+        String columns = join(COLUMNS, "", ", ");
+        return "INSERT INTO " + TABLE_NAME + " (docid, " + columns + ") SELECT _id, " + columns + " FROM " + Observation.TABLE_NAME + ";";
+    }
+
+    /**
+     * Returns the FTS query for the text the user entered: every word must match (as a prefix of a word in any
+     * of the indexed columns), e.g. "red ma" matches "Red Maple". Returns null if there are no words to search for.
+     */
+    public static String getMatchQuery(String text) {
+        if (text == null) return null;
+
+        List<String> terms = new ArrayList<String>();
+        // Anything that isn't a letter or a digit separates words (this also removes the FTS query operators)
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() == 0) continue;
+            // FTS3 treats these as operators (only when in upper case)
+            if (word.equals("OR") || word.equals("AND") || word.equals("NOT") || word.equals("NEAR")) word = word.toLowerCase();
+            terms.add(word + "*");
+        }
+
+        if (terms.isEmpty()) return null;
+
+        StringBuilder query = new StringBuilder();
+        for (String term : terms) {
+            if (query.length() > 0) query.append(' ');
+            query.append(term);
+        }
+        return query.toString();
+    }
+
+    /**
+     * Returns a selection (for the observations table) of the observations matching an FTS query
+     */
+    public static String getSelection(String matchQuery) {
+        return "(_id IN (SELECT docid FROM " + TABLE_NAME + " WHERE " + TABLE_NAME + " MATCH " +
+                DatabaseUtils.sqlEscapeString(matchQuery) + "))";
+    }
+
+    /**
+     * Returns a sort order that ranks the matching observations: observations whose name (species guess or
+     * common name) starts with the text come first, then ones whose name contains it, and then the rest (matched
+     * by description or place) - each group ordered by the default sort order.
+     */
+    public static String getRankedSortOrder(String text) {
+        String prefix = DatabaseUtils.sqlEscapeString(escapeLike(text) + "%");
+        String contains = DatabaseUtils.sqlEscapeString("%" + escapeLike(text) + "%");
+
+        return "CASE" +
+                " WHEN (species_guess LIKE " + prefix + " ESCAPE '\\') OR (preferred_common_name LIKE " + prefix + " ESCAPE '\\') THEN 0" +
+                " WHEN (species_guess LIKE " + contains + " ESCAPE '\\') OR (preferred_common_name LIKE " + contains + " ESCAPE '\\') THEN 1" +
+                " ELSE 2 END, " + Observation.DEFAULT_SORT_ORDER;
+    }
+
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static String join(String[] columns, String prefix, String separator) {
+        StringBuilder builder = new StringBuilder();
+        for (String column : columns) {
+            if (builder.length() > 0) builder.append(separator);
+            builder.append(prefix).append(column);
+        }
+        return builder.toString();
+    }
+}
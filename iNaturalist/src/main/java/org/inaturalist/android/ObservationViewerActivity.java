@@ -11,7 +11,6 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Typeface;
@@ -292,24 +291,7 @@ public class ObservationViewerActivity extends AppCompatActivity {
                 UrlImageViewHelper.setUrlDrawable(imageView, imageUrl);
             } else {
                 // Offline photo
-                int newHeight = mPhotosViewPager.getMeasuredHeight();
-                int newWidth = mPhotosViewPager.getMeasuredWidth();
-                Bitmap bitmapImage = null;
-
-                try {
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    options.inSampleSize = ImageUtils.calculateInSampleSize(options, newWidth, newHeight);
-
-                    // Decode bitmap with inSampleSize set
-                    options.inJustDecodeBounds = false;
-                    // This decreases in-memory byte-storage per pixel
-                    options.inPreferredConfig = Bitmap.Config.ALPHA_8;
-                    bitmapImage = BitmapFactory.decodeFile(photoFilename, options);
-                    bitmapImage = ImageUtils.rotateAccordingToOrientation(bitmapImage, photoFilename);
-                    imageView.setImageBitmap(bitmapImage);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                LocalThumbnailCache.getInstance(ObservationViewerActivity.this).load(imageView, photoFilename, LocalThumbnailCache.PREVIEW, null);
             }
 
             imageView.setOnClickListener(new OnClickListener() {
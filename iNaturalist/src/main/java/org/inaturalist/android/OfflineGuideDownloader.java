@@ -0,0 +1,581 @@
+package org.inaturalist.android;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Downloads an offline guide's NGZ file and extracts it while it is still downloading.
+ *
+ * The NGZ file is appended to a partial file, which the extraction thread reads (and waits on) as it grows.
+ * If the connection drops, the download is resumed from the end of the partial file (using an HTTP Range
+ * request) - both within the same run (after a backoff delay) and in the next run (e.g. after the app was
+ * killed). The guide is extracted into a staging directory, and is only moved into place once the entire
+ * NGZ file was downloaded and extracted successfully.
+ */
+public class OfflineGuideDownloader {
+    private static final String TAG = "OfflineGuideDownloader";
+
+    // Where partially downloaded/extracted guides are kept (not in the offline guides directory, so they won't be listed)
+    private static final String STAGING_PATH = "/offline_guides_staging/";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long INITIAL_BACKOFF_MS = 2000;
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    // Minimal interval between progress callbacks
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    // Image entries up to this size are written to disk by the writer threads (the rest are written inline)
+    private static final int WRITER_THREADS = 3;
+    private static final int MAX_PARALLEL_ENTRY_SIZE = 2 * 1024 * 1024;
+    // Max size of image entries that were read but not yet written
+    private static final int MAX_PENDING_BYTES = 8 * 1024 * 1024;
+
+    // Allowed difference between the downloaded size and the size the guide states (which is rounded, e.g. "1.71 MB")
+    private static final double SIZE_TOLERANCE = 0.01;
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+    private static final Pattern SIZE_PATTERN = Pattern.compile("([0-9]+(?:\\.[0-9]+)?)\\s*(bytes|b|kb|mb|gb)", Pattern.CASE_INSENSITIVE);
+
+    private final GuideXML mGuide;
+    private final File mPartFile;
+    // The ETag/Last-Modified value of the partial file (so we won't resume a file that was changed on the server)
+    private final File mValidatorFile;
+    private final File mStagingDir;
+
+    public OfflineGuideDownloader(Context context, GuideXML guide) {
+        mGuide = guide;
+
+        File stagingRoot = new File(context.getExternalCacheDir() + STAGING_PATH);
+        mPartFile = new File(stagingRoot, guide.getID() + ".ngz.part");
+        mValidatorFile = new File(stagingRoot, guide.getID() + ".ngz.validator");
+        mStagingDir = new File(stagingRoot, guide.getID());
+    }
+
+    /**
+     * Downloads and extracts the guide (blocks until done)
+     * @param callback receives the download progress (called from the downloading thread)
+     * @return true if the guide was downloaded and extracted successfully
+     */
+    public boolean download(INaturalistApp.OnDownloadFileProgress callback) {
+        long startTime = System.currentTimeMillis();
+        mStagingDir.getParentFile().mkdirs();
+        GuideXML.deleteFiles(mStagingDir.getPath());
+
+        long expectedSize = parseSize(mGuide.getNgzFileSize());
+        Extraction extraction = null;
+        boolean downloaded = false;
+        long backoff = INITIAL_BACKOFF_MS;
+
+        for (int attempt = 0; (attempt < MAX_ATTEMPTS) && (!downloaded); attempt++) {
+            if (attempt > 0) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+
+            HttpURLConnection connection = null;
+            try {
+                long offset = mPartFile.length();
+                connection = openConnection(offset);
+                int responseCode = connection.getResponseCode();
+                long total;
+
+                if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                    total = getContentRangeTotal(connection, offset);
+                    Log.d(TAG, String.format("Resuming download of guide %s at %d/%d", mGuide.getID(), offset, total));
+                } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                    // Either a new download, or the server ignored the Range request/the file has changed - start over
+                    if (extraction != null) {
+                        extraction.abort();
+                        extraction = null;
+                    }
+                    offset = 0;
+                    new FileOutputStream(mPartFile).close();
+                    saveValidator(connection);
+                    total = parseLong(connection.getHeaderField("Content-Length"));
+                } else if ((responseCode == 416) && (offset > 0)) {
+                    // Range not satisfiable - partial file is invalid, start over on the next attempt
+                    discardPartialFile();
+                    throw new IOException("Range not satisfiable: " + offset);
+                } else {
+                    throw new IOException("Unexpected response code: " + responseCode);
+                }
+
+                if ((total > 0) && (!isExpectedSize(total, expectedSize))) {
+                    // Probably not the guide (e.g. a Wi-Fi login page) - no point in retrying
+                    Log.e(TAG, String.format("Guide %s size is %d, expected %s", mGuide.getID(), total, mGuide.getNgzFileSize()));
+                    discardPartialFile();
+                    break;
+                }
+                if (total <= 0) total = expectedSize;
+
+                if (extraction == null) {
+                    extraction = new Extraction();
+                    extraction.start();
+                }
+
+                downloaded = copy(connection.getInputStream(), offset, total, extraction, callback);
+            } catch (IOException e) {
+                Log.w(TAG, String.format("Failed downloading guide %s (attempt %d)", mGuide.getID(), attempt + 1), e);
+                // No point in retrying a corrupt NGZ file
+                if ((extraction != null) && (extraction.isFailed())) break;
+            } finally {
+                if (connection != null) connection.disconnect();
+            }
+        }
+
+        if (!downloaded) {
+            if (extraction != null) {
+                extraction.abort();
+                if (extraction.isFailed()) discardPartialFile();
+            }
+            // Otherwise, keep the partial file so the next download will resume from it
+            GuideXML.deleteFiles(mStagingDir.getPath());
+            return false;
+        }
+
+        extraction.complete();
+        long size = mPartFile.length();
+        if ((!extraction.await()) || (!isExpectedSize(size, expectedSize))) {
+            // Corrupt NGZ file - start over next time
+            Log.e(TAG, String.format("Failed extracting guide %s (%d bytes, expected %s)", mGuide.getID(), size, mGuide.getNgzFileSize()));
+            discardPartialFile();
+            GuideXML.deleteFiles(mStagingDir.getPath());
+            return false;
+        }
+
+        // Move the extracted guide into place
+        mGuide.deleteOfflineGuide();
+        File guideDir = new File(mGuide.getOfflineGuidePath());
+        guideDir.getParentFile().mkdirs();
+        if (!mStagingDir.renameTo(guideDir)) {
+            Log.e(TAG, "Failed to move " + mStagingDir + " to " + guideDir);
+            GuideXML.deleteFiles(mStagingDir.getPath());
+            return false;
+        }
+        discardPartialFile();
+
+        // Compile the guide snapshot now, so the guide will open quickly the first time
+        GuideSnapshot.open(mGuide.getOfflineGuideXmlFilePath());
+
+        Log.d(TAG, String.format("Downloaded and extracted guide %s (%d bytes) in %d ms", mGuide.getID(), size, System.currentTimeMillis() - startTime));
+
+        return true;
+    }
+
+    private void discardPartialFile() {
+        mPartFile.delete();
+        mValidatorFile.delete();
+    }
+
+    private HttpURLConnection openConnection(long offset) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mGuide.getNgzURL()).openConnection();
+        connection.setConnectTimeout(HttpTransport.CONNECTION_TIMEOUT_MS);
+        connection.setReadTimeout(HttpTransport.SOCKET_TIMEOUT_MS);
+        // Byte offsets must match the file itself
+        connection.setRequestProperty("Accept-Encoding", "identity");
+
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            String validator = loadValidator();
+            if (validator != null) {
+                // Server will return the entire file if it has changed since
+                connection.setRequestProperty("If-Range", validator);
+            }
+        }
+
+        return connection;
+    }
+
+    // Appends the response to the partial file, letting the extraction know about every chunk written
+    private boolean copy(InputStream input, long offset, long total, Extraction extraction,
+                         INaturalistApp.OnDownloadFileProgress callback) throws IOException {
+        FileOutputStream output = new FileOutputStream(mPartFile, true);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long position = offset;
+        long lastProgressTime = 0;
+        int count;
+
+        try {
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+                position += count;
+                extraction.append(position);
+
+                if (extraction.isFailed()) {
+                    throw new IOException("Extraction failed");
+                }
+
+                long now = System.currentTimeMillis();
+                if ((callback != null) && (now - lastProgressTime >= PROGRESS_INTERVAL_MS) && (position < total)) {
+                    lastProgressTime = now;
+                    callback.onDownloadProgress(position, total);
+                }
+            }
+        } finally {
+            output.close();
+            input.close();
+        }
+
+        if ((total > 0) && (position != total)) {
+            throw new IOException(String.format("Download ended at %d/%d", position, total));
+        }
+
+        if (callback != null) callback.onDownloadProgress(position, position);
+
+        return true;
+    }
+
+    private void saveValidator(HttpURLConnection connection) {
+        String validator = connection.getHeaderField("ETag");
+        if (validator == null) validator = connection.getHeaderField("Last-Modified");
+
+        mValidatorFile.delete();
+        if (validator == null) return;
+
+        try {
+            FileWriter writer = new FileWriter(mValidatorFile);
+            writer.write(validator);
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private String loadValidator() {
+        if (!mValidatorFile.exists()) return null;
+
+        try {
+            FileInputStream input = new FileInputStream(mValidatorFile);
+            byte[] data = new byte[(int) mValidatorFile.length()];
+            int read = 0;
+            while (read < data.length) {
+                int count = input.read(data, read, data.length - read);
+                if (count == -1) break;
+                read += count;
+            }
+            input.close();
+            return new String(data, 0, read, "UTF-8");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Parses the total length out of a "Content-Range: bytes 1000-1999/2000" header
+    private long getContentRangeTotal(HttpURLConnection connection, long offset) throws IOException {
+        String range = connection.getHeaderField("Content-Range");
+        Matcher matcher = range != null ? CONTENT_RANGE_PATTERN.matcher(range) : null;
+        if ((matcher == null) || (!matcher.find()) || (Long.parseLong(matcher.group(1)) != offset)) {
+            discardPartialFile();
+            throw new IOException("Unexpected Content-Range: " + range);
+        }
+
+        return matcher.group(3).equals("*") ? -1 : Long.parseLong(matcher.group(3));
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses a human readable file size (e.g. "1.71 MB")
+     * @return the size in bytes (or -1 if it couldn't be parsed)
+     */
+    static long parseSize(String size) {
+        if (size == null) return -1;
+        Matcher matcher = SIZE_PATTERN.matcher(size);
+        if (!matcher.find()) return -1;
+
+        double value = Double.parseDouble(matcher.group(1));
+        String unit = matcher.group(2).toLowerCase();
+        int exponent = unit.equals("kb") ? 1 : unit.equals("mb") ? 2 : unit.equals("gb") ? 3 : 0;
+
+        return (long) (value * Math.pow(1024, exponent));
+    }
+
+    // Whether or not the actual size matches the (rounded) size stated by the guide - either in 1024 or 1000 based units
+    static boolean isExpectedSize(long actual, long expected) {
+        if (expected <= 0) return true;
+        if (Math.abs(actual - expected) <= expected * SIZE_TOLERANCE) return true;
+
+        // Expected size was calculated using 1024 based units - try 1000 based units as well
+        for (int exponent = 1; exponent <= 3; exponent++) {
+            double decimal = expected * Math.pow(1000.0 / 1024.0, exponent);
+            if (Math.abs(actual - decimal) <= decimal * SIZE_TOLERANCE) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the partial NGZ file as it is being downloaded - blocks when reaching the end of the data
+     * downloaded so far, until more data is appended (or the download is complete).
+     */
+    private static class TailInputStream extends InputStream {
+        private final RandomAccessFile mFile;
+        private long mPosition = 0;
+        private long mLength;
+        private boolean mComplete = false;
+        private boolean mAborted = false;
+
+        public TailInputStream(File file) throws IOException {
+            mFile = new RandomAccessFile(file, "r");
+            mLength = file.length();
+        }
+
+        public synchronized void append(long length) {
+            mLength = length;
+            notifyAll();
+        }
+
+        public synchronized void complete() {
+            mComplete = true;
+            notifyAll();
+        }
+
+        public synchronized void abort() {
+            mAborted = true;
+            notifyAll();
+        }
+
+        public synchronized boolean isAborted() {
+            return mAborted;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] data = new byte[1];
+            return read(data, 0, 1) == -1 ? -1 : data[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long length;
+            synchronized (this) {
+                while ((mPosition >= mLength) && (!mComplete) && (!mAborted)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (mAborted) throw new IOException("Download aborted");
+                if (mPosition >= mLength) return -1;
+                length = mLength;
+            }
+
+            int read = mFile.read(buffer, offset, (int) Math.min(count, length - mPosition));
+            if (read > 0) mPosition += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mFile.close();
+        }
+    }
+
+    /**
+     * Extracts the NGZ file into the staging directory, on its own thread. Entries are read sequentially,
+     * but image entries are written to disk by a small pool of writer threads.
+     */
+    private class Extraction implements Runnable {
+        private final TailInputStream mInput;
+        private final Thread mThread;
+        private final ExecutorService mWriters = Executors.newFixedThreadPool(WRITER_THREADS);
+        private final Semaphore mPendingBytes = new Semaphore(MAX_PENDING_BYTES);
+        private volatile boolean mFailed = false;
+        private boolean mSuccess = false;
+
+        public Extraction() throws IOException {
+            mInput = new TailInputStream(mPartFile);
+            mThread = new Thread(this, "OfflineGuideExtraction");
+        }
+
+        public void start() {
+            mThread.start();
+        }
+
+        public void append(long length) {
+            mInput.append(length);
+        }
+
+        public void complete() {
+            mInput.complete();
+        }
+
+        public boolean isFailed() {
+            return mFailed;
+        }
+
+        // Stops the extraction (and waits for it to stop)
+        public void abort() {
+            mInput.abort();
+            await();
+        }
+
+        // Waits for the extraction to finish
+        public boolean await() {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return mSuccess;
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.currentTimeMillis();
+            int entries = 0;
+
+            try {
+                // ZipInputStream verifies the CRC and size of every entry
+                ZipInputStream zis = new ZipInputStream(new BufferedInputStream(mInput, BUFFER_SIZE));
+                byte[] buffer = new byte[BUFFER_SIZE];
+                ZipEntry entry;
+
+                try {
+                    while ((entry = zis.getNextEntry()) != null) {
+                        File file = getEntryFile(entry.getName());
+                        entries++;
+
+                        if (entry.isDirectory()) {
+                            file.mkdirs();
+                            continue;
+                        }
+
+                        file.getParentFile().mkdirs();
+
+                        if (isImage(entry.getName())) {
+                            extractImage(zis, file, buffer);
+                        } else {
+                            writeEntry(zis, file, null, buffer);
+                        }
+
+                        zis.closeEntry();
+                        if (mFailed) throw new IOException("Failed writing guide file");
+                    }
+                } finally {
+                    zis.close();
+                }
+
+                mWriters.shutdown();
+                mWriters.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+                mSuccess = !mFailed;
+            } catch (IOException e) {
+                if (!mInput.isAborted()) {
+                    Log.e(TAG, "Failed extracting guide " + mGuide.getID(), e);
+                    mFailed = true;
+                }
+            } catch (InterruptedException e) {
+                mFailed = true;
+            } finally {
+                mWriters.shutdownNow();
+            }
+
+            Log.d(TAG, String.format("Extracted %d entries of guide %s in %d ms (success: %b)", entries, mGuide.getID(),
+                    System.currentTimeMillis() - startTime, mSuccess));
+        }
+
+        // Reads the image into memory and hands it off to a writer thread (larger images are written inline)
+        private void extractImage(ZipInputStream zis, final File file, byte[] buffer) throws IOException, InterruptedException {
+            ByteArrayOutputStream data = new ByteArrayOutputStream(BUFFER_SIZE);
+            int count;
+
+            while ((count = zis.read(buffer)) != -1) {
+                data.write(buffer, 0, count);
+                if (data.size() > MAX_PARALLEL_ENTRY_SIZE) {
+                    writeEntry(zis, file, data, buffer);
+                    return;
+                }
+            }
+
+            final byte[] bytes = data.toByteArray();
+            mPendingBytes.acquire(bytes.length);
+            mWriters.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        FileOutputStream output = new FileOutputStream(file);
+                        try {
+                            output.write(bytes);
+                        } finally {
+                            output.close();
+                        }
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed writing " + file, e);
+                        mFailed = true;
+                    } finally {
+                        mPendingBytes.release(bytes.length);
+                    }
+                }
+            });
+        }
+
+        // Writes the (rest of the) entry to the file, after any data that was already read
+        private void writeEntry(ZipInputStream zis, File file, ByteArrayOutputStream head, byte[] buffer) throws IOException {
+            FileOutputStream output = new FileOutputStream(file);
+            int count;
+
+            try {
+                if (head != null) head.writeTo(output);
+                while ((count = zis.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                }
+            } finally {
+                output.close();
+            }
+        }
+
+        // Makes sure the entry doesn't point outside of the guide directory (e.g. "../../file")
+        private File getEntryFile(String name) throws IOException {
+            File file = new File(mStagingDir, name);
+            String base = mStagingDir.getCanonicalPath() + File.separator;
+            if (!file.getCanonicalPath().startsWith(base)) {
+                throw new IOException("Invalid guide file entry: " + name);
+            }
+            return file;
+        }
+
+        private boolean isImage(String name) {
+            String lowercaseName = name.toLowerCase();
+            return lowercaseName.endsWith(".jpg") || lowercaseName.endsWith(".jpeg") || lowercaseName.endsWith(".png") || lowercaseName.endsWith(".gif");
+        }
+    }
+}
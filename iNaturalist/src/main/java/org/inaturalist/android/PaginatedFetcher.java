@@ -0,0 +1,157 @@
+package org.inaturalist.android;
+
+import android.util.Log;
+
+import org.inaturalist.android.INaturalistService.AuthenticationException;
+import org.json.JSONArray;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Retrieves all pages of a paginated API call.
+ *
+ * The first page is fetched on its own, to learn the total number of results (from the response headers or
+ * body). The remaining pages are then fetched concurrently, with at most a fixed number of requests in flight,
+ * and passed on to the consumer in page order, one page at a time (so the results are never copied into one
+ * large array, unless the consumer chooses to do so).
+ *
+ * If the total isn't known, pages are fetched speculatively (a window ahead) until a short or empty page is returned.
+ */
+public class PaginatedFetcher {
+    private static final String TAG = "PaginatedFetcher";
+
+    /**
+     * A single page of results
+     */
+    public static class Page {
+        private final JSONArray mResults;
+        private final int mTotalResults;
+
+        /**
+         * @param results the results of the page
+         * @param totalResults total number of results (of all pages), or -1 if unknown
+         */
+        public Page(JSONArray results, int totalResults) {
+            mResults = results;
+            mTotalResults = totalResults;
+        }
+
+        public JSONArray getResults() {
+            return mResults;
+        }
+
+        public int getTotalResults() {
+            return mTotalResults;
+        }
+    }
+
+    public interface PageSource {
+        // Fetches a single page (1-based) - returns null in case of an error. Called from several threads at once.
+        Page fetchPage(int page) throws AuthenticationException;
+    }
+
+    public interface PageConsumer {
+        // Called in page order, from the thread that called fetchAll
+        void onPage(int page, JSONArray results);
+    }
+
+    private final int mPerPage;
+    private final int mMaxConcurrentRequests;
+
+    /**
+     * @param perPage the page size requested by the page source (a shorter page is considered the last one)
+     * @param maxConcurrentRequests max number of pages to fetch at the same time
+     */
+    public PaginatedFetcher(int perPage, int maxConcurrentRequests) {
+        mPerPage = perPage;
+        mMaxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * Fetches all pages and passes them to the consumer
+     * @return true if all pages were fetched, false if any page failed (the pages before it were still consumed)
+     */
+    public boolean fetchAll(final PageSource source, PageConsumer consumer) throws AuthenticationException {
+        long startTime = System.currentTimeMillis();
+
+        Page first = source.fetchPage(1);
+        if ((first == null) || (first.getResults() == null)) return false;
+        if (first.getResults().length() > 0) consumer.onPage(1, first.getResults());
+
+        int lastPage;
+        if (first.getTotalResults() >= 0) {
+            lastPage = Math.max(1, (first.getTotalResults() + mPerPage - 1) / mPerPage);
+        } else {
+            // Unknown total - keep going until a short page
+            lastPage = first.getResults().length() < mPerPage ? 1 : Integer.MAX_VALUE;
+        }
+
+        if (lastPage == 1) return true;
+
+        ExecutorService executor = Executors.newFixedThreadPool(mMaxConcurrentRequests);
+        LinkedList<Future<Page>> window = new LinkedList<Future<Page>>();
+        int nextPage = 2;
+        int pages = 1;
+        boolean success = true;
+
+        try {
+            for (int page = 2; page <= lastPage; page++) {
+                // Keep the window full
+                while ((window.size() < mMaxConcurrentRequests) && (nextPage <= lastPage)) {
+                    final int pageToFetch = nextPage++;
+                    window.add(executor.submit(new Callable<Page>() {
+                        @Override
+                        public Page call() throws Exception {
+                            return source.fetchPage(pageToFetch);
+                        }
+                    }));
+                }
+
+                Page current = getPage(window.removeFirst());
+                if ((current == null) || (current.getResults() == null)) {
+                    Log.e(TAG, "Failed fetching page " + page);
+                    success = false;
+                    break;
+                }
+
+                JSONArray results = current.getResults();
+                if (results.length() == 0) break;
+
+                consumer.onPage(page, results);
+                pages++;
+
+                if (results.length() < mPerPage) break;
+            }
+        } finally {
+            // Any pages still in flight (e.g. speculatively fetched ones past the last page) are not needed
+            for (Future<Page> future : window) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+        }
+
+        Log.d(TAG, String.format("Fetched %d pages in %d ms (success: %b)", pages, System.currentTimeMillis() - startTime, success));
+
+        return success;
+    }
+
+    private static Page getPage(Future<Page> future) throws AuthenticationException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AuthenticationException) {
+                throw (AuthenticationException) e.getCause();
+            }
+            Log.e(TAG, "Page request failed: " + e.getCause());
+            return null;
+        }
+    }
+}
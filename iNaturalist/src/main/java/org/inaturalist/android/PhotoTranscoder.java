@@ -0,0 +1,215 @@
+package org.inaturalist.android;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Prepares observation photos for upload - downscales and re-encodes them as a size-capped JPEG (keeping
+ * the original EXIF location/date tags). Results are cached, so a retried upload won't re-encode the photo.
+ */
+public class PhotoTranscoder {
+    private static final String TAG = "PhotoTranscoder";
+
+    // Settings keys (see SettingsFragment)
+    public static final String PREF_MAX_EDGE = "upload_photo_max_edge";
+    public static final String PREF_QUALITY = "upload_photo_quality";
+
+    public static final int DEFAULT_MAX_EDGE = 2048;
+    public static final int DEFAULT_QUALITY = 85;
+    // Max edge value that means "upload the original photo"
+    public static final int ORIGINAL_SIZE = 0;
+
+    private static final String CACHE_DIR = "upload_photos";
+    // Cached photos that weren't uploaded for a while are deleted
+    private static final long MAX_CACHE_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+
+    // EXIF tags copied from the original photo
+    private static final String[] EXIF_TAGS = {
+            ExifInterface.TAG_DATETIME,
+            "DateTimeOriginal" /* ExifInterface.TAG_DATETIME_ORIGINAL - supported from API v24 only */,
+            "DateTimeDigitized" /* ExifInterface.TAG_DATETIME_DIGITIZED - supported from API v23 only */,
+            ExifInterface.TAG_GPS_LATITUDE,
+            ExifInterface.TAG_GPS_LATITUDE_REF,
+            ExifInterface.TAG_GPS_LONGITUDE,
+            ExifInterface.TAG_GPS_LONGITUDE_REF,
+            ExifInterface.TAG_GPS_ALTITUDE,
+            ExifInterface.TAG_GPS_ALTITUDE_REF,
+            ExifInterface.TAG_GPS_TIMESTAMP,
+            ExifInterface.TAG_GPS_DATESTAMP,
+            ExifInterface.TAG_GPS_PROCESSING_METHOD,
+            ExifInterface.TAG_MAKE,
+            ExifInterface.TAG_MODEL,
+    };
+
+    // Decoding full-size photos is memory intensive - only transcode one photo at a time
+    private static final Object sLock = new Object();
+
+    private final Context mContext;
+    private final int mMaxEdge;
+    private final int mQuality;
+
+    public PhotoTranscoder(Context context, int maxEdge, int quality) {
+        mContext = context;
+        mMaxEdge = maxEdge;
+        mQuality = Math.max(1, Math.min(100, quality));
+    }
+
+    // Returns the file to upload for the specified photo - either a (cached) transcoded version of it,
+    // or the original file itself (if it's small enough, or in case of an error)
+    public String getUploadFile(String filename) {
+        if ((filename == null) || (mMaxEdge == ORIGINAL_SIZE)) return filename;
+
+        File original = new File(filename);
+        if (!original.exists()) return filename;
+
+        File cacheDir = getCacheDir();
+        File output = new File(cacheDir, getCacheKey(original) + ".jpeg");
+        if (output.exists() && (output.length() > 0)) {
+            // Already transcoded (e.g. a retried upload)
+            return output.getAbsolutePath();
+        }
+
+        synchronized (sLock) {
+            // Check if it's already small enough (no need to re-encode in that case)
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(filename, options);
+            if ((options.outWidth <= 0) || (options.outHeight <= 0)) {
+                // Not a valid image - let the server decide what to do with it
+                return filename;
+            }
+            if ((Math.max(options.outWidth, options.outHeight) <= mMaxEdge) && ("image/jpeg".equals(options.outMimeType))) {
+                return filename;
+            }
+
+            long startTime = System.currentTimeMillis();
+            if (!transcode(filename, output)) {
+                output.delete();
+                return filename;
+            }
+
+            Log.d(TAG, String.format("Transcoded %s (%d bytes) to %d bytes in %d ms", filename, original.length(),
+                    output.length(), System.currentTimeMillis() - startTime));
+        }
+
+        return output.getAbsolutePath();
+    }
+
+    // Deletes the transcoded version of a photo (e.g. after it was uploaded successfully)
+    public void deleteUploadFile(String filename, String uploadFilename) {
+        if ((uploadFilename == null) || (uploadFilename.equals(filename))) return;
+        new File(uploadFilename).delete();
+    }
+
+    // Deletes old transcoded photos
+    public void trimCache() {
+        File[] files = getCacheDir().listFiles();
+        if (files == null) return;
+
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (now - file.lastModified() > MAX_CACHE_AGE_MS) {
+                file.delete();
+            }
+        }
+    }
+
+    private boolean transcode(String filename, File output) {
+        Bitmap bitmap = ImageUtils.decodeSampledBitmapFromFile(filename, mMaxEdge);
+        if (bitmap == null) return false;
+
+        try {
+            // Scale down to the exact max edge size
+            int largestEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+            if (largestEdge > mMaxEdge) {
+                float scale = (float) mMaxEdge / largestEdge;
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale), Math.round(bitmap.getHeight() * scale), true);
+                if (scaled != bitmap) bitmap.recycle();
+                bitmap = scaled;
+            }
+
+            // The pixels themselves are rotated (so the EXIF orientation tag is written as "normal")
+            Bitmap rotated = ImageUtils.rotateAccordingToOrientation(bitmap, filename);
+            if (rotated != bitmap) bitmap.recycle();
+            bitmap = rotated;
+
+            // Write to a temp file first, so a partially-written file will never be considered as cached
+            File tempFile = new File(output.getAbsolutePath() + ".tmp");
+            OutputStream os = new FileOutputStream(tempFile);
+            try {
+                if (!bitmap.compress(Bitmap.CompressFormat.JPEG, mQuality, os)) {
+                    tempFile.delete();
+                    return false;
+                }
+            } finally {
+                os.close();
+            }
+
+            copyExifTags(filename, tempFile.getAbsolutePath());
+
+            return tempFile.renameTo(output);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    private void copyExifTags(String source, String destination) {
+        try {
+            ExifInterface sourceExif = new ExifInterface(source);
+            ExifInterface destinationExif = new ExifInterface(destination);
+            for (String tag : EXIF_TAGS) {
+                String value = sourceExif.getAttribute(tag);
+                if (value != null) destinationExif.setAttribute(tag, value);
+            }
+            // The transcoded pixels are already rotated according to the original orientation
+            destinationExif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(ExifInterface.ORIENTATION_NORMAL));
+            destinationExif.saveAttributes();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private File getCacheDir() {
+        File dir = new File(mContext.getCacheDir(), CACHE_DIR);
+        if (!dir.exists()) dir.mkdirs();
+        return dir;
+    }
+
+    // The cache key changes whenever the original photo changes (or the transcoding settings change)
+    private String getCacheKey(File original) {
+        String key = String.format("%s|%d|%d|%d|%d", original.getAbsolutePath(), original.length(), original.lastModified(), mMaxEdge, mQuality);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(String.format("%02x", b & 0xff));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        } catch (UnsupportedEncodingException e) {
+            e.printStackTrace();
+        }
+
+        return Integer.toHexString(key.hashCode());
+    }
+}
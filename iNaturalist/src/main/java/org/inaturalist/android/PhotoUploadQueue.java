@@ -0,0 +1,293 @@
+package org.inaturalist.android;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads observation photos using a (small) pool of worker threads.
+ *
+ * A photo that fails to upload is put back on the queue (after a backoff delay) instead of failing the
+ * entire run. The number of failed attempts per photo is persisted, so a sync that was killed mid-way
+ * resumes with the photos that haven't been attempted yet, and keeps backing off the problematic ones.
+ */
+public class PhotoUploadQueue {
+    private static final String TAG = "PhotoUploadQueue";
+
+    public static final int MIN_WORKERS = 2;
+    public static final int MAX_WORKERS = 4;
+    public static final int DEFAULT_WORKERS = 3;
+
+    // Max upload attempts per photo (in a single run)
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long INITIAL_BACKOFF_MS = 2000;
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    // Failed attempts per photo (local observation photo ID -> attempts), persisted between runs
+    private static final String PREF_FAILED_ATTEMPTS = "photo_upload_failed_attempts";
+
+    public enum Result {
+        SUCCESS,
+        // Upload failed - photo should be retried later on
+        FAILED,
+        // Stop uploading altogether (e.g. authentication error)
+        ABORT
+    }
+
+    public interface Callback {
+        // Called from a worker thread
+        Result upload(ObservationPhoto photo);
+        boolean isCancelled();
+        void onProgress(int uploaded, int total);
+    }
+
+    private final SharedPreferences mPreferences;
+    private final int mWorkers;
+    private final Random mRandom = new Random();
+
+    private final Object mLock = new Object();
+    private Map<Integer, Integer> mFailedAttempts;
+    private int mRemaining;
+    private boolean mAborted;
+
+    public PhotoUploadQueue(SharedPreferences preferences, int workers) {
+        mPreferences = preferences;
+        mWorkers = Math.max(MIN_WORKERS, Math.min(MAX_WORKERS, workers));
+    }
+
+    // Uploads all photos (blocks until done, cancelled or aborted). Returns the number of uploaded photos.
+    public int run(List<ObservationPhoto> photos, final Callback callback) {
+        if (photos.isEmpty()) {
+            clearFailedAttempts(mPreferences);
+            return 0;
+        }
+
+        final int total = photos.size();
+        final AtomicInteger uploaded = new AtomicInteger(0);
+
+        mFailedAttempts = loadFailedAttempts();
+        pruneFailedAttempts(photos);
+        mRemaining = total;
+        mAborted = false;
+
+        // Photos that were never attempted (or failed the least amount of times) go first
+        List<ObservationPhoto> queue = new ArrayList<ObservationPhoto>(photos);
+        Collections.sort(queue, new Comparator<ObservationPhoto>() {
+            @Override
+            public int compare(ObservationPhoto lhs, ObservationPhoto rhs) {
+                return getFailedAttempts(lhs) - getFailedAttempts(rhs);
+            }
+        });
+
+        Log.d(TAG, String.format("Uploading %d photos using %d workers", total, mWorkers));
+        long startTime = System.currentTimeMillis();
+
+        final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(mWorkers);
+        for (ObservationPhoto photo : queue) {
+            executor.execute(new UploadTask(executor, photo, 0, callback, uploaded, total));
+        }
+
+        // Wait for all photos to be handled
+        synchronized (mLock) {
+            while ((mRemaining > 0) && (!mAborted)) {
+                if (callback.isCancelled()) {
+                    mAborted = true;
+                    break;
+                }
+                try {
+                    mLock.wait(500);
+                } catch (InterruptedException e) {
+                    mAborted = true;
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(HttpTransport.SOCKET_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        saveFailedAttempts();
+
+        Log.d(TAG, String.format("Uploaded %d/%d photos in %d ms", uploaded.get(), total, System.currentTimeMillis() - startTime));
+
+        return uploaded.get();
+    }
+
+    private class UploadTask implements Runnable {
+        private final ScheduledExecutorService mExecutor;
+        private final ObservationPhoto mPhoto;
+        private final int mAttempt;
+        private final Callback mCallback;
+        private final AtomicInteger mUploaded;
+        private final int mTotal;
+
+        public UploadTask(ScheduledExecutorService executor, ObservationPhoto photo, int attempt, Callback callback, AtomicInteger uploaded, int total) {
+            mExecutor = executor;
+            mPhoto = photo;
+            mAttempt = attempt;
+            mCallback = callback;
+            mUploaded = uploaded;
+            mTotal = total;
+        }
+
+        @Override
+        public void run() {
+            if (isAborted() || mCallback.isCancelled()) {
+                onDone();
+                return;
+            }
+
+            Result result;
+            try {
+                result = mCallback.upload(mPhoto);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed uploading photo " + mPhoto._id + ": " + e.toString());
+                result = Result.FAILED;
+            }
+
+            switch (result) {
+                case SUCCESS:
+                    synchronized (mLock) {
+                        mFailedAttempts.remove(mPhoto._id);
+                    }
+                    saveFailedAttempts();
+                    mCallback.onProgress(mUploaded.incrementAndGet(), mTotal);
+                    onDone();
+                    break;
+
+                case ABORT:
+                    synchronized (mLock) {
+                        mAborted = true;
+                        mLock.notifyAll();
+                    }
+                    break;
+
+                case FAILED:
+                default:
+                    synchronized (mLock) {
+                        mFailedAttempts.put(mPhoto._id, getFailedAttempts(mPhoto) + 1);
+                    }
+                    saveFailedAttempts();
+
+                    if ((mAttempt + 1 < MAX_ATTEMPTS) && (!isAborted())) {
+                        // Put the photo back on the queue (after a while)
+                        long delay = getBackoffDelay(mAttempt);
+                        Log.d(TAG, String.format("Retrying photo %d in %d ms", mPhoto._id, delay));
+                        try {
+                            mExecutor.schedule(new UploadTask(mExecutor, mPhoto, mAttempt + 1, mCallback, mUploaded, mTotal), delay, TimeUnit.MILLISECONDS);
+                        } catch (RejectedExecutionException e) {
+                            // Queue was already shut down
+                            onDone();
+                        }
+                    } else {
+                        Log.e(TAG, String.format("Giving up on photo %d (for now)", mPhoto._id));
+                        onDone();
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void onDone() {
+        synchronized (mLock) {
+            mRemaining--;
+            mLock.notifyAll();
+        }
+    }
+
+    private boolean isAborted() {
+        synchronized (mLock) {
+            return mAborted;
+        }
+    }
+
+    // Exponential backoff (with some jitter, so workers don't retry at the exact same time)
+    private long getBackoffDelay(int attempt) {
+        long delay = Math.min(INITIAL_BACKOFF_MS << attempt, MAX_BACKOFF_MS);
+        synchronized (mRandom) {
+            return delay / 2 + (long) (mRandom.nextDouble() * delay / 2);
+        }
+    }
+
+    private int getFailedAttempts(ObservationPhoto photo) {
+        synchronized (mLock) {
+            Integer attempts = mFailedAttempts.get(photo._id);
+            return attempts != null ? attempts : 0;
+        }
+    }
+
+    // Called when no photos are waiting for upload - so there are no failed attempts to remember
+    public static void clearFailedAttempts(SharedPreferences preferences) {
+        preferences.edit().remove(PREF_FAILED_ATTEMPTS).apply();
+    }
+
+    // Forgets the failed attempts of photos that are no longer waiting for upload (uploaded elsewhere, or deleted)
+    private void pruneFailedAttempts(List<ObservationPhoto> photos) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (ObservationPhoto photo : photos) {
+            ids.add(photo._id);
+        }
+
+        synchronized (mLock) {
+            if (!mFailedAttempts.keySet().retainAll(ids)) return;
+        }
+        saveFailedAttempts();
+    }
+
+    private Map<Integer, Integer> loadFailedAttempts() {
+        Map<Integer, Integer> attempts = new HashMap<Integer, Integer>();
+        String value = mPreferences.getString(PREF_FAILED_ATTEMPTS, null);
+        if (value == null) return attempts;
+
+        try {
+            JSONObject json = new JSONObject(value);
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                attempts.put(Integer.valueOf(key), json.getInt(key));
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+        }
+
+        return attempts;
+    }
+
+    private void saveFailedAttempts() {
+        JSONObject json = new JSONObject();
+        synchronized (mLock) {
+            try {
+                for (Map.Entry<Integer, Integer> entry : mFailedAttempts.entrySet()) {
+                    json.put(String.valueOf(entry.getKey()), entry.getValue().intValue());
+                }
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+        mPreferences.edit().putString(PREF_FAILED_ATTEMPTS, json.toString()).apply();
+    }
+}
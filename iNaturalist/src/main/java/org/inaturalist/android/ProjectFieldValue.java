@@ -146,6 +146,7 @@ public class ProjectFieldValue implements BaseColumns, Serializable {
                 + "updated_at INTEGER,"
                 + "value TEXT,"
                 + "field_id INTEGER,"
+                + "needs_sync INTEGER DEFAULT 0,"
                 + "UNIQUE(field_id, observation_id) ON CONFLICT REPLACE"
                 + ");";
     }
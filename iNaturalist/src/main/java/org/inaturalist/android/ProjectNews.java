@@ -234,7 +234,7 @@ public class ProjectNews extends BaseFragmentActivity {
                 resultsJSON = (SerializableJSONArray) intent.getSerializableExtra(INaturalistService.RESULTS);
             }
 
-            JSONArray results = resultsJSON.getJSONArray();
+            JSONArray results = resultsJSON != null ? resultsJSON.getJSONArray() : null; // (might have been evicted from the result store)
             ArrayList<JSONObject> resultsArray = new ArrayList<JSONObject>();
 
             if (results == null) {
@@ -177,6 +177,15 @@ public class ProjectsAdapter extends ArrayAdapter<JSONObject> implements Filtera
         return mItems;
     }
 
+    public void setItems(List<JSONObject> items) {
+        mItems = items;
+        if (mItems.size() > 0) {
+            notifyDataSetChanged();
+        } else {
+            notifyDataSetInvalidated();
+        }
+    }
+
     public void addItemAtBeginning(JSONObject newItem) {
         mItems.add(0, newItem);
     }
@@ -0,0 +1,310 @@
+package org.inaturalist.android;
+
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the actions of INaturalistService on separate lanes, so a long running sync doesn't block the
+ * user from opening a project page or the map:
+ *
+ * - SERIAL lane: sync and any action that modifies data - run one at a time, in order (like IntentService did).
+ * - PARALLEL lane: read-only fetches (e.g. nearby observations, taxon details) - run on a small pool of threads.
+ *
+ * Keeps track of the queue depth and wait times per action, and notifies once all lanes are idle (so the
+ * service can stop itself).
+ */
+public class ServiceActionDispatcher {
+    private static final String TAG = "ServiceActionDispatcher";
+
+    public enum Lane {
+        SERIAL,
+        PARALLEL
+    }
+
+    public interface ActionHandler {
+        // Called from the lane's worker thread
+        void handleAction(Intent intent);
+    }
+
+    public interface OnIdleListener {
+        // Called from a worker thread (or the dispatching thread), once there are no queued or running actions
+        void onIdle(int lastStartId);
+    }
+
+    /**
+     * Queue/timing stats of a single action type
+     */
+    public static class ActionStats {
+        private int mQueued = 0;
+        private int mRunning = 0;
+        private long mCompleted = 0;
+        private long mCancelled = 0;
+        private long mTotalWaitMs = 0;
+        private long mMaxWaitMs = 0;
+        private long mTotalRunMs = 0;
+
+        public synchronized int getQueueDepth() {
+            return mQueued;
+        }
+
+        public synchronized int getRunning() {
+            return mRunning;
+        }
+
+        public synchronized long getCompletedCount() {
+            return mCompleted;
+        }
+
+        public synchronized long getCancelledCount() {
+            return mCancelled;
+        }
+
+        // Average time actions spent queued, before starting to run
+        public synchronized long getAverageWaitMs() {
+            long started = mCompleted + mRunning;
+            return started > 0 ? mTotalWaitMs / started : 0;
+        }
+
+        public synchronized long getMaxWaitMs() {
+            return mMaxWaitMs;
+        }
+
+        public synchronized long getAverageRunMs() {
+            return mCompleted > 0 ? mTotalRunMs / mCompleted : 0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("queued: %d; running: %d; completed: %d; cancelled: %d; wait: avg %d ms, max %d ms; run: avg %d ms",
+                    mQueued, mRunning, mCompleted, mCancelled, getAverageWaitMs(), mMaxWaitMs, getAverageRunMs());
+        }
+    }
+
+    private class Task implements Runnable {
+        final Intent mIntent;
+        final String mAction;
+        final Lane mLane;
+        final long mQueuedAt = SystemClock.elapsedRealtime();
+
+        Task(Intent intent, Lane lane) {
+            mIntent = intent;
+            mAction = intent.getAction();
+            mLane = lane;
+        }
+
+        @Override
+        public void run() {
+            ActionStats stats = getStats(mAction);
+            long startTime = SystemClock.elapsedRealtime();
+            long wait = startTime - mQueuedAt;
+
+            synchronized (ServiceActionDispatcher.this) {
+                mPending.get(mLane).remove(this);
+            }
+            synchronized (stats) {
+                stats.mQueued--;
+                stats.mRunning++;
+                stats.mTotalWaitMs += wait;
+                stats.mMaxWaitMs = Math.max(stats.mMaxWaitMs, wait);
+            }
+
+            try {
+                mHandler.handleAction(mIntent);
+            } catch (RuntimeException e) {
+                // Don't let a single action take down the worker thread
+                Log.e(TAG, "Failed handling action " + mAction, e);
+            } finally {
+                synchronized (stats) {
+                    stats.mRunning--;
+                    stats.mCompleted++;
+                    stats.mTotalRunMs += SystemClock.elapsedRealtime() - startTime;
+                }
+                onTaskDone();
+            }
+        }
+    }
+
+    private final ActionHandler mHandler;
+    private final OnIdleListener mIdleListener;
+    private final Set<String> mParallelActions;
+    private final Map<Lane, ThreadPoolExecutor> mExecutors = new LinkedHashMap<Lane, ThreadPoolExecutor>();
+    // Tasks that were queued but haven't started yet (so they can be cancelled)
+    private final Map<Lane, Set<Task>> mPending = new LinkedHashMap<Lane, Set<Task>>();
+    private final Map<String, ActionStats> mStats = new LinkedHashMap<String, ActionStats>();
+
+    // Queued + running tasks
+    private int mOutstanding = 0;
+    private int mLastStartId = 0;
+
+    /**
+     * @param parallelActions the (read-only) actions that should run on the parallel lane (all others run on the serial lane)
+     * @param parallelWorkers number of threads of the parallel lane
+     */
+    public ServiceActionDispatcher(Collection<String> parallelActions, int parallelWorkers, ActionHandler handler, OnIdleListener idleListener) {
+        mParallelActions = new HashSet<String>(parallelActions);
+        mHandler = handler;
+        mIdleListener = idleListener;
+
+        mExecutors.put(Lane.SERIAL, createExecutor("serial", 1));
+        mExecutors.put(Lane.PARALLEL, createExecutor("parallel", parallelWorkers));
+        for (Lane lane : Lane.values()) {
+            mPending.put(lane, new HashSet<Task>());
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor(final String name, int workers) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "INaturalistService " + name + " #" + ++mCount);
+            }
+        });
+        // Idle threads are released when there's nothing to do (the service may stay alive for a while)
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public Lane getLane(String action) {
+        return mParallelActions.contains(action) ? Lane.PARALLEL : Lane.SERIAL;
+    }
+
+    /**
+     * Queues an action on its lane
+     * @param intent the action intent
+     * @param startId the service start ID of the intent
+     */
+    public void dispatch(Intent intent, int startId) {
+        Lane lane = getLane(intent.getAction());
+        Task task = new Task(intent, lane);
+        ActionStats stats = getStats(task.mAction);
+
+        synchronized (this) {
+            mOutstanding++;
+            mLastStartId = startId;
+            mPending.get(lane).add(task);
+        }
+        synchronized (stats) {
+            stats.mQueued++;
+        }
+
+        mExecutors.get(lane).execute(task);
+    }
+
+    /**
+     * Records a service start that didn't queue any action (e.g. a cancel request), so the idle listener still
+     * gets the latest start ID - and is called right away if all lanes are idle
+     * @param startId the service start ID of the intent
+     */
+    public void acknowledge(int startId) {
+        synchronized (this) {
+            mLastStartId = startId;
+            if (mOutstanding > 0) return;
+        }
+
+        mIdleListener.onIdle(startId);
+    }
+
+    /**
+     * Cancels all queued (not yet running) actions of a lane
+     * @return the number of cancelled actions
+     */
+    public int cancel(Lane lane) {
+        List<Task> cancelled = new ArrayList<Task>();
+        ThreadPoolExecutor executor = mExecutors.get(lane);
+
+        synchronized (this) {
+            Iterator<Task> iterator = mPending.get(lane).iterator();
+            while (iterator.hasNext()) {
+                Task task = iterator.next();
+                if (executor.remove(task)) {
+                    iterator.remove();
+                    cancelled.add(task);
+                }
+            }
+        }
+
+        for (Task task : cancelled) {
+            ActionStats stats = getStats(task.mAction);
+            synchronized (stats) {
+                stats.mQueued--;
+                stats.mCancelled++;
+            }
+            onTaskDone();
+        }
+
+        if (cancelled.size() > 0) {
+            Log.d(TAG, String.format("Cancelled %d queued actions of the %s lane", cancelled.size(), lane));
+        }
+
+        return cancelled.size();
+    }
+
+    /**
+     * Returns the number of queued (not yet running) actions of a lane
+     */
+    public synchronized int getQueueDepth(Lane lane) {
+        return mPending.get(lane).size();
+    }
+
+    /**
+     * Returns the queue/timing stats of an action type
+     */
+    public synchronized ActionStats getStats(String action) {
+        ActionStats stats = mStats.get(action);
+        if (stats == null) {
+            stats = new ActionStats();
+            mStats.put(action, stats);
+        }
+        return stats;
+    }
+
+    public synchronized String getStatsSummary() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, ActionStats> entry : mStats.entrySet()) {
+            builder.append(String.format("%s (%s): %s\n", entry.getKey(), getLane(entry.getKey()), entry.getValue()));
+        }
+        return builder.toString();
+    }
+
+    public void logStats() {
+        Log.d(TAG, getStatsSummary());
+    }
+
+    /**
+     * Stops all lanes - queued actions are dropped, running ones are left to finish
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor executor : mExecutors.values()) {
+            executor.shutdown();
+            executor.getQueue().clear();
+        }
+    }
+
+    private void onTaskDone() {
+        int lastStartId;
+        synchronized (this) {
+            mOutstanding--;
+            if (mOutstanding > 0) return;
+            lastStartId = mLastStartId;
+        }
+
+        mIdleListener.onIdle(lastStartId);
+    }
+}
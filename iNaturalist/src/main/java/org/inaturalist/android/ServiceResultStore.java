@@ -0,0 +1,341 @@
+package org.inaturalist.android;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the results of iNat service actions (e.g. nearby observations, all guides), so they can be handed
+ * over to the screens without passing large amounts of data via intents.
+ *
+ * Results are evicted least recently used first, once their (estimated) total size exceeds the max size, and
+ * once their TTL (if one was set for their key) has passed. Every stored result gets a new version number,
+ * so a screen can tell whether the result it displays is still the latest one. Screens can also register
+ * listeners for a key, instead of looking the result up after receiving the service broadcast.
+ *
+ * Thread safe - results are usually stored from the service's worker thread.
+ */
+public class ServiceResultStore {
+    private static final String TAG = "ServiceResultStore";
+
+    // Size of values we can't estimate
+    private static final int DEFAULT_VALUE_SIZE = 1024;
+    // Size of JSON numbers, booleans and nulls (and of nested JSON values deeper than MAX_ESTIMATE_DEPTH)
+    private static final int JSON_VALUE_SIZE = 16;
+    private static final int MAX_ESTIMATE_DEPTH = 4;
+
+    public interface Listener {
+        // Called on the main thread. Value is null if the result was removed.
+        void onResult(String key, Serializable value, long version);
+    }
+
+    /**
+     * A stored result
+     */
+    public static class Entry {
+        private final Serializable mValue;
+        private final long mVersion;
+        private final long mStoredAt;
+        private final long mExpiresAt;
+        private final int mSize;
+
+        Entry(Serializable value, long version, long storedAt, long expiresAt, int size) {
+            mValue = value;
+            mVersion = version;
+            mStoredAt = storedAt;
+            mExpiresAt = expiresAt;
+            mSize = size;
+        }
+
+        public Serializable getValue() {
+            return mValue;
+        }
+
+        public long getVersion() {
+            return mVersion;
+        }
+
+        // How long ago the result was stored (in ms)
+        public long getAge() {
+            return SystemClock.elapsedRealtime() - mStoredAt;
+        }
+
+        private boolean isExpired(long now) {
+            return (mExpiresAt > 0) && (now >= mExpiresAt);
+        }
+    }
+
+    private final long mMaxSize;
+    private long mSize = 0;
+    private long mVersion = 0;
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    // Key -> TTL (in ms)
+    private final Map<String, Long> mTtls = new HashMap<String, Long>();
+    private final Map<String, CopyOnWriteArrayList<Listener>> mListeners = new HashMap<String, CopyOnWriteArrayList<Listener>>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private long mHitCount = 0;
+    private long mMissCount = 0;
+    private long mEvictionCount = 0;
+    private long mExpirationCount = 0;
+
+    /**
+     * @param maxSize max (estimated) size of all results, in bytes
+     */
+    public ServiceResultStore(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Sets the TTL of results stored under a specific key
+     * @param key the result key
+     * @param ttl time to live, in ms (0 = never expires)
+     */
+    public synchronized void setTtl(String key, long ttl) {
+        mTtls.put(key, ttl);
+    }
+
+    /**
+     * Stores a result (replacing the previous one)
+     * @param key the result key
+     * @param value the result (null removes the result)
+     * @return the version of the result
+     */
+    public long put(String key, Serializable value) {
+        if (value == null) {
+            remove(key);
+            return 0;
+        }
+
+        int size = estimateSize(value);
+        long version;
+
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            Long ttl = mTtls.get(key);
+            version = ++mVersion;
+
+            Entry old = mEntries.put(key, new Entry(value, version, now, (ttl != null) && (ttl > 0) ? now + ttl : 0, size));
+            if (old != null) mSize -= old.mSize;
+            mSize += size;
+
+            trimToSize(key);
+        }
+
+        notifyListeners(key, value, version);
+
+        return version;
+    }
+
+    /**
+     * Returns a stored result (or null if there's none or it has expired)
+     */
+    public Serializable get(String key) {
+        Entry entry = getEntry(key);
+        return entry != null ? entry.mValue : null;
+    }
+
+    /**
+     * Returns a stored result along with its version (or null if there's none or it has expired)
+     */
+    public synchronized Entry getEntry(String key) {
+        Entry entry = mEntries.get(key);
+
+        if ((entry != null) && (entry.isExpired(SystemClock.elapsedRealtime()))) {
+            mEntries.remove(key);
+            mSize -= entry.mSize;
+            mExpirationCount++;
+            entry = null;
+        }
+
+        if (entry != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns the version of a stored result (or 0 if there's none) - a screen can compare it with the version
+     * it currently displays, to tell whether or not it's stale
+     */
+    public synchronized long getVersion(String key) {
+        Entry entry = mEntries.get(key);
+        return (entry != null) && (!entry.isExpired(SystemClock.elapsedRealtime())) ? entry.mVersion : 0;
+    }
+
+    public void remove(String key) {
+        boolean removed;
+        synchronized (this) {
+            Entry entry = mEntries.remove(key);
+            removed = entry != null;
+            if (removed) mSize -= entry.mSize;
+        }
+
+        if (removed) notifyListeners(key, null, 0);
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Registers a listener for results of a specific key
+     */
+    public synchronized void addListener(String key, Listener listener) {
+        CopyOnWriteArrayList<Listener> listeners = mListeners.get(key);
+        if (listeners == null) {
+            listeners = new CopyOnWriteArrayList<Listener>();
+            mListeners.put(key, listeners);
+        }
+        listeners.addIfAbsent(listener);
+    }
+
+    public synchronized void removeListener(String key, Listener listener) {
+        CopyOnWriteArrayList<Listener> listeners = mListeners.get(key);
+        if (listeners == null) return;
+
+        listeners.remove(listener);
+        if (listeners.isEmpty()) mListeners.remove(key);
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized int getCount() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized long getExpirationCount() {
+        return mExpirationCount;
+    }
+
+    public synchronized String getStatsSummary() {
+        return String.format("results: %d; size: %d/%d bytes; hits: %d; misses: %d; evictions: %d; expirations: %d",
+                mEntries.size(), mSize, mMaxSize, mHitCount, mMissCount, mEvictionCount, mExpirationCount);
+    }
+
+    public void logStats() {
+        Log.d(TAG, getStatsSummary());
+    }
+
+    // Removes expired results, and then the least recently used ones, until the total size fits
+    // (the result that was just stored is only removed if it's larger than the max size on its own)
+    private void trimToSize(String newKey) {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.isExpired(now)) {
+                iterator.remove();
+                mSize -= entry.mSize;
+                mExpirationCount++;
+            }
+        }
+
+        List<String> evicted = new ArrayList<String>();
+        iterator = mEntries.entrySet().iterator();
+        while ((mSize > mMaxSize) && (iterator.hasNext())) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getKey().equals(newKey) && (mEntries.size() > 1)) continue;
+
+            iterator.remove();
+            mSize -= entry.getValue().mSize;
+            mEvictionCount++;
+            evicted.add(entry.getKey());
+        }
+
+        if (!evicted.isEmpty()) {
+            Log.d(TAG, "Evicted results: " + evicted + " - " + mSize + "/" + mMaxSize + " bytes");
+        }
+    }
+
+    private void notifyListeners(final String key, final Serializable value, final long version) {
+        final CopyOnWriteArrayList<Listener> listeners;
+        synchronized (this) {
+            listeners = mListeners.get(key);
+        }
+        if (listeners == null) return;
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.onResult(key, value, version);
+                }
+            }
+        });
+    }
+
+    // Rough estimate of the memory used by a result. JSON results aren't serialized for this - arrays are estimated
+    // by their length times the size of their first element, so only a single path through the result is visited.
+    private static int estimateSize(Serializable value) {
+        if (value instanceof SerializableJSONArray) {
+            JSONArray array = ((SerializableJSONArray) value).getJSONArray();
+            if (array != null) return estimateJsonSize(array, 0);
+        } else if (value instanceof BetterJSONObject) {
+            JSONObject object = ((BetterJSONObject) value).getJSONObject();
+            if (object != null) return estimateJsonSize(object, 0);
+        } else if (value instanceof String) {
+            return ((String) value).length() * 2;
+        }
+
+        return DEFAULT_VALUE_SIZE;
+    }
+
+    private static int estimateJsonSize(Object value, int depth) {
+        if (value instanceof String) {
+            return ((String) value).length() * 2;
+        } else if (depth >= MAX_ESTIMATE_DEPTH) {
+            return JSON_VALUE_SIZE;
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            if (array.length() == 0) return JSON_VALUE_SIZE;
+            return (int) Math.min(Integer.MAX_VALUE, (long) array.length() * estimateJsonSize(array.opt(0), depth + 1));
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            int size = JSON_VALUE_SIZE;
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                size += key.length() * 2 + estimateJsonSize(object.opt(key), depth + 1);
+            }
+            return size;
+        }
+
+        return JSON_VALUE_SIZE;
+    }
+}
@@ -35,6 +35,8 @@ public class SettingsFragment extends PreferenceFragmentCompat {
     private Preference mUsernamePreference;
     private CheckBoxPreference mAutoSyncPreference;
     private ListPreference mLanguagePreference;
+    private ListPreference mUploadPhotoSizePreference;
+    private ListPreference mUploadPhotoQualityPreference;
     private Preference mNetworkPreference;
     private Preference mContactSupport;
     private Preference mVersion;
@@ -59,6 +61,8 @@ public class SettingsFragment extends PreferenceFragmentCompat {
         mUsernamePreference = getPreferenceManager().findPreference("username");
         mAutoSyncPreference = (CheckBoxPreference) getPreferenceManager().findPreference("auto_sync");
         mLanguagePreference = (ListPreference) getPreferenceManager().findPreference("language");
+        mUploadPhotoSizePreference = (ListPreference) getPreferenceManager().findPreference(PhotoTranscoder.PREF_MAX_EDGE);
+        mUploadPhotoQualityPreference = (ListPreference) getPreferenceManager().findPreference(PhotoTranscoder.PREF_QUALITY);
         mNetworkPreference = (Preference) getPreferenceManager().findPreference("inat_network");
         mContactSupport = (Preference) getPreferenceManager().findPreference("contact_support");
         mVersion = (Preference) getPreferenceManager().findPreference("version");
@@ -145,6 +149,10 @@ public class SettingsFragment extends PreferenceFragmentCompat {
         });
 
 
+        refreshUploadPhotoSettings(mUploadPhotoSizePreference, PhotoTranscoder.PREF_MAX_EDGE, PhotoTranscoder.DEFAULT_MAX_EDGE);
+        refreshUploadPhotoSettings(mUploadPhotoQualityPreference, PhotoTranscoder.PREF_QUALITY, PhotoTranscoder.DEFAULT_QUALITY);
+
+
         mVersion.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
             @Override
             public boolean onPreferenceClick(Preference preference) {
@@ -205,6 +213,25 @@ public class SettingsFragment extends PreferenceFragmentCompat {
         });
     }
 
+    private void refreshUploadPhotoSettings(final ListPreference preference, final String key, int defaultValue) {
+        int index = preference.findIndexOfValue(mPreferences.getString(key, String.valueOf(defaultValue)));
+        if (index == -1) index = preference.findIndexOfValue(String.valueOf(defaultValue));
+        preference.setValueIndex(index);
+        preference.setSummary(preference.getEntries()[index]);
+
+        preference.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference pref, Object o) {
+                int index = preference.findIndexOfValue((String) o);
+                mPrefEditor.putString(key, (String) o);
+                mPrefEditor.commit();
+                preference.setValueIndex(index);
+                preference.setSummary(preference.getEntries()[index]);
+                return false;
+            }
+        });
+    }
+
     private void refreshLanguageSettings() {
         String prefLocale = mPreferences.getString("pref_locale", "");
         String[] supportedLocales = LocaleHelper.SupportedLocales;
@@ -303,6 +330,8 @@ public class SettingsFragment extends PreferenceFragmentCompat {
 		int count2 = getActivity().getContentResolver().delete(ObservationPhoto.CONTENT_URI, null, null);
         int count3 = getActivity().getContentResolver().delete(ProjectObservation.CONTENT_URI, null, null);
         int count4 = getActivity().getContentResolver().delete(ProjectFieldValue.CONTENT_URI, null, null);
+        // Next sync should pull everything from scratch
+        getActivity().getContentResolver().delete(SyncCursor.CONTENT_URI, null, null);
 
         refreshSettings();
         ((SettingsActivity)getActivity()).refreshUserDetails();
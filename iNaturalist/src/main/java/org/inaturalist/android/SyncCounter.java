@@ -0,0 +1,162 @@
+package org.inaturalist.android;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Number of rows pending sync of a specific kind (e.g. observations with local changes), so screens can tell
+ * whether a sync is needed without counting rows of the observations/photos tables.
+ *
+ * The counters are maintained by triggers on the counted tables - so they're updated as part of the same
+ * insert/update/delete (and transaction) that changed the rows. Read-only via the content provider.
+ */
+public class SyncCounter implements BaseColumns, Serializable {
+    public static final String TAG = "SyncCounter";
+
+    // Counted entities
+    // Observations with local changes (or deleted locally) - what a sync would upload
+    public static final String OBSERVATIONS_TO_SYNC = "observations_to_sync";
+    // Observations modified locally after they were created (what the sync bar shows)
+    public static final String OBSERVATIONS_TO_UPLOAD = "observations_to_upload";
+    // Observations that were never uploaded
+    public static final String NEW_OBSERVATIONS = "new_observations";
+    // New/modified photos that weren't uploaded yet (or deleted locally)
+    public static final String PHOTOS_TO_SYNC = "photos_to_sync";
+    // Photos that were never uploaded
+    public static final String NEW_PHOTOS = "new_photos";
+    // Old-style photos (without a file name or URL), that need to be re-downloaded
+    public static final String OLD_PHOTOS = "old_photos";
+
+    public Integer _id;
+    public String entity;
+    public Integer count;
+
+    public static final String TABLE_NAME = "sync_counters";
+
+    public static final int SYNC_COUNTERS_URI_CODE = 6979;
+    public static final int SYNC_COUNTER_ID_URI_CODE = 6964;
+
+    public static HashMap<String, String> PROJECTION_MAP;
+    public static final String AUTHORITY = "org.inaturalist.android.sync_counter";
+    public static final Uri    CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/sync_counters");
+    public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.sync_counter";
+    public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.google.sync_counter";
+    public static final String DEFAULT_SORT_ORDER = "_id ASC";
+
+    public static final String ENTITY = "entity";
+    public static final String COUNT = "count";
+
+
+    public static final String[] PROJECTION = new String[] {
+        SyncCounter._ID,
+        SyncCounter.ENTITY,
+        SyncCounter.COUNT
+    };
+
+    static {
+        PROJECTION_MAP = new HashMap<String, String>();
+        PROJECTION_MAP.put(SyncCounter._ID, SyncCounter._ID);
+        PROJECTION_MAP.put(SyncCounter.ENTITY, SyncCounter.ENTITY);
+        PROJECTION_MAP.put(SyncCounter.COUNT, SyncCounter.COUNT);
+    }
+
+    // A counter: entity name, counted table and the condition of counted rows (with "row." as the column prefix)
+    private static final String[][] COUNTERS = new String[][] {
+        { OBSERVATIONS_TO_SYNC, Observation.TABLE_NAME, "(row.needs_sync = 1) OR (row.is_deleted = 1)" },
+        { OBSERVATIONS_TO_UPLOAD, Observation.TABLE_NAME, "(row.needs_sync = 1) AND (row._updated_at > row._created_at)" },
+        { NEW_OBSERVATIONS, Observation.TABLE_NAME, "row.id IS NULL" },
+        { PHOTOS_TO_SYNC, ObservationPhoto.TABLE_NAME, "((row.photo_url IS NULL) AND (row._updated_at IS NOT NULL) AND (row.needs_sync = 1)) OR (row.is_deleted = 1)" },
+        { NEW_PHOTOS, ObservationPhoto.TABLE_NAME, "row._synced_at IS NULL" },
+        { OLD_PHOTOS, ObservationPhoto.TABLE_NAME, "(row.photo_filename IS NULL) AND (row.photo_url IS NULL)" }
+    };
+
+    public SyncCounter(Cursor c) {
+        if (c.getPosition() == -1) c.moveToFirst();
+        BetterCursor bc = new BetterCursor(c);
+
+        this._id = bc.getInt(_ID);
+        this.entity = bc.getString(ENTITY);
+        this.count = bc.getInt(COUNT);
+    }
+
+    /**
+     * Returns the pending count of an entity
+     */
+    public static int getCount(ContentResolver resolver, String entity) {
+        Cursor c = resolver.query(CONTENT_URI, PROJECTION, "entity = ?", new String[] { entity }, DEFAULT_SORT_ORDER);
+        try {
+            return c.getCount() > 0 ? new SyncCounter(c).count : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Returns the pending counts of all entities (entity -> count)
+     */
+    public static Map<String, Integer> getCounts(ContentResolver resolver) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        Cursor c = resolver.query(CONTENT_URI, PROJECTION, null, null, DEFAULT_SORT_ORDER);
+        try {
+            while (c.moveToNext()) {
+                SyncCounter counter = new SyncCounter(c);
+                counts.put(counter.entity, counter.count);
+            }
+        } finally {
+            c.close();
+        }
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncCounter(entity: " + entity + ", count: " + count + ")";
+    }
+
+    public static String sqlCreate() {
+        return "CREATE TABLE " + TABLE_NAME + " ("
+                + SyncCounter._ID + " INTEGER PRIMARY KEY,"
+                + "entity TEXT,"
+                + "count INTEGER, "
+                + "UNIQUE(entity) ON CONFLICT REPLACE"
+                + ");";
+    }
+
+    /**
+     * Returns the SQL statements that set the initial counts (of the existing rows) and create the triggers that
+     * maintain them. The counted tables (and their needs_sync column) must exist already.
+     */
+    public static String[] sqlCreateCounters() {
+        List<String> sql = new ArrayList<String>();
+
+        for (String[] counter : COUNTERS) {
+            String entity = counter[0];
+            String table = counter[1];
+            String condition = counter[2];
+            String update = "UPDATE " + TABLE_NAME + " SET count = count ";
+            String where = " WHERE entity = '" + entity + "'; END;";
+            String newValue = "(CASE WHEN " + condition.replace("row.", "new.") + " THEN 1 ELSE 0 END)";
+            String oldValue = "(CASE WHEN " + condition.replace("row.", "old.") + " THEN 1 ELSE 0 END)";
+
+            sql.add("INSERT INTO " + TABLE_NAME + " (entity, count) SELECT '" + entity + "', COUNT(*) FROM " + table +
+                    " WHERE " + condition.replace("row.", "") + ";");
+
+            sql.add("CREATE TRIGGER " + table + "_" + entity + "_insert AFTER INSERT ON " + table +
+                    " WHEN " + condition.replace("row.", "new.") + " BEGIN " + update + "+ 1" + where);
+            sql.add("CREATE TRIGGER " + table + "_" + entity + "_delete AFTER DELETE ON " + table +
+                    " WHEN " + condition.replace("row.", "old.") + " BEGIN " + update + "- 1" + where);
+            // (Also catches the needs_sync flag being set by its own trigger, right after an insert)
+            sql.add("CREATE TRIGGER " + table + "_" + entity + "_update AFTER UPDATE ON " + table +
+                    " WHEN " + newValue + " <> " + oldValue + " BEGIN " + update + "+ " + newValue + " - " + oldValue + where);
+        }
+
+        return sql.toArray(new String[sql.size()]);
+    }
+}
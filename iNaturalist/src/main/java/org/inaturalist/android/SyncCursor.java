@@ -0,0 +1,119 @@
+package org.inaturalist.android;
+import java.io.Serializable;
+import java.util.HashMap;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Where the last sync of a specific entity (e.g. the user's observations) left off, so the next sync only
+ * pulls what changed since: an "updated since" timestamp (according to the server's clock) and/or the
+ * validator (ETag) of the last full response.
+ */
+public class SyncCursor implements BaseColumns, Serializable {
+    public static final String TAG = "SyncCursor";
+
+    // Synced entities
+    public static final String ENTITY_OBSERVATIONS = "observations";
+    public static final String ENTITY_JOINED_PROJECTS = "joined_projects";
+
+    public Integer _id;
+    public String entity;
+    public Long updated_since;
+    public String etag;
+
+    public static final String TABLE_NAME = "sync_cursors";
+
+    public static final int SYNC_CURSORS_URI_CODE = 5979;
+    public static final int SYNC_CURSOR_ID_URI_CODE = 5964;
+
+    public static HashMap<String, String> PROJECTION_MAP;
+    public static final String AUTHORITY = "org.inaturalist.android.sync_cursor";
+    public static final Uri    CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/sync_cursors");
+    public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.sync_cursor";
+    public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.google.sync_cursor";
+    public static final String DEFAULT_SORT_ORDER = "_id DESC";
+
+    public static final String ENTITY = "entity";
+    public static final String UPDATED_SINCE = "updated_since";
+    public static final String ETAG = "etag";
+
+
+    public static final String[] PROJECTION = new String[] {
+        SyncCursor._ID,
+        SyncCursor.ENTITY,
+        SyncCursor.UPDATED_SINCE,
+        SyncCursor.ETAG
+    };
+
+    static {
+        PROJECTION_MAP = new HashMap<String, String>();
+        PROJECTION_MAP.put(SyncCursor._ID, SyncCursor._ID);
+        PROJECTION_MAP.put(SyncCursor.ENTITY, SyncCursor.ENTITY);
+        PROJECTION_MAP.put(SyncCursor.UPDATED_SINCE, SyncCursor.UPDATED_SINCE);
+        PROJECTION_MAP.put(SyncCursor.ETAG, SyncCursor.ETAG);
+    }
+
+    public SyncCursor(String entity) {
+        this.entity = entity;
+    }
+
+    public SyncCursor(Cursor c) {
+        if (c.getPosition() == -1) c.moveToFirst();
+        BetterCursor bc = new BetterCursor(c);
+
+        this._id = bc.getInt(_ID);
+        this.entity = bc.getString(ENTITY);
+        this.etag = bc.getString(ETAG);
+        int index = c.getColumnIndexOrThrow(UPDATED_SINCE);
+        this.updated_since = c.isNull(index) ? null : c.getLong(index);
+    }
+
+    /**
+     * Returns the sync cursor of an entity (a new, empty one if it was never synced)
+     */
+    public static SyncCursor get(ContentResolver resolver, String entity) {
+        Cursor c = resolver.query(CONTENT_URI, PROJECTION, "entity = ?", new String[] { entity }, DEFAULT_SORT_ORDER);
+        try {
+            return c.getCount() > 0 ? new SyncCursor(c) : new SyncCursor(entity);
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Saves the cursor (replacing the previous one of the same entity)
+     */
+    public void save(ContentResolver resolver) {
+        resolver.insert(CONTENT_URI, getContentValues());
+    }
+
+    @Override
+    public String toString() {
+        return "SyncCursor(entity: " + entity + ", updated_since: " + updated_since + ", etag: " + etag + ")";
+    }
+
+    public ContentValues getContentValues() {
+        ContentValues cv = new ContentValues();
+
+        cv.put(ENTITY, entity);
+        cv.put(UPDATED_SINCE, updated_since);
+        cv.put(ETAG, etag);
+
+        return cv;
+    }
+
+    public static String sqlCreate() {
+        return "CREATE TABLE " + TABLE_NAME + " ("
+                + SyncCursor._ID + " INTEGER PRIMARY KEY,"
+                + "entity TEXT,"
+                + "updated_since INTEGER,"
+                + "etag TEXT, "
+                + "UNIQUE(entity) ON CONFLICT REPLACE"
+                + ");";
+    }
+
+}
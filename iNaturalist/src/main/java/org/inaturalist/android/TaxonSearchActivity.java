@@ -1,22 +1,14 @@
 package org.inaturalist.android;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.Locale;
+import java.util.List;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.flurry.android.FlurryAgent;
 import com.koushikdutta.urlimageviewhelper.UrlImageViewCallback;
 import com.koushikdutta.urlimageviewhelper.UrlImageViewHelper;
-import android.app.NotificationManager;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
@@ -39,8 +31,6 @@ import android.view.inputmethod.InputMethodManager;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
-import android.widget.Filter;
-import android.widget.Filterable;
 import android.widget.HeaderViewListAdapter;
 import android.widget.ImageView;
 import android.widget.ListAdapter;
@@ -65,6 +55,7 @@ public class TaxonSearchActivity extends AppCompatActivity implements AdapterVie
 
 
     private TaxonAutoCompleteAdapter mAdapter;
+    private AutocompleteClient mAutocompleteClient;
 
     private int mFieldId;
 
@@ -96,67 +87,7 @@ public class TaxonSearchActivity extends AppCompatActivity implements AdapterVie
 	}	
 
 
-    private ArrayList<JSONObject> autocomplete(String input) {
-        ArrayList<JSONObject> resultList = null;
-
-        if (!isNetworkAvailable()) {
-            return new ArrayList<JSONObject>();
-        }
-
-        HttpURLConnection conn = null;
-        StringBuilder jsonResults = new StringBuilder();
-        try {
-            StringBuilder sb = new StringBuilder(INaturalistService.API_HOST + "/taxa/autocomplete");
-            sb.append("?q=");
-            sb.append(URLEncoder.encode(input, "utf8"));
-
-            NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-            Locale deviceLocale = getResources().getConfiguration().locale;
-            String deviceLexicon = deviceLocale.getLanguage();
-            sb.append("&locale=");
-            sb.append(deviceLexicon);
-
-            URL url = new URL(sb.toString());
-            conn = (HttpURLConnection) url.openConnection();
-            InputStreamReader in = new InputStreamReader(conn.getInputStream());
-
-            // Load the results into a StringBuilder
-            int read;
-            char[] buff = new char[1024];
-            while ((read = in.read(buff)) != -1) {
-                jsonResults.append(buff, 0, read);
-            }
-
-        } catch (MalformedURLException e) {
-            Log.e(LOG_TAG, "Error processing Places API URL", e);
-            return resultList;
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error connecting to Places API", e);
-            return resultList;
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
-        }
-
-        try {
-            JSONObject resultsObject = new JSONObject(jsonResults.toString());
-            JSONArray predsJsonArray = resultsObject.getJSONArray("results");
-
-            // Extract the Place descriptions from the results
-            resultList = new ArrayList<JSONObject>(predsJsonArray.length());
-            for (int i = 0; i < predsJsonArray.length(); i++) {
-                resultList.add(predsJsonArray.getJSONObject(i));
-            }
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, "Cannot process JSON results", e);
-        }
-
-        return resultList;
-    } 
-    
-    
-    private class TaxonAutoCompleteAdapter extends ArrayAdapter<String> implements Filterable {
+    private class TaxonAutoCompleteAdapter extends ArrayAdapter<String> {
         private ArrayList<JSONObject> mResultList;
         private Context mContext;
         private String mCurrentSearchString;
@@ -183,134 +114,58 @@ public class TaxonSearchActivity extends AppCompatActivity implements AdapterVie
             }
         }
         
-        private void toggleLoading(final boolean isLoading) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    if (isLoading) {
-                        mProgress.setVisibility(View.VISIBLE);
-
-                        if (isNetworkAvailable()) {
-                            // While we're waiting for results to load, show the string the user is
-                            // typing as the first result (just with an unknown taxon type)
-                            if (mResultList == null) {
-                                mResultList = new ArrayList<JSONObject>();
-                            } else {
-                                mResultList.clear();
-                            }
-                            JSONObject customObs = new JSONObject();
-                            try {
-                                customObs.put("is_custom", true);
-                                customObs.put("name", mCurrentSearchString);
-                            } catch (JSONException e) {
-                                e.printStackTrace();
-                            }
-                            mResultList.add(customObs);
-                            notifyDataSetChanged();
-                        }
-
-                    } else {
-                        mProgress.setVisibility(View.GONE);
-                    }
+        private void toggleLoading(boolean isLoading) {
+            if (isLoading) {
+                mProgress.setVisibility(View.VISIBLE);
+
+                if (isNetworkAvailable()) {
+                    // While we're waiting for results to load, show the string the user is
+                    // typing as the first result (just with an unknown taxon type)
+                    mResultList = new ArrayList<JSONObject>();
+                    mResultList.add(getCustomResult());
+                    notifyDataSetChanged();
                 }
-            });
+
+            } else {
+                mProgress.setVisibility(View.GONE);
+            }
         }
 
-        @Override
-        public Filter getFilter() {
-            Filter filter = new Filter() {
-                @Override
-                protected FilterResults performFiltering(CharSequence constraint) {
-                    FilterResults filterResults = new FilterResults();
-
-                    if (constraint != null) {
-                        if (constraint.length() == 0) {
-                            filterResults.values = new ArrayList<JSONObject>();
-                            filterResults.count = 0;
-                            
-                        } else {
-                            toggleLoading(true);
-
-                            // Retrieve the autocomplete results.
-                            ArrayList<JSONObject> results;
-                            mCurrentSearchString = (String) constraint;
-                            results = autocomplete(constraint.toString());
-
-                            if (!constraint.equals(mCurrentSearchString)) {
-                                // In the meanwhile, new searches were initiated by the user - ignore this result
-                                return null;
-                            }
+        public void setSearchString(String searchString) {
+            mCurrentSearchString = searchString;
+        }
 
-                            // Assign the data to the FilterResults
-                            filterResults.values = results;
-                            filterResults.count = results != null ? results.size() : 0;
-                        }
-                    }
+        public void setResults(List<JSONObject> results) {
+            mResultList = new ArrayList<JSONObject>(results);
 
-                    toggleLoading(false);
-                    
-                    return filterResults;
-                }
+            if ((mCurrentSearchString != null) && (mCurrentSearchString.length() > 0)) {
+                // Add in the current search string as a custom observation
+                mResultList.add(0, getCustomResult());
+            }
 
-                @Override
-                protected void publishResults(CharSequence constraint, final FilterResults results) {
-                    new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (results != null && results.count > 0 && results.values != null) {
-                                mResultList = (ArrayList<JSONObject>) results.values;
-                                if ((mCurrentSearchString != null) && (mCurrentSearchString.length() > 0)) {
-                                    // Add in the current search string as a custom observation
-                                    JSONObject customObs = new JSONObject();
-                                    try {
-                                        customObs.put("is_custom", true);
-                                        customObs.put("name", mCurrentSearchString);
-                                    } catch (JSONException e) {
-                                        e.printStackTrace();
-                                    }
-                                    mResultList.add(0, customObs);
-                                }
-
-                                if (mShowUnknown) mResultList.add(0, null);
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        notifyDataSetChanged();
-                                    }
-                                });
-                            } else {
-                                if ((results != null) && (results.values != null)) {
-                                    mResultList = (ArrayList<JSONObject>) results.values;
-                                    if ((mCurrentSearchString != null) && (mCurrentSearchString.length() > 0)) {
-                                        // Add in the current search string as a custom observation
-                                        JSONObject customObs = new JSONObject();
-                                        try {
-                                            customObs.put("is_custom", true);
-                                            customObs.put("name", mCurrentSearchString);
-                                        } catch (JSONException e) {
-                                            e.printStackTrace();
-                                        }
-                                        mResultList.add(customObs);
-                                    }
-
-                                    if (mShowUnknown) mResultList.add(0, null);
-
-                                }
-
-                                runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        notifyDataSetInvalidated();
-                                    }
-                                });
-                            }
+            if (mShowUnknown) mResultList.add(0, null);
 
-                        }
-                    }).start();
+            if (results.size() > 0) {
+                notifyDataSetChanged();
+            } else {
+                notifyDataSetInvalidated();
+            }
+        }
 
-                }};
-                
-                return filter;
+        public void clear() {
+            mResultList = new ArrayList<JSONObject>();
+            notifyDataSetInvalidated();
+        }
+
+        private JSONObject getCustomResult() {
+            JSONObject customObs = new JSONObject();
+            try {
+                customObs.put("is_custom", true);
+                customObs.put("name", mCurrentSearchString);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            return customObs;
         }
 
         
@@ -434,10 +289,12 @@ public class TaxonSearchActivity extends AppCompatActivity implements AdapterVie
         mAdapter = new TaxonAutoCompleteAdapter(getApplicationContext(), R.layout.taxon_result_item);
         final EditText autoCompView = (EditText) customView.findViewById(R.id.search_text);
         
+        mAutocompleteClient = new AutocompleteClient(this, new AutocompleteClient.TaxonSource(this));
+
         autoCompView.addTextChangedListener(new TextWatcher() {
             @Override
             public void onTextChanged(final CharSequence s, int start, int before, int count) {
-                if (mAdapter != null) mAdapter.getFilter().filter(s);
+                search(s.toString());
             }
             @Override
             public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
@@ -466,6 +323,40 @@ public class TaxonSearchActivity extends AppCompatActivity implements AdapterVie
         getListView().setOnItemClickListener(this);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAutocompleteClient.release();
+    }
+
+    private void search(String query) {
+        mAdapter.setSearchString(query);
+
+        if (query.length() == 0) {
+            mAutocompleteClient.cancel();
+            mAdapter.clear();
+            return;
+        }
+
+        if (!isNetworkAvailable()) {
+            mAutocompleteClient.cancel();
+            mAdapter.setResults(new ArrayList<JSONObject>());
+            return;
+        }
+
+        mAutocompleteClient.search(query, new AutocompleteClient.Callback() {
+            @Override
+            public void onResults(String query, List<JSONObject> results) {
+                mAdapter.setResults(results);
+            }
+
+            @Override
+            public void onLoading(boolean isLoading) {
+                mAdapter.toggleLoading(isLoading);
+            }
+        });
+    }
+
     public void onItemClick(AdapterView<?> adapterView, View v, int position, long id) {
         JSONObject item = (JSONObject) v.getTag();
         try {
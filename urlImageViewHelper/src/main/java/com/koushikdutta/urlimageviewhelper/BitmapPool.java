@@ -0,0 +1,112 @@
+package com.koushikdutta.urlimageviewhelper;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Pool of bitmaps that are no longer displayed (or cached), which can be reused when decoding new
+ * bitmaps (using {@link BitmapFactory.Options#inBitmap}) - this saves both allocations and GC pauses
+ * while scrolling through lists of images. Bounded by the total byte size of the pooled bitmaps.
+ */
+final class BitmapPool {
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<Bitmap>();
+    private final int mMaxSize;
+    private int mSize = 0;
+
+    BitmapPool(final int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Constants.HONEYCOMB;
+    }
+
+    synchronized void put(final Bitmap bitmap) {
+        if (!isSupported() || bitmap == null || bitmap.isRecycled() || !bitmap.isMutable())
+            return;
+
+        final int size = getSize(bitmap);
+        if (size > mMaxSize || mBitmaps.contains(bitmap))
+            return;
+
+        mBitmaps.addLast(bitmap);
+        mSize += size;
+        while (mSize > mMaxSize) {
+            final Bitmap evicted = mBitmaps.removeFirst();
+            mSize -= getSize(evicted);
+        }
+    }
+
+    // Sets the options' inBitmap to a pooled bitmap that can be reused for the decoded image (if any).
+    // Options should contain the original image dimensions (from an inJustDecodeBounds decode).
+    @TargetApi(Constants.HONEYCOMB)
+    synchronized void setInBitmap(final BitmapFactory.Options options) {
+        if (!isSupported())
+            return;
+
+        options.inMutable = true;
+
+        final Iterator<Bitmap> it = mBitmaps.iterator();
+        while (it.hasNext()) {
+            final Bitmap candidate = it.next();
+            if (canUseForInBitmap(candidate, options)) {
+                it.remove();
+                mSize -= getSize(candidate);
+                options.inBitmap = candidate;
+                return;
+            }
+        }
+    }
+
+    // Removes the pooled bitmap from the options (e.g. when decoding into it failed). Returns
+    // false if no pooled bitmap was set.
+    @TargetApi(Constants.HONEYCOMB)
+    static boolean clearInBitmap(final BitmapFactory.Options options) {
+        if (!isSupported() || options.inBitmap == null)
+            return false;
+        options.inBitmap = null;
+        return true;
+    }
+
+    synchronized void clear() {
+        mBitmaps.clear();
+        mSize = 0;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static boolean canUseForInBitmap(final Bitmap candidate, final BitmapFactory.Options options) {
+        if (candidate.isRecycled())
+            return false;
+
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Any bitmap that's large enough can be reused
+            final int width = options.outWidth / sampleSize;
+            final int height = options.outHeight / sampleSize;
+            final Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+            return width * height * getBytesPerPixel(config) <= candidate.getAllocationByteCount();
+        }
+
+        // Prior to KitKat, the reused bitmap must be of the exact same size (and no sub-sampling is allowed)
+        return sampleSize == 1 && candidate.getWidth() == options.outWidth && candidate.getHeight() == options.outHeight;
+    }
+
+    private static int getBytesPerPixel(final Bitmap.Config config) {
+        if (config == Bitmap.Config.ARGB_8888)
+            return 4;
+        else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444)
+            return 2;
+        else if (config == Bitmap.Config.ALPHA_8)
+            return 1;
+        return 4;
+    }
+
+    private static int getSize(final Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,437 @@
+package com.koushikdutta.urlimageviewhelper;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Disk tier of the image cache. All cached files live in a single directory, and are indexed by
+ * an append-only journal file - so lookups and cleanups never need to list the directory.
+ * Entries are evicted (least recently used first) once the total size exceeds the max size.
+ *
+ * The journal is read (and written) on a background thread - lookups (which happen on the UI thread)
+ * only use an in-memory index, and their READ lines are written to the journal in batches. Until the
+ * journal was read, lookups check for the cached file itself.
+ *
+ * A journal that ends with a truncated or garbled line (e.g. the process was killed while writing it)
+ * keeps the entries read up to that line, and is then rewritten.
+ *
+ * Journal lines:
+ *   CLEAN key size timestamp - a file was written
+ *   READ key                 - a file was accessed (for LRU ordering)
+ *   REMOVE key               - a file was deleted
+ */
+final class DiskCache {
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TEMP = "journal.tmp";
+    private static final String FILE_SUFFIX = ".urlimage";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    // Rewrite the journal once it has this many redundant lines
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+    // Write the READ lines of accessed entries once there are this many of them
+    private static final int PENDING_READS_FLUSH_THRESHOLD = 100;
+
+    static final class Entry {
+        final String key;
+        final long size;
+        final long timestamp;
+
+        Entry(final String key, final long size, final long timestamp) {
+            this.key = key;
+            this.size = size;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final File mDirectory;
+    private long mMaxSize;
+    private long mSize = 0;
+    private int mRedundantOpCount = 0;
+    private boolean mOpened = false;
+    private Writer mJournalWriter;
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+    // Lock-free copy of mEntries, for lookups - empty until the journal was read
+    private final ConcurrentHashMap<String, Entry> mIndex = new ConcurrentHashMap<String, Entry>();
+    private volatile boolean mIndexLoaded = false;
+    // Keys accessed since their READ lines were last written
+    private final ConcurrentLinkedQueue<String> mPendingReads = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger mPendingReadCount = new AtomicInteger(0);
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean(false);
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    DiskCache(final File directory, final long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    static String getKeyForUrl(final String url) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            final StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (final byte b: hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        }
+        catch (final NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        catch (final UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    File getFile(final String key) {
+        return new File(mDirectory, key + FILE_SUFFIX);
+    }
+
+    // Where a new file should be written to, before being committed
+    File getTempFile(final String key) {
+        return new File(mDirectory, key + FILE_SUFFIX + ".tmp");
+    }
+
+    // Reads the journal on the background thread (should be called once the cache is created)
+    void openAsync() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    synchronized void open() {
+        if (mOpened)
+            return;
+        mOpened = true;
+
+        mDirectory.mkdirs();
+        final File journal = new File(mDirectory, JOURNAL_FILE);
+        if (journal.exists()) {
+            try {
+                if (readJournal(journal)) {
+                    mJournalWriter = new BufferedWriter(new FileWriter(journal, true));
+                }
+                else {
+                    // Don't append to a garbled line - write the entries read so far to a new journal
+                    rebuildJournal();
+                }
+                mIndex.putAll(mEntries);
+                mIndexLoaded = true;
+                trimToSize();
+                flushJournal();
+                return;
+            }
+            catch (final IOException e) {
+                Log.w(Constants.LOGTAG, "Unreadable image cache journal - clearing cache", e);
+            }
+        }
+
+        // No (readable) journal - start over with an empty cache
+        deleteContents();
+        mEntries.clear();
+        mIndex.clear();
+        mSize = 0;
+        rebuildJournal();
+        mIndexLoaded = true;
+    }
+
+    // Doesn't block - only checks for the file itself while the journal is still being read
+    Entry get(final String key) {
+        final Entry entry = lookup(key);
+        if (entry == null)
+            return null;
+        mPendingReads.add(key);
+        if (mPendingReadCount.incrementAndGet() >= PENDING_READS_FLUSH_THRESHOLD)
+            flushReadsAsync();
+        return entry;
+    }
+
+    // Same as get, but without updating the LRU order (e.g. for checking the age of an entry that's
+    // already in the memory cache)
+    Entry peek(final String key) {
+        return lookup(key);
+    }
+
+    boolean contains(final String key) {
+        return lookup(key) != null;
+    }
+
+    private Entry lookup(final String key) {
+        final Entry entry = mIndex.get(key);
+        if (entry != null || mIndexLoaded)
+            return entry;
+
+        // The journal wasn't read yet - files are only renamed into place once fully written, so
+        // an existing file is a valid entry (and was written when it was last modified)
+        final File file = getFile(key);
+        final long timestamp = file.lastModified();
+        if (timestamp == 0)
+            return null;
+        return new Entry(key, file.length(), timestamp);
+    }
+
+    // Moves a fully-written temp file into the cache
+    synchronized boolean commit(final String key, final File tempFile) {
+        open();
+        writePendingReads();
+        final File file = getFile(key);
+        final Entry old = mEntries.remove(key);
+        mIndex.remove(key);
+        if (old != null)
+            mSize -= old.size;
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            if (old != null)
+                journal(REMOVE + ' ' + key);
+            flushJournal();
+            return false;
+        }
+
+        final Entry entry = new Entry(key, file.length(), System.currentTimeMillis());
+        mEntries.put(key, entry);
+        mIndex.put(key, entry);
+        mSize += entry.size;
+        journal(CLEAN + ' ' + key + ' ' + entry.size + ' ' + entry.timestamp);
+        trimToSize();
+        flushJournal();
+        return true;
+    }
+
+    synchronized void remove(final String key) {
+        open();
+        removeEntry(key);
+        flushJournal();
+    }
+
+    // Removes all entries that were written before the specified time
+    synchronized void removeOlderThan(final long timestamp) {
+        open();
+        final ArrayList<String> expired = new ArrayList<String>();
+        for (final Entry entry: mEntries.values()) {
+            if (entry.timestamp < timestamp)
+                expired.add(entry.key);
+        }
+        for (final String key: expired) {
+            removeEntry(key);
+        }
+        flushJournal();
+    }
+
+    // Applied on the background thread (once the journal was read)
+    void setMaxSize(final long maxSize) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DiskCache.this) {
+                    mMaxSize = maxSize;
+                    open();
+                    trimToSize();
+                    flushJournal();
+                }
+            }
+        });
+    }
+
+    synchronized long getSize() {
+        return mSize;
+    }
+
+    synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    private void removeEntry(final String key) {
+        final Entry entry = mEntries.remove(key);
+        mIndex.remove(key);
+        getFile(key).delete();
+        if (entry != null) {
+            mSize -= entry.size;
+            journal(REMOVE + ' ' + key);
+        }
+    }
+
+    private void flushReadsAsync() {
+        if (!mFlushScheduled.compareAndSet(false, true))
+            return;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mFlushScheduled.set(false);
+                synchronized (DiskCache.this) {
+                    open();
+                    writePendingReads();
+                    flushJournal();
+                }
+            }
+        });
+    }
+
+    // Updates the LRU order (and journal) with the entries accessed since the last time
+    private void writePendingReads() {
+        String key;
+        while ((key = mPendingReads.poll()) != null) {
+            mPendingReadCount.decrementAndGet();
+            if (mEntries.get(key) != null)
+                journal(READ + ' ' + key);
+        }
+    }
+
+    private void trimToSize() {
+        final Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            final Entry entry = it.next().getValue();
+            it.remove();
+            mIndex.remove(entry.key);
+            mSize -= entry.size;
+            getFile(entry.key).delete();
+            journal(REMOVE + ' ' + entry.key);
+        }
+    }
+
+    // Returns false if the journal ended with an invalid line (in which case it should be rewritten)
+    private boolean readJournal(final File journal) throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(journal), 8192);
+        int lineCount = 0;
+        boolean valid = true;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    valid = false;
+                    break;
+                }
+                final String key = parts[1];
+                if (CLEAN.equals(parts[0]) && parts.length == 4) {
+                    final Entry entry;
+                    try {
+                        entry = new Entry(key, Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+                    }
+                    catch (final NumberFormatException e) {
+                        valid = false;
+                        break;
+                    }
+                    final Entry old = mEntries.remove(key);
+                    if (old != null)
+                        mSize -= old.size;
+                    mEntries.put(key, entry);
+                    mSize += entry.size;
+                }
+                else if (READ.equals(parts[0])) {
+                    mEntries.get(key);
+                }
+                else if (REMOVE.equals(parts[0])) {
+                    final Entry old = mEntries.remove(key);
+                    if (old != null)
+                        mSize -= old.size;
+                }
+                else {
+                    valid = false;
+                    break;
+                }
+                lineCount++;
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        if (!valid)
+            Log.w(Constants.LOGTAG, "Invalid image cache journal line after " + lineCount + " lines - rewriting journal");
+        mRedundantOpCount = lineCount - mEntries.size();
+        return valid;
+    }
+
+    // Writes a compact journal (containing only the current entries, in LRU order)
+    private void rebuildJournal() {
+        try {
+            if (mJournalWriter != null)
+                mJournalWriter.close();
+
+            final File temp = new File(mDirectory, JOURNAL_FILE_TEMP);
+            final Writer writer = new BufferedWriter(new FileWriter(temp), 8192);
+            try {
+                for (final Entry entry: mEntries.values()) {
+                    writer.write(CLEAN + ' ' + entry.key + ' ' + entry.size + ' ' + entry.timestamp + '\n');
+                }
+            }
+            finally {
+                writer.close();
+            }
+
+            final File journal = new File(mDirectory, JOURNAL_FILE);
+            if (!temp.renameTo(journal))
+                throw new IOException("Failed to rename " + temp);
+
+            mJournalWriter = new BufferedWriter(new FileWriter(journal, true));
+            mRedundantOpCount = 0;
+        }
+        catch (final IOException e) {
+            Log.w(Constants.LOGTAG, "Failed to rebuild image cache journal", e);
+            mJournalWriter = null;
+        }
+    }
+
+    // Buffered - see flushJournal
+    private void journal(final String line) {
+        if (mJournalWriter == null)
+            return;
+        try {
+            mJournalWriter.write(line);
+            mJournalWriter.write('\n');
+        }
+        catch (final IOException e) {
+            Log.w(Constants.LOGTAG, "Failed to write to image cache journal", e);
+        }
+
+        mRedundantOpCount++;
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size())
+            rebuildJournal();
+    }
+
+    private void flushJournal() {
+        if (mJournalWriter == null)
+            return;
+        try {
+            mJournalWriter.flush();
+        }
+        catch (final IOException e) {
+            Log.w(Constants.LOGTAG, "Failed to write to image cache journal", e);
+        }
+    }
+
+    private void deleteContents() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null)
+            return;
+        for (final File file: files) {
+            file.delete();
+        }
+    }
+}
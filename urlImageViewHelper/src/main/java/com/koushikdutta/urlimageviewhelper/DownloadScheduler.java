@@ -0,0 +1,138 @@
+package com.koushikdutta.urlimageviewhelper;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs downloads on a fixed pool of worker threads. Queued downloads are run most recently
+ * requested first (LIFO), so the rows that were just scrolled into view are loaded before the ones
+ * that were flung past. Downloads are keyed by url: requesting a url that is already queued moves it
+ * to the front of the queue instead of downloading it twice, and queued downloads can be cancelled.
+ */
+final class DownloadScheduler {
+    private final class Task implements Runnable, Comparable<Task> {
+        final String mKey;
+        final Runnable mWork;
+        final ArrayList<Runnable> mCompletions = new ArrayList<Runnable>();
+        long mSequence;
+
+        Task(final String key, final Runnable work) {
+            mKey = key;
+            mWork = work;
+        }
+
+        @Override
+        public void run() {
+            final Runnable[] completions;
+            synchronized (DownloadScheduler.this) {
+                if (mQueued.get(mKey) == this)
+                    mQueued.remove(mKey);
+            }
+
+            try {
+                mWork.run();
+            }
+            finally {
+                synchronized (DownloadScheduler.this) {
+                    completions = mCompletions.toArray(new Runnable[mCompletions.size()]);
+                }
+                for (final Runnable completion: completions) {
+                    mHandler.post(completion);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(final Task another) {
+            // highest sequence (most recently requested) first
+            if (mSequence == another.mSequence)
+                return 0;
+            return mSequence > another.mSequence ? -1 : 1;
+        }
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // downloads that have not started yet
+    private final HashMap<String, Task> mQueued = new HashMap<String, Task>();
+    private long mSequence = 0;
+
+    DownloadScheduler(final int workers) {
+        mExecutor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "UrlImageViewHelper download #" + ++mCount);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues a download. The completion is run on the main thread once the work is done.
+     */
+    synchronized void schedule(final String key, final Runnable work, final Runnable completion) {
+        final Task queued = mQueued.get(key);
+        if (queued != null) {
+            queued.mCompletions.add(completion);
+            prioritize(key);
+            return;
+        }
+
+        final Task task = new Task(key, work);
+        task.mCompletions.add(completion);
+        task.mSequence = ++mSequence;
+        mQueued.put(key, task);
+        mExecutor.execute(task);
+    }
+
+    /**
+     * Moves a queued download to the front of the queue.
+     */
+    synchronized void prioritize(final String key) {
+        final Task task = mQueued.get(key);
+        if (task == null || !mExecutor.remove(task))
+            return;
+        task.mSequence = ++mSequence;
+        mExecutor.execute(task);
+    }
+
+    /**
+     * Cancels a download that hasn't started yet. Its completions will not be run.
+     * @return true if the download was cancelled, false if it is already running (or done).
+     */
+    synchronized boolean cancel(final String key) {
+        final Task task = mQueued.get(key);
+        if (task == null || !mExecutor.remove(task))
+            return false;
+        mQueued.remove(key);
+        return true;
+    }
+
+    void setWorkers(final int workers) {
+        if (workers > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(workers);
+            mExecutor.setCorePoolSize(workers);
+        }
+        else {
+            mExecutor.setCorePoolSize(workers);
+            mExecutor.setMaximumPoolSize(workers);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.koushikdutta.urlimageviewhelper;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -8,7 +9,6 @@ import java.util.ArrayList;
 import org.apache.http.NameValuePair;
 
 import android.content.Context;
-import android.os.AsyncTask;
 
 import com.koushikdutta.urlimageviewhelper.UrlImageViewHelper.RequestPropertiesCallback;
 
@@ -24,19 +24,50 @@ public class HttpUrlDownloader implements UrlDownloader {
     }
 
 
+    private static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 4;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    private final DownloadScheduler mScheduler = new DownloadScheduler(DEFAULT_MAX_CONCURRENT_DOWNLOADS);
+
+    /**
+     * Sets the number of images that are downloaded at the same time.
+     */
+    public void setMaxConcurrentDownloads(final int maxConcurrentDownloads) {
+        mScheduler.setWorkers(Math.max(1, maxConcurrentDownloads));
+    }
+
+    /**
+     * Cancels the download of a url, if it hasn't started yet.
+     * @return true if the download was cancelled (its completion will not be called).
+     */
+    public boolean cancel(final String url) {
+        return mScheduler.cancel(url);
+    }
+
+    /**
+     * Moves the download of a url to the front of the queue (if it hasn't started yet).
+     */
+    public void prioritize(final String url) {
+        mScheduler.prioritize(url);
+    }
+
     @Override
     public void download(final Context context, final String url, final String filename, final UrlDownloaderCallback callback, final Runnable completion) {
-        final AsyncTask<Void, Void, Void> downloader = new AsyncTask<Void, Void, Void>() {
+        final Runnable downloader = new Runnable() {
             @Override
-            protected Void doInBackground(final Void... params) {
+            public void run() {
+                HttpURLConnection urlConnection = null;
+                InputStream is = null;
                 try {
-                    InputStream is = null;
-
-                    String thisUrl = url;
-                    HttpURLConnection urlConnection;
+                    URL u = new URL(url);
+                    int redirects = 0;
                     while (true) {
-                        final URL u = new URL(thisUrl);
                         urlConnection = (HttpURLConnection)u.openConnection();
+                        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                        urlConnection.setReadTimeout(READ_TIMEOUT_MS);
+                        // redirects between protocols (http -> https) aren't followed automatically, hence the loop
                         urlConnection.setInstanceFollowRedirects(true);
 
                         if (mRequestPropertiesCallback != null) {
@@ -48,32 +79,53 @@ public class HttpUrlDownloader implements UrlDownloader {
                             }
                         }
 
-                        if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_MOVED_TEMP && urlConnection.getResponseCode() != HttpURLConnection.HTTP_MOVED_PERM)
+                        final int responseCode = urlConnection.getResponseCode();
+                        if (!isRedirect(responseCode))
                             break;
-                        thisUrl = urlConnection.getHeaderField("Location");
+                        final String location = urlConnection.getHeaderField("Location");
+                        urlConnection.disconnect();
+                        if (location == null || ++redirects > MAX_REDIRECTS) {
+                            UrlImageViewHelper.clog("Too many redirects: " + url);
+                            return;
+                        }
+                        // location may be relative
+                        u = new URL(u, location);
                     }
 
                     if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
                         UrlImageViewHelper.clog("Response Code: " + urlConnection.getResponseCode());
-                        return null;
+                        return;
                     }
                     is = urlConnection.getInputStream();
                     callback.onDownloadComplete(HttpUrlDownloader.this, is, null);
-                    return null;
                 }
                 catch (final Throwable e) {
                     e.printStackTrace();
-                    return null;
                 }
-            }
-
-            @Override
-            protected void onPostExecute(final Void result) {
-                completion.run();
+                finally {
+                    // closing the (fully read) stream returns the connection to the keep-alive pool
+                    if (is != null) {
+                        try {
+                            is.close();
+                        }
+                        catch (final IOException e) {
+                        }
+                    }
+                    else if (urlConnection != null) {
+                        urlConnection.disconnect();
+                    }
+                }
             }
         };
 
-        UrlImageViewHelper.executeTask(downloader);
+        mScheduler.schedule(url, downloader, completion);
+    }
+
+    private static boolean isRedirect(final int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_MOVED_TEMP
+                || responseCode == HttpURLConnection.HTTP_MOVED_PERM
+                || responseCode == HttpURLConnection.HTTP_SEE_OTHER
+                || responseCode == 307;
     }
 
     @Override
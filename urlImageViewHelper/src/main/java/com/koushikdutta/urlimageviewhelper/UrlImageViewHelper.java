@@ -7,7 +7,6 @@ import android.content.res.AssetManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.BitmapFactory.Options;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
@@ -23,6 +22,7 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 
 public final class UrlImageViewHelper {
     static void clog(String format, Object... args) {
@@ -91,22 +91,38 @@ public final class UrlImageViewHelper {
         InputStream stream = null;
         clog("Decoding: " + url + " " + filename);
         try {
-            BitmapFactory.Options o = null;
-            if (mUseBitmapScaling) {
-                o = new BitmapFactory.Options();
+            final BitmapFactory.Options o = new BitmapFactory.Options();
+            if (mUseBitmapScaling || BitmapPool.isSupported()) {
                 o.inJustDecodeBounds = true;
                 stream = new BufferedInputStream(new FileInputStream(filename), 8192);
                 BitmapFactory.decodeStream(stream, null, o);
                 stream.close();
-                int scale = 0;
-                while ((o.outWidth >> scale) > targetWidth || (o.outHeight >> scale) > targetHeight) {
-                    scale++;
+                o.inJustDecodeBounds = false;
+                if (mUseBitmapScaling) {
+                    int scale = 0;
+                    while ((o.outWidth >> scale) > targetWidth || (o.outHeight >> scale) > targetHeight) {
+                        scale++;
+                    }
+                    o.inSampleSize = 1 << scale;
                 }
-                o = new Options();
-                o.inSampleSize = 1 << scale;
+                // try and decode into a bitmap that is no longer in use
+                mBitmapPool.setInBitmap(o);
             }
             stream = new BufferedInputStream(new FileInputStream(filename), 8192);
-            final Bitmap bitmap = BitmapFactory.decodeStream(stream, null, o);
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapFactory.decodeStream(stream, null, o);
+            }
+            catch (final IllegalArgumentException e) {
+                // the pooled bitmap could not be reused after all - decode into a new bitmap
+                if (!BitmapPool.clearInBitmap(o))
+                    throw e;
+                stream.close();
+                stream = new BufferedInputStream(new FileInputStream(filename), 8192);
+                bitmap = BitmapFactory.decodeStream(stream, null, o);
+            }
+            if (bitmap == null)
+                return null;
             clog(String.format("Loaded bitmap (%dx%d).", bitmap.getWidth(), bitmap.getHeight()));
             return bitmap;
         } catch (final IOException e) {
@@ -368,7 +384,7 @@ public final class UrlImageViewHelper {
     private static boolean mHasCleaned = false;
 
     public static String getFilenameForUrl(final String url) {
-        return url.hashCode() + ".urlimage";
+        return DiskCache.getKeyForUrl(url) + ".urlimage";
     }
 
     /**
@@ -377,29 +393,69 @@ public final class UrlImageViewHelper {
      * @param age The max age of a file. Files older than this age
      *              will be removed.
      */
-    public static void cleanup(final Context context, long age) {
+    public static void cleanup(final Context context, final long age) {
         if (mHasCleaned) {
             return;
         }
         mHasCleaned = true;
-        try {
-            // purge any *.urlimage files over a week old
-            final String[] files = context.getFilesDir().list();
-            if (files == null) {
-                return;
-            }
-            for (final String file : files) {
-                if (!file.endsWith(".urlimage")) {
-                    continue;
+        prepareCaches(context);
+        final AsyncTask<Void, Void, Void> cleaner = new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(final Void... params) {
+                try {
+                    // the disk cache index knows the age of every file, so there's no need to list the directory
+                    mDiskCache.removeOlderThan(System.currentTimeMillis() - age);
+                } catch (final Exception e) {
+                    e.printStackTrace();
                 }
+                return null;
+            }
+        };
+        executeTask(cleaner);
+    }
 
-                final File f = new File(context.getFilesDir().getAbsolutePath() + '/' + file);
-                if (System.currentTimeMillis() > f.lastModified() + age) {
-                    f.delete();
+    /**
+     * Sets the max total size of the images cached on disk. Least recently used
+     * images are removed once the cache grows larger than that.
+     * @param context
+     * @param maxSize Max size, in bytes.
+     */
+    public static void setMaxDiskCacheSize(final Context context, final long maxSize) {
+        prepareCaches(context);
+        mDiskCache.setMaxSize(maxSize);
+    }
+
+    private static void prepareCaches(final Context context) {
+        if (mMemoryCache == null) {
+            final int heapSize = getHeapSize(context);
+            mMemoryCache = new LruBitmapCache(heapSize / 8) {
+                @Override
+                protected void entryRemoved(final boolean evicted, final String key, final Bitmap oldValue, final Bitmap newValue) {
+                    // explicitly removed bitmaps are returned to the caller (see remove), so don't reuse those
+                    if (evicted || (newValue != null && newValue != oldValue))
+                        recycleIfUnused(oldValue);
                 }
-            }
-        } catch (final Exception e) {
-            e.printStackTrace();
+            };
+            mBitmapPool = new BitmapPool(heapSize / 16);
+        }
+        if (mDiskCache == null) {
+            final File directory = new File(context.getFilesDir(), DISK_CACHE_DIR);
+            if (!directory.exists())
+                deleteLegacyFiles(context);
+            mDiskCache = new DiskCache(directory, DEFAULT_MAX_DISK_CACHE_SIZE);
+            // read the journal in the background, so cache lookups on the UI thread never wait for the disk
+            mDiskCache.openAsync();
+        }
+    }
+
+    // images used to be cached directly in the files dir, with no index
+    private static void deleteLegacyFiles(final Context context) {
+        final File[] files = context.getFilesDir().listFiles();
+        if (files == null)
+            return;
+        for (final File file: files) {
+            if (file.getName().endsWith(".urlimage"))
+                file.delete();
         }
     }
 
@@ -412,24 +468,14 @@ public final class UrlImageViewHelper {
         cleanup(context, CACHE_DURATION_ONE_WEEK);
     }
     
-    private static boolean checkCacheDuration(File file, long cacheDurationMs) {
-        return cacheDurationMs == CACHE_DURATION_INFINITE || System.currentTimeMillis() < file.lastModified() + cacheDurationMs;
+    private static boolean checkCacheDuration(DiskCache.Entry entry, long cacheDurationMs) {
+        return cacheDurationMs == CACHE_DURATION_INFINITE || System.currentTimeMillis() < entry.timestamp + cacheDurationMs;
     }
     
     public static Bitmap getCachedBitmap(String url) {
-        if (url == null)
+        if (url == null || mMemoryCache == null)
             return null;
-        Bitmap ret = null;
-        if (mDeadCache != null)
-            ret = mDeadCache.get(url);
-        if (ret != null)
-            return ret;
-        if (mLiveCache != null) {
-            Drawable drawable = mLiveCache.get(url);
-            if (drawable instanceof ZombieDrawable)
-                return ((ZombieDrawable)drawable).getBitmap();
-        }
-        return null;
+        return mMemoryCache.get(url);
     }
 
     /**
@@ -457,7 +503,7 @@ public final class UrlImageViewHelper {
         // disassociate this ImageView from any pending downloads
         if (isNullOrEmpty(url)) {
             if (imageView != null) {
-                mPendingViews.remove(imageView);
+                detachPendingView(imageView, null);
                 imageView.setImageDrawable(defaultDrawable);
             }
             return;
@@ -470,32 +516,30 @@ public final class UrlImageViewHelper {
         tw = mMetrics.widthPixels;
         th = mMetrics.heightPixels;
 
-        final String filename = context.getFileStreamPath(getFilenameForUrl(url)).getAbsolutePath();
-        final File file = new File(filename);
+        prepareCaches(context);
+        final String key = DiskCache.getKeyForUrl(url);
+        final File file = mDiskCache.getFile(key);
+        final String filename = file.getAbsolutePath();
 
-        // check the dead and live cache to see if we can find this url's bitmap
-        if (mDeadCache == null) {
-            mDeadCache = new LruBitmapCache(getHeapSize(context) / 8);
-        }
+        // check the memory cache (and the failed urls) to see if we can find this url's bitmap
         Drawable drawable = null;
-        Bitmap bitmap = mDeadCache.remove(url);
-        if (bitmap != null) {
-            clog("zombie load: " + url);
-        } else {
-            drawable = mLiveCache.get(url);
+        Bitmap bitmap = mMemoryCache.get(url);
+        if (bitmap == null) {
+            drawable = mFailedCache.get(url);
         }
 
         // if something was found, verify it was fresh.
         if (drawable != null || bitmap != null) {
             clog("Cache hit on: " + url);
             // if the file age is older than the cache duration, force a refresh.
-            // note that the file must exist, otherwise it is using a default.
-            // not checking for file existence would do a network call on every
+            // note that the file must be in the disk cache, otherwise it is using a default.
+            // not checking for that would do a network call on every
             // 404 or failed load.
-            if (file.exists() && !checkCacheDuration(file, cacheDurationMs)) {
+            final DiskCache.Entry entry = mDiskCache.peek(key);
+            if (entry != null && !checkCacheDuration(entry, cacheDurationMs)) {
                 clog("Cache hit, but file is stale. Forcing reload: " + url);
-                if (drawable != null && drawable instanceof ZombieDrawable)
-                    ((ZombieDrawable)drawable).headshot();
+                if (bitmap != null)
+                    mMemoryCache.remove(url);
                 drawable = null;
                 bitmap = null;
             }
@@ -507,18 +551,8 @@ public final class UrlImageViewHelper {
         // if the bitmap is fresh, set the imageview
         if (drawable != null || bitmap != null) {
             if (imageView != null) {
-                mPendingViews.remove(imageView);
-                if (drawable instanceof ZombieDrawable) {
-                    Bitmap newBitmap = ((ZombieDrawable) drawable).getBitmap();
-                    if (callback != null) {
-                        newBitmap = callback.onPreSetBitmap(imageView, newBitmap, url, true);
-                    }
-                    if (newBitmap != ((ZombieDrawable) drawable).getBitmap()) {
-                        drawable = new ZombieDrawable(url, mResources, newBitmap);
-                    } else {
-                        drawable = ((ZombieDrawable) drawable).clone(mResources);
-                    }
-                } else if (bitmap != null) {
+                detachPendingView(imageView, url);
+                if (bitmap != null) {
                     if (callback != null) {
                         bitmap = callback.onPreSetBitmap(imageView, bitmap, url, true);
                     }
@@ -529,12 +563,8 @@ public final class UrlImageViewHelper {
             }
             // invoke any bitmap callbacks
             if (callback != null) {
-                // when invoking the callback from cache, check to see if this was
-                // a drawable that was successfully loaded from the filesystem or url.
-                // this will be indicated by it being a ZombieDrawable (ie, something we are managing).
-                // The default drawables will be BitmapDrawables (or whatever else the user passed in).
-                if (bitmap == null && drawable instanceof ZombieDrawable)
-                    bitmap = ((ZombieDrawable)drawable).getBitmap();
+                // when invoking the callback from cache, bitmap will be null if this was
+                // a default drawable (of a url that failed to load)
                 callback.onLoaded(imageView, bitmap, url, true);
             }
             return;
@@ -550,8 +580,13 @@ public final class UrlImageViewHelper {
         clog("Waiting for " + url + " " + imageView);
         if (imageView != null) {
             imageView.setImageDrawable(defaultDrawable);
+            detachPendingView(imageView, url);
             mPendingViews.put(imageView, url);
         }
+        else {
+            // there's no view to tell whether this download is still needed, so it can't be cancelled
+            mCallbackDownloads.add(url);
+        }
 
         final ArrayList<ImageView> currentDownload = mPendingDownloads.get(url);
         if (currentDownload != null && currentDownload.size() != 0) {
@@ -560,9 +595,11 @@ public final class UrlImageViewHelper {
             // When the url is downloaded, it sets the imagedrawable for
             // every view in the list. It needs to also validate that
             // the imageview is still waiting for this url.
-            if (imageView != null) {
+            if (imageView != null && !currentDownload.contains(imageView)) {
                 currentDownload.add(imageView);
             }
+            // it's wanted again - load it before the ones that were scrolled past
+            mHttpDownloader.prioritize(url);
             return;
         }
 
@@ -583,26 +620,33 @@ public final class UrlImageViewHelper {
                         return;
                     String targetFilename = filename;
                     if (in != null) {
+                        // write to a temp file, so a partially written file never ends up in the cache
+                        final File tempFile = mDiskCache.getTempFile(key);
                         in = new BufferedInputStream(in, 8192);
-                        OutputStream fout = new BufferedOutputStream(new FileOutputStream(filename), 8192);
+                        OutputStream fout = new BufferedOutputStream(new FileOutputStream(tempFile), 8192);
                         copyStream(in, fout);
                         fout.close();
+                        if (downloader != null && !downloader.allowCache())
+                            targetFilename = tempFile.getAbsolutePath();
+                        else
+                            mDiskCache.commit(key, tempFile);
                     }
                     else {
                         targetFilename = existingFilename;
                     }
                     result = loadBitmapFromStream(context, url, targetFilename, targetWidth, targetHeight);
+                    if (result == null && filename.equals(targetFilename))
+                        mDiskCache.remove(key);
                 }
                 catch (final Exception ex) {
                     // always delete busted files when we throw.
-                    new File(filename).delete();
+                    mDiskCache.remove(key);
                     if (Constants.LOG_ENABLED)
                         Log.e(Constants.LOGTAG, "Error loading " + url, ex);
                 }
                 finally {
                     // if we're not supposed to cache this thing, delete the temp file.
-                    if (downloader != null && !downloader.allowCache())
-                        new File(filename).delete();
+                    mDiskCache.getTempFile(key).delete();
                 }
             }
         };
@@ -622,10 +666,11 @@ public final class UrlImageViewHelper {
                 if (usableResult == null) {
                     clog("No usable result, defaulting " + url);
                     usableResult = defaultDrawable;
-                    mLiveCache.put(url, usableResult);
+                    if (usableResult != null)
+                        mFailedCache.put(url, usableResult);
                 }
                 mPendingDownloads.remove(url);
-//                mLiveCache.put(url, usableResult);
+                mCallbackDownloads.remove(url);
                 if (callback != null && imageView == null)
                     callback.onLoaded(null, loader.result, url, false);
                 int waitingCount = 0;
@@ -653,10 +698,11 @@ public final class UrlImageViewHelper {
         };
 
 
-        if (file.exists()) {
+        final DiskCache.Entry entry = mDiskCache.get(key);
+        if (entry != null) {
             try {
-                if (checkCacheDuration(file, cacheDurationMs)) {
-                    clog("File Cache hit on: " + url + ". " + (System.currentTimeMillis() - file.lastModified()) + "ms old.");
+                if (checkCacheDuration(entry, cacheDurationMs)) {
+                    clog("File Cache hit on: " + url + ". " + (System.currentTimeMillis() - entry.timestamp) + "ms old.");
 
                     final AsyncTask<Void, Void, Void> fileloader = new AsyncTask<Void, Void, Void>() {
                         @Override
@@ -726,9 +772,51 @@ public final class UrlImageViewHelper {
         mRequestPropertiesCallback = callback;
     }
 
-    private static DrawableCache mLiveCache = DrawableCache.getInstance();
-    private static LruBitmapCache mDeadCache;
-    private static HashSet<Bitmap> mAllCache = new HashSet<Bitmap>();
+    private static final String DISK_CACHE_DIR = "urlimages";
+    private static final long DEFAULT_MAX_DISK_CACHE_SIZE = 50 * 1024 * 1024;
+
+    // memory tier - strong references, bounded by the total byte size of the bitmaps
+    private static LruBitmapCache mMemoryCache;
+    // bitmaps that are neither cached nor displayed - reused when decoding new bitmaps
+    private static BitmapPool mBitmapPool;
+    // disk tier
+    private static DiskCache mDiskCache;
+    // default drawables of urls that failed to load (so they won't be retried on every bind)
+    private static LruCache<String, Drawable> mFailedCache = new LruCache<String, Drawable>(100);
+    // number of live drawables per displayed bitmap
+    private static final IdentityHashMap<Bitmap, Integer> mDisplayedBitmaps = new IdentityHashMap<Bitmap, Integer>();
+
+    private static void acquireBitmap(final Bitmap bitmap) {
+        synchronized (mDisplayedBitmaps) {
+            final Integer count = mDisplayedBitmaps.get(bitmap);
+            mDisplayedBitmaps.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
+
+    private static void releaseBitmap(final String url, final Bitmap bitmap) {
+        synchronized (mDisplayedBitmaps) {
+            final Integer count = mDisplayedBitmaps.get(bitmap);
+            if (count == null)
+                return;
+            if (count > 1) {
+                mDisplayedBitmaps.put(bitmap, count - 1);
+                return;
+            }
+            mDisplayedBitmaps.remove(bitmap);
+        }
+        // still in the memory cache - it will be pooled once evicted
+        if (mMemoryCache.get(url) == bitmap)
+            return;
+        mBitmapPool.put(bitmap);
+    }
+
+    private static void recycleIfUnused(final Bitmap bitmap) {
+        synchronized (mDisplayedBitmaps) {
+            if (mDisplayedBitmaps.containsKey(bitmap))
+                return;
+        }
+        mBitmapPool.put(bitmap);
+    }
 
     private static int getHeapSize(final Context context) {
         return ((ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryClass() * 1024 * 1024;
@@ -740,47 +828,28 @@ public final class UrlImageViewHelper {
      * @return The bitmap removed, if any.
      */
     public static Bitmap remove(String url) {
-        new File(getFilenameForUrl(url)).delete();
-        
-        Drawable drawable = mLiveCache.remove(url);
-        if (drawable instanceof ZombieDrawable) {
-            ZombieDrawable zombie = (ZombieDrawable)drawable;
-            Bitmap ret = zombie.getBitmap();
-            zombie.headshot();
-            return ret;
-        }
-        
-        return null;
+        if (mDiskCache != null)
+            mDiskCache.remove(DiskCache.getKeyForUrl(url));
+        mFailedCache.remove(url);
+
+        if (mMemoryCache == null)
+            return null;
+        return mMemoryCache.remove(url);
     }
     
     /***
-     * ZombieDrawable refcounts Bitmaps by hooking the finalizer.
+     * ZombieDrawable refcounts Bitmaps by hooking the finalizer, so a bitmap
+     * is only reused (see {@link BitmapPool}) once no drawable is displaying it.
      *
      */
     private static class ZombieDrawable extends BitmapDrawable {
-        private static class Brains {
-            int mRefCounter;
-            boolean mHeadshot;
-        }
         public ZombieDrawable(final String url, Resources resources, final Bitmap bitmap) {
-            this(url, resources, bitmap, new Brains());
-        }
-
-        Brains mBrains;
-        private ZombieDrawable(final String url, Resources resources, final Bitmap bitmap, Brains brains) {
             super(resources, bitmap);
             mUrl = url;
-            mBrains = brains;
 
-            mAllCache.add(bitmap);
-            mDeadCache.remove(url);
-            mLiveCache.put(url, this);
-            
-            mBrains.mRefCounter++;
-        }
-        
-        public ZombieDrawable clone(Resources resources) {
-            return new ZombieDrawable(mUrl, resources, getBitmap(), mBrains);
+            acquireBitmap(bitmap);
+            mFailedCache.remove(url);
+            mMemoryCache.put(url, bitmap);
         }
 
         String mUrl;
@@ -789,22 +858,8 @@ public final class UrlImageViewHelper {
         protected void finalize() throws Throwable {
             super.finalize();
 
-            mBrains.mRefCounter--;
-            if (mBrains.mRefCounter == 0) {
-                if (!mBrains.mHeadshot)
-                    mDeadCache.put(mUrl, getBitmap());
-                mAllCache.remove(getBitmap());
-                mLiveCache.remove(mUrl);
-                clog("Zombie GC event " + mUrl);
-            }
-        }
-
-        // kill this zombie, forever.
-        public void headshot() {
-            clog("BOOM! Headshot: " + mUrl);
-            mBrains.mHeadshot = true;
-            mLiveCache.remove(mUrl);
-            mAllCache.remove(getBitmap());
+            releaseBitmap(mUrl, getBitmap());
+            clog("Zombie GC event " + mUrl);
         }
     }
 
@@ -825,6 +880,24 @@ public final class UrlImageViewHelper {
         return mPendingDownloads.size();
     }
 
+    // Disassociates the view from the url it was waiting for. If no one else is waiting for that url
+    // anymore (e.g. the view was recycled by a list), its download is cancelled (if it hasn't started yet).
+    private static void detachPendingView(final ImageView imageView, final String newUrl) {
+        final String pendingUrl = mPendingViews.remove(imageView);
+        if (pendingUrl == null || pendingUrl.equals(newUrl))
+            return;
+        final ArrayList<ImageView> waiting = mPendingDownloads.get(pendingUrl);
+        if (waiting == null)
+            return;
+        waiting.remove(imageView);
+        if (waiting.isEmpty() && !mCallbackDownloads.contains(pendingUrl) && mHttpDownloader.cancel(pendingUrl)) {
+            clog("Cancelled download of " + pendingUrl);
+            mPendingDownloads.remove(pendingUrl);
+        }
+    }
+
     private static Hashtable<ImageView, String> mPendingViews = new Hashtable<ImageView, String>();
     private static Hashtable<String, ArrayList<ImageView>> mPendingDownloads = new Hashtable<String, ArrayList<ImageView>>();
+    // urls that are (also) downloaded for a callback with no view
+    private static HashSet<String> mCallbackDownloads = new HashSet<String>();
 }